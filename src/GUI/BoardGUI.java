@@ -1,6 +1,14 @@
 package GUI;
 
+import archive.PositionIndex;
+import engine.Analysis;
+import engine.AnalysisListener;
+import engine.Engine;
+import engine.Move;
+import engine.SearchBoard;
+import engine.SearchInfo;
 import game.Board;
+import game.Fen;
 import game.Piece;
 import game.Position;
 import javafx.application.Platform;
@@ -16,8 +24,13 @@ import javafx.scene.layout.HBox;
 import javafx.scene.paint.Color;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
+import metrics.FrameEvent;
 import socket.MSocket;
 
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
 /**
  * Class {@code BoardGUI}
  * Chessboard interface control,
@@ -27,6 +40,7 @@ import socket.MSocket;
  * @see Board
  * @see MainGUI
  * @see MSocket
+ * @see Engine
  */
 public class BoardGUI {
 
@@ -35,6 +49,16 @@ public class BoardGUI {
      */
     public static final int TILE_SIZE = 50;
 
+    /**
+     * send the snapshot of the board to spectators every few steps
+     */
+    public static final int SNAPSHOT_INTERVAL = 10;
+
+    /**
+     * messages of the draws, in the order of {@code Board.Draw}
+     */
+    private static final String[] DRAWS = {"三次重复局面", "五十回合无吃子和兵的移动", "子力不足以将死", "残局库判和"};
+
     /**
      * value of colors
      */
@@ -71,10 +95,48 @@ public class BoardGUI {
      * online-play arguments
      */
     private boolean online;
+    private boolean spectator;
     private Piece.Color playerColor;
     private MSocket socket;
     private Piece.Type promotion;
 
+    /**
+     * the computer opponent, {@code null} if none
+     */
+    private Engine engine;
+
+    /**
+     * the computer analysing during the turn of the online opponent, {@code null} if not pondering
+     */
+    private Engine analyser;
+
+    /**
+     * the latest analysis not shown yet, the FX thread is asked to show it only once
+     */
+    private final AtomicReference<String> analysis = new AtomicReference<>();
+
+    /**
+     * analyses of an earlier turn are not shown
+     */
+    private volatile int analysisId;
+
+    /**
+     * the latest result of the analyser, its first move is the expected move of the opponent
+     */
+    private volatile SearchInfo lastAnalysis;
+
+    /**
+     * multi-PV analysis of the record being watched, {@code null} if not analysing
+     */
+    private Analysis review;
+    private final AnalysisListener reviewListener = this::reviewed;
+    private final AtomicReference<String> reviewText = new AtomicReference<>();
+
+    /**
+     * key of the position of the record analysed, the lines of the other positions are not shown
+     */
+    private volatile long reviewKey;
+
     /**
      * record-read arguments
      */
@@ -91,6 +153,8 @@ public class BoardGUI {
     private TextArea blackOutput;
     @FXML
     private TextArea whiteOutput;
+    @FXML
+    private Label analysisLabel;
 
     @FXML
     private void initialize() {
@@ -108,9 +172,12 @@ public class BoardGUI {
      * draw the canvas
      */
     private void draw() {
+        FrameEvent event = new FrameEvent();
+        event.begin();
         drawBoard();
 
-        for (Piece piece : board.getAllPieces()) {
+        ArrayList<Piece> pieces = board.getAllPieces();
+        for (Piece piece : pieces) {
             drawPiece(piece);
         }
 
@@ -119,6 +186,12 @@ public class BoardGUI {
             context.fillRect(movingPiece.getPosition().x * TILE_SIZE, movingPiece.getPosition().y * TILE_SIZE, TILE_SIZE, TILE_SIZE);
             context.drawImage(movingPiece.getImage(), draggedPieceX - TILE_SIZE / 2, draggedPieceY - TILE_SIZE / 2);
         }
+        if (event.shouldCommit()) {
+            event.pieces = pieces.size();
+            event.dragging = isDragging;
+            event.step = board.getStep();
+            event.commit();
+        }
     }
 
     private void drawPiece(Piece piece) {
@@ -216,12 +289,20 @@ public class BoardGUI {
      */
     private void move(Position start, Position end) {
         if (board.move(start, end)) {
+            if (engine != null) {
+                promotion = null;
+            }
             check();
-            changeTurn();
+            //和棋的一步也要发给对方
             if (online && board.getTurn() != playerColor) {
                 sendMove(start, end);
                 draw();
             }
+            if (board.isOver()) {
+                checkGameEnd();
+            } else {
+                changeTurn();
+            }
         } else {
             checkGameEnd();
         }
@@ -252,17 +333,23 @@ public class BoardGUI {
                     break;
             }
         }
-        if (board.move(start, end)) {
+        boolean moved = board.move(start, end);
+        if (moved) {
             check();
-            changeTurn();
-        } else {
-            checkGameEnd();
         }
         movingPiece = null;
         //回合已经交换
-        if (online && board.getTurn() != playerColor) {
+        if (online && !spectator && board.getTurn() != playerColor) {
             sendMove(start, end);
         }
+        if (moved && !board.isOver()) {
+            changeTurn();
+        } else if (spectator && !board.isOver()) {
+            //观战时走子被拒绝说明局面不同步，继续接收，房间的下一个快照会纠正
+            waitMove();
+        } else {
+            checkGameEnd();
+        }
         draw();
     }
 
@@ -285,7 +372,7 @@ public class BoardGUI {
      * @return the chosen result
      */
     public Piece.Type promotion() {
-        if (online && promotion != null) {
+        if ((online || engine != null) && promotion != null) {
             Piece.Type tmp = promotion;
             promotion = null;
             return tmp;
@@ -314,6 +401,9 @@ public class BoardGUI {
         if (online && board.getTurn() != playerColor) {
             setBoardDisable(true);
             waitMove();
+        } else if (engine != null && board.getTurn() != playerColor) {
+            setBoardDisable(true);
+            think();
         } else {
             setBoardDisable(false);
         }
@@ -330,7 +420,19 @@ public class BoardGUI {
     }
 
     public void gameStart(MainGUI mainGUI) {
+        if (engine != null) {
+            engine.stop();
+            engine = null;
+        }
+        if (analyser != null) {
+            analyser.stop();
+            analyser = null;
+        }
+        clearAnalysis();
         board = new Board(this);
+        //联机对局由服务器判定
+        board.setAdjudicator(online ? null : mainGUI.getTablebase());
+        spectator = false;
         blackLabel.getStyleClass().remove("border");
         setBoardDisable(false);
         isDragging = false;
@@ -346,6 +448,7 @@ public class BoardGUI {
         playerColor = color;
         this.socket = socket;
         gameStart(mainGUI);
+        analyser = mainGUI.isPondering() ? mainGUI.newEngine() : null;
 
         if (color != Piece.Color.white) {
             setBoardDisable(true);
@@ -353,9 +456,64 @@ public class BoardGUI {
         }
     }
 
+    /**
+     * play against the computer
+     *
+     * @param mainGUI mainGUI
+     * @param color   color of the player
+     * @param engine  the computer opponent
+     */
+    public void engineStart(MainGUI mainGUI, Piece.Color color, Engine engine) {
+        online = false;
+        playerColor = color;
+        gameStart(mainGUI);
+        this.engine = engine;
+
+        if (color != Piece.Color.white) {
+            setBoardDisable(true);
+            think();
+        }
+    }
+
+    /**
+     * watch an online game, the board is never enabled
+     *
+     * @param mainGUI mainGUI
+     * @param socket  socket watching the room
+     */
+    public void spectateStart(MainGUI mainGUI, MSocket socket) {
+        online = true;
+        playerColor = null;
+        this.socket = socket;
+        gameStart(mainGUI);
+        spectator = true;
+        setBoardDisable(true);
+        waitMove();
+    }
+
+    /**
+     * only used when watching,
+     * replace the board with the snapshot sent by the room
+     *
+     * @param message snapshot message, {@code "S [seq] [fen]"}
+     */
+    private void resync(String message) {
+        board.setFen(new Fen(message.split(" ", 3)[2]));
+        movingPiece = null;
+        changeTurn();
+        draw();
+    }
+
     private void checkGameEnd() {
-        if (board.gameEnd() != null) {
+        if (board.isOver()) {
+            if (engine != null) {
+                engine.stop();
+            }
+            clearAnalysis();
             setBoardDisable(true);
+            if (board.getDraw() != null) {
+                mainGUI.sendMessage(DRAWS[board.getDraw().ordinal()]);
+            }
             mainGUI.gameEnd(board.gameEnd());
         }
     }
@@ -369,8 +527,14 @@ public class BoardGUI {
      */
     private void waitMove() {
         mainGUI.sendMessage("等待对方走子...");
+        if (analyser != null && !spectator) {
+            ponder(analyser, Move.NONE);
+        }
         new Thread(() -> {
             String result = socket.receive();
+            if (analyser != null) {
+                analyser.stop();
+            }
             switch (result) {
                 case "Quit":
                     mainGUI.sendMessage("对方已退出房间");
@@ -380,12 +544,163 @@ public class BoardGUI {
                     mainGUI.sendMessage("连接中断");
                     Platform.runLater(() -> mainGUI.exitRoom());
                     break;
+                case MSocket.CLOSED:
+                    break;
                 default:
-                    Platform.runLater(() -> move(result));
+                    if (result.startsWith("S ")) {
+                        Platform.runLater(() -> resync(result));
+                        break;
+                    }
+                    if (result.startsWith("Flag ")) {
+                        Piece.Color loser = Piece.Color.valueOf(result.substring(5));
+                        mainGUI.sendMessage((loser == Piece.Color.white ? "白方" : "黑方") + "超时");
+                        Platform.runLater(() -> {
+                            setBoardDisable(true);
+                            mainGUI.gameEnd(Piece.changeColor(loser));
+                        });
+                        break;
+                    }
+                    if (result.startsWith("Adjudicated ")) {
+                        String color = result.substring(12);
+                        Piece.Color winner = color.equals("draw") ? null : Piece.Color.valueOf(color);
+                        mainGUI.sendMessage(winner == null ? DRAWS[Board.Draw.tablebase.ordinal()]
+                                : "残局库判" + (winner == Piece.Color.white ? "白方" : "黑方") + "胜");
+                        Platform.runLater(() -> {
+                            setBoardDisable(true);
+                            mainGUI.gameEnd(winner);
+                        });
+                        break;
+                    }
+                    Platform.runLater(() -> {
+                        predicted(result);
+                        move(result);
+                    });
             }
         }).start();
     }
 
+    /**
+     * only used when online-game with the analyser,
+     * tell the answer found if the opponent played the expected move
+     *
+     * @param message move message of the opponent
+     */
+    private void predicted(String message) {
+        SearchInfo info = lastAnalysis;
+        lastAnalysis = null;
+        if (analyser == null || spectator || info == null || info.getPv().length < 2) {
+            return;
+        }
+        clearAnalysis();
+        int expected = info.getBestMove();
+        if (SearchBoard.x(Move.from(expected)) == message.charAt(0) - '0' && SearchBoard.y(Move.from(expected)) == message.charAt(1) - '0'
+                && SearchBoard.x(Move.to(expected)) == message.charAt(3) - '0' && SearchBoard.y(Move.to(expected)) == message.charAt(4) - '0') {
+            mainGUI.sendMessage("预测命中，应着 " + Move.toString(info.getPv()[1]));
+        }
+    }
+
+    /**
+     * let the computer search during the turn of the player,
+     * the principal variation and the score for the player are shown as the search goes deeper
+     *
+     * @param engine   the computer
+     * @param expected the expected move of the player, {@code Move.NONE} to search the position itself
+     */
+    private void ponder(Engine engine, int expected) {
+        int id = ++analysisId;
+        engine.ponder(new SearchBoard(board), expected, info -> {
+            if (expected == Move.NONE) {
+                lastAnalysis = info;
+            }
+            StringBuilder line = new StringBuilder();
+            if (expected != Move.NONE) {
+                line.append(Move.toString(expected)).append(' ');
+            }
+            for (int move : info.getPv()) {
+                line.append(Move.toString(move)).append(' ');
+            }
+            //评分换算为玩家一方
+            showAnalysis(id, String.format("深度 %d，评分 %s：%s", info.getDepth(),
+                    info.isMate() ? "杀棋 " + -info.getMateIn() : String.valueOf(-info.getScore()), line.toString().trim()));
+        });
+    }
+
+    /**
+     * show an analysis from a search thread,
+     * analyses coming faster than the FX thread shows them are skipped
+     */
+    private void showAnalysis(int id, String text) {
+        later(analysis, text, latest -> {
+            if (id == analysisId) {
+                analysisLabel.setText(latest);
+            }
+        });
+    }
+
+    /**
+     * show a text from another thread on the FX thread,
+     * the texts coming faster than the FX thread shows them are skipped
+     *
+     * @param pending the text waiting to be shown
+     */
+    private static void later(AtomicReference<String> pending, String text, Consumer<String> show) {
+        if (pending.getAndSet(text) == null) {
+            Platform.runLater(() -> {
+                String latest = pending.getAndSet(null);
+                if (latest != null) {
+                    show.accept(latest);
+                }
+            });
+        }
+    }
+
+    private void clearAnalysis() {
+        analysisId++;
+        analysisLabel.setText("");
+    }
+
+    /**
+     * create a new thread and search the move of the computer,
+     * the move is ignored if the game was restarted meanwhile
+     */
+    private void think() {
+        mainGUI.sendMessage("电脑思考中...");
+        clearAnalysis();
+        Board current = board;
+        Engine engine = this.engine;
+        SearchBoard position = new SearchBoard(board);
+        Thread thread = new Thread(() -> {
+            SearchInfo info = engine.think(position, null);
+            int best = info.getBestMove();
+            Platform.runLater(() -> {
+                if (board != current || this.engine != engine || best == Move.NONE) {
+                    return;
+                }
+                if (info.getDepth() == 0 && info.getNodes() == 0) {
+                    mainGUI.sendMessage("开局库着法");
+                } else if (info.getDepth() == 0) {
+                    mainGUI.sendMessage("残局库着法，" + (info.isMate() ? "杀棋 " + info.getMateIn() : "和棋"));
+                } else {
+                    mainGUI.sendMessage(String.format("深度 %d，评分 %s，%d 节点，%d 节点/秒",
+                            info.getDepth(), info.isMate() ? "杀棋 " + info.getMateIn() : String.valueOf(info.getScore()),
+                            info.getNodes(), info.getNps()));
+                }
+                String message = "" + SearchBoard.x(Move.from(best)) + SearchBoard.y(Move.from(best))
+                        + "+" + SearchBoard.x(Move.to(best)) + SearchBoard.y(Move.to(best));
+                if (Move.promotion(best) != 0) {
+                    message += " pnbrqk".charAt(Move.promotion(best));
+                }
+                move(message);
+                if (mainGUI.isPondering() && board.gameEnd() == null && board.getTurn() == playerColor) {
+                    int[] pv = info.getPv();
+                    ponder(engine, pv.length > 1 ? pv[1] : Move.NONE);
+                }
+            });
+        }, "engine");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
     private void sendMove(Position start, Position end) {
         String send = start.toString() + "+" + end.toString();
         if (promotion != null) {
@@ -406,6 +721,9 @@ public class BoardGUI {
             promotion = null;
         }
         socket.send(send);
+        if ((board.getStep() - 1) % SNAPSHOT_INTERVAL == 0) {
+            socket.sendSnapshot(board.toFen(new Fen()).toString());
+        }
     }
 
     /**
@@ -491,6 +809,15 @@ public class BoardGUI {
      * @param mainGUI mainGUI
      */
     public void recordStart(String record, MainGUI mainGUI) {
+        if (engine != null) {
+            engine.stop();
+            engine = null;
+        }
+        if (analyser != null) {
+            analyser.stop();
+            analyser = null;
+        }
+        clearAnalysis();
         count = 0;
         records = record.split("#");
         board = new Board(this);
@@ -509,6 +836,7 @@ public class BoardGUI {
             board.setBoard(records[count], count);
             changeTurn();
             draw();
+            reviewPosition();
         } else {
             mainGUI.sendMessage("已经是第一步了");
         }
@@ -523,6 +851,7 @@ public class BoardGUI {
             board.setBoard(records[count], count);
             changeTurn();
             draw();
+            reviewPosition();
         } else {
             mainGUI.sendMessage("已经是最后一步了");
         }
@@ -536,6 +865,7 @@ public class BoardGUI {
         board.setBoard(records[count], count);
         changeTurn();
         draw();
+        reviewPosition();
     }
 
     /**
@@ -546,12 +876,14 @@ public class BoardGUI {
         board.setBoard(records[count], count);
         changeTurn();
         draw();
+        reviewPosition();
     }
 
     /**
      * Watch the corresponding operation manuals
      */
     public void recordEnd() {
+        stopReview();
         board = new Board(this);
         setBoardDisable(true);
         drawBoard();
@@ -561,6 +893,7 @@ public class BoardGUI {
      * continue game
      */
     public void continueGame() {
+        stopReview();
         mainGUI.sendMessage("\n---------------\n游戏开始！");
         setBoardDisable(false);
         String tmp = "";
@@ -569,5 +902,73 @@ public class BoardGUI {
         }
         board.continueBoard(records[count], count, tmp);
     }
-}
 
+    /**
+     * analyse the positions of the record while watching it,
+     * the best moves of every position are shown as the search goes deeper
+     *
+     * @param analysis the analysis, kept by the caller for the next records
+     */
+    public void review(Analysis analysis) {
+        stopReview();
+        review = analysis;
+        analysis.subscribe(reviewListener);
+        reviewPosition();
+    }
+
+    public void stopReview() {
+        if (review != null) {
+            review.cancel();
+            review.unsubscribe(reviewListener);
+            review = null;
+            mainGUI.showAnalysis(null);
+        }
+    }
+
+    public boolean isReviewing() {
+        return review != null;
+    }
+
+    /**
+     * @return key of the position of the record shown, to find it in a {@code PositionIndex}
+     */
+    public long positionKey() {
+        return PositionIndex.key(records[count], count % 2 == 0);
+    }
+
+    /**
+     * analyse the position shown, the analysis of the last one is cancelled
+     */
+    private void reviewPosition() {
+        if (review != null) {
+            SearchBoard position = new SearchBoard(board);
+            reviewKey = position.getKey();
+            review.analyse(position, 0);
+            mainGUI.showAnalysis("分析中...");
+        }
+    }
+
+    /**
+     * only used when reviewing, called by the analysing thread
+     */
+    private void reviewed(long key, SearchInfo[] lines) {
+        if (key != reviewKey) {
+            return;
+        }
+        StringBuilder text = new StringBuilder();
+        for (SearchInfo info : lines) {
+            text.append(info.getLine() + 1).append(". ")
+                    .append(info.isMate() ? "杀棋 " + info.getMateIn() : String.valueOf(info.getScore()))
+                    .append(" (").append(info.getDepth()).append(")");
+            for (int move : info.getPv()) {
+                text.append(' ').append(Move.toString(move));
+            }
+            text.append('\n');
+        }
+        later(reviewText, text.toString(), latest -> {
+            if (key == reviewKey && review != null) {
+                mainGUI.showAnalysis(latest);
+            }
+        });
+    }
+}
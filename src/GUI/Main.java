@@ -5,6 +5,7 @@ import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
+import metrics.Metrics;
 
 /**
  * Class {@code Main}
@@ -27,6 +28,7 @@ public class Main extends Application {
 
 
     public static void main(String[] args) {
+        Metrics.serve();
         launch(args);
     }
 }
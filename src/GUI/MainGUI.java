@@ -1,5 +1,10 @@
 package GUI;
 
+import archive.PositionIndex;
+import engine.Analysis;
+import engine.Engine;
+import engine.OpeningBook;
+import engine.Tablebase;
 import game.Piece;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
@@ -13,6 +18,7 @@ import javafx.stage.FileChooser;
 import socket.MSocket;
 
 import java.io.*;
+import java.util.List;
 
 /**
  * The main interface control,
@@ -28,11 +34,33 @@ public class MainGUI {
     private BoardGUI boardController;
     private MSocket socket;
 
+    /**
+     * opening book of the computer, set by {@code -Dchess.engine.book}
+     */
+    private OpeningBook book;
+
+    /**
+     * endgame tablebase of the computer, directory set by {@code -Dchess.engine.tablebase}
+     */
+    private Tablebase tablebase;
+
+    /**
+     * index of the positions of the saved records, directory set by {@code -Dchess.index}
+     */
+    private PositionIndex index;
+
     @FXML
     private AnchorPane boardContainer;
+    /**
+     * multi-PV analysis of the records, created when first needed
+     */
+    private Analysis analysis;
+
     @FXML
     private TextArea messageText;
     @FXML
+    private TextArea analysisText;
+    @FXML
     private VBox menuBox;
 
     @FXML
@@ -43,6 +71,26 @@ public class MainGUI {
         socket = null;
         messageText.setText("系统消息\n");
         mainButtons();
+        String bookPath = System.getProperty("chess.engine.book");
+        if (bookPath != null) {
+            try {
+                book = new OpeningBook(new File(bookPath).toPath());
+            } catch (IOException e) {
+                sendMessage("开局库读取失败：" + bookPath);
+            }
+        }
+        String tablebasePath = System.getProperty("chess.engine.tablebase");
+        if (tablebasePath != null) {
+            tablebase = new Tablebase(new File(tablebasePath).toPath());
+        }
+        String indexPath = System.getProperty("chess.index");
+        if (indexPath != null) {
+            try {
+                index = new PositionIndex(new File(indexPath));
+            } catch (IOException e) {
+                sendMessage("局面索引读取失败：" + indexPath);
+            }
+        }
     }
 
     /**
@@ -63,6 +111,17 @@ public class MainGUI {
             sendMessage("---------------\n游戏开始！");
         });
 
+        Button engineStart = new Button();
+        engineStart.setPrefHeight(25);
+        engineStart.setPrefWidth(150);
+        engineStart.setText("人机对战");
+        engineStart.setOnAction(event -> {
+            engineStart.setText("重新开始");
+            clearMessage();
+            boardController.engineStart(this, Piece.Color.white, newEngine());
+            sendMessage("---------------\n游戏开始！");
+        });
+
         Button onlineStart = new Button();
         onlineStart.setPrefHeight(25);
         onlineStart.setPrefWidth(150);
@@ -81,7 +140,7 @@ public class MainGUI {
         read.setText("读取棋谱");
         read.setOnAction(event -> readFile());
 
-        menuBox.getChildren().addAll(offlineStart, onlineStart, record, read);
+        menuBox.getChildren().addAll(offlineStart, engineStart, onlineStart, record, read);
     }
 
     /**
@@ -107,13 +166,25 @@ public class MainGUI {
         addRoom.setText("加入房间");
         addRoom.setOnAction(event -> addRoom(roomNumber.getText()));
 
+        Button match = new Button();
+        match.setPrefHeight(25);
+        match.setPrefWidth(150);
+        match.setText("快速匹配");
+        match.setOnAction(event -> match());
+
+        Button watchRoom = new Button();
+        watchRoom.setPrefHeight(25);
+        watchRoom.setPrefWidth(150);
+        watchRoom.setText("观战");
+        watchRoom.setOnAction(event -> watchRoom(roomNumber.getText()));
+
         Button quit = new Button();
         quit.setPrefHeight(25);
         quit.setPrefWidth(150);
         quit.setText("返回");
         quit.setOnAction(event -> mainButtons());
 
-        menuBox.getChildren().addAll(createRoom, roomNumber, addRoom, quit);
+        menuBox.getChildren().addAll(createRoom, roomNumber, addRoom, match, watchRoom, quit);
     }
 
     /**
@@ -128,7 +199,9 @@ public class MainGUI {
         quit.setPrefWidth(150);
         quit.setText("退出");
         quit.setOnAction(event -> {
-            socket.send("Quit");
+            if (!socket.isWatching()) {
+                socket.send("Quit");
+            }
             exitRoom();
         });
 
@@ -185,16 +258,87 @@ public class MainGUI {
             mainButtons();
         });
 
-        menuBox.getChildren().addAll(previous, next, last, continueGame, quit);
+        Button analyse = new Button();
+        analyse.setPrefHeight(25);
+        analyse.setPrefWidth(150);
+        analyse.setText("分析");
+        analyse.setOnAction(event -> {
+            if (boardController.isReviewing()) {
+                boardController.stopReview();
+                analyse.setText("分析");
+            } else {
+                if (analysis == null) {
+                    analysis = new Analysis(Integer.getInteger("chess.engine.lines", Analysis.DEFAULT_LINES),
+                            Integer.getInteger("chess.engine.hash", Engine.DEFAULT_HASH), tablebase);
+                }
+                boardController.review(analysis);
+                analyse.setText("停止分析");
+            }
+        });
+
+        menuBox.getChildren().addAll(previous, next, last, analyse, continueGame, quit);
+
+        if (index != null) {
+            Button same = new Button();
+            same.setPrefHeight(25);
+            same.setPrefWidth(150);
+            same.setText("相同局面");
+            same.setOnAction(event -> {
+                List<PositionIndex.Hit> hits = index.find(boardController.positionKey());
+                sendMessage("共有 " + hits.size() + " 盘棋谱出现此局面");
+                for (int i = 0; i < Math.min(hits.size(), 10); i++) {
+                    sendMessage(hits.get(i).getGame() + " 第 " + hits.get(i).getPly() + " 步");
+                }
+            });
+            menuBox.getChildren().add(menuBox.getChildren().size() - 2, same);
+        }
+    }
+
+    /**
+     * @return a computer player set by the system properties {@code chess.engine.*}
+     */
+    Engine newEngine() {
+        Engine engine = new Engine();
+        engine.setTimeBudget(Long.getLong("chess.engine.time", Engine.DEFAULT_TIME));
+        engine.setHashSize(Integer.getInteger("chess.engine.hash", Engine.DEFAULT_HASH));
+        engine.setThreads(Integer.getInteger("chess.engine.threads", 1));
+        engine.setBook(book);
+        engine.setTablebase(tablebase);
+        return engine;
+    }
+
+    /**
+     * @return endgame tablebase of the computer, {@code null} if not set
+     */
+    Tablebase getTablebase() {
+        return tablebase;
+    }
+
+    /**
+     * @return whether or not the computer searches during the turn of the opponent,
+     * set by {@code -Dchess.engine.ponder=true}
+     */
+    boolean isPondering() {
+        return Boolean.getBoolean("chess.engine.ponder");
+    }
+
+    /**
+     * Display the lines of the analysis next to the message box
+     *
+     * @param text the lines, {@code null} to hide them
+     */
+    public void showAnalysis(String text) {
+        analysisText.setVisible(text != null);
+        analysisText.setText(text == null ? "" : text);
     }
 
     /**
      * end the game and send winner message
      *
-     * @param color winner color
+     * @param color the winner, {@code null} for a draw
      */
     public void gameEnd(Piece.Color color) {
-        sendMessage("游戏结束！\n胜利者：" + (color == Piece.Color.white ? "白方" : "黑方"));
+        sendMessage("游戏结束！\n" + (color == null ? "和棋" : "胜利者：" + (color == Piece.Color.white ? "白方" : "黑方")));
         if (socket != null) {
             exitRoom();
         }
@@ -263,7 +407,51 @@ public class MainGUI {
         }
     }
 
+    /**
+     * wait for an opponent given by the room server,
+     * the rating can be set by {@code -Dchess.rating}
+     * and the time control like {@code 5+3} by {@code -Dchess.time}
+     */
+    private void match() {
+        socket = new MSocket();
+        sendMessage("正在匹配对手...");
+        new Thread(() -> {
+            String color = socket.match(Integer.getInteger("chess.rating", 1500),
+                    System.getProperty("chess.time", "untimed"));
+            Platform.runLater(() -> {
+                if ("Error".equals(color)) {
+                    sendMessage("匹配失败，请检查服务器");
+                    return;
+                }
+                clearMessage();
+                boardController.onlineStart(this, "white".equals(color) ? Piece.Color.white : Piece.Color.black, socket);
+                sendMessage("\n---------------\n游戏开始！");
+                onlinePlayButtons();
+            });
+        }).start();
+    }
+
+    /**
+     * watch the game of a room
+     *
+     * @param roomNum room number
+     */
+    private void watchRoom(String roomNum) {
+        socket = new MSocket();
+        if (socket.watchRoom(roomNum)) {
+            clearMessage();
+            sendMessage("观战房间" + roomNum);
+            boardController.spectateStart(this, socket);
+            onlinePlayButtons();
+        } else {
+            sendMessage("观战房间" + roomNum + "失败， 请检查房间号");
+        }
+    }
+
     public void exitRoom() {
+        if (socket == null) {
+            return;
+        }
         socket.disconnect();
         socket = null;
         sendMessage("已退出房间");
@@ -280,10 +468,16 @@ public class MainGUI {
         fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Text", "*.txt"));
         File file = fileChooser.showSaveDialog(boardContainer.getScene().getWindow());
         if (file != null) {
-            try {
-                BufferedWriter output = new BufferedWriter(new FileWriter(file));
+            try (FileOutputStream stream = new FileOutputStream(file)) {
+                BufferedWriter output = new BufferedWriter(new OutputStreamWriter(stream));
                 output.write(boardController.getRecord());
-                output.close();
+                output.flush();
+                //写入磁盘后才算保存
+                stream.getFD().sync();
+                if (index != null) {
+                    index.add(file.getPath(), boardController.getRecord());
+                    index.flush();
+                }
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -0,0 +1,428 @@
+package archive;
+
+import game.Board;
+import game.Piece;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class {@code ArchiveImport}
+ * Validate the games of an archive and gather their statistics on several threads.
+ * An archive is a text file of many records in the format of {@code Board.record},
+ * one after the other with a blank line between them.
+ * <p>
+ * The file is read and split into games by the calling thread,
+ * the games are replayed in batches on a {@code ForkJoinPool}:
+ * the move between two snapshots is found from the squares changed,
+ * played on a {@code Board} without an interface, and the board must then match the next snapshot.
+ * The results, the openings and the lengths are counted with {@code LongAdder}s,
+ * so the threads never wait for each other.
+ * At most a few batches per thread wait in the pool, so a large file does not fill the memory.
+ * The valid games can be added to a {@code PositionIndex} at the same time.
+ * <p>
+ * usage: {@code ArchiveImport [-threads n] [-index directory] files...}
+ *
+ * @see Board
+ * @see PositionIndex
+ */
+
+public class ArchiveImport {
+
+    /**
+     * games replayed by a task
+     */
+    public static final int BATCH = 256;
+
+    /**
+     * plies naming an opening
+     */
+    public static final int OPENING = 4;
+
+    /**
+     * Class {@code Statistics}
+     * counters updated by all the threads at once
+     */
+    public static class Statistics {
+        private final LongAdder games = new LongAdder(), valid = new LongAdder(), plies = new LongAdder();
+        private final LongAdder white = new LongAdder(), black = new LongAdder(), drawn = new LongAdder();
+        private final LongAdder unfinished = new LongAdder();
+        private final ConcurrentHashMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, LongAdder> openings = new ConcurrentHashMap<>();
+
+        /**
+         * time and size of the stages, the replay time is summed over the threads
+         */
+        private final LongAdder bytes = new LongAdder(), readNanos = new LongAdder(), replayNanos = new LongAdder();
+        private volatile long wallNanos;
+
+        private static void increment(ConcurrentHashMap<String, LongAdder> map, String key) {
+            map.computeIfAbsent(key, k -> new LongAdder()).increment();
+        }
+
+        public long getGames() {
+            return games.sum();
+        }
+
+        public long getValid() {
+            return valid.sum();
+        }
+
+        /**
+         * @return plies of the valid games
+         */
+        public long getPlies() {
+            return plies.sum();
+        }
+
+        /**
+         * @return the openings played most, the first {@code OPENING} moves like {@code "E2 - E4, E7 - E5, ..."}
+         */
+        public Map<String, Long> getOpenings(int count) {
+            Map<String, Long> result = new LinkedHashMap<>();
+            openings.entrySet().stream()
+                    .sorted((a, b) -> Long.compare(b.getValue().sum(), a.getValue().sum()))
+                    .limit(count)
+                    .forEach(entry -> result.put(entry.getKey(), entry.getValue().sum()));
+            return result;
+        }
+
+        /**
+         * @return number of invalid games by the reason
+         */
+        public Map<String, Long> getErrors() {
+            Map<String, Long> result = new LinkedHashMap<>();
+            errors.forEach((key, value) -> result.put(key, value.sum()));
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            long games = getGames(), valid = getValid(), plies = getPlies();
+            StringBuilder result = new StringBuilder();
+            result.append(String.format("games %d, valid %d, average %.1f plies%n",
+                    games, valid, valid == 0 ? 0.0 : (double) plies / valid));
+            result.append(String.format("results: white %d, black %d, draw %d, unfinished %d%n",
+                    white.sum(), black.sum(), drawn.sum(), unfinished.sum()));
+            if (!errors.isEmpty()) {
+                result.append("errors: ").append(getErrors()).append(String.format("%n"));
+            }
+            for (Map.Entry<String, Long> entry : getOpenings(5).entrySet()) {
+                result.append(String.format("%8d  %s%n", entry.getValue(), entry.getKey()));
+            }
+            double read = readNanos.sum() / 1e9, replay = replayNanos.sum() / 1e9, wall = wallNanos / 1e9;
+            result.append(String.format("read and split: %.1f MB/s, %.0f games/s%n",
+                    bytes.sum() / 1e6 / read, games / read));
+            result.append(String.format("replay: %.0f games/s, %.0f plies/s per thread%n",
+                    games / replay, plies / replay));
+            result.append(String.format("total: %.2fs, %.0f games/min", wall, games / wall * 60));
+            return result.toString();
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final int threads;
+    private final PositionIndex index;
+
+    /**
+     * @param threads threads replaying the games
+     * @param index   index the valid games are added to, may be {@code null}
+     */
+    public ArchiveImport(int threads, PositionIndex index) {
+        this.threads = Math.max(threads, 1);
+        this.index = index;
+        pool = new ForkJoinPool(this.threads);
+    }
+
+    /**
+     * Validate the games of a file and count them, it returns when all of them are done
+     *
+     * @param file the archive
+     * @return the statistics of the file
+     * @throws IOException if the file can not be read or the index can not be written
+     */
+    public Statistics run(File file) throws IOException {
+        Statistics statistics = new Statistics();
+        long start = System.nanoTime();
+        Semaphore permits = new Semaphore(threads * 4);
+        Phaser pending = new Phaser(1);
+        List<String> batch = new ArrayList<>(BATCH);
+        int number = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+            long readStart = System.nanoTime();
+            StringBuilder record = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                statistics.bytes.add(line.length() + 1);
+                if (!line.trim().isEmpty()) {
+                    record.append(line).append('\n');
+                    continue;
+                }
+                if (record.length() > 0) {
+                    batch.add(record.toString());
+                    record.setLength(0);
+                }
+                if (batch.size() == BATCH) {
+                    statistics.readNanos.add(System.nanoTime() - readStart);
+                    submit(file.getName(), number, batch, statistics, permits, pending);
+                    number += batch.size();
+                    batch = new ArrayList<>(BATCH);
+                    readStart = System.nanoTime();
+                }
+            }
+            if (record.length() > 0) {
+                batch.add(record.toString());
+            }
+            statistics.readNanos.add(System.nanoTime() - readStart);
+            if (!batch.isEmpty()) {
+                submit(file.getName(), number, batch, statistics, permits, pending);
+            }
+        } finally {
+            pending.arriveAndAwaitAdvance();
+        }
+        if (index != null) {
+            index.flush();
+        }
+        statistics.wallNanos = System.nanoTime() - start;
+        return statistics;
+    }
+
+    private void submit(String name, int first, List<String> games, Statistics statistics,
+                        Semaphore permits, Phaser pending) throws IOException {
+        try {
+            //池中排队的批次有上限，读得太快时等待
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        }
+        pending.register();
+        pool.execute(() -> {
+            try {
+                long start = System.nanoTime();
+                for (int i = 0; i < games.size(); i++) {
+                    validate(name + "#" + (first + i + 1), games.get(i), statistics);
+                }
+                statistics.replayNanos.add(System.nanoTime() - start);
+            } finally {
+                permits.release();
+                pending.arriveAndDeregister();
+            }
+        });
+    }
+
+    private void validate(String id, String record, Statistics statistics) {
+        statistics.games.increment();
+        Board board = new Board(null);
+        String error;
+        try {
+            error = replay(record, board, statistics);
+        } catch (RuntimeException e) {
+            //走子规则出错
+            error = "exception";
+        }
+        if (error != null) {
+            Statistics.increment(statistics.errors, error);
+            return;
+        }
+        if (index != null) {
+            try {
+                index.add(id, record);
+            } catch (IOException e) {
+                Statistics.increment(statistics.errors, "index");
+                return;
+            }
+        }
+        statistics.valid.increment();
+        statistics.plies.add(board.getStep() - 1);
+        if (board.gameEnd() == Piece.Color.white) {
+            statistics.white.increment();
+        } else if (board.gameEnd() == Piece.Color.black) {
+            statistics.black.increment();
+        } else if (board.getDraw() != null) {
+            statistics.drawn.increment();
+        } else {
+            statistics.unfinished.increment();
+        }
+    }
+
+    /**
+     * Replay a record on a new board
+     *
+     * @return why the game is invalid, {@code null} if it is valid
+     */
+    private static String replay(String record, Board board, Statistics statistics) {
+        StringBuilder opening = new StringBuilder();
+        int start = 0;
+        for (int i = 0; i <= record.length(); i++) {
+            if (i < record.length() && record.charAt(i) != '#') {
+                continue;
+            }
+            int end = i;
+            int begin = start;
+            start = i + 1;
+            char[] cells = cells(record, begin, end);
+            if (cells == null) {
+                if (record.substring(begin, end).trim().isEmpty()) {
+                    continue;
+                }
+                return "unreadable";
+            }
+            if (board.isOver()) {
+                return board.getDraw() != null ? "moves after a draw" : "moves after the end";
+            }
+            String message = difference(board, cells);
+            if (message == null) {
+                return "no move";
+            }
+            if (!board.move(message)) {
+                return "illegal";
+            }
+            if (!matches(board, cells)) {
+                return "mismatch";
+            }
+            if (board.getStep() - 1 <= OPENING) {
+                opening.append(opening.length() == 0 ? "" : ", ").append(board.getLastMove());
+            }
+        }
+        if (opening.length() > 0) {
+            Statistics.increment(statistics.openings, opening.toString());
+        }
+        return null;
+    }
+
+    /**
+     * @return the 2 letters of the 64 squares of a snapshot without the line breaks, {@code null} if it is not one
+     */
+    private static char[] cells(String record, int start, int end) {
+        char[] result = new char[128];
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            char c = record.charAt(i);
+            if (c == '\n' || c == '\r') {
+                continue;
+            }
+            if (count == 128) {
+                return null;
+            }
+            result[count++] = c;
+        }
+        return count == 128 ? result : null;
+    }
+
+    private static char letter(Piece.Type type) {
+        return "KQRBNP".charAt(type.ordinal());
+    }
+
+    /**
+     * Find the move from a board to a snapshot:
+     * the square left by a piece of the side to move and the square it arrives at,
+     * for castling the king, for a promotion the new piece
+     *
+     * @return the move like {@code "64+44"} or {@code "61+60n"}, {@code null} if there is none
+     */
+    private static String difference(Board board, char[] cells) {
+        char mover = board.getTurn() == Piece.Color.white ? 'W' : 'B';
+        int from = -1, to = -1, froms = 0, tos = 0;
+        for (int x = 0; x < 8; x++) {
+            for (int y = 0; y < 8; y++) {
+                Piece before = board.getPiece(x, y);
+                int cell = (x * 8 + y) * 2;
+                boolean mine = before != null && before.getColor() == board.getTurn();
+                if (mine && cells[cell] == '*') {
+                    froms++;
+                    if (from < 0 || before.getType() == Piece.Type.king) {
+                        from = x * 8 + y;
+                    }
+                } else if (cells[cell + 1] == mover && (!mine || letter(before.getType()) != cells[cell])) {
+                    tos++;
+                    if (to < 0 || cells[cell] == 'K') {
+                        to = x * 8 + y;
+                    }
+                }
+            }
+        }
+        //王车易位时王和车各走一步
+        if (from < 0 || to < 0 || froms != tos || froms > 2) {
+            return null;
+        }
+        String result = "" + from / 8 + from % 8 + "+" + to / 8 + to % 8;
+        Piece piece = board.getPiece(from / 8, from % 8);
+        char arrived = cells[to * 2];
+        if (piece.getType() == Piece.Type.pawn && arrived != 'P') {
+            result += Character.toLowerCase(arrived);
+        }
+        return result;
+    }
+
+    private static boolean matches(Board board, char[] cells) {
+        for (int x = 0; x < 8; x++) {
+            for (int y = 0; y < 8; y++) {
+                Piece piece = board.getPiece(x, y);
+                int cell = (x * 8 + y) * 2;
+                if (piece == null ? cells[cell] != '*'
+                        : cells[cell] != letter(piece.getType())
+                        || cells[cell + 1] != (piece.getColor() == Piece.Color.white ? 'W' : 'B')) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stop the threads, waiting for the batches left
+     */
+    public void shutdown() {
+        pool.shutdown();
+        try {
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        String indexPath = null;
+        int i = 0;
+        for (; i + 1 < args.length && args[i].startsWith("-"); i += 2) {
+            if (args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("-index")) {
+                indexPath = args[i + 1];
+            }
+        }
+        if (i >= args.length) {
+            System.out.println("usage: ArchiveImport [-threads n] [-index directory] files...");
+            return;
+        }
+        PositionIndex index = indexPath == null ? null : new PositionIndex(new File(indexPath));
+        ArchiveImport importer = new ArchiveImport(threads, index);
+        try {
+            for (; i < args.length; i++) {
+                System.out.println(args[i]);
+                System.out.println(importer.run(new File(args[i])));
+            }
+        } finally {
+            importer.shutdown();
+            if (index != null) {
+                index.close();
+            }
+        }
+    }
+}
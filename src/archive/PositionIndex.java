@@ -0,0 +1,868 @@
+package archive;
+
+import game.Board;
+import game.Piece;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Class {@code PositionIndex}
+ * An index on the disk from the positions to the games reaching them,
+ * so the games of a large archive with a position are found without reading them.
+ * Every position of a record, in the format of {@code Board.record}, is hashed into a 64-bit key
+ * of its pieces and the side to move, the same position gets the same key in every game.
+ * <p>
+ * Like an LSM tree, the index is a few sorted runs, each a file of entries (key, game, ply)
+ * read through memory mapping, a query is a binary search in each run.
+ * The new games are kept in memory until {@code flush} writes them as a new run.
+ * The positions of a game are hashed before the lock of the index is taken, which only guards the memory,
+ * and a run is sorted, written and forced without it, so the games added meanwhile do not wait for the disk.
+ * When there are more than {@code MAX_RUNS} runs, the newest ones are merged into one,
+ * with the older ones when they are not much larger, so a large run is rarely written again.
+ * A large archive is indexed by {@code addAll}, which hashes and sorts the games
+ * on several threads, a run for each part, and merges the runs at the end.
+ * <p>
+ * Files in the directory:
+ * <pre>
+ * games.txt       the id of every game, one per line, the line number is the game number
+ * run-N.idx       long count, long first run merged into it, then count entries sorted by key:
+ *                 long key, int game, int ply
+ * </pre>
+ *
+ * @see Board
+ */
+
+public class PositionIndex implements Closeable {
+
+    /**
+     * entries kept in memory before they are written as a run
+     */
+    public static final int MEMTABLE = 1 << 16;
+
+    /**
+     * runs before they are merged
+     */
+    public static final int MAX_RUNS = 8;
+
+    private static final int HEADER = 16, ENTRY = 16;
+    private static final int SLICE_BITS = 30;
+    private static final String GAMES = "games.txt", PREFIX = "run-", SUFFIX = ".idx";
+
+    /**
+     * a random number for every piece on every square, and one for black to move
+     */
+    private static final long[] ZOBRIST = new long[64 * 12 + 1];
+
+    static {
+        Random random = new Random(0x5EED);
+        for (int i = 0; i < ZOBRIST.length; i++) {
+            ZOBRIST[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * Class {@code Hit}
+     * a game reaching the position
+     */
+    public static final class Hit {
+        private final String game;
+        private final int ply;
+
+        private Hit(String game, int ply) {
+            this.game = game;
+            this.ply = ply;
+        }
+
+        public String getGame() {
+            return game;
+        }
+
+        /**
+         * @return number of moves played to reach the position
+         */
+        public int getPly() {
+            return ply;
+        }
+
+        @Override
+        public String toString() {
+            return game + " #" + ply;
+        }
+    }
+
+    /**
+     * Class {@code Run}
+     * a sorted file of entries, mapped in slices of 1 GB
+     */
+    private static final class Run {
+        private final long number, base, count;
+        private final File file;
+        private final MappedByteBuffer[] slices;
+
+        private Run(long number, File file) throws IOException {
+            this.number = number;
+            this.file = file;
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                long size = channel.size();
+                slices = new MappedByteBuffer[(int) ((size >>> SLICE_BITS) + 1)];
+                for (int i = 0; i < slices.length; i++) {
+                    long start = (long) i << SLICE_BITS;
+                    slices[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, 1L << SLICE_BITS));
+                }
+            }
+            count = slices[0].getLong(0);
+            base = slices[0].getLong(8);
+        }
+
+        private long key(long index) {
+            long position = HEADER + index * ENTRY;
+            return slices[(int) (position >>> SLICE_BITS)].getLong((int) (position & (1L << SLICE_BITS) - 1));
+        }
+
+        private int game(long index) {
+            long position = HEADER + index * ENTRY + 8;
+            return slices[(int) (position >>> SLICE_BITS)].getInt((int) (position & (1L << SLICE_BITS) - 1));
+        }
+
+        private int ply(long index) {
+            long position = HEADER + index * ENTRY + 12;
+            return slices[(int) (position >>> SLICE_BITS)].getInt((int) (position & (1L << SLICE_BITS) - 1));
+        }
+
+        /**
+         * @return index of the first entry with a key not below the key
+         */
+        private long lowerBound(long key) {
+            long low = 0, high = count;
+            while (low < high) {
+                long middle = (low + high) >>> 1;
+                if (Long.compareUnsigned(key(middle), key) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * Class {@code Entries}
+     * entries in memory, the value is the game in the high half and the ply in the low half
+     */
+    private static final class Entries {
+        private long[] keys = new long[1024], values = new long[1024];
+        private int size;
+
+        private void add(long key, int game, int ply) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            keys[size] = key;
+            values[size++] = (long) game << 32 | ply;
+        }
+
+        /**
+         * LSD radix sort by the unsigned key, a byte at a time,
+         * it is stable so the entries of a key stay in the order of the games
+         */
+        private void sort() {
+            long[] keyBuffer = new long[size], valueBuffer = new long[size];
+            int[] counts = new int[257];
+            for (int shift = 0; shift < 64; shift += 8) {
+                Arrays.fill(counts, 0);
+                for (int i = 0; i < size; i++) {
+                    counts[(int) (keys[i] >>> shift & 0xFF) + 1]++;
+                }
+                for (int i = 0; i < 256; i++) {
+                    counts[i + 1] += counts[i];
+                }
+                for (int i = 0; i < size; i++) {
+                    int to = counts[(int) (keys[i] >>> shift & 0xFF)]++;
+                    keyBuffer[to] = keys[i];
+                    valueBuffer[to] = values[i];
+                }
+                long[] swap = keys;
+                keys = keyBuffer;
+                keyBuffer = swap;
+                swap = values;
+                values = valueBuffer;
+                valueBuffer = swap;
+            }
+        }
+
+        private int add(CharSequence record, int game) {
+            long[] positions = keys(record);
+            add(positions, game);
+            return positions.length;
+        }
+
+        private void add(long[] positions, int game) {
+            for (int ply = 0; ply < positions.length; ply++) {
+                if (positions[ply] != 0) {
+                    add(positions[ply], game, ply + 1);
+                }
+            }
+        }
+
+        private void addAll(Entries entries) {
+            for (int i = 0; i < entries.size; i++) {
+                add(entries.keys[i], (int) (entries.values[i] >>> 32), (int) entries.values[i]);
+            }
+        }
+
+        private Entries copy() {
+            Entries result = new Entries();
+            result.keys = Arrays.copyOf(keys, size);
+            result.values = Arrays.copyOf(values, size);
+            result.size = size;
+            return result;
+        }
+
+        /**
+         * Collect the games reaching a position, or only count them when the result is {@code null}
+         */
+        private int find(long key, List<String> games, List<Hit> result) {
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (keys[i] == key) {
+                    count++;
+                    if (result != null) {
+                        result.add(new Hit(games.get((int) (values[i] >>> 32)), (int) values[i]));
+                    }
+                }
+            }
+            return count;
+        }
+    }
+
+    private final File directory;
+
+    /**
+     * held by the flush or the merge going on, always taken before {@code this},
+     * it guards {@code savedGames} and the files
+     */
+    private final Object flushLock = new Object();
+    private int savedGames;
+
+    /**
+     * the following fields are guarded by {@code this}
+     */
+    private final List<String> games = new ArrayList<>();
+    private Entries memtable = new Entries();
+
+    /**
+     * the memtable being written by {@code flush}, still searched until its run is in {@code runs}
+     */
+    private Entries flushing;
+    private long nextRun;
+
+    /**
+     * runs from the oldest, replaced as a whole so the queries need no lock
+     */
+    private volatile Run[] runs;
+
+    /**
+     * Open the index in a directory, or create it
+     *
+     * @param directory the directory of the files
+     * @throws IOException if the files can not be read
+     */
+    public PositionIndex(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("can not create " + directory);
+        }
+        this.directory = directory;
+        File gamesFile = new File(directory, GAMES);
+        if (gamesFile.exists()) {
+            games.addAll(Files.readAllLines(gamesFile.toPath(), StandardCharsets.UTF_8));
+        }
+        savedGames = games.size();
+
+        List<Run> loaded = new ArrayList<>();
+        File[] files = directory.listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            String name = file.getName();
+            if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)) {
+                try {
+                    loaded.add(new Run(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), file));
+                } catch (NumberFormatException e) {
+                    //不是索引文件
+                }
+            } else if (name.endsWith(".tmp")) {
+                //写了一半的文件
+                file.delete();
+            }
+        }
+        loaded.sort((a, b) -> Long.compare(b.number, a.number));
+        //合并后未删除的旧文件
+        List<Run> live = new ArrayList<>();
+        long covered = Long.MAX_VALUE;
+        for (Run run : loaded) {
+            if (run.number >= covered) {
+                run.file.delete();
+                continue;
+            }
+            live.add(run);
+            covered = run.base;
+        }
+        Collections.reverse(live);
+        runs = live.toArray(new Run[0]);
+        nextRun = loaded.isEmpty() ? 1 : loaded.get(0).number + 1;
+    }
+
+    /**
+     * @param record the snapshots of a game like {@code Board.record}, each ending with {@code '#'}
+     * @return the key of every position after a move, {@code 0} for a snapshot that can not be read
+     */
+    public static long[] keys(CharSequence record) {
+        long[] result = new long[record.length() / 129 + 1];
+        int count = 0;
+        for (int start = 0, i = 0; i <= record.length(); i++) {
+            if (i < record.length() && record.charAt(i) != '#') {
+                continue;
+            }
+            if (hasCells(record, start, i)) {
+                //第一步后轮到黑方
+                result[count] = hash(record, start, i, count % 2 == 0);
+                count++;
+            }
+            start = i + 1;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * @param snapshot    a position like {@code Board.toString()}
+     * @param blackToMove whether or not black moves next
+     * @return the key of the position, {@code 0} if it can not be read
+     */
+    public static long key(CharSequence snapshot, boolean blackToMove) {
+        int end = 0;
+        while (end < snapshot.length() && snapshot.charAt(end) != '#') {
+            end++;
+        }
+        return hash(snapshot, 0, end, blackToMove);
+    }
+
+    /**
+     * @return the key of the position of a board
+     */
+    public static long key(Board board) {
+        return key(board.toString(), board.getTurn() == Piece.Color.black);
+    }
+
+    private static boolean hasCells(CharSequence text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) != '\n' && text.charAt(i) != '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hash the 64 squares written as 2 letters each, x * 8 + y, the line breaks are skipped
+     */
+    private static long hash(CharSequence text, int start, int end, boolean blackToMove) {
+        long key = blackToMove ? ZOBRIST[64 * 12] : 0;
+        int cell = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '\r') {
+                continue;
+            }
+            if (cell == 64 || i + 1 >= end) {
+                return 0;
+            }
+            char color = text.charAt(++i);
+            if (c != '*') {
+                int piece = "KQBNRP".indexOf(c);
+                if (piece < 0 || (color != 'W' && color != 'B')) {
+                    return 0;
+                }
+                key ^= ZOBRIST[cell * 12 + piece * 2 + (color == 'W' ? 0 : 1)];
+            }
+            cell++;
+        }
+        return cell == 64 && key != 0 ? key : 0;
+    }
+
+    /**
+     * Add a game, it can be found at once and is written with the next flush
+     *
+     * @param id     id of the game, for example its file
+     * @param record the snapshots of the game like {@code Board.record}
+     * @return number of positions of the game
+     * @throws IOException if the memory was full and the run could not be written
+     */
+    public int add(String id, CharSequence record) throws IOException {
+        //哈希不需要锁，锁内只追加到内存表
+        long[] positions = keys(record);
+        boolean full;
+        synchronized (this) {
+            memtable.add(positions, games.size());
+            games.add(id);
+            full = memtable.size >= MEMTABLE;
+        }
+        if (full) {
+            flush();
+        }
+        return positions.length;
+    }
+
+    /**
+     * Write the games added since the last flush as a new run,
+     * the games can be added and found while the run is written
+     *
+     * @throws IOException if the files can not be written
+     */
+    public void flush() throws IOException {
+        synchronized (flushLock) {
+            Entries entries;
+            List<String> ids;
+            long number;
+            synchronized (this) {
+                entries = memtable;
+                ids = new ArrayList<>(games.subList(savedGames, games.size()));
+                if (entries.size == 0) {
+                    number = 0;
+                } else {
+                    memtable = new Entries();
+                    flushing = entries;
+                    number = nextRun++;
+                }
+            }
+            if (entries.size == 0) {
+                saveGames(ids);
+                return;
+            }
+            Run run;
+            try {
+                //查询还在读这些条目，排序一份拷贝
+                Entries sorted = entries.copy();
+                sorted.sort();
+                File temporary = write(number, sorted, 0);
+                try {
+                    saveGames(ids);
+                } catch (IOException e) {
+                    temporary.delete();
+                    throw e;
+                }
+                run = install(number, temporary);
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    //放回内存表，下次再写，旧的条目在前
+                    entries.addAll(memtable);
+                    memtable = entries;
+                    flushing = null;
+                }
+                throw e;
+            }
+            synchronized (this) {
+                Run[] current = Arrays.copyOf(runs, runs.length + 1);
+                current[runs.length] = run;
+                runs = current;
+                flushing = null;
+            }
+            if (runs.length > MAX_RUNS) {
+                //只合并新的小文件，大文件不必每次重写
+                int from = runs.length - 1;
+                long merged = runs[from].count;
+                while (from > 0 && (runs[from - 1].count <= merged * 4 || runs.length - from < 2)) {
+                    merged += runs[--from].count;
+                }
+                merge(from);
+            }
+        }
+    }
+
+    /**
+     * Append the ids of the games not saved to the file of the games and force it,
+     * only after their runs are on the disk, so a run never refers to a game the file does not have
+     */
+    private void saveGames(List<String> ids) throws IOException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        StringBuilder text = new StringBuilder();
+        for (String id : ids) {
+            text.append(id).append(System.lineSeparator());
+        }
+        ByteBuffer buffer = StandardCharsets.UTF_8.encode(CharBuffer.wrap(text));
+        try (FileChannel channel = FileChannel.open(new File(directory, GAMES).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long end = channel.size();
+            try {
+                channel.position(end);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                //写了一半的行会错开后面所有游戏的编号
+                channel.truncate(end);
+                throw e;
+            }
+        }
+        savedGames += ids.size();
+    }
+
+    /**
+     * Write sorted entries into the temporary file of a run and force it,
+     * the run is not seen until {@code install} renames the file
+     *
+     * @return the temporary file
+     */
+    private File write(long number, Entries entries, long base) throws IOException {
+        File temporary = new File(directory, PREFIX + number + SUFFIX + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temporary)) {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+            output.writeLong(entries.size);
+            output.writeLong(base == 0 ? number : base);
+            for (int i = 0; i < entries.size; i++) {
+                output.writeLong(entries.keys[i]);
+                output.writeLong(entries.values[i]);
+            }
+            output.flush();
+            stream.getFD().sync();
+        } catch (IOException e) {
+            temporary.delete();
+            throw e;
+        }
+        return temporary;
+    }
+
+    /**
+     * Rename the temporary file of a run written by {@code write}, so a run is never half written
+     */
+    private Run install(long number, File temporary) throws IOException {
+        File file = new File(directory, PREFIX + number + SUFFIX);
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return new Run(number, file);
+    }
+
+    /**
+     * Merge all the runs into one
+     *
+     * @throws IOException if the run can not be written
+     */
+    public void compact() throws IOException {
+        synchronized (flushLock) {
+            merge(0);
+        }
+    }
+
+    /**
+     * Merge the runs from an index to the newest into one, with the number of the newest
+     * so a crash before the old ones are deleted is seen when the index is opened,
+     * only called with {@code flushLock}
+     */
+    private void merge(int from) throws IOException {
+        Run[] inputs = Arrays.copyOfRange(runs, from, runs.length);
+        if (inputs.length < 2) {
+            return;
+        }
+        Run last = inputs[inputs.length - 1];
+        File file = new File(directory, PREFIX + last.number + SUFFIX), temporary = new File(directory, file.getName() + ".tmp");
+        long total = 0;
+        try (FileOutputStream stream = new FileOutputStream(temporary)) {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+            for (Run run : inputs) {
+                total += run.count;
+            }
+            output.writeLong(total);
+            output.writeLong(inputs[0].base);
+            //多路归并，键相同时旧的在前
+            long[] positions = new long[inputs.length];
+            PriorityQueue<Integer> queue = new PriorityQueue<>(inputs.length, (a, b) -> {
+                int compare = Long.compareUnsigned(inputs[a].key(positions[a]), inputs[b].key(positions[b]));
+                return compare != 0 ? compare : Integer.compare(a, b);
+            });
+            for (int i = 0; i < inputs.length; i++) {
+                if (inputs[i].count > 0) {
+                    queue.add(i);
+                }
+            }
+            while (!queue.isEmpty()) {
+                int i = queue.poll();
+                long position = positions[i];
+                output.writeLong(inputs[i].key(position));
+                output.writeInt(inputs[i].game(position));
+                output.writeInt(inputs[i].ply(position));
+                if (++positions[i] < inputs[i].count) {
+                    queue.add(i);
+                }
+            }
+            output.flush();
+            stream.getFD().sync();
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        Run[] current = Arrays.copyOf(runs, from + 1);
+        current[from] = new Run(last.number, file);
+        runs = current;
+        for (int i = 0; i < inputs.length - 1; i++) {
+            inputs[i].file.delete();
+        }
+    }
+
+    /**
+     * Index many games on several threads, faster than adding them one by one.
+     * The runs are written and forced before the ids of the games are saved,
+     * if anything fails the runs already written are deleted and the games are not added
+     *
+     * @param ids     ids of the games
+     * @param reader  reads the record of a game by its id, {@code null} to skip it
+     * @param threads threads hashing and sorting the games
+     * @throws IOException if the record of a game or the files can not be read or written
+     */
+    public void addAll(List<String> ids, Function<String, CharSequence> reader, int threads) throws IOException {
+        synchronized (flushLock) {
+            addParts(ids, reader, threads);
+        }
+    }
+
+    /**
+     * {@code addAll} with {@code flushLock} held
+     */
+    private synchronized void addParts(List<String> ids, Function<String, CharSequence> reader, int threads) throws IOException {
+        flush();
+        int first = games.size();
+        int parts = Math.max(1, Math.min(threads * 4, ids.size() / 256));
+        long firstRun = nextRun;
+        nextRun += parts;
+        List<Callable<File>> tasks = new ArrayList<>();
+        for (int part = 0; part < parts; part++) {
+            int from = (int) ((long) ids.size() * part / parts), to = (int) ((long) ids.size() * (part + 1) / parts);
+            long number = firstRun + part;
+            tasks.add(() -> {
+                Entries entries = new Entries();
+                for (int i = from; i < to; i++) {
+                    CharSequence record = reader.apply(ids.get(i));
+                    if (record != null) {
+                        entries.add(record, first + i);
+                    }
+                }
+                entries.sort();
+                return write(number, entries, 0);
+            });
+        }
+        ForkJoinPool pool = new ForkJoinPool(Math.max(threads, 1));
+        List<File> temporaries = new ArrayList<>();
+        boolean saved = false;
+        try {
+            ExecutionException failure = null;
+            for (Future<File> future : pool.invokeAll(tasks)) {
+                //等所有部分结束，写好的文件失败时都要删掉
+                try {
+                    temporaries.add(future.get());
+                } catch (ExecutionException e) {
+                    failure = failure == null ? e : failure;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            games.addAll(ids);
+            saveGames(ids);
+            saved = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdown();
+            if (!saved) {
+                for (File temporary : temporaries) {
+                    temporary.delete();
+                }
+                games.subList(first, games.size()).clear();
+            }
+        }
+        List<Run> written = new ArrayList<>(Arrays.asList(runs));
+        for (int part = 0; part < parts; part++) {
+            written.add(install(firstRun + part, temporaries.get(part)));
+        }
+        runs = written.toArray(new Run[0]);
+        compact();
+    }
+
+    /**
+     * Find the games reaching a position
+     *
+     * @param key key of the position, by {@code key}
+     * @return the games and the plies, the same game may reach it more than once
+     */
+    public List<Hit> find(long key) {
+        List<Hit> result = new ArrayList<>();
+        if (key == 0) {
+            return result;
+        }
+        //运行的文件和正在写的内存表一起取，刚写完的条目不会漏掉
+        List<Hit> newer = new ArrayList<>();
+        Run[] current;
+        synchronized (this) {
+            current = runs;
+            if (flushing != null) {
+                flushing.find(key, games, newer);
+            }
+            memtable.find(key, games, newer);
+        }
+        for (Run run : current) {
+            for (long i = run.lowerBound(key); i < run.count && run.key(i) == key; i++) {
+                result.add(new Hit(game(run.game(i)), run.ply(i)));
+            }
+        }
+        result.addAll(newer);
+        return result;
+    }
+
+    /**
+     * Count the games reaching a position without reading their ids
+     */
+    public long count(long key) {
+        if (key == 0) {
+            return 0;
+        }
+        long result = 0;
+        Run[] current;
+        synchronized (this) {
+            current = runs;
+            if (flushing != null) {
+                result += flushing.find(key, games, null);
+            }
+            result += memtable.find(key, games, null);
+        }
+        for (Run run : current) {
+            for (long i = run.lowerBound(key); i < run.count && run.key(i) == key; i++) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    private synchronized String game(int number) {
+        return games.get(number);
+    }
+
+    public synchronized int getGames() {
+        return games.size();
+    }
+
+    /**
+     * @return number of positions indexed, with the ones reached again
+     */
+    public synchronized long getPositions() {
+        long result = memtable.size + (flushing == null ? 0 : flushing.size);
+        for (Run run : runs) {
+            result += run.count;
+        }
+        return result;
+    }
+
+    public int getRuns() {
+        return runs.length;
+    }
+
+    /**
+     * Write the games not flushed
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    /**
+     * usage: {@code PositionIndex [-threads n] index add files or directories...}
+     * or {@code PositionIndex index find record [ply]}
+     */
+    public static void main(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors(), i = 0;
+        if (args.length > 1 && args[0].equals("-threads")) {
+            threads = Integer.parseInt(args[1]);
+            i = 2;
+        }
+        if (args.length < i + 3 || !args[i + 1].equals("add") && !args[i + 1].equals("find")) {
+            System.out.println("usage: PositionIndex [-threads n] index add files or directories...");
+            System.out.println("       PositionIndex index find record [ply]");
+            return;
+        }
+        try (PositionIndex index = new PositionIndex(new File(args[i]))) {
+            long start = System.nanoTime();
+            if (args[i + 1].equals("add")) {
+                List<String> files = new ArrayList<>();
+                for (int j = i + 2; j < args.length; j++) {
+                    collect(new File(args[j]), files);
+                }
+                index.addAll(files, PositionIndex::read, threads);
+                System.out.printf("%d games, %d positions, %d ms%n",
+                        files.size(), index.getPositions(), (System.nanoTime() - start) / 1000000);
+            } else {
+                long[] keys = keys(read(args[i + 2]));
+                int ply = args.length > i + 3 ? Integer.parseInt(args[i + 3]) : keys.length;
+                if (ply < 1 || ply > keys.length) {
+                    System.out.println("the record has " + keys.length + " positions");
+                    return;
+                }
+                List<Hit> hits = index.find(keys[ply - 1]);
+                for (Hit hit : hits) {
+                    System.out.println(hit);
+                }
+                System.out.printf("%d games, %.2f ms%n", hits.size(), (System.nanoTime() - start) / 1e6);
+            }
+        }
+    }
+
+    private static void collect(File file, List<String> result) {
+        File[] children = file.listFiles();
+        if (children == null) {
+            result.add(file.getPath());
+            return;
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            collect(child, result);
+        }
+    }
+
+    private static CharSequence read(String path) {
+        try {
+            return new String(Files.readAllBytes(new File(path).toPath()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
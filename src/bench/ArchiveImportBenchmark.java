@@ -0,0 +1,60 @@
+package bench;
+
+import archive.ArchiveImport;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Class {@code ArchiveImportBenchmark}
+ * Throughput of the {@code ArchiveImport} pipeline.
+ * An archive of random games played on {@code Board} is written, with a few broken records,
+ * then it is validated by 1 thread up to the given number, and the statistics of every stage are printed.
+ * <p>
+ * usage: {@code ArchiveImportBenchmark [file] [games] [max threads]}
+ *
+ * @see ArchiveImport
+ */
+
+public class ArchiveImportBenchmark {
+
+    private static final int DISTINCT = 2000;
+
+    public static void main(String[] args) throws IOException {
+        File file = new File(args.length > 0 ? args[0] : "archive-bench.txt");
+        int games = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        Random random = new Random(1);
+        String[] records = new String[DISTINCT];
+        for (int i = 0; i < DISTINCT; i++) {
+            records[i] = PositionIndexBenchmark.randomRecord(random);
+        }
+        try (BufferedWriter output = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < games; i++) {
+                String record = records[i % DISTINCT];
+                if (i % 1000 == 999) {
+                    //交换两个快照，不再是一步棋
+                    int middle = record.length() / 2 / 137 * 137;
+                    record = record.substring(0, middle - 137) + record.substring(middle, middle + 137)
+                            + record.substring(middle - 137, middle) + record.substring(middle + 137);
+                }
+                output.write(record);
+                output.write("\n\n");
+            }
+        }
+        System.out.printf("%d games, %.1f MB%n", games, file.length() / 1e6);
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            ArchiveImport importer = new ArchiveImport(threads, null);
+            System.out.println(threads + " threads");
+            System.out.println(importer.run(file));
+            importer.shutdown();
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,119 @@
+package bench;
+
+import game.Board;
+import game.BoardStore;
+import game.Position;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Class {@code BoardStoreBenchmark}
+ * Memory of many parked games, as {@code Board} objects with their records
+ * and packed in a {@code BoardStore}, and the time to unpack one again.
+ * The games are random games of {@code SessionBenchmark} played for some moves.
+ * Every packed game is checked to unpack to the same position.
+ * <p>
+ * usage: {@code BoardStoreBenchmark [games] [plies] [boards kept unpacked]}
+ *
+ * @see BoardStore
+ */
+
+public class BoardStoreBenchmark {
+
+    private static final int DISTINCT = 500;
+
+    /**
+     * keeps the objects measured reachable
+     */
+    private static Object kept;
+
+    public static void main(String[] args) {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int plies = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+        int hot = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+        Random random = new Random(1);
+        Board[] played = new Board[DISTINCT];
+        ByteBuffer buffer = ByteBuffer.allocate(Board.PACKED_SIZE);
+        int mismatches = 0;
+        for (int i = 0; i < DISTINCT; i++) {
+            played[i] = play(SessionBenchmark.randomGame(random), plies);
+            played[i].pack(buffer, 0);
+            if (!same(played[i], Board.unpack(buffer, 0, null))) {
+                mismatches++;
+            }
+        }
+        System.out.printf("%d games of %d plies, %d of %d distinct games unpacked differently%n",
+                games, plies, mismatches, DISTINCT);
+
+        long before = used();
+        Board[] boards = new Board[games];
+        long moves = 0;
+        for (int i = 0; i < games; i++) {
+            played[i % DISTINCT].pack(buffer, 0);
+            boards[i] = Board.unpack(buffer, 0, null);
+            //每个游戏有自己的棋谱
+            boards[i].record = new String(played[i % DISTINCT].record.toCharArray());
+            moves += boards[i].getStep() - 1;
+        }
+        kept = boards;
+        long objects = used() - before;
+        System.out.printf("boards:  %,d bytes on the heap, %,d per game of %.1f plies on average%n",
+                objects, objects / games, (double) moves / games);
+        kept = null;
+
+        before = used();
+        BoardStore store = new BoardStore(hot);
+        int[] handles = new int[games];
+        for (int i = 0; i < games; i++) {
+            played[i % DISTINCT].pack(buffer, 0);
+            handles[i] = store.add(Board.unpack(buffer, 0, null));
+        }
+        kept = store;
+        long packed = used() - before;
+        System.out.printf("store:   %,d bytes on the heap and %,d off the heap, %,d per game, %d unpacked%n",
+                packed, store.getOffHeapBytes(), (packed + store.getOffHeapBytes()) / games, store.getHot());
+
+        for (int i = 0; i < games; i += games / 100) {
+            if (!same(played[i % DISTINCT], store.get(handles[i]))) {
+                mismatches++;
+            }
+        }
+        int rounds = 200000;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            store.get(handles[random.nextInt(games)]);
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("get of a random game %.2f us (mostly unpacking and packing the evicted one), %d mismatches%n",
+                elapsed / 1000.0 / rounds, mismatches);
+    }
+
+    private static Board play(String[] moves, int plies) {
+        Board board = new Board(null);
+        for (int i = 0; i < Math.min(plies, moves.length) && board.gameEnd() == null; i++) {
+            String move = moves[i];
+            Position start = new Position(move.charAt(0) - '0', move.charAt(1) - '0');
+            Position end = new Position(move.charAt(3) - '0', move.charAt(4) - '0');
+            if (board.getPiece(start) == null || !board.move(start, end)) {
+                break;
+            }
+        }
+        return board;
+    }
+
+    private static boolean same(Board a, Board b) {
+        return a.toString().equals(b.toString()) && a.getTurn() == b.getTurn() && a.getStep() == b.getStep()
+                && (a.getLastMove() == null ? b.getLastMove() == null : a.getLastMove().equals(b.getLastMove()))
+                && a.isChecked(a.getTurn()) == b.isChecked(b.getTurn());
+    }
+
+    private static long used() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,80 @@
+package bench;
+
+import clock.Clock;
+import clock.TimeControl;
+import clock.TimerWheel;
+import game.Piece;
+import metrics.Histogram;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class {@code ClockBenchmark}
+ * Jitter of the fall of the flags of many clocks on one {@code TimerWheel}.
+ * Every clock has a random base time and an increment, white moves once at a random moment,
+ * then the flag of black falls. The jitter is the time from the deadline of black
+ * to the call of the listener, it should stay within a tick plus the scheduling of the thread.
+ * <p>
+ * usage: {@code ClockBenchmark [clocks] [longest base time in milliseconds]}
+ *
+ * @see Clock
+ * @see TimerWheel
+ */
+
+public class ClockBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        long longest = args.length > 1 ? Long.parseLong(args[1]) : 3000;
+
+        Random random = new Random(1);
+        TimerWheel wheel = TimerWheel.shared();
+        Histogram jitter = new Histogram();
+        CountDownLatch flags = new CountDownLatch(count);
+        long[] deadlines = new long[count];
+        Clock[] clocks = new Clock[count];
+        for (int i = 0; i < count; i++) {
+            int id = i;
+            long base = TimeUnit.MILLISECONDS.toNanos(longest / 4 + random.nextInt((int) (longest * 3 / 4)));
+            clocks[i] = new Clock(new TimeControl(base, TimeUnit.MILLISECONDS.toNanos(100), 0), wheel, (clock, color) -> {
+                long late = System.nanoTime() - deadlines[id];
+                jitter.record(Math.max(late, 0));
+                flags.countDown();
+            });
+        }
+
+        long start = System.nanoTime();
+        for (Clock clock : clocks) {
+            clock.start();
+        }
+        //白方在前四分之一的时间里随机走一步，黑方不走
+        long[] moves = new long[count];
+        for (int i = 0; i < count; i++) {
+            moves[i] = start + (long) (random.nextDouble() * TimeUnit.MILLISECONDS.toNanos(longest / 4));
+        }
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(moves[a], moves[b]));
+        for (int i : order) {
+            long wait = moves[i] - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            long before = System.nanoTime();
+            clocks[i].press(Piece.Color.white);
+            long after = System.nanoTime();
+            deadlines[i] = before + (after - before) / 2 + clocks[i].getRemaining(Piece.Color.black);
+        }
+        flags.await();
+
+        System.out.printf("%d clocks, %d threads, tick %d us%n", count, Thread.activeCount(), wheel.getTick() / 1000);
+        System.out.printf("flag jitter: mean %.0f us, p50 %d us, p99 %d us, p99.9 %d us, max %d us%n",
+                jitter.getMean() / 1000, jitter.getPercentile(50) / 1000, jitter.getPercentile(99) / 1000,
+                jitter.getPercentile(99.9) / 1000, jitter.getMax() / 1000);
+    }
+}
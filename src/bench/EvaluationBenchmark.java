@@ -0,0 +1,84 @@
+package bench;
+
+import engine.Evaluation;
+import engine.SearchBoard;
+
+/**
+ * Class {@code EvaluationBenchmark}
+ * Walks every line a few plies deep from the positions of {@code TranspositionBenchmark}
+ * and evaluates every position reached,
+ * with the incremental {@code Evaluation} and with a full recompute.
+ * The time of the walk alone is subtracted to get the cost of one evaluation.
+ * <p>
+ * usage: {@code EvaluationBenchmark [plies] [rounds]}
+ *
+ * @see Evaluation
+ */
+
+public class EvaluationBenchmark {
+
+    private static final int NONE = 0, FULL = 1, INCREMENTAL = 2;
+
+    public static void main(String[] args) {
+        int plies = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        long[] best = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+        long nodes = 0, full = 0, incremental = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (int mode = NONE; mode <= INCREMENTAL; mode++) {
+                Walk walk = new Walk(mode);
+                long start = System.nanoTime();
+                for (String opening : TranspositionBenchmark.OPENINGS) {
+                    walk.walk(TranspositionBenchmark.position(opening), plies);
+                }
+                best[mode] = Math.min(best[mode], System.nanoTime() - start);
+                nodes = walk.nodes;
+                if (mode == FULL) {
+                    full = walk.sum;
+                } else if (mode == INCREMENTAL && round == rounds - 1) {
+                    incremental = walk.sum;
+                    System.out.printf("pawn hash hits %.1f%%%n",
+                            walk.evaluation.getPawnHits() * 100.0 / walk.evaluation.getPawnProbes());
+                }
+            }
+        }
+        double fullCost = (double) (best[FULL] - best[NONE]) / nodes;
+        double incrementalCost = (double) (best[INCREMENTAL] - best[NONE]) / nodes;
+        System.out.printf("%,d positions, walk %.1f ns/position, scores %s%n",
+                nodes, (double) best[NONE] / nodes, full == incremental ? "equal" : "DIFFERENT");
+        System.out.printf("full recompute %.1f ns, incremental %.1f ns, %.1fx%n",
+                fullCost, incrementalCost, fullCost / incrementalCost);
+    }
+
+    private static class Walk {
+        private final int mode;
+        private final Evaluation evaluation = new Evaluation();
+        private final int[][] moves = new int[16][SearchBoard.MAX_MOVES];
+        private long nodes, sum;
+
+        private Walk(int mode) {
+            this.mode = mode;
+        }
+
+        private void walk(SearchBoard board, int plies) {
+            nodes++;
+            if (mode == FULL) {
+                sum += Evaluation.evaluateFull(board);
+            } else if (mode == INCREMENTAL) {
+                sum += evaluation.evaluate(board);
+            }
+            if (plies == 0) {
+                return;
+            }
+            int[] list = moves[plies];
+            int count = board.generateMoves(list);
+            for (int i = 0; i < count; i++) {
+                if (board.make(list[i])) {
+                    walk(board, plies - 1);
+                    board.unmake(list[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package bench;
+
+import engine.Move;
+import engine.SearchBoard;
+import game.Board;
+import game.Fen;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Class {@code FenBenchmark}
+ * Speed and allocation of {@code Fen}.
+ * Random games are played on the search board, the position after every move is kept as a FEN,
+ * then the positions are written into a buffer one per line, read back from it and from strings,
+ * and read and set on a search board, the best round of each is kept.
+ * The bytes allocated by the thread are measured, they should be 0 per position.
+ * At last every position is checked to be written back the same,
+ * by {@code Fen} alone and through a {@code Board}.
+ * <p>
+ * usage: {@code FenBenchmark [positions] [rounds]}
+ *
+ * @see Fen
+ */
+
+public class FenBenchmark {
+
+    private static final int PLIES = 80;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        String[] positions = positions(count, new Random(1));
+        Fen[] parsed = new Fen[count];
+        for (int i = 0; i < count; i++) {
+            parsed[i] = new Fen(positions[i]);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(count * 100);
+        Fen fen = new Fen();
+        SearchBoard board = new SearchBoard();
+
+        String[] names = {"write to buffer", "parse from buffer", "parse from string", "parse and set search board"};
+        long[] best = new long[names.length], allocated = new long[names.length];
+        Arrays.fill(best, Long.MAX_VALUE);
+        long sum = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (int mode = 0; mode < names.length; mode++) {
+                long bytes = allocated();
+                long start = System.nanoTime();
+                if (mode == 0) {
+                    buffer.clear();
+                    for (Fen position : parsed) {
+                        position.write(buffer);
+                        buffer.put((byte) '\n');
+                    }
+                    buffer.flip();
+                } else if (mode == 1) {
+                    buffer.rewind();
+                    for (int i = 0; i < count; i++) {
+                        fen.parse(buffer);
+                        sum += fen.getHalfmoves();
+                    }
+                } else if (mode == 2) {
+                    for (String position : positions) {
+                        fen.parse(position);
+                        sum += fen.getHalfmoves();
+                    }
+                } else {
+                    for (String position : positions) {
+                        fen.parse(position);
+                        board.set(fen);
+                        sum += board.getKey();
+                    }
+                }
+                best[mode] = Math.min(best[mode], System.nanoTime() - start);
+                allocated[mode] = allocated() - bytes;
+            }
+        }
+        for (int mode = 0; mode < names.length; mode++) {
+            System.out.printf("%s: %.2f M positions/s, %.1f bytes allocated per position%n", names[mode],
+                    count / (best[mode] / 1e9) / 1e6, (double) allocated[mode] / count);
+        }
+
+        int different = 0, differentBoard = 0;
+        Board game = new Board(null);
+        for (String position : positions) {
+            fen.parse(position);
+            if (!fen.toString().equals(position)) {
+                different++;
+            }
+            game.setFen(fen);
+            if (!game.toFen(fen).toString().equals(position)) {
+                differentBoard++;
+            }
+        }
+        System.out.printf("%d positions, %d written differently, %d differently through Board (%d)%n",
+                count, different, differentBoard, sum & 1);
+    }
+
+    /**
+     * @return bytes allocated by this thread, 0 if it can not be measured
+     */
+    private static long allocated() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * @return positions of random games played by the rules of the search board
+     */
+    static String[] positions(int count, Random random) {
+        String[] result = new String[count];
+        int[] moves = new int[SearchBoard.MAX_MOVES];
+        Fen fen = new Fen();
+        SearchBoard board = new SearchBoard();
+        int ply = 0;
+        for (int i = 0; i < count; i++) {
+            int legal = Move.NONE;
+            if (ply < PLIES) {
+                int generated = board.generateMoves(moves);
+                //随机打乱后找第一个合法的着法
+                for (int j = generated - 1; j > 0; j--) {
+                    int k = random.nextInt(j + 1), swap = moves[j];
+                    moves[j] = moves[k];
+                    moves[k] = swap;
+                }
+                for (int j = 0; j < generated && legal == Move.NONE; j++) {
+                    if (board.make(moves[j])) {
+                        legal = moves[j];
+                    }
+                }
+            }
+            if (legal == Move.NONE) {
+                board = new SearchBoard();
+                ply = 0;
+                fen.setFullmoves(1);
+                result[i] = board.toFen(fen).toString();
+                continue;
+            }
+            ply++;
+            fen.setFullmoves(ply / 2 + 1);
+            result[i] = board.toFen(fen).toString();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,89 @@
+package bench;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Class {@code FlightRecorderBenchmark}
+ * Cost of the Flight Recorder events of {@code Board}.
+ * Random games are replayed without a recording, with a recording of the default settings
+ * where the events of the chess are off, and with them on, the best round of each is kept.
+ * The metrics are off so only the events are measured.
+ * At last the events of the recording are counted by name.
+ * <p>
+ * usage: {@code FlightRecorderBenchmark [rounds]}
+ *
+ * @see metrics.MoveEvent
+ * @see metrics.GenerationEvent
+ */
+
+public class FlightRecorderBenchmark {
+
+    private static final int GAMES = 200;
+
+    private static final String[] MODES = {"no recording", "events off", "events on"};
+
+    public static void main(String[] args) throws IOException, ParseException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+        Random random = new Random(1);
+        String[][] games = new String[GAMES][];
+        for (int i = 0; i < GAMES; i++) {
+            games[i] = SessionBenchmark.randomGame(random);
+        }
+        Metrics.setEnabled(false);
+
+        long[] best = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+        long moves = 0;
+        Path file = Files.createTempFile("chess", ".jfr");
+        for (int round = 0; round < rounds; round++) {
+            for (int mode = 0; mode < MODES.length; mode++) {
+                Recording recording = null;
+                if (mode > 0) {
+                    recording = new Recording(Configuration.getConfiguration("default"));
+                    if (mode == 2) {
+                        recording.enable("chess.Move");
+                        //默认只记录超过阈值的走子生成，这里全部记录
+                        recording.enable("chess.MoveGeneration").withThreshold(java.time.Duration.ZERO);
+                    }
+                    recording.start();
+                }
+                long start = System.nanoTime();
+                moves = MetricsBenchmark.replay(games);
+                best[mode] = Math.min(best[mode], System.nanoTime() - start);
+                if (recording != null) {
+                    recording.stop();
+                    if (mode == 2 && round == rounds - 1) {
+                        recording.dump(file);
+                    }
+                    recording.close();
+                }
+            }
+        }
+        for (int mode = 0; mode < MODES.length; mode++) {
+            System.out.printf("%s: %.0f moves/s, %+.2f%%%n", MODES[mode], moves / (best[mode] / 1e9),
+                    100.0 * (best[mode] - best[0]) / best[0]);
+        }
+
+        Map<String, Integer> counts = new TreeMap<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            String name = event.getEventType().getName();
+            if (name.startsWith("chess.")) {
+                counts.merge(name, 1, Integer::sum);
+            }
+        }
+        System.out.println(counts);
+        Files.delete(file);
+    }
+}
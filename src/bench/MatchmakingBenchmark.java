@@ -0,0 +1,96 @@
+package bench;
+
+import socket.Matchmaker;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class {@code MatchmakingBenchmark}
+ * Local load test of the {@code Matchmaker}.
+ * Several threads enqueue players of random ratings and time controls
+ * at a given total rate, the pairing latency of every match is recorded,
+ * from the enqueue of the player that waited to the moment it is paired.
+ * <p>
+ * usage: {@code MatchmakingBenchmark [threads] [players] [enqueues per second, 0 for no limit]}
+ *
+ * @see Matchmaker
+ */
+
+public class MatchmakingBenchmark {
+
+    private static final String[] TIME_CONTROLS = {"1+0", "3+2", "10+0", "15+10"};
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int players = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        long rate = args.length > 2 ? Long.parseLong(args[2]) : 50000;
+
+        long[] latencies = new long[players / 2 + 1];
+        AtomicInteger matches = new AtomicInteger();
+        Matchmaker<Integer> matchmaker = new Matchmaker<>((white, black) -> {
+            int i = matches.getAndIncrement();
+            if (i < latencies.length) {
+                latencies[i] = System.nanoTime() - white.getEnqueued();
+            }
+        });
+
+        Thread[] workers = new Thread[threads];
+        int each = players / threads;
+        long interval = rate > 0 ? 1000000000L * threads / rate : 0;
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            workers[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                long next = System.nanoTime();
+                for (int i = 0; i < each; i++) {
+                    if (interval > 0) {
+                        next += interval;
+                        long wait = next - System.nanoTime();
+                        if (wait > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                    }
+                    int rating = (int) Math.max(0, 1500 + random.nextGaussian() * 350);
+                    matchmaker.enqueue(i, rating, TIME_CONTROLS[random.nextInt(TIME_CONTROLS.length)]);
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        //等待清扫线程配对剩下的玩家
+        Thread.sleep(Matchmaker.SWEEP_INTERVAL * 4);
+        matchmaker.stop();
+
+        int count = Math.min(matches.get(), latencies.length);
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        System.out.printf("threads %d, players %d, target rate %d/s%n", threads, each * threads, rate);
+        System.out.printf("enqueues %.0f/s, matches %d, still waiting %d%n",
+                each * threads * 1e9 / elapsed, matches.get(), matchmaker.getWaiting());
+        System.out.printf("pairing latency p50 %s, p90 %s, p99 %s, p99.9 %s, max %s%n",
+                format(percentile(sorted, 0.50)), format(percentile(sorted, 0.90)),
+                format(percentile(sorted, 0.99)), format(percentile(sorted, 0.999)),
+                format(count > 0 ? sorted[count - 1] : 0));
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+    }
+
+    private static String format(long nanos) {
+        if (nanos >= 1000000) {
+            return String.format("%.2fms", nanos / 1e6);
+        }
+        return String.format("%.1fus", nanos / 1e3);
+    }
+}
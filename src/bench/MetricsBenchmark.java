@@ -0,0 +1,101 @@
+package bench;
+
+import engine.Engine;
+import engine.SearchBoard;
+import game.Board;
+import metrics.Metrics;
+import metrics.MetricsServer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Class {@code MetricsBenchmark}
+ * Cost of the {@code Metrics} on the hot paths.
+ * Random games are replayed on {@code Board} and the computer searches the openings of
+ * {@code TranspositionBenchmark} to a fixed depth, with the metrics on and off in turn,
+ * the best round of each is kept. At last the metrics are read once over HTTP.
+ * <p>
+ * usage: {@code MetricsBenchmark [rounds] [depth]}
+ *
+ * @see Metrics
+ */
+
+public class MetricsBenchmark {
+
+    private static final int GAMES = 200;
+
+    public static void main(String[] args) throws IOException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 6;
+
+        Random random = new Random(1);
+        String[][] games = new String[GAMES][];
+        for (int i = 0; i < GAMES; i++) {
+            games[i] = SessionBenchmark.randomGame(random);
+        }
+        Engine engine = new Engine();
+        engine.setTimeBudget(0);
+        engine.setMaxDepth(depth);
+
+        long[] boardBest = {Long.MAX_VALUE, Long.MAX_VALUE}, engineBest = {Long.MAX_VALUE, Long.MAX_VALUE};
+        long moves = 0, nodes = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (int on = 0; on < 2; on++) {
+                Metrics.setEnabled(on == 1);
+                long start = System.nanoTime();
+                moves = replay(games);
+                boardBest[on] = Math.min(boardBest[on], System.nanoTime() - start);
+
+                start = System.nanoTime();
+                nodes = 0;
+                for (String opening : TranspositionBenchmark.OPENINGS) {
+                    engine.clearHash();
+                    nodes += engine.think(TranspositionBenchmark.position(opening), null).getNodes();
+                }
+                engineBest[on] = Math.min(engineBest[on], System.nanoTime() - start);
+            }
+        }
+        System.out.printf("Board.move: %.0f moves/s off, %.0f moves/s on, overhead %.2f%%%n",
+                moves / (boardBest[0] / 1e9), moves / (boardBest[1] / 1e9), 100.0 * (boardBest[1] - boardBest[0]) / boardBest[0]);
+        System.out.printf("engine: %.0f nodes/s off, %.0f nodes/s on, overhead %.2f%%%n",
+                nodes / (engineBest[0] / 1e9), nodes / (engineBest[1] / 1e9), 100.0 * (engineBest[1] - engineBest[0]) / engineBest[0]);
+
+        try (MetricsServer server = new MetricsServer(0, Metrics.registry())) {
+            URL url = new URL("http://127.0.0.1:" + server.getPort() + "/metrics");
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.startsWith("#") && !line.contains("_bucket")) {
+                        System.out.println(line);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of moves played
+     */
+    static long replay(String[][] games) {
+        long moves = 0;
+        for (String[] game : games) {
+            Board board = new Board(null);
+            for (String move : game) {
+                try {
+                    if (!board.move(move)) {
+                        break;
+                    }
+                } catch (RuntimeException e) {
+                    break;
+                }
+                moves++;
+            }
+        }
+        return moves;
+    }
+}
@@ -0,0 +1,144 @@
+package bench;
+
+import game.Board;
+import metrics.Histogram;
+import socket.MoveLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Class {@code MoveLogBenchmark}
+ * Commits per second of the {@code MoveLog} on the local disk.
+ * First a single writer forces the file after every move, as without group commit,
+ * then more and more games commit their moves at the same time, each waiting until its move is durable.
+ * At last the log is opened again and the games left are replayed, as after a crash.
+ * <p>
+ * usage: {@code MoveLogBenchmark [directory] [seconds] [max games]}
+ *
+ * @see MoveLog
+ */
+
+public class MoveLogBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        File directory = new File(args.length > 0 ? args[0] : "move-log-bench");
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 3;
+        int maxGames = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        clear(directory);
+
+        String[] game = SessionBenchmark.randomGame(new Random(1));
+        single(directory, game, seconds);
+        clear(directory);
+        for (int games = 1; games <= maxGames; games *= 4) {
+            run(directory, game, games, seconds);
+        }
+
+        long start = System.nanoTime();
+        try (MoveLog log = new MoveLog(directory)) {
+            long read = System.nanoTime();
+            Map<String, Board> boards = log.replay();
+            long moves = 0;
+            for (List<String> list : log.getRecovered().values()) {
+                moves += list.size();
+            }
+            System.out.printf("recovery: %d games, %d moves, read %.1fms, replay %.1fms%n", boards.size(), moves,
+                    (read - start) / 1e6, (System.nanoTime() - read) / 1e6);
+        }
+        clear(directory);
+    }
+
+    /**
+     * One force for every move
+     */
+    private static void single(File directory, String[] game, double seconds) throws IOException {
+        Histogram latency = new Histogram();
+        File file = new File(directory, "single.log");
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            long end = System.nanoTime() + (long) (seconds * 1e9);
+            long count = 0;
+            long start = System.nanoTime();
+            while (System.nanoTime() < end) {
+                long before = System.nanoTime();
+                channel.write(ByteBuffer.wrap(("0 " + game[(int) (count % game.length)] + "\n")
+                        .getBytes(StandardCharsets.UTF_8)));
+                channel.force(false);
+                latency.record(System.nanoTime() - before);
+                count++;
+            }
+            System.out.printf("force per move: %.0f commits/s, p50 %s, p99 %s%n",
+                    count / ((System.nanoTime() - start) / 1e9),
+                    format(latency.getPercentile(50)), format(latency.getPercentile(99)));
+        }
+    }
+
+    /**
+     * Every game commits its moves in a loop, the last game is left unfinished
+     */
+    private static void run(File directory, String[] game, int games, double seconds) throws Exception {
+        Histogram latency = new Histogram();
+        AtomicBoolean stop = new AtomicBoolean();
+        try (MoveLog log = new MoveLog(directory)) {
+            Thread[] threads = new Thread[games];
+            for (int i = 0; i < games; i++) {
+                int index = i;
+                threads[i] = new Thread(() -> {
+                    try {
+                        for (int round = 0; !stop.get(); round++) {
+                            String id = games + "-" + index + "-" + round;
+                            for (int j = 0; j < game.length && !stop.get(); j++) {
+                                long before = System.nanoTime();
+                                log.commit(id, game[j]);
+                                latency.record(System.nanoTime() - before);
+                            }
+                            if (!stop.get()) {
+                                log.end(id);
+                            }
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                });
+                threads[i].start();
+            }
+            long start = System.nanoTime();
+            long forces = log.getForces();
+            Thread.sleep((long) (seconds * 1000));
+            stop.set(true);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            System.out.printf("group commit, %d games: %.0f commits/s, %.1f moves per force, p50 %s, p99 %s%n",
+                    games, latency.getCount() / elapsed,
+                    (double) latency.getCount() / Math.max(log.getForces() - forces, 1),
+                    format(latency.getPercentile(50)), format(latency.getPercentile(99)));
+        }
+    }
+
+    private static void clear(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.mkdirs();
+    }
+
+    private static String format(long nanos) {
+        if (nanos >= 1000000) {
+            return String.format("%.2fms", nanos / 1e6);
+        }
+        return String.format("%.1fus", nanos / 1e3);
+    }
+}
@@ -0,0 +1,120 @@
+package bench;
+
+import archive.PositionIndex;
+import game.Board;
+import metrics.Histogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Class {@code PositionIndexBenchmark}
+ * Building and querying a {@code PositionIndex} of random games.
+ * Random legal games are played on {@code Board} for their records, and indexed again and again
+ * under different ids as a large archive, by 1 thread up to the given number.
+ * Then positions of the games are looked up, the late ones reached by a few games
+ * and the first ones reached by almost all of them, and single games are added as they are saved.
+ * <p>
+ * usage: {@code PositionIndexBenchmark [directory] [games] [max threads]}
+ *
+ * @see PositionIndex
+ */
+
+public class PositionIndexBenchmark {
+
+    private static final int DISTINCT = 2000;
+    private static final int QUERIES = 2000;
+
+    public static void main(String[] args) throws IOException {
+        File directory = new File(args.length > 0 ? args[0] : "position-index-bench");
+        int games = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        Random random = new Random(1);
+        String[] records = new String[DISTINCT];
+        for (int i = 0; i < DISTINCT; i++) {
+            records[i] = randomRecord(random);
+        }
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < games; i++) {
+            ids.add("game-" + i);
+        }
+
+        PositionIndex index = null;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            clear(directory);
+            index = new PositionIndex(directory);
+            long start = System.nanoTime();
+            index.addAll(ids, id -> records[Integer.parseInt(id.substring(5)) % DISTINCT], threads);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("build, %d threads: %d games, %d positions, %.2fs, %.0f games/s%n",
+                    threads, games, index.getPositions(), seconds, games / seconds);
+        }
+
+        Histogram late = new Histogram(), early = new Histogram();
+        long hits = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            long[] keys = PositionIndex.keys(records[random.nextInt(DISTINCT)]);
+            long start = System.nanoTime();
+            hits += index.find(keys[keys.length - 1]).size();
+            late.record(System.nanoTime() - start);
+            start = System.nanoTime();
+            index.count(keys[0]);
+            early.record(System.nanoTime() - start);
+        }
+        System.out.printf("find a late position: %.1f games, p50 %s, p99 %s%n",
+                (double) hits / QUERIES, format(late.getPercentile(50)), format(late.getPercentile(99)));
+        System.out.printf("count the first position: p50 %s, p99 %s%n",
+                format(early.getPercentile(50)), format(early.getPercentile(99)));
+
+        Histogram saves = new Histogram();
+        for (int i = 0; i < 100; i++) {
+            long start = System.nanoTime();
+            index.add("saved-" + i, records[i]);
+            index.flush();
+            saves.record(System.nanoTime() - start);
+        }
+        System.out.printf("add and flush a game: p50 %s, p99 %s, %d runs%n",
+                format(saves.getPercentile(50)), format(saves.getPercentile(99)), index.getRuns());
+        index.close();
+        clear(directory);
+        directory.delete();
+    }
+
+    /**
+     * @return the record of a random game played on {@code Board}
+     */
+    static String randomRecord(Random random) {
+        Board board = new Board(null);
+        for (String move : SessionBenchmark.randomGame(random)) {
+            try {
+                //规则与引擎不同的少数棋局在此截断
+                if (!board.move(move)) {
+                    break;
+                }
+            } catch (RuntimeException e) {
+                break;
+            }
+        }
+        return board.record;
+    }
+
+    private static void clear(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private static String format(long nanos) {
+        if (nanos >= 1000000) {
+            return String.format("%.2fms", nanos / 1e6);
+        }
+        return String.format("%.1fus", nanos / 1e3);
+    }
+}
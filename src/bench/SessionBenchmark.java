@@ -0,0 +1,142 @@
+package bench;
+
+import engine.Move;
+import engine.SearchBoard;
+import game.Board;
+import socket.SessionManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class {@code SessionBenchmark}
+ * Synthetic load test of the {@code SessionManager}.
+ * Random legal games are prepared with {@code SearchBoard} and checked on a {@code Board},
+ * then several threads send their moves to many games at once, a move of every game in turn,
+ * as players of many rooms would.
+ * The throughput is the number of moves applied per second,
+ * from the first move sent to the last one applied, for 1 shard up to the given number.
+ * A move refused by the manager means its rules disagree with the search board,
+ * the benchmark then fails at once.
+ * <p>
+ * usage: {@code SessionBenchmark [max shards] [games] [senders]}
+ *
+ * @see SessionManager
+ */
+
+public class SessionBenchmark {
+
+    private static final int PLIES = 80;
+    private static final int DISTINCT = 1000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int maxShards = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int games = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        int senders = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        List<String[]> distinct = new ArrayList<>();
+        Random random = new Random(1);
+        for (int i = 0; i < DISTINCT; i++) {
+            distinct.add(randomGame(random));
+        }
+        long total = 0;
+        for (int i = 0; i < games; i++) {
+            total += distinct.get(i % DISTINCT).length;
+        }
+        System.out.printf("%d games, %d moves, %d senders, %d cores%n",
+                games, total, senders, Runtime.getRuntime().availableProcessors());
+
+        for (int shards = 1; shards <= maxShards; shards *= 2) {
+            run(shards, games, senders, distinct, total);
+        }
+        if (Integer.bitCount(maxShards) != 1) {
+            run(maxShards, games, senders, distinct, total);
+        }
+    }
+
+    private static void run(int shards, int games, int senders, List<String[]> distinct, long total) throws InterruptedException {
+        LongAdder applied = new LongAdder();
+        AtomicReference<String> illegal = new AtomicReference<>();
+        SessionManager manager = new SessionManager(shards, (session, message, legal) -> {
+            applied.increment();
+            if (!legal) {
+                illegal.compareAndSet(null, message + " of game " + session);
+            }
+        });
+        for (int i = 0; i < games; i++) {
+            manager.open(String.valueOf(i));
+        }
+
+        Thread[] threads = new Thread[senders];
+        long start = System.nanoTime();
+        for (int t = 0; t < senders; t++) {
+            int first = t;
+            threads[t] = new Thread(() -> {
+                //每个游戏只由一个线程发送，保持走子顺序
+                for (int ply = 0; ply < PLIES; ply++) {
+                    for (int game = first; game < games; game += senders) {
+                        String[] moves = distinct.get(game % distinct.size());
+                        if (ply < moves.length) {
+                            manager.move(String.valueOf(game), moves[ply]);
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        while (applied.sum() < total && illegal.get() == null) {
+            Thread.sleep(1);
+        }
+        long elapsed = System.nanoTime() - start;
+        manager.close();
+        if (illegal.get() != null) {
+            throw new IllegalStateException("illegal move " + illegal.get());
+        }
+        System.out.printf("shards %2d: %,.0f moves/s, %d ms%n", shards, total * 1e9 / elapsed, elapsed / 1000000);
+    }
+
+    /**
+     * @return the moves of a random game in the format of the online game, until mate, a draw or {@code PLIES}
+     * @throws IllegalStateException if a move of the search board is refused by {@code Board}
+     */
+    static String[] randomGame(Random random) {
+        SearchBoard board = new SearchBoard();
+        Board game = new Board(null);
+        List<String> result = new ArrayList<>();
+        int[] moves = new int[SearchBoard.MAX_MOVES];
+        while (result.size() < PLIES) {
+            int count = board.generateMoves(moves);
+            List<Integer> legal = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                if (board.make(moves[i])) {
+                    board.unmake(moves[i]);
+                    legal.add(moves[i]);
+                }
+            }
+            if (legal.isEmpty()) {
+                break;
+            }
+            int move = legal.get(random.nextInt(legal.size()));
+            String message = "" + SearchBoard.x(Move.from(move)) + SearchBoard.y(Move.from(move))
+                    + "+" + SearchBoard.x(Move.to(move)) + SearchBoard.y(Move.to(move));
+            if (Move.promotion(move) != 0) {
+                message += " pnbrqk".charAt(Move.promotion(move));
+            }
+            if (!game.move(message)) {
+                throw new IllegalStateException("Board refuses " + message + " after " + result);
+            }
+            result.add(message);
+            board.make(move);
+            if (game.isOver()) {
+                break;
+            }
+        }
+        return result.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,62 @@
+package bench;
+
+import engine.Engine;
+import engine.SearchInfo;
+
+/**
+ * Class {@code SmpBenchmark}
+ * Time to depth of the {@code Engine} from 1 thread to the given number of threads,
+ * doubling every time, over the positions of {@code TranspositionBenchmark}.
+ * Every run uses a new engine, so the transposition table starts empty.
+ * <p>
+ * usage: {@code SmpBenchmark [max threads] [depth] [table megabytes]}
+ *
+ * @see Engine
+ */
+
+public class SmpBenchmark {
+
+    public static void main(String[] args) {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int megabytes = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+
+        //预热
+        run(Math.min(2, maxThreads), depth - 2, megabytes);
+
+        System.out.printf("depth %d, table %d MB, %d processors%n",
+                depth, megabytes, Runtime.getRuntime().availableProcessors());
+        long single = 0;
+        for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads)) {
+            long[] result = run(threads, depth, megabytes);
+            if (threads == 1) {
+                single = result[0];
+            }
+            System.out.printf("threads %3d  time %6d ms  nodes %,14d  nps %,12d  speedup %.2fx%n",
+                    threads, result[0] / 1000000, result[1], result[1] * 1000000000 / Math.max(1, result[0]),
+                    (double) single / result[0]);
+            if (threads >= maxThreads) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return nanoseconds and nodes to reach the depth in all the positions
+     */
+    private static long[] run(int threads, int depth, int megabytes) {
+        long nanos = 0, nodes = 0;
+        for (String opening : TranspositionBenchmark.OPENINGS) {
+            Engine engine = new Engine();
+            engine.setHashSize(megabytes);
+            engine.setThreads(threads);
+            engine.setTimeBudget(0);
+            engine.setMaxDepth(depth);
+            SearchInfo info = engine.think(TranspositionBenchmark.position(opening), null);
+            nanos += info.getNanos();
+            nodes += info.getNodes();
+            engine.setThreads(1);
+        }
+        return new long[]{nanos, nodes};
+    }
+}
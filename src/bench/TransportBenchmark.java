@@ -0,0 +1,217 @@
+package bench;
+
+import metrics.Histogram;
+import socket.Compression;
+import socket.Tls;
+import socket.TlsChannel;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Class {@code TransportBenchmark}
+ * Loopback benchmark of the game connection, in plain TCP and in TLS.
+ * It measures the cost of connecting, the round-trip time of a move,
+ * and the throughput of a stream of board snapshots, plain and compressed,
+ * echoed by a local server.
+ * If no key store is given by {@code -Dchess.tls.keystore},
+ * a self-signed certificate is generated by {@code keytool}.
+ * <p>
+ * usage: {@code TransportBenchmark [connections] [messages]}
+ *
+ * @see Tls
+ * @see Compression
+ */
+
+public class TransportBenchmark {
+
+    /**
+     * a board of the middle game as a FEN
+     */
+    private static final String SNAPSHOT = "r1bqkb1r/pppp1ppp/2n2n2/4p3/2B1P3/5N2/PPPP1PPP/RNBQK2R w KQkq - 4 4";
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        if (System.getProperty("chess.tls.keystore") == null) {
+            selfSigned();
+        }
+        String compressed = Compression.compress(SNAPSHOT);
+        System.out.printf("snapshot %d bytes, compressed %d bytes%n",
+                SNAPSHOT.getBytes(StandardCharsets.UTF_8).length, compressed.length());
+        for (boolean tls : new boolean[]{false, true}) {
+            System.setProperty("chess.tls", String.valueOf(tls));
+            run(tls ? "tls" : "plain", connections, messages);
+        }
+    }
+
+    private static void run(String name, int connections, int messages) throws Exception {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+        int port = server.socket().getLocalPort();
+        Thread acceptor = new Thread(() -> {
+            while (server.isOpen()) {
+                try {
+                    SocketChannel channel = server.accept();
+                    Thread echo = new Thread(() -> echo(channel));
+                    echo.setDaemon(true);
+                    echo.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        //预热
+        for (int i = 0; i < connections / 4; i++) {
+            connect(port).close();
+        }
+        Histogram handshakes = new Histogram();
+        for (int i = 0; i < connections; i++) {
+            long start = System.nanoTime();
+            Connection connection = connect(port);
+            connection.output.writeUTF("Hello");
+            connection.input.readUTF();
+            handshakes.record(System.nanoTime() - start);
+            connection.close();
+        }
+        System.out.printf("%s: connect %s, p50 %s, p99 %s%n", name,
+                format((long) handshakes.getMean()), format(handshakes.getPercentile(50)), format(handshakes.getPercentile(99)));
+
+        Connection connection = connect(port);
+        Histogram rtt = new Histogram();
+        for (int i = 0; i < messages; i++) {
+            long start = System.nanoTime();
+            connection.output.writeUTF("M " + i + " 64+44q");
+            connection.input.readUTF();
+            rtt.record(System.nanoTime() - start);
+        }
+        System.out.printf("%s: move round trip p50 %s, p99 %s, max %s%n", name,
+                format(rtt.getPercentile(50)), format(rtt.getPercentile(99)), format(rtt.getMax()));
+
+        for (boolean compress : new boolean[]{false, true}) {
+            Thread writer = new Thread(() -> {
+                try {
+                    for (int i = 0; i < messages; i++) {
+                        connection.output.writeUTF(compress ? "Z " + Compression.compress(SNAPSHOT) : "S " + SNAPSHOT);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            long start = System.nanoTime();
+            writer.start();
+            long bytes = 0;
+            for (int i = 0; i < messages; i++) {
+                String frame = connection.input.readUTF();
+                if (compress) {
+                    Compression.decompress(frame.substring(2));
+                }
+                bytes += frame.length() + 2;
+            }
+            writer.join();
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%s: %s snapshots %.0f/s, %.2f MB/s on the wire%n", name, compress ? "compressed" : "plain",
+                    messages * 1e9 / elapsed, bytes * 1e3 / elapsed);
+        }
+        connection.close();
+        server.close();
+    }
+
+    private static Connection connect(int port) throws IOException {
+        if (Tls.isEnabled()) {
+            SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", port));
+            channel.socket().setTcpNoDelay(true);
+            TlsChannel tls = Tls.client(channel, "127.0.0.1", port, 5000);
+            return new Connection(tls, new DataInputStream(tls.getInputStream()), new DataOutputStream(tls.getOutputStream()));
+        }
+        Socket socket = new Socket("127.0.0.1", port);
+        socket.setTcpNoDelay(true);
+        return new Connection(socket, new DataInputStream(socket.getInputStream()), new DataOutputStream(socket.getOutputStream()));
+    }
+
+    private static void echo(SocketChannel channel) {
+        Closeable closeable = channel;
+        try {
+            channel.socket().setTcpNoDelay(true);
+            DataInputStream input;
+            DataOutputStream output;
+            if (Tls.isEnabled()) {
+                TlsChannel tls = Tls.server(channel, 5000);
+                closeable = tls;
+                input = new DataInputStream(tls.getInputStream());
+                output = new DataOutputStream(tls.getOutputStream());
+            } else {
+                input = new DataInputStream(channel.socket().getInputStream());
+                output = new DataOutputStream(channel.socket().getOutputStream());
+            }
+            while (true) {
+                output.writeUTF(input.readUTF());
+            }
+        } catch (IOException e) {
+            //连接关闭
+        } finally {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Generate a self-signed certificate for this run
+     */
+    private static void selfSigned() throws IOException, InterruptedException {
+        File store = File.createTempFile("chess", ".jks");
+        store.delete();
+        store.deleteOnExit();
+        String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-keyalg", "EC", "-keysize", "256",
+                "-alias", "chess", "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1", "-validity", "1",
+                "-keystore", store.getPath(), "-storepass", "changeit", "-keypass", "changeit")
+                .inheritIO().start();
+        if (process.waitFor() != 0) {
+            throw new IOException("keytool failed");
+        }
+        System.setProperty("chess.tls.keystore", store.getPath());
+    }
+
+    /**
+     * Class {@code Connection}
+     * a client connection, plain or TLS
+     */
+    private static class Connection implements Closeable {
+        final Closeable closeable;
+        final DataInputStream input;
+        final DataOutputStream output;
+
+        Connection(Closeable closeable, DataInputStream input, DataOutputStream output) {
+            this.closeable = closeable;
+            this.input = input;
+            this.output = output;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closeable.close();
+        }
+    }
+
+    private static String format(long nanos) {
+        if (nanos >= 1000000) {
+            return String.format("%.2fms", nanos / 1e6);
+        }
+        return String.format("%.1fus", nanos / 1e3);
+    }
+}
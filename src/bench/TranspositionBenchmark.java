@@ -0,0 +1,74 @@
+package bench;
+
+import engine.Move;
+import engine.Search;
+import engine.SearchBoard;
+import engine.SearchInfo;
+import engine.TranspositionTable;
+
+/**
+ * Class {@code TranspositionBenchmark}
+ * Searches some opening positions to a fixed depth
+ * without and with the {@code TranspositionTable},
+ * and reports the nodes, the time, the hit rate of the table and the speedup.
+ * <p>
+ * usage: {@code TranspositionBenchmark [depth] [table megabytes]}
+ *
+ * @see TranspositionTable
+ */
+
+public class TranspositionBenchmark {
+
+    static final String[] OPENINGS = {
+            "",
+            "e2e4 e7e5 g1f3 b8c6 f1b5 a7a6",
+            "d2d4 g8f6 c2c4 e7e6 b1c3 f8b4",
+            "e2e4 c7c5 g1f3 d7d6 d2d4 c5d4 f3d4 g8f6 b1c3 a7a6",
+            "e2e4 e7e5 g1f3 b8c6 f1c4 f8c5 c2c3 g8f6 d2d4 e5d4 c3d4 c5b4"};
+
+    public static void main(String[] args) {
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : 7;
+        int megabytes = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+        //预热
+        for (String opening : OPENINGS) {
+            new Search(null).run(position(opening), 0, depth - 2, null);
+            new Search(new TranspositionTable(megabytes)).run(position(opening), 0, depth - 2, null);
+        }
+
+        long totalWithout = 0, totalWith = 0;
+        System.out.printf("depth %d, table %d MB%n", depth, megabytes);
+        for (String opening : OPENINGS) {
+            SearchBoard position = position(opening);
+
+            Search plain = new Search(null);
+            SearchInfo without = plain.run(position, 0, depth, null);
+
+            TranspositionTable table = new TranspositionTable(megabytes);
+            Search hashed = new Search(table);
+            SearchInfo with = hashed.run(position, 0, depth, null);
+
+            totalWithout += without.getNanos();
+            totalWith += with.getNanos();
+            System.out.printf("%-24s %s/%s  nodes %,d -> %,d  time %d -> %d ms  hits %.1f%%  used %.1f%%  speedup %.2fx%n",
+                    opening.isEmpty() ? "start" : opening.substring(0, Math.min(opening.length(), 24)),
+                    Move.toString(without.getBestMove()), Move.toString(with.getBestMove()),
+                    without.getNodes(), with.getNodes(),
+                    without.getNanos() / 1000000, with.getNanos() / 1000000,
+                    hashed.getHits() * 100.0 / Math.max(1, hashed.getProbes()), table.getUsage() / 10.0,
+                    (double) without.getNanos() / with.getNanos());
+        }
+        System.out.printf("total %d -> %d ms, speedup %.2fx%n",
+                totalWithout / 1000000, totalWith / 1000000, (double) totalWithout / totalWith);
+    }
+
+    static SearchBoard position(String opening) {
+        SearchBoard board = new SearchBoard();
+        for (String text : opening.split(" ")) {
+            if (!text.isEmpty()) {
+                board.make(board.parseMove(text));
+            }
+        }
+        return board;
+    }
+}
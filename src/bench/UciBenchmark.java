@@ -0,0 +1,142 @@
+package bench;
+
+import engine.Uci;
+import metrics.Histogram;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class {@code UciBenchmark}
+ * Answers of {@code Uci} to {@code stop}, {@code ponderhit} and {@code isready} while pondering.
+ * Every round sends {@code go ponder} on a position after a move, waits a random time
+ * of up to a few milliseconds, so the command often comes before the pondering search has started,
+ * then sends {@code stop} or {@code ponderhit}, and {@code isready}.
+ * Each must be answered by {@code bestmove} and {@code readyok} within {@code TIMEOUT},
+ * otherwise the benchmark fails at once: a lost stop hangs the frontend.
+ * The times to the answers are printed at the end.
+ * <p>
+ * usage: {@code UciBenchmark [rounds] [threads]}
+ *
+ * @see Uci
+ */
+
+public class UciBenchmark {
+
+    /**
+     * milliseconds to wait for an answer
+     */
+    private static final long TIMEOUT = 5000;
+
+    private static final String[] POSITIONS = {"startpos moves e2e4", "startpos moves e2e4 e7e5 g1f3",
+            "startpos moves d2d4 d7d5 c2c4", "fen r1bqkb1r/pppp1ppp/2n2n2/4p3/2B1P3/5N2/PPPP1PPP/RNBQK2R w KQkq - 4 4 moves e1g1"};
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+
+        BlockingQueue<String> answers = new LinkedBlockingQueue<>();
+        PipedOutputStream commands = new PipedOutputStream();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new PipedInputStream(commands), StandardCharsets.UTF_8));
+        PrintStream out = new PrintStream(new Lines(answers), true, "UTF-8");
+        Thread frontend = new Thread(() -> {
+            try {
+                new Uci(in, out).run();
+            } catch (IOException e) {
+                answers.add("error " + e);
+            }
+        }, "uci");
+        frontend.setDaemon(true);
+        frontend.start();
+        PrintWriter send = new PrintWriter(new OutputStreamWriter(commands, StandardCharsets.UTF_8), true);
+        send.println("setoption name Threads value " + threads);
+        send.println("setoption name Ponder value true");
+
+        Histogram[] times = {new Histogram(), new Histogram(), new Histogram()};
+        String[] names = {"bestmove after stop", "bestmove after ponderhit", "readyok"};
+        Random random = new Random(1);
+        for (int round = 0; round < rounds; round++) {
+            boolean hit = round % 2 == 1;
+            send.println("position " + POSITIONS[round % POSITIONS.length]);
+            send.println("go ponder wtime 300 btime 300");
+            //有时在预测开始之前停止
+            int wait = random.nextInt(3000);
+            if (wait > 0) {
+                TimeUnit.MICROSECONDS.sleep(wait);
+            }
+            long start = System.nanoTime();
+            send.println(hit ? "ponderhit" : "stop");
+            await(answers, "bestmove", hit ? "ponderhit" : "stop", round);
+            times[hit ? 1 : 0].record(System.nanoTime() - start);
+            start = System.nanoTime();
+            send.println("isready");
+            await(answers, "readyok", "isready", round);
+            times[2].record(System.nanoTime() - start);
+        }
+        send.println("quit");
+        frontend.join(TIMEOUT);
+
+        System.out.printf("%d rounds, %d threads, every command answered%n", rounds, threads);
+        for (int i = 0; i < times.length; i++) {
+            System.out.printf("%s: p50 %.2f ms, p99 %.2f ms, max %.2f ms%n", names[i],
+                    times[i].getPercentile(50) / 1e6, times[i].getPercentile(99) / 1e6, times[i].getMax() / 1e6);
+        }
+    }
+
+    /**
+     * Wait for an answer, the lines of {@code info} are skipped
+     *
+     * @throws IllegalStateException if it does not come within {@code TIMEOUT}
+     */
+    private static void await(BlockingQueue<String> answers, String expected, String command, int round)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT);
+        while (true) {
+            String line = answers.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (line == null) {
+                throw new IllegalStateException("no " + expected + " after " + command + " in round " + round);
+            }
+            if (line.startsWith(expected)) {
+                return;
+            }
+            if (!line.startsWith("info")) {
+                throw new IllegalStateException("unexpected \"" + line + "\" after " + command + " in round " + round);
+            }
+        }
+    }
+
+    /**
+     * Class {@code Lines}
+     * the output of the frontend, cut into lines
+     */
+    private static class Lines extends OutputStream {
+        private final BlockingQueue<String> lines;
+        private final StringBuilder line = new StringBuilder();
+
+        Lines(BlockingQueue<String> lines) {
+            this.lines = lines;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            if (b == '\n') {
+                lines.add(line.toString().trim());
+                line.setLength(0);
+            } else {
+                line.append((char) b);
+            }
+        }
+    }
+}
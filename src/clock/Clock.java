@@ -0,0 +1,239 @@
+package clock;
+
+import game.Piece;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class {@code Clock}
+ * The chess clock of a game, measured by {@code System.nanoTime},
+ * so changing the time of the system does not change it.
+ * The side to move is charged from the time its turn started to the time it presses the clock,
+ * less its delay and the lag of its connection, then gets its increment.
+ * The fall of the flag is a timeout of a {@code TimerWheel}, so there is no thread per clock.
+ * <p>
+ * The lag of a side is the one-way time of its connection,
+ * its move was made that long before it arrived, so it is not charged,
+ * and the flag of the side waits for it too. It is limited to {@code MAX_LAG}.
+ *
+ * @see TimeControl
+ * @see TimerWheel
+ */
+
+public class Clock {
+
+    /**
+     * the most lag compensated in a move
+     */
+    public static final long MAX_LAG = TimeUnit.SECONDS.toNanos(1);
+
+    private static final int STOPPED = -1;
+
+    /**
+     * Interface {@code Listener}
+     * called once when a flag falls, on the thread of the wheel or of the late {@code press}
+     */
+    public interface Listener {
+        /**
+         * @param clock the clock, stopped
+         * @param color the side out of time
+         */
+        void flagged(Clock clock, Piece.Color color);
+    }
+
+    private final TimeControl control;
+    private final TimerWheel wheel;
+    private final Listener listener;
+
+    /**
+     * time left and lag of white and black, in nanoseconds
+     */
+    private final long[] remaining = new long[2], lag = new long[2];
+
+    /**
+     * side to move, {@code STOPPED} before the start and after the end
+     */
+    private int turn = STOPPED;
+    private long since;
+    private Piece.Color flagged;
+    private TimerWheel.Timeout timeout;
+
+    /**
+     * number of the turn, a timeout of an older turn does nothing
+     */
+    private int turns;
+
+    /**
+     * @param control  the time control
+     * @param wheel    the wheel of the flags, usually {@code TimerWheel.shared()}
+     * @param listener told about the fall of a flag, may be {@code null}
+     */
+    public Clock(TimeControl control, TimerWheel wheel, Listener listener) {
+        this.control = control;
+        this.wheel = wheel;
+        this.listener = listener;
+        remaining[0] = remaining[1] = control.getBase();
+    }
+
+    private static int side(Piece.Color color) {
+        return color == Piece.Color.white ? 0 : 1;
+    }
+
+    private static Piece.Color color(int side) {
+        return side == 0 ? Piece.Color.white : Piece.Color.black;
+    }
+
+    /**
+     * Start the clock of white
+     */
+    public synchronized void start() {
+        if (turn == STOPPED && flagged == null) {
+            turn = 0;
+            since = System.nanoTime();
+            schedule();
+        }
+    }
+
+    /**
+     * Stop the clock, for example when the game ends otherwise
+     */
+    public synchronized void stop() {
+        turn = STOPPED;
+        turns++;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * Press the clock after a move, the time of the move is charged and the other side starts
+     *
+     * @param color side that moved
+     * @return {@code false} if it is not its turn or it is out of time, then its flag falls
+     */
+    public boolean press(Piece.Color color) {
+        synchronized (this) {
+            int side = side(color);
+            if (side != turn) {
+                return false;
+            }
+            long now = System.nanoTime();
+            long used = charged(now);
+            if (used < remaining[side]) {
+                remaining[side] += control.getIncrement() - used;
+                timeout.cancel();
+                turn = 1 - side;
+                since = now;
+                schedule();
+                return true;
+            }
+            flag(side);
+        }
+        if (listener != null) {
+            listener.flagged(this, color);
+        }
+        return false;
+    }
+
+    /**
+     * @return the time of the turn charged to the side to move until now
+     */
+    private long charged(long now) {
+        long elapsed = now - since - Math.min(lag[turn], MAX_LAG);
+        return Math.max(elapsed - control.getDelay(), 0);
+    }
+
+    /**
+     * Schedule the timeout at the start of a turn, after the delay, the time left and the lag
+     */
+    private void schedule() {
+        schedule(control.getDelay() + remaining[turn] + Math.min(lag[turn], MAX_LAG));
+    }
+
+    private void schedule(long delay) {
+        int number = ++turns;
+        timeout = wheel.schedule(() -> expire(number), delay, TimeUnit.NANOSECONDS);
+    }
+
+    private void flag(int side) {
+        remaining[side] = 0;
+        flagged = color(side);
+        turn = STOPPED;
+        turns++;
+    }
+
+    /**
+     * The timeout of a turn, the flag falls unless the lag of the side grew since
+     */
+    private void expire(int number) {
+        Piece.Color color;
+        synchronized (this) {
+            if (number != turns) {
+                return;
+            }
+            //时间从回合开始算起，只再等剩下的时间
+            long left = remaining[turn] - charged(System.nanoTime());
+            if (left > 0) {
+                schedule(left);
+                return;
+            }
+            color = color(turn);
+            flag(turn);
+        }
+        if (listener != null) {
+            listener.flagged(this, color);
+        }
+    }
+
+    /**
+     * Set the lag of a side, it is used from its next move or the next check of its flag
+     *
+     * @param color the side
+     * @param lag   one-way time of its connection in nanoseconds, like {@code MSocket.getLag()}
+     */
+    public synchronized void setLag(Piece.Color color, long lag) {
+        this.lag[side(color)] = Math.max(lag, 0);
+    }
+
+    /**
+     * @return time left of a side in nanoseconds, counting down while it is its turn
+     */
+    public synchronized long getRemaining(Piece.Color color) {
+        int side = side(color);
+        if (side != turn) {
+            return remaining[side];
+        }
+        return Math.max(remaining[side] - charged(System.nanoTime()), 0);
+    }
+
+    /**
+     * @return side to move, {@code null} if the clock is stopped
+     */
+    public synchronized Piece.Color getTurn() {
+        return turn == STOPPED ? null : color(turn);
+    }
+
+    /**
+     * @return side out of time, {@code null} if no flag has fallen
+     */
+    public synchronized Piece.Color getFlagged() {
+        return flagged;
+    }
+
+    public TimeControl getControl() {
+        return control;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return format(getRemaining(Piece.Color.white)) + " " + format(getRemaining(Piece.Color.black));
+    }
+
+    /**
+     * @return time like {@code 4:59.8}
+     */
+    public static String format(long nanos) {
+        long tenths = nanos / TimeUnit.MILLISECONDS.toNanos(100);
+        return String.format("%d:%02d.%d", tenths / 600, tenths / 10 % 60, tenths % 10);
+    }
+}
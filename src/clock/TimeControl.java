@@ -0,0 +1,80 @@
+package clock;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class {@code TimeControl}
+ * The time of a game, written like the time controls given to the {@code Matchmaker}:
+ * <pre>
+ * 5+3        5 minutes, 3 seconds added after every move (increment)
+ * 3d2        3 minutes, the clock waits 2 seconds before running in every move (delay)
+ * 0.5+0      30 seconds
+ * untimed    no clock, {@code parse} returns {@code null}
+ * </pre>
+ *
+ * @see Clock
+ */
+
+public class TimeControl {
+
+    private final long base, increment, delay;
+
+    /**
+     * @param base      time of each player at the start, in nanoseconds
+     * @param increment time added after every move, in nanoseconds
+     * @param delay     time of every move not taken from the clock, in nanoseconds
+     */
+    public TimeControl(long base, long increment, long delay) {
+        if (base <= 0 || increment < 0 || delay < 0) {
+            throw new IllegalArgumentException("bad time control");
+        }
+        this.base = base;
+        this.increment = increment;
+        this.delay = delay;
+    }
+
+    /**
+     * @param text like {@code "5+3"} or {@code "3d2"}
+     * @return the time control, {@code null} for {@code "untimed"} or a text that can not be read
+     */
+    public static TimeControl parse(String text) {
+        if (text == null) {
+            return null;
+        }
+        int plus = text.indexOf('+'), d = text.indexOf('d');
+        int split = plus >= 0 ? plus : d;
+        if (split <= 0 || split == text.length() - 1) {
+            return null;
+        }
+        try {
+            long base = (long) (Double.parseDouble(text.substring(0, split)) * TimeUnit.MINUTES.toNanos(1));
+            long extra = (long) (Double.parseDouble(text.substring(split + 1)) * TimeUnit.SECONDS.toNanos(1));
+            return plus >= 0 ? new TimeControl(base, extra, 0) : new TimeControl(base, 0, extra);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public long getBase() {
+        return base;
+    }
+
+    public long getIncrement() {
+        return increment;
+    }
+
+    public long getDelay() {
+        return delay;
+    }
+
+    @Override
+    public String toString() {
+        double minutes = base / (double) TimeUnit.MINUTES.toNanos(1);
+        double seconds = (delay > 0 ? delay : increment) / (double) TimeUnit.SECONDS.toNanos(1);
+        return format(minutes) + (delay > 0 ? "d" : "+") + format(seconds);
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) ? Long.toString((long) value) : Double.toString(value);
+    }
+}
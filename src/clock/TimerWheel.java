@@ -0,0 +1,274 @@
+package clock;
+
+import metrics.Metrics;
+
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class {@code TimerWheel}
+ * A hashed wheel timer, one thread for the timeouts of all the clocks.
+ * The wheel is a ring of buckets, one per tick, a timeout goes into the bucket of its deadline
+ * and is counted the rounds of the wheel left before it is due,
+ * so adding and cancelling are constant time whatever the number of timeouts.
+ * Timeouts are handed to the thread by a queue and put into the buckets by it,
+ * so the buckets need no lock.
+ * <p>
+ * A timeout runs at the first tick after its deadline, at most one tick late,
+ * on the thread of the wheel, so the tasks must be short.
+ * The thread waits for every tick by {@code parkNanos} with the deadline of {@code System.nanoTime}.
+ *
+ * @see Clock
+ */
+
+public class TimerWheel implements Closeable {
+
+    public static final long DEFAULT_TICK = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * buckets of the wheel, a round is about a second with the default tick
+     */
+    public static final int DEFAULT_BUCKETS = 1024;
+
+    private static TimerWheel shared;
+
+    /**
+     * Class {@code Timeout}
+     * a task waiting in the wheel
+     */
+    public static class Timeout {
+        private static final int PENDING = 0, CANCELLED = 1, EXPIRED = 2;
+
+        private final TimerWheel wheel;
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        /**
+         * rounds of the wheel left, only used by the thread of the wheel
+         */
+        private long rounds;
+        private Timeout previous, next;
+        private Bucket bucket;
+
+        private Timeout(TimerWheel wheel, Runnable task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return the deadline, in {@code System.nanoTime}
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        /**
+         * @return {@code false} if it has already run or been cancelled
+         */
+        public boolean cancel() {
+            if (!state.compareAndSet(PENDING, CANCELLED)) {
+                return false;
+            }
+            wheel.cancelled.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+    }
+
+    /**
+     * Class {@code Bucket}
+     * the timeouts of a tick, a linked list
+     */
+    private static class Bucket {
+        private Timeout head, tail;
+
+        private void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.previous = tail;
+                tail = timeout;
+            }
+        }
+
+        private Timeout remove(Timeout timeout) {
+            Timeout next = timeout.next;
+            if (timeout.previous != null) {
+                timeout.previous.next = next;
+            } else {
+                head = next;
+            }
+            if (next != null) {
+                next.previous = timeout.previous;
+            } else {
+                tail = timeout.previous;
+            }
+            timeout.previous = timeout.next = null;
+            timeout.bucket = null;
+            return next;
+        }
+    }
+
+    private final long tick;
+    private final Bucket[] buckets;
+    private final int mask;
+    private final long start = System.nanoTime();
+    private final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    /**
+     * ticks passed, only used by the thread of the wheel
+     */
+    private long ticks;
+
+    public TimerWheel() {
+        this(DEFAULT_TICK, DEFAULT_BUCKETS);
+    }
+
+    /**
+     * @param tick    nanoseconds of a tick, the precision of the timeouts
+     * @param buckets buckets of the wheel, rounded up to a power of 2
+     */
+    public TimerWheel(long tick, int buckets) {
+        if (tick <= 0 || buckets <= 0) {
+            throw new IllegalArgumentException("bad tick or buckets");
+        }
+        this.tick = tick;
+        int size = Integer.highestOneBit(Math.max(buckets - 1, 1)) << 1;
+        this.buckets = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            this.buckets[i] = new Bucket();
+        }
+        mask = size - 1;
+        worker = new Thread(this::run, "timer-wheel");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * @return the wheel shared by all the clocks of the program, started at the first call
+     */
+    public static synchronized TimerWheel shared() {
+        if (shared == null) {
+            shared = new TimerWheel();
+        }
+        return shared;
+    }
+
+    /**
+     * Run a task after a delay, on the thread of the wheel
+     *
+     * @param task  short task
+     * @param delay time to wait
+     * @param unit  unit of the delay
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (!running) {
+            throw new IllegalStateException("timer wheel closed");
+        }
+        Timeout timeout = new Timeout(this, task, System.nanoTime() + Math.max(unit.toNanos(delay), 0));
+        pending.incrementAndGet();
+        added.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * @return timeouts neither run nor cancelled yet
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * Body of the thread of the wheel
+     */
+    private void run() {
+        while (running) {
+            long deadline = start + (ticks + 1) * tick;
+            //parkNanos 可能提前返回，等到这一格结束
+            for (long now = System.nanoTime(); now - deadline < 0 && running; now = System.nanoTime()) {
+                LockSupport.parkNanos(deadline - now);
+            }
+            removeCancelled();
+            transfer();
+            expire(buckets[(int) (ticks & mask)]);
+            ticks++;
+        }
+    }
+
+    private void removeCancelled() {
+        for (Timeout timeout; (timeout = cancelled.poll()) != null; ) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+            pending.decrementAndGet();
+        }
+    }
+
+    /**
+     * Put the new timeouts into their buckets,
+     * a timeout already due goes into the bucket of this tick
+     */
+    private void transfer() {
+        for (Timeout timeout; (timeout = added.poll()) != null; ) {
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            //第 k 格在 start + (k + 1) * tick 处理
+            long due = Math.max((timeout.deadline - start + tick - 1) / tick - 1, ticks);
+            timeout.rounds = (due - ticks) / buckets.length;
+            buckets[(int) (due & mask)].add(timeout);
+        }
+    }
+
+    private void expire(Bucket bucket) {
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            if (timeout.rounds > 0) {
+                timeout.rounds--;
+                timeout = timeout.next;
+                continue;
+            }
+            Timeout next = bucket.remove(timeout);
+            if (timeout.state.compareAndSet(Timeout.PENDING, Timeout.EXPIRED)) {
+                pending.decrementAndGet();
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    Metrics.error("timer", e);
+                }
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * Stop the thread, the timeouts not run yet are dropped
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(worker);
+    }
+}
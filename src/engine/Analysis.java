@@ -0,0 +1,125 @@
+package engine;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class {@code Analysis}
+ * Multi-PV analysis for reviewing a game: the best few moves of a position
+ * with their scores and principal variations, sent to the subscribers as the search goes deeper.
+ * A position is analysed on a background thread until another one is analysed or the analysis is cancelled,
+ * neither of them waits for the search to stop.
+ * The transposition table is kept from one position to the next,
+ * so stepping through a game goes faster as the positions are related.
+ *
+ * @see AnalysisListener
+ * @see Search
+ */
+
+public class Analysis implements Closeable {
+
+    public static final int DEFAULT_LINES = 3;
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    private final Search search;
+    private final CopyOnWriteArrayList<AnalysisListener> listeners = new CopyOnWriteArrayList<>();
+    private final ThreadPoolExecutor executor;
+    private final int lines;
+    private Future<?> current;
+
+    /**
+     * number of the latest position asked for, the positions before are not searched
+     */
+    private int generation;
+
+    /**
+     * @param lines     number of best moves
+     * @param megabytes memory of the transposition table
+     * @param tablebase endgame tablebase, {@code null} for none
+     */
+    public Analysis(int lines, int megabytes, Tablebase tablebase) {
+        this.lines = Math.max(lines, 1);
+        search = new Search(new TranspositionTable(megabytes));
+        search.setLines(this.lines);
+        search.setTablebase(tablebase);
+        String name = "analysis-" + THREADS.incrementAndGet();
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void subscribe(AnalysisListener listener) {
+        listeners.add(listener);
+    }
+
+    public void unsubscribe(AnalysisListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Stop the current analysis and analyse a position
+     *
+     * @param board  the position, it is copied
+     * @param budget milliseconds, {@code 0} to analyse until cancelled
+     */
+    public synchronized void analyse(SearchBoard board, long budget) {
+        cancel();
+        SearchBoard position = new SearchBoard(board);
+        int id = generation;
+        current = executor.submit(() -> run(position, budget, id));
+    }
+
+    /**
+     * Stop the current analysis, the lines already sent stay valid
+     */
+    public synchronized void cancel() {
+        generation++;
+        search.stop();
+        if (current != null) {
+            current.cancel(false);
+            current = null;
+        }
+    }
+
+    private void run(SearchBoard position, long budget, int id) {
+        synchronized (this) {
+            //已经切换到其他局面
+            if (id != generation) {
+                return;
+            }
+            search.reset();
+        }
+        long key = position.getKey();
+        SearchInfo[] found = new SearchInfo[lines];
+        search.run(position, budget, Search.MAX_PLY, info -> {
+            found[info.getLine()] = info;
+            //较差的着法可能还没有搜索到这一深度
+            int count = 0;
+            while (count < found.length && found[count] != null) {
+                count++;
+            }
+            SearchInfo[] sent = Arrays.copyOf(found, count);
+            for (AnalysisListener listener : listeners) {
+                listener.lines(key, sent);
+            }
+        });
+    }
+
+    /**
+     * Stop the analysis and its thread
+     */
+    @Override
+    public void close() {
+        cancel();
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,19 @@
+package engine;
+
+/**
+ * Interface {@code AnalysisListener}
+ * Receives the lines of an analysis every time one of them is deeper,
+ * it is called by the analysing thread.
+ *
+ * @see Analysis
+ */
+
+public interface AnalysisListener {
+
+    /**
+     * @param key   key of the position analysed, see {@code SearchBoard.getKey},
+     *              the lines of a position left before are still sent for a short time
+     * @param lines the best lines, the best one first, some of them may be an iteration behind the others
+     */
+    void lines(long key, SearchInfo[] lines);
+}
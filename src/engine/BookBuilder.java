@@ -0,0 +1,234 @@
+package engine;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class {@code BookBuilder}
+ * Builds an {@code OpeningBook} from games in PGN.
+ * The first plies of every game are played on a {@code SearchBoard},
+ * every move gets 2 points for a win of the side that played it, 1 for a draw or an unknown result
+ * and none for a loss. Moves played in too few games are left out,
+ * and so are the moves that only lost.
+ * <p>
+ * usage: {@code BookBuilder [-plies n] [-min games] book.bin games.pgn...}
+ *
+ * @see OpeningBook
+ */
+
+public class BookBuilder {
+
+    public static final int DEFAULT_PLIES = 24;
+    public static final int DEFAULT_MIN = 2;
+
+    private final int plies;
+    private final int min;
+
+    /**
+     * key of the position, move, then games and points
+     */
+    private final Map<Long, Map<Integer, int[]>> positions = new HashMap<>();
+    private int games, skipped;
+
+    /**
+     * @param plies moves of each game added to the book
+     * @param min   games a move must be played in
+     */
+    public BookBuilder(int plies, int min) {
+        this.plies = plies;
+        this.min = min;
+    }
+
+    /**
+     * Add the games of a PGN file
+     *
+     * @param path the file
+     * @throws IOException if it cannot be read
+     */
+    public void read(Path path) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.ISO_8859_1)) {
+            Map<String, String> tags = new HashMap<>();
+            List<String> moves = new ArrayList<>();
+            int comment = 0, variation = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (comment == 0 && variation == 0 && line.startsWith("[")) {
+                    //新一局的标签
+                    if (!moves.isEmpty()) {
+                        game(tags, moves, null);
+                        tags.clear();
+                        moves.clear();
+                    }
+                    int quote = line.indexOf('"');
+                    if (quote > 0 && line.lastIndexOf('"') > quote) {
+                        tags.put(line.substring(1, quote).trim(), line.substring(quote + 1, line.lastIndexOf('"')));
+                    }
+                    continue;
+                }
+                for (String token : line.split("\\s+")) {
+                    if (token.isEmpty()) {
+                        continue;
+                    }
+                    if (comment > 0 || token.startsWith("{")) {
+                        comment = token.contains("}") ? 0 : 1;
+                        continue;
+                    }
+                    if (token.startsWith(";")) {
+                        break;
+                    }
+                    if (token.startsWith("(") || variation > 0) {
+                        for (char c : token.toCharArray()) {
+                            variation += c == '(' ? 1 : c == ')' ? -1 : 0;
+                        }
+                        continue;
+                    }
+                    if (token.equals("1-0") || token.equals("0-1") || token.equals("1/2-1/2") || token.equals("*")) {
+                        game(tags, moves, token);
+                        tags.clear();
+                        moves.clear();
+                        continue;
+                    }
+                    //去掉步数 "12." 或 "12..."，数字后面没有点的是 "0-0" 那样的走法
+                    int start = 0;
+                    while (start < token.length() && Character.isDigit(token.charAt(start))) {
+                        start++;
+                    }
+                    if (start < token.length() && token.charAt(start) != '.') {
+                        start = 0;
+                    }
+                    while (start < token.length() && token.charAt(start) == '.') {
+                        start++;
+                    }
+                    if (start < token.length() && token.charAt(start) != '$') {
+                        moves.add(token.substring(start));
+                    }
+                }
+            }
+            if (!moves.isEmpty()) {
+                game(tags, moves, null);
+            }
+        }
+    }
+
+    private void game(Map<String, String> tags, List<String> moves, String result) {
+        if (result == null) {
+            result = tags.getOrDefault("Result", "*");
+        }
+        SearchBoard board;
+        try {
+            board = tags.containsKey("FEN") ? new SearchBoard(tags.get("FEN")) : new SearchBoard();
+        } catch (IllegalArgumentException e) {
+            skipped++;
+            return;
+        }
+        games++;
+        for (int ply = 0; ply < plies && ply < moves.size(); ply++) {
+            int move = board.parseSan(moves.get(ply));
+            if (move == Move.NONE) {
+                skipped++;
+                return;
+            }
+            int points;
+            if (result.equals("1/2-1/2") || result.equals("*")) {
+                points = 1;
+            } else {
+                points = result.equals(board.getSide() == SearchBoard.WHITE ? "1-0" : "0-1") ? 2 : 0;
+            }
+            int[] entry = positions.computeIfAbsent(board.getKey(), key -> new HashMap<>())
+                    .computeIfAbsent(move & 0xFFFF, key -> new int[2]);
+            entry[0]++;
+            entry[1] += points;
+            board.make(move);
+        }
+    }
+
+    /**
+     * Write the book, sorted by key
+     *
+     * @param path the book file
+     * @return number of entries
+     * @throws IOException if it cannot be written
+     */
+    public int write(Path path) throws IOException {
+        long[] keys = new long[positions.size()];
+        int count = 0;
+        for (long key : positions.keySet()) {
+            keys[count++] = key;
+        }
+        //按无符号数排序
+        for (int i = 0; i < count; i++) {
+            keys[i] ^= Long.MIN_VALUE;
+        }
+        Arrays.sort(keys, 0, count);
+
+        int entries = 0;
+        try (OutputStream file = Files.newOutputStream(path);
+             DataOutputStream output = new DataOutputStream(new BufferedOutputStream(file))) {
+            for (int i = 0; i < count; i++) {
+                long key = keys[i] ^ Long.MIN_VALUE;
+                Map<Integer, int[]> moves = positions.get(key);
+                int max = 0;
+                for (int[] entry : moves.values()) {
+                    max = Math.max(max, entry[1]);
+                }
+                for (Map.Entry<Integer, int[]> move : moves.entrySet()) {
+                    int[] entry = move.getValue();
+                    if (entry[0] < min || entry[1] == 0) {
+                        continue;
+                    }
+                    //权重不超过 16 位
+                    int weight = max > 0xFFFF ? Math.max(1, (int) ((long) entry[1] * 0xFFFF / max)) : entry[1];
+                    output.writeLong(key);
+                    output.writeShort(move.getKey());
+                    output.writeShort(weight);
+                    output.writeInt(0);
+                    entries++;
+                }
+            }
+        }
+        return entries;
+    }
+
+    public int getGames() {
+        return games;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int plies = DEFAULT_PLIES, min = DEFAULT_MIN, i = 0;
+        for (; i < args.length && args[i].startsWith("-"); i += 2) {
+            if (args[i].equals("-plies")) {
+                plies = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("-min")) {
+                min = Integer.parseInt(args[i + 1]);
+            }
+        }
+        if (args.length - i < 2) {
+            System.out.println("usage: BookBuilder [-plies n] [-min games] book.bin games.pgn...");
+            return;
+        }
+        BookBuilder builder = new BookBuilder(plies, min);
+        for (int j = i + 1; j < args.length; j++) {
+            builder.read(Paths.get(args[j]));
+        }
+        int entries = builder.write(Paths.get(args[i]));
+        System.out.printf("%d games, %d skipped, %d positions, %d entries%n",
+                builder.getGames(), builder.getSkipped(), builder.positions.size(), entries);
+    }
+}
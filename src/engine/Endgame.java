@@ -0,0 +1,210 @@
+package engine;
+
+import java.util.Arrays;
+
+/**
+ * Class {@code Endgame}
+ * Material of a tablebase, like {@code KQvKR}, and the index of its positions.
+ * The stronger side is always white, a position with the colors the other way round
+ * is looked up mirrored. There are no pawns, so the board can be turned and mirrored:
+ * the white king is brought into the triangle a1-d1-d4,
+ * and the pieces of the same kind are sorted by square.
+ * Of the equivalent positions, the one with the lowest index is the canonical one.
+ * <pre>
+ * index = ((side * 10 + triangle(white king)) * 64 + square 1) * 64 + ... + square n-1
+ * </pre>
+ *
+ * @see Tablebase
+ * @see TablebaseGenerator
+ */
+
+class Endgame {
+
+    /**
+     * squares of the triangle a1-d1-d4, {@code -1} outside
+     */
+    private static final int[] TRIANGLE = new int[64];
+
+    /**
+     * the 8 symmetries of the board, indexed by symmetry and square
+     */
+    private static final int[][] SYMMETRY = new int[8][64];
+
+    /**
+     * symmetries bringing a square into the triangle, one or two
+     */
+    private static final int[][] TO_TRIANGLE = new int[64][];
+
+    static {
+        Arrays.fill(TRIANGLE, -1);
+        int count = 0;
+        for (int file = 0; file < 4; file++) {
+            for (int rank = 0; rank <= file; rank++) {
+                TRIANGLE[rank * 8 + file] = count++;
+            }
+        }
+        for (int square = 0; square < 64; square++) {
+            int file = square & 7, rank = square >> 3;
+            int[][] images = {{file, rank}, {7 - file, rank}, {file, 7 - rank}, {7 - file, 7 - rank},
+                    {rank, file}, {7 - rank, file}, {rank, 7 - file}, {7 - rank, 7 - file}};
+            for (int symmetry = 0; symmetry < 8; symmetry++) {
+                SYMMETRY[symmetry][square] = images[symmetry][1] * 8 + images[symmetry][0];
+            }
+        }
+        for (int square = 0; square < 64; square++) {
+            int[] buffer = new int[8];
+            int found = 0;
+            for (int symmetry = 0; symmetry < 8; symmetry++) {
+                if (TRIANGLE[SYMMETRY[symmetry][square]] >= 0) {
+                    buffer[found++] = symmetry;
+                }
+            }
+            TO_TRIANGLE[square] = Arrays.copyOf(buffer, found);
+        }
+    }
+
+    final String name;
+
+    /**
+     * pieces in index order: white king, the other white pieces, black king, the other black pieces
+     */
+    final int[] pieces;
+
+    /**
+     * first index of the group of pieces of the same kind of every piece
+     */
+    private final int[] group;
+
+    final long size;
+
+    /**
+     * @param name like {@code KQvKR}, pieces of each side from K, Q, R, B, N
+     * @throws IllegalArgumentException if it is not a valid name
+     */
+    Endgame(String name) {
+        String[] sides = name.split("v");
+        if (sides.length != 2 || !sides[0].startsWith("K") || !sides[1].startsWith("K")) {
+            throw new IllegalArgumentException("bad endgame: " + name);
+        }
+        this.name = name;
+        pieces = new int[name.length() - 1];
+        int count = 0;
+        for (int color = SearchBoard.WHITE; color <= SearchBoard.BLACK; color++) {
+            for (char c : sides[color].toCharArray()) {
+                int type = " PNBRQK".indexOf(c);
+                if (type <= SearchBoard.PAWN) {
+                    throw new IllegalArgumentException("bad endgame: " + name);
+                }
+                pieces[count++] = type | color << 3;
+            }
+        }
+        group = new int[pieces.length];
+        for (int i = 0; i < pieces.length; i++) {
+            group[i] = i > 0 && pieces[i] == pieces[i - 1] ? group[i - 1] : i;
+        }
+        size = 2 * 10 * (1L << 6 * (pieces.length - 1));
+    }
+
+    /**
+     * @param squares squares of the pieces in index order
+     * @return index of the canonical position
+     */
+    long canonical(int side, int[] squares) {
+        return canonical(side, squares, squares.length, new int[squares.length]);
+    }
+
+    /**
+     * @param squares squares of the first {@code count} pieces in index order
+     * @param image   receives the squares turned, at least {@code count} long
+     * @return index of the canonical position
+     */
+    long canonical(int side, int[] squares, int count, int[] image) {
+        int[] symmetries = TO_TRIANGLE[squares[0]];
+        long best = Long.MAX_VALUE;
+        for (int symmetry : symmetries) {
+            for (int i = 0; i < count; i++) {
+                image[i] = SYMMETRY[symmetry][squares[i]];
+            }
+            best = Math.min(best, index(side, image, count));
+        }
+        return best;
+    }
+
+    /**
+     * @param squares squares in index order, the white king in the triangle, sorted within the groups
+     */
+    private long index(int side, int[] squares, int count) {
+        sortGroups(squares, count);
+        long index = side * 10 + TRIANGLE[squares[0]];
+        for (int i = 1; i < count; i++) {
+            index = index * 64 + squares[i];
+        }
+        return index;
+    }
+
+    private void sortGroups(int[] squares, int count) {
+        for (int i = 1; i < count; i++) {
+            for (int j = i; j > 0 && group[j] == group[j - 1] && squares[j] < squares[j - 1]; j--) {
+                int square = squares[j];
+                squares[j] = squares[j - 1];
+                squares[j - 1] = square;
+            }
+        }
+    }
+
+    /**
+     * @param index   index of a position
+     * @param squares receives the squares of the pieces
+     * @return the side to move
+     */
+    int decode(long index, int[] squares) {
+        for (int i = squares.length - 1; i > 0; i--) {
+            squares[i] = (int) (index & 63);
+            index >>>= 6;
+        }
+        int triangle = (int) (index % 10);
+        for (int square = 0; square < 64; square++) {
+            if (TRIANGLE[square] == triangle) {
+                squares[0] = square;
+                break;
+            }
+        }
+        return (int) (index / 10);
+    }
+
+    /**
+     * @return the name of the endgame of some pieces, the stronger side first
+     * and whether or not the colors are the other way round, as {@code "!"} at the end
+     */
+    static String name(int[] pieces, int count) {
+        StringBuilder white = new StringBuilder("K"), black = new StringBuilder("K");
+        int[] sorted = Arrays.copyOf(pieces, count);
+        Arrays.sort(sorted);
+        for (int i = count - 1; i >= 0; i--) {
+            int type = SearchBoard.type(sorted[i]);
+            if (type != SearchBoard.KING) {
+                (SearchBoard.color(sorted[i]) == SearchBoard.WHITE ? white : black).append(" PNBRQK".charAt(type));
+            }
+        }
+        if (stronger(black.toString(), white.toString())) {
+            return black + "v" + white + "!";
+        }
+        return white + "v" + black;
+    }
+
+    /**
+     * @return whether or not the first side comes before the second
+     */
+    static boolean stronger(String first, String second) {
+        if (first.length() != second.length()) {
+            return first.length() > second.length();
+        }
+        for (int i = 0; i < first.length(); i++) {
+            int a = " PNBRQK".indexOf(first.charAt(i)), b = " PNBRQK".indexOf(second.charAt(i));
+            if (a != b) {
+                return a > b;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,466 @@
+package engine;
+
+import game.Board;
+import metrics.Metrics;
+
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class {@code Engine}
+ * The computer player.
+ * It searches a copy of the position within a time budget per move,
+ * see {@code Search}, and reports its speed in nodes per second.
+ * A search blocks the calling thread and should be executed in a sub thread,
+ * it can be stopped from another thread.
+ * <p>
+ * With more than one thread the calling thread runs the main search
+ * and the others run helper searches sharing its transposition table,
+ * the helpers are stopped when the main search ends and only its result is used.
+ * With one thread the result only depends on the position and the previous searches.
+ * <p>
+ * A position found in the opening book is not searched,
+ * one of its book moves is played at once.
+ * A position found in the endgame tablebase is not searched either,
+ * the move keeping the best distance to mate is played.
+ * <p>
+ * While the opponent thinks, the engine can ponder: search the position after the reply it expects
+ * on a background thread, without a time limit, filling the transposition table.
+ * When the opponent plays the expected move the pondering search goes on
+ * until the time budget counted from the start of the pondering is spent,
+ * so a move pondered long enough is answered at once.
+ * Another move stops the pondering and is searched as usual, with the table already filled.
+ *
+ * @see Search
+ * @see SearchBoard
+ * @see OpeningBook
+ * @see Tablebase
+ */
+
+public class Engine {
+
+    /**
+     * milliseconds per move
+     */
+    public static final long DEFAULT_TIME = 2000;
+
+    /**
+     * megabytes of the transposition table
+     */
+    public static final int DEFAULT_HASH = 16;
+
+    /**
+     * idle helper threads end after this many seconds
+     */
+    private static final int KEEP_ALIVE = 30;
+
+    /**
+     * milliseconds between two stops while waiting for a search to end
+     */
+    private static final long STOP_INTERVAL = 100;
+
+    private static final AtomicInteger POOLS = new AtomicInteger();
+
+    private TranspositionTable table;
+    private volatile Search search;
+    private volatile Search[] helpers = new Search[0];
+    private ThreadPoolExecutor executor;
+
+    /**
+     * the single thread pondering, created when first needed
+     */
+    private ThreadPoolExecutor ponderExecutor;
+    private Future<SearchInfo> pondering;
+    private long ponderKey;
+    private long ponderStart;
+
+    /**
+     * number of the latest search asked for, a pondering task of an older one is not run.
+     * It has its own lock because {@code stop} is called while {@code think} holds the engine
+     */
+    private int generation;
+    private final Object generationLock = new Object();
+    private long timeBudget;
+    private int maxDepth;
+    private OpeningBook book;
+    private Tablebase tablebase;
+    private int lines = 1;
+    private final Random random = new Random();
+
+    public Engine() {
+        timeBudget = DEFAULT_TIME;
+        maxDepth = Search.MAX_PLY;
+        setHashSize(DEFAULT_HASH);
+    }
+
+    /**
+     * Replace the transposition table, the killer moves and the history are cleared as well
+     *
+     * @param megabytes memory of the table, {@code 0} to search without it
+     */
+    public synchronized void setHashSize(int megabytes) {
+        table = megabytes > 0 ? new TranspositionTable(megabytes) : null;
+        search = new Search(table);
+        search.setTablebase(tablebase);
+        search.setLines(lines);
+        setThreads(helpers.length + 1);
+    }
+
+    /**
+     * @param threads threads searching at the same time, {@code 1} for a deterministic search
+     */
+    public synchronized void setThreads(int threads) {
+        Search[] helpers = new Search[Math.max(threads, 1) - 1];
+        for (int i = 0; i < helpers.length; i++) {
+            helpers[i] = new Search(table, i + 1);
+            helpers[i].setTablebase(tablebase);
+        }
+        this.helpers = helpers;
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+        if (helpers.length > 0) {
+            String name = "engine-" + POOLS.incrementAndGet() + "-helper-";
+            AtomicInteger count = new AtomicInteger();
+            executor = new ThreadPoolExecutor(helpers.length, helpers.length, KEEP_ALIVE, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, name + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    public int getThreads() {
+        return helpers.length + 1;
+    }
+
+    /**
+     * Forget all the positions searched, for a new game
+     */
+    public synchronized void clearHash() {
+        if (table != null) {
+            table.clear();
+        }
+    }
+
+    /**
+     * @param timeBudget milliseconds per move, {@code 0} for no limit
+     */
+    public void setTimeBudget(long timeBudget) {
+        this.timeBudget = timeBudget;
+    }
+
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * @param lines number of best moves the listener of {@code think} is told about, see {@code Search.setLines}
+     */
+    public synchronized void setLines(int lines) {
+        this.lines = lines;
+        search.setLines(lines);
+    }
+
+    /**
+     * @param book opening book, {@code null} for none
+     */
+    public synchronized void setBook(OpeningBook book) {
+        this.book = book;
+    }
+
+    /**
+     * @param tablebase endgame tablebase, {@code null} for none
+     */
+    public synchronized void setTablebase(Tablebase tablebase) {
+        this.tablebase = tablebase;
+        search.setTablebase(tablebase);
+        for (Search helper : helpers) {
+            helper.setTablebase(tablebase);
+        }
+    }
+
+    public Tablebase getTablebase() {
+        return tablebase;
+    }
+
+    /**
+     * Find the best move of the side to move
+     *
+     * @param board    the position
+     * @param listener called after every iteration, may be {@code null}
+     * @return the result of the search, of depth 0 for a move of the opening book or the tablebase,
+     * a tablebase move counts the positions probed as nodes
+     */
+    public synchronized SearchInfo think(SearchBoard board, SearchListener listener) {
+        if (pondering != null) {
+            SearchInfo pondered = ponderHit(board);
+            if (pondered != null) {
+                return pondered;
+            }
+        }
+        begin();
+        if (book != null) {
+            int move = book.probe(new SearchBoard(board), random);
+            if (move != Move.NONE) {
+                return new SearchInfo(0, 0, 0, 0, new int[]{move});
+            }
+        }
+        if (tablebase != null) {
+            SearchInfo info = probe(new SearchBoard(board));
+            if (info != null) {
+                return info;
+            }
+        }
+        return search(board, timeBudget, maxDepth, listener);
+    }
+
+    /**
+     * Run the main search and the helpers
+     */
+    private SearchInfo search(SearchBoard board, long budget, int depth, SearchListener listener) {
+        long start = System.nanoTime();
+        SearchInfo result = runSearch(board, budget, depth, listener);
+        if (Metrics.isEnabled()) {
+            Metrics.ENGINE_SEARCH.record(System.nanoTime() - start);
+            Metrics.ENGINE_NODES.add(result.getNodes());
+        }
+        return result;
+    }
+
+    private SearchInfo runSearch(SearchBoard board, long budget, int depth, SearchListener listener) {
+        if (helpers.length == 0) {
+            return search.run(board, budget, depth, listener);
+        }
+
+        Future<?>[] futures = new Future<?>[helpers.length];
+        for (int i = 0; i < helpers.length; i++) {
+            Search helper = helpers[i];
+            futures[i] = executor.submit(() -> helper.run(board, 0, Search.MAX_PLY, null));
+        }
+        SearchInfo result;
+        try {
+            result = search.run(board, budget, depth, listener == null ? null : info -> listener.info(total(info)));
+        } finally {
+            for (Search helper : helpers) {
+                helper.stop();
+            }
+            await(futures);
+        }
+        return total(result);
+    }
+
+    /**
+     * Search the position after the expected reply of the opponent in the background,
+     * until the next {@code think} or {@code stop}.
+     * The engine should not be changed while pondering
+     *
+     * @param board    the position with the opponent to move
+     * @param expected the expected reply, {@code Move.NONE} to search the position itself
+     * @param listener called after every iteration on the pondering thread, may be {@code null}
+     */
+    public synchronized void ponder(SearchBoard board, int expected, SearchListener listener) {
+        stopPondering();
+        SearchBoard position = new SearchBoard(board);
+        if (expected != Move.NONE && !position.make(expected)) {
+            return;
+        }
+        if (ponderExecutor == null) {
+            String name = "engine-" + POOLS.incrementAndGet() + "-ponder";
+            ponderExecutor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+            ponderExecutor.allowCoreThreadTimeOut(true);
+        }
+        ponderKey = position.getKey();
+        ponderStart = System.nanoTime();
+        //在这里重置，任务开始前的 stop 不会被任务自己清除
+        int id = begin();
+        pondering = ponderExecutor.submit(() -> {
+            synchronized (generationLock) {
+                if (id != generation) {
+                    return null;
+                }
+            }
+            return search(position, 0, Search.MAX_PLY, listener);
+        });
+    }
+
+    /**
+     * Clear the stop of the searches, on the thread asking for a new search and before it starts,
+     * so a {@code stop} coming after this call is never lost
+     *
+     * @return the number of the new search
+     */
+    private int begin() {
+        synchronized (generationLock) {
+            search.reset();
+            for (Search helper : helpers) {
+                helper.reset();
+            }
+            return ++generation;
+        }
+    }
+
+    /**
+     * Stop pondering and wait for the pondering search to end
+     */
+    public synchronized void stopPondering() {
+        if (pondering == null) {
+            return;
+        }
+        stop();
+        await(new Future<?>[]{pondering});
+        pondering = null;
+    }
+
+    /**
+     * End the pondering, with its result if it searched this position
+     *
+     * @return {@code null} if the pondering searched another position
+     */
+    private SearchInfo ponderHit(SearchBoard board) {
+        if (board.getKey() != ponderKey) {
+            stopPondering();
+            return null;
+        }
+        Future<SearchInfo> future = pondering;
+        pondering = null;
+        boolean interrupted = false;
+        long left = timeBudget > 0 ? ponderStart + timeBudget * 1000000 - System.nanoTime() : 0;
+        SearchInfo result = null;
+        while (true) {
+            try {
+                //思考时间从开始预测时算起
+                result = left > 0 ? future.get(left, TimeUnit.NANOSECONDS) : null;
+                break;
+            } catch (TimeoutException e) {
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+                left = ponderStart + timeBudget * 1000000 - System.nanoTime();
+            } catch (ExecutionException e) {
+                Metrics.error("engine-ponder", e.getCause());
+                break;
+            }
+        }
+        if (result == null) {
+            stop();
+            await(new Future<?>[]{future});
+            try {
+                result = future.isCancelled() ? null : future.get();
+            } catch (InterruptedException | ExecutionException e) {
+                result = null;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return result == null || result.getBestMove() == Move.NONE || result.getDepth() == 0 ? null : result;
+    }
+
+    /**
+     * Choose the move of the tablebase: the fastest mate when winning,
+     * the slowest when losing, any move keeping the draw otherwise
+     *
+     * @return {@code null} if a position after a move is not in the tablebase
+     */
+    private SearchInfo probe(SearchBoard board) {
+        long start = System.nanoTime();
+        if (tablebase.probeDtm(board) == Tablebase.UNKNOWN) {
+            return null;
+        }
+        int[] moves = new int[SearchBoard.MAX_MOVES];
+        int count = board.generateMoves(moves);
+        int best = Move.NONE, bestScore = -Search.INFINITY, probes = 0;
+        for (int i = 0; i < count; i++) {
+            if (!board.make(moves[i])) {
+                continue;
+            }
+            int child = tablebase.probeDtm(board);
+            board.unmake(moves[i]);
+            probes++;
+            if (child == Tablebase.UNKNOWN) {
+                return null;
+            }
+            //对方的杀棋步数多一步
+            int score = child > 0 ? -(child - 1) : child < 0 ? -(child + 1) : 0;
+            if (score > bestScore) {
+                bestScore = score;
+                best = moves[i];
+            }
+        }
+        if (best == Move.NONE) {
+            return null;
+        }
+        return new SearchInfo(0, bestScore, probes, System.nanoTime() - start, new int[]{best});
+    }
+
+    /**
+     * @return the result with the nodes of all the searches
+     */
+    private SearchInfo total(SearchInfo info) {
+        long nodes = info.getNodes();
+        for (Search helper : helpers) {
+            nodes += helper.getNodes();
+        }
+        return new SearchInfo(info.getDepth(), info.getScore(), nodes, info.getNanos(), info.getPv(), info.getLine());
+    }
+
+    /**
+     * Wait for stopped searches to end, an interrupt is kept for the caller.
+     * The searches are stopped again every {@code STOP_INTERVAL},
+     * so a stop is never waited for longer than a search takes to see it
+     */
+    private void await(Future<?>[] futures) {
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get(STOP_INTERVAL, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (TimeoutException e) {
+                    stop();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Metrics.error("engine-search", e.getCause());
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public SearchInfo think(Board board) {
+        return think(new SearchBoard(board), null);
+    }
+
+    /**
+     * Stop the current search, it returns its best move at once,
+     * a pondering search not started yet is not run
+     */
+    public void stop() {
+        synchronized (generationLock) {
+            generation++;
+            search.stop();
+            for (Search helper : helpers) {
+                helper.stop();
+            }
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package engine;
+
+/**
+ * Class {@code Evaluation}
+ * Static evaluation of a position in centipawns.
+ * Material and piece-square tables have a middlegame and an endgame score,
+ * kept up to date by {@code SearchBoard} on every move made and unmade,
+ * they are blended by the phase of the game, the material left on the board.
+ * The pawn structure, doubled, isolated and passed pawns, only changes with the pawns,
+ * it is computed once for every pawn key and then read from a small hash table.
+ * <p>
+ * The tables are written as seen by white, rank 8 on the first line,
+ * a white piece on square s reads index {@code s ^ 56}, a black one index {@code s}.
+ * An {@code Evaluation} is used by one search thread only.
+ *
+ * @see SearchBoard
+ */
+
+public class Evaluation {
+
+    /**
+     * value of every piece type, indexed by {@code SearchBoard.PAWN} to {@code KING}
+     */
+    public static final int[] VALUES = {0, 100, 320, 330, 500, 900, 20000};
+
+    /**
+     * middlegame and endgame value of every piece type
+     */
+    private static final int[] MG_VALUES = {0, 90, 320, 330, 480, 900, 0};
+    private static final int[] EG_VALUES = {0, 120, 300, 320, 520, 940, 0};
+
+    /**
+     * weight of every piece type in the phase, {@code MAX_PHASE} at the start
+     */
+    static final int[] PHASE = {0, 0, 1, 1, 2, 4, 0};
+    static final int MAX_PHASE = 24;
+
+    private static final int[] PASSED_MG = {0, 5, 10, 15, 25, 40, 60, 0};
+    private static final int[] PASSED_EG = {0, 10, 20, 35, 60, 90, 130, 0};
+    private static final int DOUBLED_MG = -10, DOUBLED_EG = -20;
+    private static final int ISOLATED_MG = -10, ISOLATED_EG = -15;
+
+    /**
+     * entries of the pawn hash table, a power of two
+     */
+    private static final int PAWN_ENTRIES = 1 << 14;
+
+    private static final int[] PAWN_TABLE = {
+            0, 0, 0, 0, 0, 0, 0, 0,
+            50, 50, 50, 50, 50, 50, 50, 50,
+            10, 10, 20, 30, 30, 20, 10, 10,
+            5, 5, 10, 25, 25, 10, 5, 5,
+            0, 0, 0, 20, 20, 0, 0, 0,
+            5, -5, -10, 0, 0, -10, -5, 5,
+            5, 10, 10, -20, -20, 10, 10, 5,
+            0, 0, 0, 0, 0, 0, 0, 0};
+
+    private static final int[] KNIGHT_TABLE = {
+            -50, -40, -30, -30, -30, -30, -40, -50,
+            -40, -20, 0, 0, 0, 0, -20, -40,
+            -30, 0, 10, 15, 15, 10, 0, -30,
+            -30, 5, 15, 20, 20, 15, 5, -30,
+            -30, 0, 15, 20, 20, 15, 0, -30,
+            -30, 5, 10, 15, 15, 10, 5, -30,
+            -40, -20, 0, 5, 5, 0, -20, -40,
+            -50, -40, -30, -30, -30, -30, -40, -50};
+
+    private static final int[] BISHOP_TABLE = {
+            -20, -10, -10, -10, -10, -10, -10, -20,
+            -10, 0, 0, 0, 0, 0, 0, -10,
+            -10, 0, 5, 10, 10, 5, 0, -10,
+            -10, 5, 5, 10, 10, 5, 5, -10,
+            -10, 0, 10, 10, 10, 10, 0, -10,
+            -10, 10, 10, 10, 10, 10, 10, -10,
+            -10, 5, 0, 0, 0, 0, 5, -10,
+            -20, -10, -10, -10, -10, -10, -10, -20};
+
+    private static final int[] ROOK_TABLE = {
+            0, 0, 0, 0, 0, 0, 0, 0,
+            5, 10, 10, 10, 10, 10, 10, 5,
+            -5, 0, 0, 0, 0, 0, 0, -5,
+            -5, 0, 0, 0, 0, 0, 0, -5,
+            -5, 0, 0, 0, 0, 0, 0, -5,
+            -5, 0, 0, 0, 0, 0, 0, -5,
+            -5, 0, 0, 0, 0, 0, 0, -5,
+            0, 0, 0, 5, 5, 0, 0, 0};
+
+    private static final int[] QUEEN_TABLE = {
+            -20, -10, -10, -5, -5, -10, -10, -20,
+            -10, 0, 0, 0, 0, 0, 0, -10,
+            -10, 0, 5, 5, 5, 5, 0, -10,
+            -5, 0, 5, 5, 5, 5, 0, -5,
+            0, 0, 5, 5, 5, 5, 0, -5,
+            -10, 5, 5, 5, 5, 5, 0, -10,
+            -10, 0, 5, 0, 0, 0, 0, -10,
+            -20, -10, -10, -5, -5, -10, -10, -20};
+
+    private static final int[] PAWN_END_TABLE = {
+            0, 0, 0, 0, 0, 0, 0, 0,
+            80, 80, 80, 80, 80, 80, 80, 80,
+            50, 50, 50, 50, 50, 50, 50, 50,
+            30, 30, 30, 30, 30, 30, 30, 30,
+            20, 20, 20, 20, 20, 20, 20, 20,
+            10, 10, 10, 10, 10, 10, 10, 10,
+            0, 0, 0, 0, 0, 0, 0, 0,
+            0, 0, 0, 0, 0, 0, 0, 0};
+
+    private static final int[] KING_END_TABLE = {
+            -50, -40, -30, -20, -20, -30, -40, -50,
+            -30, -20, -10, 0, 0, -10, -20, -30,
+            -30, -10, 20, 30, 30, 20, -10, -30,
+            -30, -10, 30, 40, 40, 30, -10, -30,
+            -30, -10, 30, 40, 40, 30, -10, -30,
+            -30, -10, 20, 30, 30, 20, -10, -30,
+            -30, -30, 0, 0, 0, 0, -30, -30,
+            -50, -30, -30, -30, -30, -30, -30, -50};
+
+    private static final int[] KING_TABLE = {
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -20, -30, -30, -40, -40, -30, -30, -20,
+            -10, -20, -20, -20, -20, -20, -20, -10,
+            20, 20, 0, 0, 0, 0, 20, 20,
+            20, 30, 10, 0, 0, 10, 30, 20};
+
+    private static final int[][] MG_TABLES = {null, PAWN_TABLE, KNIGHT_TABLE, BISHOP_TABLE, ROOK_TABLE, QUEEN_TABLE, KING_TABLE};
+    private static final int[][] EG_TABLES = {null, PAWN_END_TABLE, KNIGHT_TABLE, BISHOP_TABLE, ROOK_TABLE, QUEEN_TABLE, KING_END_TABLE};
+
+    /**
+     * value plus table of every piece, indexed by piece and square,
+     * for the owner of the piece
+     */
+    static final int[][] MG = new int[16][64];
+    static final int[][] EG = new int[16][64];
+
+    static {
+        for (int type = SearchBoard.PAWN; type <= SearchBoard.KING; type++) {
+            for (int square = 0; square < 64; square++) {
+                MG[type][square] = MG_VALUES[type] + MG_TABLES[type][square ^ 56];
+                EG[type][square] = EG_VALUES[type] + EG_TABLES[type][square ^ 56];
+                MG[type | SearchBoard.BLACK_PIECE][square] = MG_VALUES[type] + MG_TABLES[type][square];
+                EG[type | SearchBoard.BLACK_PIECE][square] = EG_VALUES[type] + EG_TABLES[type][square];
+            }
+        }
+    }
+
+    private final long[] pawnKeys = new long[PAWN_ENTRIES];
+    private final int[] pawnScores = new int[PAWN_ENTRIES];
+    private long pawnProbes, pawnHits;
+
+    /**
+     * @param board the position
+     * @return the score for the side to move
+     */
+    public int evaluate(SearchBoard board) {
+        int mg = board.mg[SearchBoard.WHITE] - board.mg[SearchBoard.BLACK];
+        int eg = board.eg[SearchBoard.WHITE] - board.eg[SearchBoard.BLACK];
+
+        pawnProbes++;
+        int index = (int) board.pawnKey & (PAWN_ENTRIES - 1);
+        int pawns;
+        if (pawnKeys[index] == board.pawnKey) {
+            pawnHits++;
+            pawns = pawnScores[index];
+        } else {
+            pawns = pawns(board);
+            pawnKeys[index] = board.pawnKey;
+            pawnScores[index] = pawns;
+        }
+        mg += mg(pawns);
+        eg += eg(pawns);
+
+        int score = taper(mg, eg, board.phase);
+        return board.side == SearchBoard.WHITE ? score : -score;
+    }
+
+    /**
+     * The same score as {@code evaluate}, computed from every square without any cache
+     *
+     * @param board the position
+     * @return the score for the side to move
+     */
+    public static int evaluateFull(SearchBoard board) {
+        int mg = 0, eg = 0, phase = 0;
+        for (int square = 0; square < 64; square++) {
+            int piece = board.squares[square];
+            if (piece == 0) {
+                continue;
+            }
+            int sign = SearchBoard.color(piece) == SearchBoard.WHITE ? 1 : -1;
+            mg += sign * MG[piece][square];
+            eg += sign * EG[piece][square];
+            phase += PHASE[SearchBoard.type(piece)];
+        }
+        int pawns = pawns(board);
+        int score = taper(mg + mg(pawns), eg + eg(pawns), phase);
+        return board.side == SearchBoard.WHITE ? score : -score;
+    }
+
+    private static int taper(int mg, int eg, int phase) {
+        phase = Math.min(phase, MAX_PHASE);
+        return (mg * phase + eg * (MAX_PHASE - phase)) / MAX_PHASE;
+    }
+
+    /**
+     * @return the pawn structure for white, middlegame and endgame packed by {@code pack}
+     */
+    private static int pawns(SearchBoard board) {
+        //每个线上的兵数，白兵最靠前和黑兵最靠前的横排
+        int[][] counts = new int[2][8];
+        int[] whiteLowest = {8, 8, 8, 8, 8, 8, 8, 8};
+        int[] blackHighest = {-1, -1, -1, -1, -1, -1, -1, -1};
+        for (int square = 8; square < 56; square++) {
+            int piece = board.squares[square];
+            if (SearchBoard.type(piece) != SearchBoard.PAWN) {
+                continue;
+            }
+            int file = square & 7, rank = square >> 3;
+            counts[SearchBoard.color(piece)][file]++;
+            if (SearchBoard.color(piece) == SearchBoard.WHITE) {
+                whiteLowest[file] = Math.min(whiteLowest[file], rank);
+            } else {
+                blackHighest[file] = Math.max(blackHighest[file], rank);
+            }
+        }
+
+        int mg = 0, eg = 0;
+        for (int file = 0; file < 8; file++) {
+            for (int color = SearchBoard.WHITE; color <= SearchBoard.BLACK; color++) {
+                int count = counts[color][file];
+                if (count == 0) {
+                    continue;
+                }
+                int sign = color == SearchBoard.WHITE ? 1 : -1;
+                if (count > 1) {
+                    mg += sign * DOUBLED_MG * (count - 1);
+                    eg += sign * DOUBLED_EG * (count - 1);
+                }
+                if ((file == 0 || counts[color][file - 1] == 0) && (file == 7 || counts[color][file + 1] == 0)) {
+                    mg += sign * ISOLATED_MG * count;
+                    eg += sign * ISOLATED_EG * count;
+                }
+            }
+        }
+        for (int square = 8; square < 56; square++) {
+            int piece = board.squares[square];
+            if (SearchBoard.type(piece) != SearchBoard.PAWN) {
+                continue;
+            }
+            int file = square & 7, rank = square >> 3;
+            boolean passed = true;
+            for (int f = Math.max(file - 1, 0); f <= Math.min(file + 1, 7); f++) {
+                if (SearchBoard.color(piece) == SearchBoard.WHITE ? blackHighest[f] > rank : whiteLowest[f] < rank) {
+                    passed = false;
+                }
+            }
+            if (passed) {
+                if (SearchBoard.color(piece) == SearchBoard.WHITE) {
+                    mg += PASSED_MG[rank];
+                    eg += PASSED_EG[rank];
+                } else {
+                    mg -= PASSED_MG[7 - rank];
+                    eg -= PASSED_EG[7 - rank];
+                }
+            }
+        }
+        return pack(mg, eg);
+    }
+
+    private static int pack(int mg, int eg) {
+        return (mg << 16) + eg;
+    }
+
+    private static int mg(int packed) {
+        return (packed + 0x8000) >> 16;
+    }
+
+    private static int eg(int packed) {
+        return (short) packed;
+    }
+
+    /**
+     * @return positions looked up in the pawn hash table
+     */
+    public long getPawnProbes() {
+        return pawnProbes;
+    }
+
+    /**
+     * @return positions found in the pawn hash table
+     */
+    public long getPawnHits() {
+        return pawnHits;
+    }
+}
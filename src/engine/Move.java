@@ -0,0 +1,75 @@
+package engine;
+
+/**
+ * Class {@code Move}
+ * A move of the engine is packed into an int, so move lists are plain int arrays:
+ * <pre>
+ * bits 0-5     from square
+ * bits 6-11    to square
+ * bits 12-14   promotion piece type, 0 if none
+ * bits 16-19   flags
+ * </pre>
+ * Squares are numbered from a1 = 0 to h8 = 63, see {@code SearchBoard}.
+ *
+ * @see SearchBoard
+ */
+
+public final class Move {
+
+    public static final int NONE = 0;
+
+    public static final int CAPTURE = 1, EN_PASSANT = 2, CASTLING = 4, DOUBLE_PUSH = 8;
+
+    private Move() {
+    }
+
+    public static int of(int from, int to) {
+        return from | to << 6;
+    }
+
+    public static int of(int from, int to, int promotion, int flags) {
+        return from | to << 6 | promotion << 12 | flags << 16;
+    }
+
+    public static int from(int move) {
+        return move & 63;
+    }
+
+    public static int to(int move) {
+        return move >>> 6 & 63;
+    }
+
+    public static int promotion(int move) {
+        return move >>> 12 & 7;
+    }
+
+    public static int flags(int move) {
+        return move >>> 16;
+    }
+
+    public static boolean isCapture(int move) {
+        return (flags(move) & (CAPTURE | EN_PASSANT)) != 0;
+    }
+
+    /**
+     * @return whether or not the move changes the material, capture or promotion
+     */
+    public static boolean isTactical(int move) {
+        return isCapture(move) || promotion(move) != 0;
+    }
+
+    /**
+     * @param move the move
+     * @return the move in coordinate notation like {@code e2e4} or {@code e7e8q}
+     */
+    public static String toString(int move) {
+        if (move == NONE) {
+            return "0000";
+        }
+        String result = SearchBoard.squareName(from(move)) + SearchBoard.squareName(to(move));
+        if (promotion(move) != 0) {
+            result += " pnbrqk".charAt(promotion(move));
+        }
+        return result;
+    }
+}
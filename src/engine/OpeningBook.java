@@ -0,0 +1,153 @@
+package engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Class {@code OpeningBook}
+ * Opening book in the binary format of Polyglot:
+ * entries of 16 bytes, big-endian, sorted by key as unsigned numbers,
+ * <pre>
+ * bytes 0-7    key of the position, {@code SearchBoard.getKey}
+ * bytes 8-9    move, from | to &lt;&lt; 6 | promotion &lt;&lt; 12
+ * bytes 10-11  weight
+ * bytes 12-15  unused
+ * </pre>
+ * The keys are the Zobrist keys of the engine, not those of Polyglot,
+ * so the books are made by {@code BookBuilder}.
+ * The file is mapped into memory and searched in place,
+ * a probe is a binary search over the entries and needs no memory for the book itself.
+ * Probes can be made by several threads at the same time.
+ *
+ * @see BookBuilder
+ */
+
+public class OpeningBook implements Closeable {
+
+    public static final int ENTRY_SIZE = 16;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int size;
+
+    /**
+     * @param path the book file
+     * @throws IOException if it cannot be read or it is not a book
+     */
+    public OpeningBook(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long length = channel.size();
+            if (length % ENTRY_SIZE != 0 || length > Integer.MAX_VALUE) {
+                throw new IOException("not a book: " + path);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            size = (int) (length / ENTRY_SIZE);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Choose a book move at random, more often those of higher weight
+     *
+     * @param board  the position
+     * @param random source of randomness
+     * @return a legal move, {@code Move.NONE} if the position is not in the book
+     */
+    public int probe(SearchBoard board, Random random) {
+        int first = find(board.getKey());
+        int total = 0;
+        for (int i = first; i < size && key(i) == board.getKey(); i++) {
+            total += weight(i);
+        }
+        if (total == 0) {
+            return Move.NONE;
+        }
+        int choice = random.nextInt(total);
+        for (int i = first; ; i++) {
+            choice -= weight(i);
+            if (choice < 0) {
+                return legal(board, buffer.getShort(i * ENTRY_SIZE + 8) & 0xFFFF);
+            }
+        }
+    }
+
+    /**
+     * @param board the position
+     * @return the book moves, legal or not, and their weights as {@code move << 16 | weight}
+     */
+    public int[] entries(SearchBoard board) {
+        int first = find(board.getKey());
+        int last = first;
+        while (last < size && key(last) == board.getKey()) {
+            last++;
+        }
+        int[] result = new int[last - first];
+        for (int i = first; i < last; i++) {
+            result[i - first] = buffer.getInt(i * ENTRY_SIZE + 8);
+        }
+        return result;
+    }
+
+    /**
+     * @return index of the first entry whose key is not less than the key
+     */
+    private int find(long key) {
+        int low = 0, high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (Long.compareUnsigned(key(middle), key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private long key(int index) {
+        return buffer.getLong(index * ENTRY_SIZE);
+    }
+
+    private int weight(int index) {
+        return buffer.getShort(index * ENTRY_SIZE + 10) & 0xFFFF;
+    }
+
+    /**
+     * The move of an entry as a move of the position, with its flags,
+     * a key collision can give a move that is not legal
+     */
+    private static int legal(SearchBoard board, int packed) {
+        int[] moves = new int[SearchBoard.MAX_MOVES];
+        int count = board.generateMoves(moves);
+        for (int i = 0; i < count; i++) {
+            if ((moves[i] & 0xFFFF) == packed && board.make(moves[i])) {
+                board.unmake(moves[i]);
+                return moves[i];
+            }
+        }
+        return Move.NONE;
+    }
+
+    /**
+     * Close the file, the mapping is released by the garbage collector
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,559 @@
+package engine;
+
+/**
+ * Class {@code Search}
+ * Negamax search with alpha-beta pruning and iterative deepening.
+ * Every iteration searches one ply deeper than the last one, starting with its principal variation,
+ * until the time budget is spent or the maximum depth is reached.
+ * Moves are ordered by the principal variation first, then captures by
+ * most valuable victim / least valuable attacker, then the killer moves of the ply,
+ * then the other quiet moves by the history of the cutoffs they caused,
+ * captures losing material by static exchange evaluation come last.
+ * At the end of the depth the quiescence search goes on with the captures and promotions only,
+ * skipping those that lose material by static exchange evaluation,
+ * so the position evaluated is quiet and a piece about to be taken back is not counted as won.
+ * The result of every node is stored in the {@code TranspositionTable},
+ * a position searched deep enough before is not searched again,
+ * and its best move is tried first otherwise.
+ * A position with few enough pieces for the {@code Tablebase} is not searched,
+ * its exact distance to mate is read from the tablebase.
+ * <p>
+ * With several lines (multi-PV) every iteration searches the root again for each line
+ * without the first moves of the lines before, so the lines are the best few moves in order.
+ * The best line is searched first exactly as with one line.
+ * <p>
+ * The killer moves and the history are kept between searches of the same game.
+ * <p>
+ * Several searches can share a table to search the same position at the same time (lazy SMP),
+ * the helpers skip some of the iterations so they are at different depths
+ * and fill the table with results the main search will need.
+ *
+ * @see Engine
+ * @see SearchBoard
+ * @see TranspositionTable
+ * @see Tablebase
+ */
+
+public class Search {
+
+    public static final int INFINITY = 32000;
+
+    /**
+     * score of mating at the root, mate at ply p scores {@code MATE - p}
+     */
+    public static final int MATE = 30000;
+
+    public static final int MAX_PLY = 128;
+
+    private static final int PV_SCORE = 1 << 30, HASH_SCORE = PV_SCORE - 1, CAPTURE_SCORE = 1 << 24, KILLER_SCORE = 1 << 20,
+            LOSING_CAPTURE_SCORE = -(1 << 24);
+
+    /**
+     * a capture that cannot bring the score up to alpha with this margin is not searched in quiescence
+     */
+    private static final int DELTA_MARGIN = 200;
+
+    /**
+     * history values are halved when one of them reaches this
+     */
+    private static final int HISTORY_LIMIT = KILLER_SCORE / 2;
+
+    /**
+     * helper {@code i} skips the iterations where {@code (depth + SKIP_PHASE[i]) / SKIP_SIZE[i]} is odd
+     */
+    private static final int[] SKIP_SIZE = {1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 3, 3, 4, 4, 4, 4, 4, 4, 4, 4};
+    private static final int[] SKIP_PHASE = {0, 1, 0, 1, 2, 3, 0, 1, 2, 3, 4, 5, 0, 1, 2, 3, 4, 5, 6, 7};
+
+    private final TranspositionTable table;
+    private final Evaluation evaluation = new Evaluation();
+    private Tablebase tablebase;
+
+    /**
+     * arrays of the tablebase probes of this thread
+     */
+    private final Tablebase.Scratch probe = new Tablebase.Scratch();
+
+    /**
+     * 0 for the main search, from 1 for the helpers
+     */
+    private final int id;
+    private SearchBoard board;
+
+    private final int[][] moves = new int[MAX_PLY][SearchBoard.MAX_MOVES];
+    private final int[][] scores = new int[MAX_PLY][SearchBoard.MAX_MOVES];
+    private final int[][] killers = new int[MAX_PLY][2];
+
+    /**
+     * cutoffs caused by the quiet moves, indexed by piece and target square
+     */
+    private final int[][] history = new int[16][64];
+
+    private final int[][] pv = new int[MAX_PLY][MAX_PLY];
+    private final int[] pvLength = new int[MAX_PLY];
+    private int[] lastPv = new int[0];
+    private int rootScore;
+
+    /**
+     * first moves of the better lines, not searched at the root
+     */
+    private final int[] excluded = new int[SearchBoard.MAX_MOVES];
+    private int excludedCount;
+    private int lines = 1;
+
+    private long nodes;
+    private long probes, hits;
+    private long tablebaseHits;
+    private long deadline;
+    private volatile boolean stopped;
+    private boolean quiescence = true;
+
+    /**
+     * @param table the transposition table, may be shared by several searches, {@code null} for none
+     */
+    public Search(TranspositionTable table) {
+        this(table, 0);
+    }
+
+    /**
+     * @param table the transposition table shared with the other searches
+     * @param id    0 for the main search, from 1 for the helpers
+     */
+    public Search(TranspositionTable table, int id) {
+        this.table = table;
+        this.id = id;
+    }
+
+    /**
+     * Search a position
+     *
+     * @param position the position, it is not changed
+     * @param budget   milliseconds, {@code 0} for no limit
+     * @param maxDepth the last iteration
+     * @param listener called after every iteration, may be {@code null}
+     * @return the result of the last finished iteration, the best move is {@code Move.NONE} if there is no move
+     */
+    public SearchInfo run(SearchBoard position, long budget, int maxDepth, SearchListener listener) {
+        long start = System.nanoTime();
+        board = new SearchBoard(position);
+        deadline = budget > 0 ? start + budget * 1000000 : Long.MAX_VALUE;
+        nodes = 0;
+        probes = hits = 0;
+        tablebaseHits = 0;
+        if (table != null && id == 0) {
+            table.newSearch();
+        }
+        lastPv = new int[0];
+        for (int[] killer : killers) {
+            killer[0] = killer[1] = Move.NONE;
+        }
+        for (int[] row : history) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] /= 8;
+            }
+        }
+
+        //对方的王可以被吃掉时直接获胜
+        int capture = kingCapture();
+        if (capture != Move.NONE) {
+            return new SearchInfo(1, MATE - 1, 1, System.nanoTime() - start, new int[]{capture});
+        }
+
+        SearchInfo result = null;
+        for (int depth = 1; depth <= maxDepth && depth < MAX_PLY; depth++) {
+            if (id > 0 && depth > 1 && (depth + SKIP_PHASE[(id - 1) % SKIP_PHASE.length]) / SKIP_SIZE[(id - 1) % SKIP_SIZE.length] % 2 != 0) {
+                continue;
+            }
+            int score = negamax(depth, -INFINITY, INFINITY, 0);
+            if (stopped) {
+                //未完成的迭代中已经比上一次最好着法更好的着法
+                if (pvLength[0] > 0) {
+                    result = new SearchInfo(depth - 1, rootScore, nodes, System.nanoTime() - start, copyPv());
+                }
+                break;
+            }
+            result = new SearchInfo(depth, score, nodes, System.nanoTime() - start, copyPv());
+            lastPv = result.getPv();
+            if (listener != null) {
+                listener.info(result);
+            }
+            for (int line = 1; line < lines; line++) {
+                excluded[line - 1] = pv[0][0];
+                excludedCount = line;
+                score = negamax(depth, -INFINITY, INFINITY, 0);
+                excludedCount = 0;
+                //没有更多的着法
+                if (stopped || pvLength[0] == 0) {
+                    break;
+                }
+                if (listener != null) {
+                    listener.info(new SearchInfo(depth, score, nodes, System.nanoTime() - start, copyPv(), line));
+                }
+            }
+            if (stopped) {
+                break;
+            }
+            if (result.isMate() && result.getDepth() >= MATE - Math.abs(result.getScore())) {
+                break;
+            }
+            //下一次迭代不可能在时间内完成
+            if (budget > 0 && System.nanoTime() - start > budget * 1000000 / 2) {
+                break;
+            }
+        }
+        if (result == null || result.getBestMove() == Move.NONE) {
+            result = new SearchInfo(0, -MATE, nodes, System.nanoTime() - start, fallback());
+        }
+        return result;
+    }
+
+    /**
+     * Stop the search as soon as possible,
+     * {@code run} returns the result of the last finished iteration.
+     * The search stays stopped until {@code reset}, so it can be stopped before it starts
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * @param quiescence whether or not to search the captures at the end of the depth,
+     *                   without it the position is evaluated as it is
+     */
+    public void setQuiescence(boolean quiescence) {
+        this.quiescence = quiescence;
+    }
+
+    /**
+     * @param tablebase endgame tablebase, {@code null} for none
+     */
+    public void setTablebase(Tablebase tablebase) {
+        this.tablebase = tablebase;
+    }
+
+    /**
+     * @param lines number of best moves searched with their principal variations,
+     *              the listener is called for every line of every iteration
+     */
+    public void setLines(int lines) {
+        this.lines = Math.max(lines, 1);
+    }
+
+    /**
+     * Allow the next {@code run} to search
+     */
+    public void reset() {
+        stopped = false;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return positions looked up in the transposition table by the last search
+     */
+    public long getProbes() {
+        return probes;
+    }
+
+    /**
+     * @return positions found in the transposition table by the last search
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return positions found in the tablebase by the last search
+     */
+    public long getTablebaseHits() {
+        return tablebaseHits;
+    }
+
+    private int negamax(int depth, int alpha, int beta, int ply) {
+        pvLength[ply] = ply;
+        if ((++nodes & 1023) == 0 && System.nanoTime() > deadline) {
+            stopped = true;
+        }
+        if (stopped) {
+            return 0;
+        }
+        if (ply >= MAX_PLY - 1) {
+            return evaluation.evaluate(board);
+        }
+        if (tablebase != null && ply > 0 && Long.bitCount(board.occupied) <= Tablebase.MAX_PIECES) {
+            int score = tablebase.probeDtm(board, probe);
+            if (score != Tablebase.UNKNOWN) {
+                tablebaseHits++;
+                //残局库的杀棋步数从当前局面算起
+                return score > 0 ? score - ply : score < 0 ? score + ply : 0;
+            }
+        }
+
+        if (depth <= 0) {
+            return quiescence ? quiesce(alpha, beta, ply) : evaluation.evaluate(board);
+        }
+        boolean inCheck = board.inCheck();
+        if (inCheck) {
+            depth++;
+        }
+
+        int hashMove = Move.NONE;
+        if (table != null) {
+            probes++;
+            long data = table.probe(board.key);
+            if (data != 0) {
+                hits++;
+                hashMove = TranspositionTable.move(data);
+                if (ply > 0 && TranspositionTable.depth(data) >= depth) {
+                    int score = fromTable(TranspositionTable.score(data), ply);
+                    int bound = TranspositionTable.bound(data);
+                    if (bound == TranspositionTable.EXACT
+                            || bound == TranspositionTable.LOWER && score >= beta
+                            || bound == TranspositionTable.UPPER && score <= alpha) {
+                        return score;
+                    }
+                }
+            }
+        }
+
+        int count = board.generateMoves(moves[ply]);
+        order(ply, count, hashMove);
+        int start = alpha;
+        int best = -INFINITY;
+        int bestMove = Move.NONE;
+        int legal = 0;
+        for (int i = 0; i < count; i++) {
+            int move = pick(ply, i, count);
+            int piece = board.squares[Move.from(move)];
+            if (ply == 0 && isExcluded(move) || !board.make(move)) {
+                continue;
+            }
+            legal++;
+            int score = -negamax(depth - 1, -beta, -alpha, ply + 1);
+            board.unmake(move);
+            if (stopped) {
+                return 0;
+            }
+            if (score > best) {
+                best = score;
+                if (score > alpha) {
+                    alpha = score;
+                    bestMove = move;
+                    updatePv(ply, move);
+                    if (ply == 0) {
+                        rootScore = score;
+                    }
+                    if (score >= beta) {
+                        if (!Move.isTactical(move)) {
+                            cutoff(ply, piece, move, depth);
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+        if (legal == 0) {
+            best = inCheck ? -MATE + ply : 0;
+            start = -INFINITY;
+        }
+        //排除了着法的根节点结果不完整
+        if (table != null && (ply > 0 || excludedCount == 0)) {
+            int bound = best >= beta ? TranspositionTable.LOWER
+                    : best > start ? TranspositionTable.EXACT : TranspositionTable.UPPER;
+            table.store(board.key, bestMove, toTable(best, ply), depth, bound);
+        }
+        return best;
+    }
+
+    /**
+     * Search the captures and promotions until the position is quiet,
+     * the side to move may also stand pat with the static evaluation
+     */
+    private int quiesce(int alpha, int beta, int ply) {
+        pvLength[ply] = ply;
+        if ((++nodes & 1023) == 0 && System.nanoTime() > deadline) {
+            stopped = true;
+        }
+        if (stopped) {
+            return 0;
+        }
+        int best = evaluation.evaluate(board);
+        if (best >= beta || ply >= MAX_PLY - 1) {
+            return best;
+        }
+        if (best > alpha) {
+            alpha = best;
+        }
+
+        int count = board.generateCaptures(moves[ply]);
+        order(ply, count, Move.NONE);
+        for (int i = 0; i < count; i++) {
+            int move = pick(ply, i, count);
+            if (Move.promotion(move) == 0) {
+                int captured = (Move.flags(move) & Move.EN_PASSANT) != 0 ? SearchBoard.PAWN : SearchBoard.type(board.squares[Move.to(move)]);
+                if (best + Evaluation.VALUES[captured] + DELTA_MARGIN <= alpha || scores[ply][i] < 0) {
+                    continue;
+                }
+            }
+            if (!board.make(move)) {
+                continue;
+            }
+            int score = -quiesce(-beta, -alpha, ply + 1);
+            board.unmake(move);
+            if (stopped) {
+                return 0;
+            }
+            if (score > best) {
+                best = score;
+                if (score > alpha) {
+                    alpha = score;
+                    updatePv(ply, move);
+                    if (score >= beta) {
+                        break;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Mate scores are stored relative to the position, not to the root
+     */
+    private static int toTable(int score, int ply) {
+        if (score >= MATE - MAX_PLY) {
+            return score + ply;
+        }
+        return score <= -MATE + MAX_PLY ? score - ply : score;
+    }
+
+    private static int fromTable(int score, int ply) {
+        if (score >= MATE - MAX_PLY) {
+            return score - ply;
+        }
+        return score <= -MATE + MAX_PLY ? score + ply : score;
+    }
+
+    /**
+     * Score the moves of a ply for ordering
+     */
+    private void order(int ply, int count, int hashMove) {
+        int[] list = moves[ply], values = scores[ply];
+        int pvMove = ply < lastPv.length ? lastPv[ply] : Move.NONE;
+        for (int i = 0; i < count; i++) {
+            int move = list[i];
+            if (move == pvMove) {
+                values[i] = PV_SCORE;
+            } else if (move == hashMove) {
+                values[i] = HASH_SCORE;
+            } else if (Move.isTactical(move)) {
+                int victim = (Move.flags(move) & Move.EN_PASSANT) != 0 ? SearchBoard.PAWN : SearchBoard.type(board.squares[Move.to(move)]);
+                int attacker = SearchBoard.type(board.squares[Move.from(move)]);
+                int value = (Evaluation.VALUES[victim] + Evaluation.VALUES[Move.promotion(move)]) * 8 - attacker;
+                //只有吃比自己便宜的子才可能亏
+                if (Evaluation.VALUES[attacker] > Evaluation.VALUES[victim] && Move.promotion(move) == 0 && board.see(move) < 0) {
+                    values[i] = LOSING_CAPTURE_SCORE + value;
+                } else {
+                    values[i] = CAPTURE_SCORE + value;
+                }
+            } else if (move == killers[ply][0]) {
+                values[i] = KILLER_SCORE + 1;
+            } else if (move == killers[ply][1]) {
+                values[i] = KILLER_SCORE;
+            } else {
+                values[i] = history[board.squares[Move.from(move)]][Move.to(move)];
+            }
+        }
+    }
+
+    /**
+     * Move the best of the remaining moves to index i
+     */
+    private int pick(int ply, int i, int count) {
+        int[] list = moves[ply], values = scores[ply];
+        int best = i;
+        for (int j = i + 1; j < count; j++) {
+            if (values[j] > values[best]) {
+                best = j;
+            }
+        }
+        int move = list[best], value = values[best];
+        list[best] = list[i];
+        values[best] = values[i];
+        list[i] = move;
+        values[i] = value;
+        return move;
+    }
+
+    /**
+     * A quiet move caused a cutoff, remember it as killer and in the history
+     */
+    private void cutoff(int ply, int piece, int move, int depth) {
+        if (killers[ply][0] != move) {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = move;
+        }
+        int[] row = history[piece];
+        row[Move.to(move)] += depth * depth;
+        if (row[Move.to(move)] > HISTORY_LIMIT) {
+            for (int[] values : history) {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] /= 2;
+                }
+            }
+        }
+    }
+
+    private void updatePv(int ply, int move) {
+        pv[ply][ply] = move;
+        System.arraycopy(pv[ply + 1], ply + 1, pv[ply], ply + 1, pvLength[ply + 1] - ply - 1);
+        pvLength[ply] = Math.max(pvLength[ply + 1], ply + 1);
+    }
+
+    private boolean isExcluded(int move) {
+        for (int i = 0; i < excludedCount; i++) {
+            if (excluded[i] == move) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int[] copyPv() {
+        int[] result = new int[pvLength[0]];
+        System.arraycopy(pv[0], 0, result, 0, result.length);
+        return result;
+    }
+
+    /**
+     * @return a move taking the king of the opponent, {@code Move.NONE} if none
+     */
+    private int kingCapture() {
+        int[] list = moves[0];
+        int count = board.generateMoves(list);
+        int king = board.kings[board.side ^ 1];
+        for (int i = 0; i < count; i++) {
+            if (Move.to(list[i]) == king && board.squares[king] == (SearchBoard.KING | (board.side ^ 1) << 3)) {
+                return list[i];
+            }
+        }
+        return Move.NONE;
+    }
+
+    /**
+     * Without a legal move the game of {@code Board} goes on until the king is taken,
+     * so any move is still played
+     */
+    private int[] fallback() {
+        int[] list = moves[0];
+        int count = board.generateMoves(list);
+        for (int i = 0; i < count; i++) {
+            if (board.make(list[i])) {
+                board.unmake(list[i]);
+                return new int[]{list[i]};
+            }
+        }
+        return count > 0 ? new int[]{list[0]} : new int[0];
+    }
+}
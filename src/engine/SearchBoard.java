@@ -0,0 +1,938 @@
+package engine;
+
+import game.Board;
+import game.Fen;
+import game.Piece;
+
+import java.util.SplittableRandom;
+
+/**
+ * Class {@code SearchBoard}
+ * Compact board used by the engine.
+ * {@code Board} keeps {@code Piece} objects and builds lists of {@code Position}
+ * for every question, which is fine for the interface but far too slow
+ * for millions of positions per second, so the engine copies the position
+ * into an array of 64 ints and makes and unmakes its moves in place.
+ * <p>
+ * Squares are numbered from a1 = 0 to h8 = 63, so square = rank * 8 + file,
+ * and {@code square(x, y)} converts from the coordinates of {@code Board}, where y = 0 is rank 8.
+ * A piece is its type, {@code PAWN} to {@code KING}, plus {@code BLACK_PIECE} for black.
+ * <p>
+ * The moves generated are pseudo-legal, {@code make} refuses and takes back
+ * a move that leaves the own king attacked. They follow the standard rules,
+ * which are a subset of the moves accepted by {@code Board}.
+ * Every piece put on or taken off a square also updates the Zobrist keys
+ * and the material and piece-square scores, so they never need a scan of the board.
+ *
+ * @see Board
+ * @see Move
+ * @see Evaluation
+ */
+
+public class SearchBoard {
+
+    public static final int WHITE = 0, BLACK = 1;
+
+    public static final int PAWN = 1, KNIGHT = 2, BISHOP = 3, ROOK = 4, QUEEN = 5, KING = 6;
+
+    /**
+     * added to the type of a black piece
+     */
+    public static final int BLACK_PIECE = 8;
+
+    public static final int WHITE_KING_SIDE = 1, WHITE_QUEEN_SIDE = 2, BLACK_KING_SIDE = 4, BLACK_QUEEN_SIDE = 8;
+
+    /**
+     * enough for the moves of any position
+     */
+    public static final int MAX_MOVES = 256;
+
+    /**
+     * moves that can be made and not yet unmade
+     */
+    private static final int MAX_DEPTH = 1024;
+
+    static final int[][] KNIGHT_TARGETS = new int[64][];
+    static final int[][] KING_TARGETS = new int[64][];
+
+    /**
+     * squares attacked by a pawn of a color standing on a square
+     */
+    static final int[][][] PAWN_ATTACKS = new int[2][64][];
+
+    /**
+     * squares in every direction from a square, the first 4 directions are straight
+     */
+    static final int[][][] RAYS = new int[64][8][];
+
+    /**
+     * castling rights kept when a piece leaves or lands on a square
+     */
+    private static final int[] CASTLING_MASK = new int[64];
+
+    /**
+     * Zobrist keys of every piece on every square, the castling rights,
+     * the file of the en passant square and the side to move,
+     * generated from a fixed seed so the keys are the same in every run
+     */
+    static final long[][] PIECE_KEYS = new long[16][64];
+    static final long[] CASTLING_KEYS = new long[16];
+    static final long[] EN_PASSANT_KEYS = new long[8];
+    static final long SIDE_KEY;
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x9E3779B97F4A7C15L);
+        for (long[] keys : PIECE_KEYS) {
+            for (int square = 0; square < 64; square++) {
+                keys[square] = random.nextLong();
+            }
+        }
+        for (int i = 0; i < CASTLING_KEYS.length; i++) {
+            CASTLING_KEYS[i] = random.nextLong();
+        }
+        for (int i = 0; i < EN_PASSANT_KEYS.length; i++) {
+            EN_PASSANT_KEYS[i] = random.nextLong();
+        }
+        SIDE_KEY = random.nextLong();
+    }
+
+    static {
+        int[][] knight = {{1, 2}, {2, 1}, {2, -1}, {1, -2}, {-1, -2}, {-2, -1}, {-2, 1}, {-1, 2}};
+        int[][] king = {{0, 1}, {0, -1}, {1, 0}, {-1, 0}, {1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
+        for (int square = 0; square < 64; square++) {
+            KNIGHT_TARGETS[square] = targets(square, knight, false);
+            KING_TARGETS[square] = targets(square, king, false);
+            for (int direction = 0; direction < 8; direction++) {
+                RAYS[square][direction] = targets(square, new int[][]{king[direction]}, true);
+            }
+            PAWN_ATTACKS[WHITE][square] = targets(square, new int[][]{{-1, 1}, {1, 1}}, false);
+            PAWN_ATTACKS[BLACK][square] = targets(square, new int[][]{{-1, -1}, {1, -1}}, false);
+            CASTLING_MASK[square] = 15;
+        }
+        CASTLING_MASK[0] = ~WHITE_QUEEN_SIDE & 15;
+        CASTLING_MASK[7] = ~WHITE_KING_SIDE & 15;
+        CASTLING_MASK[4] = ~(WHITE_KING_SIDE | WHITE_QUEEN_SIDE) & 15;
+        CASTLING_MASK[56] = ~BLACK_QUEEN_SIDE & 15;
+        CASTLING_MASK[63] = ~BLACK_KING_SIDE & 15;
+        CASTLING_MASK[60] = ~(BLACK_KING_SIDE | BLACK_QUEEN_SIDE) & 15;
+    }
+
+    private static int[] targets(int square, int[][] steps, boolean slide) {
+        int[] buffer = new int[8];
+        int count = 0;
+        for (int[] step : steps) {
+            int file = (square & 7) + step[0], rank = (square >> 3) + step[1];
+            while (file >= 0 && file < 8 && rank >= 0 && rank < 8) {
+                buffer[count++] = rank * 8 + file;
+                if (!slide) {
+                    break;
+                }
+                file += step[0];
+                rank += step[1];
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(buffer, 0, result, 0, count);
+        return result;
+    }
+
+    final int[] squares = new int[64];
+    final int[] kings = new int[2];
+    int side;
+    int castling;
+
+    /**
+     * square a pawn can be taken en passant on, {@code -1} if none
+     */
+    int enPassant;
+
+    /**
+     * moves since the last capture or pawn move
+     */
+    int halfMoves;
+
+    /**
+     * Zobrist key of the position
+     */
+    long key;
+
+    /**
+     * Zobrist key of the pawns only, for the pawn hash table
+     */
+    long pawnKey;
+
+    /**
+     * middlegame and endgame material and piece-square score of each color,
+     * and the phase, see {@code Evaluation}
+     */
+    final int[] mg = new int[2], eg = new int[2];
+    int phase;
+
+    /**
+     * bit {@code square} is set for every square with a piece
+     */
+    long occupied;
+
+    /**
+     * what {@code unmake} needs: captured piece, castling, en passant and half moves
+     */
+    private final int[] undo = new int[MAX_DEPTH];
+
+    /**
+     * keys of the positions before the moves
+     */
+    private final long[] keys = new long[MAX_DEPTH];
+
+    /**
+     * gains of the captures of {@code see}
+     */
+    private final int[] exchange = new int[32];
+    private int depth;
+
+    /**
+     * The starting position
+     */
+    public SearchBoard() {
+        int[] pieces = {ROOK, KNIGHT, BISHOP, QUEEN, KING, BISHOP, KNIGHT, ROOK};
+        for (int file = 0; file < 8; file++) {
+            squares[file] = pieces[file];
+            squares[8 + file] = PAWN;
+            squares[48 + file] = PAWN | BLACK_PIECE;
+            squares[56 + file] = pieces[file] | BLACK_PIECE;
+        }
+        kings[WHITE] = 4;
+        kings[BLACK] = 60;
+        side = WHITE;
+        castling = WHITE_KING_SIDE | WHITE_QUEEN_SIDE | BLACK_KING_SIDE | BLACK_QUEEN_SIDE;
+        enPassant = -1;
+        halfMoves = 0;
+        refresh();
+    }
+
+    /**
+     * A position in Forsyth-Edwards Notation,
+     * the move counters may be left out
+     *
+     * @param fen like {@code rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1}
+     * @throws IllegalArgumentException if it is not a valid position
+     */
+    public SearchBoard(String fen) {
+        set(new Fen(fen));
+    }
+
+    public SearchBoard(SearchBoard other) {
+        System.arraycopy(other.squares, 0, squares, 0, 64);
+        kings[WHITE] = other.kings[WHITE];
+        kings[BLACK] = other.kings[BLACK];
+        side = other.side;
+        castling = other.castling;
+        enPassant = other.enPassant;
+        halfMoves = other.halfMoves;
+        key = other.key;
+        pawnKey = other.pawnKey;
+        occupied = other.occupied;
+        mg[WHITE] = other.mg[WHITE];
+        mg[BLACK] = other.mg[BLACK];
+        eg[WHITE] = other.eg[WHITE];
+        eg[BLACK] = other.eg[BLACK];
+        phase = other.phase;
+    }
+
+    /**
+     * Copy the position of the game,
+     * castling rights come from the pieces that have not moved,
+     * en passant from the last move of the board,
+     * the moves for the fifty-move rule from the counter of the board
+     *
+     * @param board the board
+     */
+    public SearchBoard(Board board) {
+        for (int x = 0; x < 8; x++) {
+            for (int y = 0; y < 8; y++) {
+                Piece piece = board.getPiece(x, y);
+                if (piece == null) {
+                    continue;
+                }
+                int color = piece.getColor() == Piece.Color.white ? WHITE : BLACK;
+                int type = type(piece.getType());
+                squares[square(x, y)] = type | color << 3;
+                if (type == KING) {
+                    kings[color] = square(x, y);
+                }
+            }
+        }
+        side = board.getTurn() == Piece.Color.white ? WHITE : BLACK;
+        castling = 0;
+        if (unmoved(board, 4, 7, KING)) {
+            castling |= unmoved(board, 7, 7, ROOK) ? WHITE_KING_SIDE : 0;
+            castling |= unmoved(board, 0, 7, ROOK) ? WHITE_QUEEN_SIDE : 0;
+        }
+        if (unmoved(board, 4, 0, KING)) {
+            castling |= unmoved(board, 7, 0, ROOK) ? BLACK_KING_SIDE : 0;
+            castling |= unmoved(board, 0, 0, ROOK) ? BLACK_QUEEN_SIDE : 0;
+        }
+        enPassant = -1;
+        //上一步的格式为 "E2 - E4"
+        String last = board.getLastMove();
+        if (last != null) {
+            int from = (last.charAt(1) - '1') * 8 + last.charAt(0) - 'A';
+            int to = (last.charAt(6) - '1') * 8 + last.charAt(5) - 'A';
+            if (type(squares[to]) == PAWN && Math.abs(to - from) == 16) {
+                enPassant = (from + to) / 2;
+            }
+        }
+        halfMoves = board.getHalfmoves();
+        refresh();
+    }
+
+    /**
+     * Set a position read by {@code Fen}, without creating any object,
+     * a castling right without its king and rook on their squares is dropped
+     *
+     * @param fen the position
+     */
+    public void set(Fen fen) {
+        for (int square = 0; square < 64; square++) {
+            int piece = fen.getPiece(square);
+            squares[square] = piece;
+            if (type(piece) == KING) {
+                kings[color(piece)] = square;
+            }
+        }
+        side = fen.isBlackToMove() ? BLACK : WHITE;
+        castling = 0;
+        if (squares[4] == KING) {
+            castling |= squares[7] == ROOK ? fen.getCastling() & WHITE_KING_SIDE : 0;
+            castling |= squares[0] == ROOK ? fen.getCastling() & WHITE_QUEEN_SIDE : 0;
+        }
+        if (squares[60] == (KING | BLACK_PIECE)) {
+            castling |= squares[63] == (ROOK | BLACK_PIECE) ? fen.getCastling() & BLACK_KING_SIDE : 0;
+            castling |= squares[56] == (ROOK | BLACK_PIECE) ? fen.getCastling() & BLACK_QUEEN_SIDE : 0;
+        }
+        enPassant = fen.getEnPassant();
+        halfMoves = fen.getHalfmoves();
+        depth = 0;
+        refresh();
+    }
+
+    /**
+     * Write the position into a FEN, the number of the move is left as it is in {@code fen},
+     * as the search board does not count it
+     *
+     * @param fen where to write
+     * @return the same {@code fen}
+     */
+    public Fen toFen(Fen fen) {
+        for (int square = 0; square < 64; square++) {
+            fen.setPiece(square, squares[square]);
+        }
+        fen.setBlackToMove(side == BLACK);
+        fen.setCastling(castling);
+        fen.setEnPassant(enPassant);
+        fen.setHalfmoves(halfMoves);
+        return fen;
+    }
+
+    private boolean unmoved(Board board, int x, int y, int type) {
+        Piece piece = board.getPiece(x, y);
+        return piece != null && !piece.isMoved() && type(piece.getType()) == type
+                && (piece.getColor() == Piece.Color.white) == (y == 7);
+    }
+
+    private static int type(Piece.Type type) {
+        switch (type) {
+            case knight:
+                return KNIGHT;
+            case bishop:
+                return BISHOP;
+            case rook:
+                return ROOK;
+            case queen:
+                return QUEEN;
+            case king:
+                return KING;
+            default:
+                return PAWN;
+        }
+    }
+
+    /**
+     * @param x x of {@code Board}, the file
+     * @param y y of {@code Board}, 0 is rank 8
+     * @return the square
+     */
+    public static int square(int x, int y) {
+        return (7 - y) * 8 + x;
+    }
+
+    public static int x(int square) {
+        return square & 7;
+    }
+
+    public static int y(int square) {
+        return 7 - (square >> 3);
+    }
+
+    /**
+     * @return the name of a square like {@code e4}
+     */
+    public static String squareName(int square) {
+        return "" + (char) ('a' + (square & 7)) + (char) ('1' + (square >> 3));
+    }
+
+    public static int type(int piece) {
+        return piece & 7;
+    }
+
+    public static int color(int piece) {
+        return piece >> 3;
+    }
+
+    public int getPiece(int square) {
+        return squares[square];
+    }
+
+    public int getSide() {
+        return side;
+    }
+
+    public int getCastling() {
+        return castling;
+    }
+
+    public int getEnPassant() {
+        return enPassant;
+    }
+
+    public int getHalfMoves() {
+        return halfMoves;
+    }
+
+    /**
+     * @return the Zobrist key, positions with the same pieces, side to move,
+     * castling rights and en passant square have the same key
+     */
+    public long getKey() {
+        return key;
+    }
+
+    /**
+     * Compute the keys and the scores kept up to date by the moves from the whole position
+     */
+    void refresh() {
+        key = computeKey();
+        pawnKey = 0;
+        occupied = 0;
+        mg[WHITE] = mg[BLACK] = eg[WHITE] = eg[BLACK] = phase = 0;
+        for (int square = 0; square < 64; square++) {
+            int piece = squares[square];
+            if (piece != 0) {
+                occupied |= 1L << square;
+                mg[color(piece)] += Evaluation.MG[piece][square];
+                eg[color(piece)] += Evaluation.EG[piece][square];
+                phase += Evaluation.PHASE[type(piece)];
+                if (type(piece) == PAWN) {
+                    pawnKey ^= PIECE_KEYS[piece][square];
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the Zobrist key computed from the whole position
+     */
+    long computeKey() {
+        long result = CASTLING_KEYS[castling];
+        for (int square = 0; square < 64; square++) {
+            if (squares[square] != 0) {
+                result ^= PIECE_KEYS[squares[square]][square];
+            }
+        }
+        if (enPassant >= 0) {
+            result ^= EN_PASSANT_KEYS[enPassant & 7];
+        }
+        return side == BLACK ? result ^ SIDE_KEY : result;
+    }
+
+    public int getKing(int color) {
+        return kings[color];
+    }
+
+    /**
+     * @param square the square
+     * @param by     color of the attackers
+     * @return whether or not a piece of the color attacks the square
+     */
+    public boolean isAttacked(int square, int by) {
+        int color = by << 3;
+        for (int from : PAWN_ATTACKS[by ^ 1][square]) {
+            if (squares[from] == (PAWN | color)) {
+                return true;
+            }
+        }
+        for (int from : KNIGHT_TARGETS[square]) {
+            if (squares[from] == (KNIGHT | color)) {
+                return true;
+            }
+        }
+        for (int from : KING_TARGETS[square]) {
+            if (squares[from] == (KING | color)) {
+                return true;
+            }
+        }
+        for (int direction = 0; direction < 8; direction++) {
+            int slider = direction < 4 ? ROOK : BISHOP;
+            for (int from : RAYS[square][direction]) {
+                int piece = squares[from];
+                if (piece != 0) {
+                    if (piece == (slider | color) || piece == (QUEEN | color)) {
+                        return true;
+                    }
+                    break;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Static exchange evaluation: the material won by a capture when both sides
+     * keep taking back on its square with their least valuable piece, and may stop at any time.
+     * The pieces that have taken part are removed from an occupancy mask,
+     * so the sliders behind them join the exchange.
+     *
+     * @param move a capture or promotion of the side to move
+     * @return the material won, negative if the move loses material
+     */
+    public int see(int move) {
+        int from = Move.from(move), to = Move.to(move);
+        int[] gain = exchange;
+        long mask = occupied & ~(1L << from);
+        int attacker = type(squares[from]);
+        if ((Move.flags(move) & Move.EN_PASSANT) != 0) {
+            gain[0] = Evaluation.VALUES[PAWN];
+            mask &= ~(1L << (to + (side == WHITE ? -8 : 8)));
+        } else {
+            gain[0] = Evaluation.VALUES[type(squares[to])];
+        }
+        if (Move.promotion(move) != 0) {
+            attacker = Move.promotion(move);
+            gain[0] += Evaluation.VALUES[attacker] - Evaluation.VALUES[PAWN];
+        }
+
+        int by = side ^ 1;
+        int count = 0;
+        while (count < gain.length - 1) {
+            int square = leastAttacker(to, by, mask);
+            if (square < 0) {
+                break;
+            }
+            count++;
+            //假设这次吃子后对方不再吃回的得失
+            gain[count] = Evaluation.VALUES[attacker] - gain[count - 1];
+            attacker = type(squares[square]);
+            mask &= ~(1L << square);
+            by ^= 1;
+        }
+        while (count > 0) {
+            gain[count - 1] = -Math.max(-gain[count - 1], gain[count]);
+            count--;
+        }
+        return gain[0];
+    }
+
+    /**
+     * @param square the square
+     * @param by     color of the attackers
+     * @param mask   occupancy mask, pieces not in it are ignored
+     * @return the square of the least valuable attacker, {@code -1} if none
+     */
+    private int leastAttacker(int square, int by, long mask) {
+        int color = by << 3;
+        for (int from : PAWN_ATTACKS[by ^ 1][square]) {
+            if (squares[from] == (PAWN | color) && (mask & 1L << from) != 0) {
+                return from;
+            }
+        }
+        for (int from : KNIGHT_TARGETS[square]) {
+            if (squares[from] == (KNIGHT | color) && (mask & 1L << from) != 0) {
+                return from;
+            }
+        }
+        int bishop = -1, rook = -1, queen = -1;
+        for (int direction = 0; direction < 8; direction++) {
+            for (int from : RAYS[square][direction]) {
+                if ((mask & 1L << from) == 0) {
+                    continue;
+                }
+                int piece = squares[from];
+                if (piece == (QUEEN | color)) {
+                    queen = from;
+                } else if (direction < 4 && piece == (ROOK | color)) {
+                    rook = from;
+                } else if (direction >= 4 && piece == (BISHOP | color)) {
+                    bishop = from;
+                }
+                break;
+            }
+        }
+        if (bishop >= 0) {
+            return bishop;
+        }
+        if (rook >= 0) {
+            return rook;
+        }
+        if (queen >= 0) {
+            return queen;
+        }
+        for (int from : KING_TARGETS[square]) {
+            if (squares[from] == (KING | color) && (mask & 1L << from) != 0) {
+                return from;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return whether or not the side to move is in check
+     */
+    public boolean inCheck() {
+        return isAttacked(kings[side], side ^ 1);
+    }
+
+    /**
+     * Generate the pseudo-legal moves of the side to move
+     *
+     * @param moves array of at least {@code MAX_MOVES}
+     * @return number of moves
+     */
+    public int generateMoves(int[] moves) {
+        return generate(moves, false);
+    }
+
+    /**
+     * Generate only the captures and promotions
+     *
+     * @param moves array of at least {@code MAX_MOVES}
+     * @return number of moves
+     */
+    public int generateCaptures(int[] moves) {
+        return generate(moves, true);
+    }
+
+    private int generate(int[] moves, boolean tactical) {
+        int count = 0;
+        int us = side << 3;
+        for (int from = 0; from < 64; from++) {
+            int piece = squares[from];
+            if (piece == 0 || (piece & BLACK_PIECE) != us) {
+                continue;
+            }
+            switch (type(piece)) {
+                case PAWN:
+                    count = pawnMoves(moves, count, from, tactical);
+                    break;
+                case KNIGHT:
+                    count = stepMoves(moves, count, from, KNIGHT_TARGETS[from], tactical);
+                    break;
+                case KING:
+                    count = stepMoves(moves, count, from, KING_TARGETS[from], tactical);
+                    break;
+                case BISHOP:
+                    count = slideMoves(moves, count, from, 4, 8, tactical);
+                    break;
+                case ROOK:
+                    count = slideMoves(moves, count, from, 0, 4, tactical);
+                    break;
+                case QUEEN:
+                    count = slideMoves(moves, count, from, 0, 8, tactical);
+                    break;
+            }
+        }
+        if (!tactical) {
+            count = castlingMoves(moves, count);
+        }
+        return count;
+    }
+
+    private int pawnMoves(int[] moves, int count, int from, boolean tactical) {
+        int forward = side == WHITE ? 8 : -8;
+        int to = from + forward;
+        boolean promotion = to >= 56 || to < 8;
+        if (squares[to] == 0 && (!tactical || promotion)) {
+            count = pawnMove(moves, count, from, to, 0, promotion);
+            int start = side == WHITE ? 1 : 6;
+            if (!tactical && from >> 3 == start && squares[to + forward] == 0) {
+                moves[count++] = Move.of(from, to + forward, 0, Move.DOUBLE_PUSH);
+            }
+        }
+        for (int target : PAWN_ATTACKS[side][from]) {
+            int piece = squares[target];
+            if (piece != 0 && color(piece) != side) {
+                count = pawnMove(moves, count, from, target, Move.CAPTURE, promotion);
+            } else if (target == enPassant) {
+                moves[count++] = Move.of(from, target, 0, Move.EN_PASSANT);
+            }
+        }
+        return count;
+    }
+
+    private static int pawnMove(int[] moves, int count, int from, int to, int flags, boolean promotion) {
+        if (promotion) {
+            for (int type = QUEEN; type >= KNIGHT; type--) {
+                moves[count++] = Move.of(from, to, type, flags);
+            }
+        } else {
+            moves[count++] = Move.of(from, to, 0, flags);
+        }
+        return count;
+    }
+
+    private int stepMoves(int[] moves, int count, int from, int[] targets, boolean tactical) {
+        for (int to : targets) {
+            int piece = squares[to];
+            if (piece == 0) {
+                if (!tactical) {
+                    moves[count++] = Move.of(from, to);
+                }
+            } else if (color(piece) != side) {
+                moves[count++] = Move.of(from, to, 0, Move.CAPTURE);
+            }
+        }
+        return count;
+    }
+
+    private int slideMoves(int[] moves, int count, int from, int first, int last, boolean tactical) {
+        for (int direction = first; direction < last; direction++) {
+            for (int to : RAYS[from][direction]) {
+                int piece = squares[to];
+                if (piece == 0) {
+                    if (!tactical) {
+                        moves[count++] = Move.of(from, to);
+                    }
+                    continue;
+                }
+                if (color(piece) != side) {
+                    moves[count++] = Move.of(from, to, 0, Move.CAPTURE);
+                }
+                break;
+            }
+        }
+        return count;
+    }
+
+    private int castlingMoves(int[] moves, int count) {
+        int king = side == WHITE ? 4 : 60;
+        int kingSide = side == WHITE ? WHITE_KING_SIDE : BLACK_KING_SIDE;
+        int queenSide = side == WHITE ? WHITE_QUEEN_SIDE : BLACK_QUEEN_SIDE;
+        if ((castling & (kingSide | queenSide)) == 0 || kings[side] != king || isAttacked(king, side ^ 1)) {
+            return count;
+        }
+        if ((castling & kingSide) != 0 && squares[king + 1] == 0 && squares[king + 2] == 0
+                && !isAttacked(king + 1, side ^ 1) && !isAttacked(king + 2, side ^ 1)) {
+            moves[count++] = Move.of(king, king + 2, 0, Move.CASTLING);
+        }
+        if ((castling & queenSide) != 0 && squares[king - 1] == 0 && squares[king - 2] == 0 && squares[king - 3] == 0
+                && !isAttacked(king - 1, side ^ 1) && !isAttacked(king - 2, side ^ 1)) {
+            moves[count++] = Move.of(king, king - 2, 0, Move.CASTLING);
+        }
+        return count;
+    }
+
+    /**
+     * Make a move, a move leaving the own king attacked is taken back
+     *
+     * @param move a pseudo-legal move
+     * @return whether or not the move is legal and has been made
+     */
+    public boolean make(int move) {
+        int from = Move.from(move), to = Move.to(move), flags = Move.flags(move);
+        int piece = squares[from], captured = squares[to];
+        keys[depth] = key;
+        undo[depth++] = captured | castling << 4 | (enPassant + 1) << 8 | halfMoves << 16;
+        halfMoves = type(piece) == PAWN || captured != 0 ? 0 : halfMoves + 1;
+        if (enPassant >= 0) {
+            key ^= EN_PASSANT_KEYS[enPassant & 7];
+        }
+        enPassant = -1;
+
+        if (captured != 0) {
+            remove(to);
+        }
+        remove(from);
+        put(Move.promotion(move) != 0 ? Move.promotion(move) | side << 3 : piece, to);
+        if ((flags & Move.EN_PASSANT) != 0) {
+            remove(to + (side == WHITE ? -8 : 8));
+        } else if ((flags & Move.CASTLING) != 0) {
+            int rookFrom = to > from ? from + 3 : from - 4, rookTo = to > from ? from + 1 : from - 1;
+            put(remove(rookFrom), rookTo);
+        } else if ((flags & Move.DOUBLE_PUSH) != 0) {
+            enPassant = (from + to) / 2;
+            key ^= EN_PASSANT_KEYS[enPassant & 7];
+        }
+        if (type(piece) == KING) {
+            kings[side] = to;
+        }
+        key ^= CASTLING_KEYS[castling];
+        castling &= CASTLING_MASK[from] & CASTLING_MASK[to];
+        key ^= CASTLING_KEYS[castling] ^ SIDE_KEY;
+        side ^= 1;
+
+        if (isAttacked(kings[side ^ 1], side)) {
+            unmake(move);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Take back the last move made
+     *
+     * @param move the move
+     */
+    public void unmake(int move) {
+        side ^= 1;
+        int from = Move.from(move), to = Move.to(move), flags = Move.flags(move);
+        int info = undo[--depth];
+        int piece = remove(to);
+        put(Move.promotion(move) != 0 ? PAWN | side << 3 : piece, from);
+        if ((info & 15) != 0) {
+            put(info & 15, to);
+        }
+        if ((flags & Move.EN_PASSANT) != 0) {
+            put(PAWN | (side ^ 1) << 3, to + (side == WHITE ? -8 : 8));
+        } else if ((flags & Move.CASTLING) != 0) {
+            int rookFrom = to > from ? from + 3 : from - 4, rookTo = to > from ? from + 1 : from - 1;
+            put(remove(rookTo), rookFrom);
+        }
+        if (type(piece) == KING) {
+            kings[side] = from;
+        }
+        castling = info >> 4 & 15;
+        enPassant = (info >> 8 & 255) - 1;
+        halfMoves = info >>> 16;
+        key = keys[depth];
+    }
+
+    /**
+     * Put a piece on an empty square, updating the keys and the scores
+     */
+    private void put(int piece, int square) {
+        squares[square] = piece;
+        occupied |= 1L << square;
+        key ^= PIECE_KEYS[piece][square];
+        int color = piece >> 3;
+        mg[color] += Evaluation.MG[piece][square];
+        eg[color] += Evaluation.EG[piece][square];
+        phase += Evaluation.PHASE[piece & 7];
+        if ((piece & 7) == PAWN) {
+            pawnKey ^= PIECE_KEYS[piece][square];
+        }
+    }
+
+    /**
+     * Take the piece off a square, updating the keys and the scores
+     *
+     * @return the piece
+     */
+    private int remove(int square) {
+        int piece = squares[square];
+        squares[square] = 0;
+        occupied &= ~(1L << square);
+        key ^= PIECE_KEYS[piece][square];
+        int color = piece >> 3;
+        mg[color] -= Evaluation.MG[piece][square];
+        eg[color] -= Evaluation.EG[piece][square];
+        phase -= Evaluation.PHASE[piece & 7];
+        if ((piece & 7) == PAWN) {
+            pawnKey ^= PIECE_KEYS[piece][square];
+        }
+        return piece;
+    }
+
+    /**
+     * Find a legal move from its coordinate notation
+     *
+     * @param text like {@code e2e4} or {@code e7e8q}
+     * @return the move, {@code Move.NONE} if it is not legal
+     */
+    public int parseMove(String text) {
+        int[] moves = new int[MAX_MOVES];
+        int count = generateMoves(moves);
+        for (int i = 0; i < count; i++) {
+            if (Move.toString(moves[i]).equals(text) && make(moves[i])) {
+                unmake(moves[i]);
+                return moves[i];
+            }
+        }
+        return Move.NONE;
+    }
+
+    /**
+     * Find a legal move from its standard algebraic notation
+     *
+     * @param text like {@code Nf3}, {@code exd5}, {@code R1e2}, {@code e8=Q+} or {@code O-O}
+     * @return the move, {@code Move.NONE} if it is not legal
+     */
+    public int parseSan(String text) {
+        int end = text.length();
+        while (end > 0 && "+#!?".indexOf(text.charAt(end - 1)) >= 0) {
+            end--;
+        }
+        String san = text.substring(0, end).replace('0', 'O');
+        int[] moves = new int[MAX_MOVES];
+        int count = generateMoves(moves);
+
+        int piece = PAWN, promotion = 0, to = -1, fromFile = -1, fromRank = -1;
+        boolean castling = san.equals("O-O") || san.equals("O-O-O");
+        if (!castling) {
+            int equals = san.indexOf('=');
+            if (equals > 0 && equals < san.length() - 1) {
+                promotion = " pnbrqk".indexOf(Character.toLowerCase(san.charAt(equals + 1)));
+                san = san.substring(0, equals);
+            } else if (san.length() > 2 && "NBRQ".indexOf(san.charAt(san.length() - 1)) >= 0) {
+                promotion = " pnbrqk".indexOf(Character.toLowerCase(san.charAt(san.length() - 1)));
+                san = san.substring(0, san.length() - 1);
+            }
+            int start = 0;
+            if (!san.isEmpty() && "NBRQK".indexOf(san.charAt(0)) >= 0) {
+                piece = " pnbrqk".indexOf(Character.toLowerCase(san.charAt(0)));
+                start = 1;
+            }
+            if (san.length() - start < 2) {
+                return Move.NONE;
+            }
+            char file = san.charAt(san.length() - 2), rank = san.charAt(san.length() - 1);
+            if (file < 'a' || file > 'h' || rank < '1' || rank > '8') {
+                return Move.NONE;
+            }
+            to = (rank - '1') * 8 + file - 'a';
+            for (int i = start; i < san.length() - 2; i++) {
+                char c = san.charAt(i);
+                if (c >= 'a' && c <= 'h') {
+                    fromFile = c - 'a';
+                } else if (c >= '1' && c <= '8') {
+                    fromRank = c - '1';
+                }
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            int from = Move.from(move);
+            boolean match;
+            if (castling) {
+                match = (Move.flags(move) & Move.CASTLING) != 0 && (Move.to(move) > from) == (san.length() == 3);
+            } else {
+                match = Move.to(move) == to && type(squares[from]) == piece && Move.promotion(move) == promotion
+                        && (fromFile < 0 || (from & 7) == fromFile) && (fromRank < 0 || from >> 3 == fromRank)
+                        && (Move.flags(move) & Move.CASTLING) == 0;
+            }
+            if (match && make(move)) {
+                unmake(move);
+                return move;
+            }
+        }
+        return Move.NONE;
+    }
+}
@@ -0,0 +1,106 @@
+package engine;
+
+/**
+ * Class {@code SearchInfo}
+ * Result of an iteration of the search:
+ * depth, score in centipawns for the side to move,
+ * the principal variation and the speed of the search.
+ * In a multi-PV search there is one for every line, numbered from 0 for the best one.
+ *
+ * @see Search
+ */
+
+public class SearchInfo {
+
+    private final int depth;
+    private final int score;
+    private final long nodes;
+    private final long nanos;
+    private final int[] pv;
+    private final int line;
+
+    public SearchInfo(int depth, int score, long nodes, long nanos, int[] pv) {
+        this(depth, score, nodes, nanos, pv, 0);
+    }
+
+    public SearchInfo(int depth, int score, long nodes, long nanos, int[] pv, int line) {
+        this.depth = depth;
+        this.score = score;
+        this.nodes = nodes;
+        this.nanos = nanos;
+        this.pv = pv;
+        this.line = line;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    public int[] getPv() {
+        return pv;
+    }
+
+    /**
+     * @return number of the line in a multi-PV search, 0 for the best one
+     */
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * @return the first move of the principal variation, {@code Move.NONE} if there is none
+     */
+    public int getBestMove() {
+        return pv.length > 0 ? pv[0] : Move.NONE;
+    }
+
+    /**
+     * @return nodes per second
+     */
+    public long getNps() {
+        return nanos > 0 ? nodes * 1000000000L / nanos : 0;
+    }
+
+    public boolean isMate() {
+        return Math.abs(score) >= Search.MATE - Search.MAX_PLY;
+    }
+
+    /**
+     * @return moves to mate, negative if the side to move is mated
+     */
+    public int getMateIn() {
+        int plies = Search.MATE - Math.abs(score);
+        return score > 0 ? (plies + 1) / 2 : -(plies + 1) / 2;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append("depth ").append(depth);
+        if (line > 0) {
+            result.append(" multipv ").append(line + 1);
+        }
+        result
+                .append(isMate() ? " score mate " + getMateIn() : " score cp " + score)
+                .append(" nodes ").append(nodes)
+                .append(" nps ").append(getNps())
+                .append(" time ").append(nanos / 1000000)
+                .append(" pv");
+        for (int move : pv) {
+            result.append(' ').append(Move.toString(move));
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,14 @@
+package engine;
+
+/**
+ * Interface {@code SearchListener}
+ * Receives the result of every finished iteration of a search,
+ * it is called by the searching thread.
+ *
+ * @see Engine
+ */
+
+public interface SearchListener {
+
+    void info(SearchInfo info);
+}
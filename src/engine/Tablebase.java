@@ -0,0 +1,320 @@
+package engine;
+
+import game.Board;
+import metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class {@code Tablebase}
+ * Exact results of the endgames of up to 4 pieces without pawns,
+ * read from the files written by {@code TablebaseGenerator}.
+ * Every endgame has two files, both mapped into memory when first needed:
+ * <pre>
+ * KQvKR.wdl    2 bits per position: 0 draw, 1 win, 2 loss, 3 not a position
+ * KQvKR.dtm    1 byte of the bits per position, then the plies to mate plus 1 of every position, 0 for a draw
+ * </pre>
+ * both for the side to move, in the order of the index of {@code Endgame}.
+ * A probe is a few array reads, it can be made by several threads at the same time.
+ * The table of a material is cached in an array indexed by the pieces other than the kings,
+ * and a search passes the arrays of its own {@code Scratch}, so a probe at a node allocates nothing.
+ * As an adjudicator it ends the games of a {@code Board} that reach a position of the tablebase.
+ *
+ * @see Endgame
+ * @see TablebaseGenerator
+ */
+
+public class Tablebase implements Board.Adjudicator {
+
+    public static final int WIN = Board.Adjudicator.WIN, DRAW = Board.Adjudicator.DRAW, LOSS = Board.Adjudicator.LOSS;
+
+    /**
+     * result of a position not in the tablebase
+     */
+    public static final int UNKNOWN = Board.Adjudicator.UNKNOWN;
+
+    public static final int MAX_PIECES = 4;
+
+    static final int WDL_DRAW = 0, WDL_WIN = 1, WDL_LOSS = 2, WDL_NONE = 3;
+
+    /**
+     * 3 to the power of every kind of piece other than the king, white N, B, R, Q then black
+     */
+    private static final int[] POWERS = {1, 3, 9, 27, 81, 243, 729, 2187};
+
+    private final Path directory;
+    private final ConcurrentHashMap<String, Table> tables = new ConcurrentHashMap<>();
+
+    /**
+     * the table of every material seen, indexed by the number of every kind of piece other than the king in base 3,
+     * at most 2 of them with {@code MAX_PIECES}
+     */
+    private final Slot[] slots = new Slot[3 * POWERS[POWERS.length - 1]];
+
+    /**
+     * Class {@code Scratch}
+     * the arrays of the probes of one thread
+     */
+    static final class Scratch {
+        private final int[] pieces = new int[MAX_PIECES], squares = new int[MAX_PIECES];
+        private final int[] ordered = new int[MAX_PIECES], image = new int[MAX_PIECES];
+        private final boolean[] used = new boolean[MAX_PIECES];
+
+        /**
+         * table of the last position located
+         */
+        private Table table;
+    }
+
+    /**
+     * Class {@code Slot}
+     * the table of a material and whether or not its colors are the other way round
+     */
+    private static final class Slot {
+        private final Table table;
+        private final boolean mirrored;
+
+        private Slot(Table table, boolean mirrored) {
+            this.table = table;
+            this.mirrored = mirrored;
+        }
+    }
+
+    /**
+     * @param directory directory of the files
+     */
+    public Tablebase(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public int adjudicate(Board board) {
+        return probeWdl(new SearchBoard(board));
+    }
+
+    /**
+     * @param board the position
+     * @return {@code WIN}, {@code DRAW} or {@code LOSS} for the side to move, {@code UNKNOWN} if not in the tablebase
+     */
+    public int probeWdl(SearchBoard board) {
+        return probeWdl(board, new Scratch());
+    }
+
+    /**
+     * {@code probeWdl} with the arrays of the thread
+     */
+    int probeWdl(SearchBoard board, Scratch scratch) {
+        int count = pieces(board, scratch.pieces, scratch.squares);
+        if (count < 0) {
+            return UNKNOWN;
+        }
+        return probeWdl(scratch.pieces, scratch.squares, count, board.getSide(), scratch);
+    }
+
+    /**
+     * @param board the position
+     * @return {@code Search.MATE - plies} if the side to move mates in so many plies,
+     * {@code -Search.MATE + plies} if it is mated, {@code 0} for a draw, {@code UNKNOWN} if not in the tablebase
+     */
+    public int probeDtm(SearchBoard board) {
+        return probeDtm(board, new Scratch());
+    }
+
+    /**
+     * {@code probeDtm} with the arrays of the thread, called by the search at every node with few pieces
+     */
+    int probeDtm(SearchBoard board, Scratch scratch) {
+        int count = pieces(board, scratch.pieces, scratch.squares);
+        if (count < 0) {
+            return UNKNOWN;
+        }
+        return probeDtm(scratch.pieces, scratch.squares, count, board.getSide(), scratch);
+    }
+
+    /**
+     * @return number of pieces, {@code -1} if the position cannot be in the tablebase
+     */
+    private static int pieces(SearchBoard board, int[] pieces, int[] squares) {
+        if (Long.bitCount(board.occupied) > MAX_PIECES || board.getCastling() != 0) {
+            return -1;
+        }
+        int count = 0;
+        for (long mask = board.occupied; mask != 0; mask &= mask - 1) {
+            int square = Long.numberOfTrailingZeros(mask);
+            if (SearchBoard.type(board.squares[square]) == SearchBoard.PAWN) {
+                return -1;
+            }
+            pieces[count] = board.squares[square];
+            squares[count++] = square;
+        }
+        return count;
+    }
+
+    int probeWdl(int[] pieces, int[] squares, int count, int side, Scratch scratch) {
+        if (count == 2) {
+            return DRAW;
+        }
+        long index = locate(pieces, squares, count, side, scratch);
+        if (index < 0) {
+            return UNKNOWN;
+        }
+        switch (scratch.table.wdl(index)) {
+            case WDL_WIN:
+                return WIN;
+            case WDL_LOSS:
+                return LOSS;
+            case WDL_DRAW:
+                return DRAW;
+            default:
+                return UNKNOWN;
+        }
+    }
+
+    int probeDtm(int[] pieces, int[] squares, int count, int side, Scratch scratch) {
+        if (count == 2) {
+            return 0;
+        }
+        long index = locate(pieces, squares, count, side, scratch);
+        if (index < 0 || scratch.table.wdl(index) == WDL_NONE) {
+            return UNKNOWN;
+        }
+        int value = scratch.table.dtm(index);
+        if (value == 0) {
+            return 0;
+        }
+        //奇数步为胜，偶数步为负
+        int plies = value - 1;
+        return plies % 2 == 1 ? Search.MATE - plies : -Search.MATE + plies;
+    }
+
+    /**
+     * Find the table and the index of a position
+     *
+     * @return the index, {@code -1} if the position is not in the tablebase, the table is left in {@code scratch}
+     */
+    private long locate(int[] pieces, int[] squares, int count, int side, Scratch scratch) {
+        int material = 0, kings = 0;
+        for (int i = 0; i < count; i++) {
+            int type = SearchBoard.type(pieces[i]), color = SearchBoard.color(pieces[i]);
+            if (type == SearchBoard.KING) {
+                kings += 1 + color;
+            } else {
+                material += POWERS[type - SearchBoard.KNIGHT + color * 4];
+            }
+        }
+        //每方正好一个王
+        if (kings != 3) {
+            return -1;
+        }
+        Slot slot = slots[material];
+        if (slot == null) {
+            //第一次遇到这种子力，之后只读数组
+            String name = Endgame.name(pieces, count);
+            boolean mirrored = name.endsWith("!");
+            slot = new Slot(table(mirrored ? name.substring(0, name.length() - 1) : name), mirrored);
+            slots[material] = slot;
+        }
+        Table table = slot.table;
+        if (table == null) {
+            return -1;
+        }
+        boolean mirrored = slot.mirrored;
+        //按索引顺序排列棋子，颜色相反时上下翻转并交换颜色
+        int[] ordered = scratch.ordered;
+        boolean[] used = scratch.used;
+        Arrays.fill(used, 0, count, false);
+        for (int i = 0; i < count; i++) {
+            int wanted = table.endgame.pieces[i];
+            for (int j = 0; j < count; j++) {
+                int piece = mirrored ? pieces[j] ^ SearchBoard.BLACK_PIECE : pieces[j];
+                if (!used[j] && piece == wanted) {
+                    used[j] = true;
+                    ordered[i] = mirrored ? squares[j] ^ 56 : squares[j];
+                    break;
+                }
+            }
+        }
+        scratch.table = table;
+        return table.endgame.canonical(mirrored ? side ^ 1 : side, ordered, count, scratch.image);
+    }
+
+    /**
+     * @return the table of an endgame, {@code null} if there are no files for it
+     */
+    private Table table(String name) {
+        Table table = tables.get(name);
+        if (table == null) {
+            table = Table.open(directory, name);
+            Table previous = tables.putIfAbsent(name, table);
+            if (previous != null) {
+                table = previous;
+            }
+        }
+        return table.endgame == null ? null : table;
+    }
+
+    /**
+     * Look for the files of an endgame again at the next probe
+     */
+    void forget(String name) {
+        tables.remove(name);
+        Arrays.fill(slots, null);
+    }
+
+    /**
+     * @return whether or not the files of an endgame exist
+     */
+    public boolean contains(String name) {
+        return table(name) != null;
+    }
+
+    /**
+     * Tables of one endgame, a table without {@code endgame} stands for missing files
+     */
+    private static class Table {
+        private final Endgame endgame;
+        private final MappedByteBuffer wdl, dtm;
+        private final int bits;
+
+        private Table(Endgame endgame, MappedByteBuffer wdl, MappedByteBuffer dtm) {
+            this.endgame = endgame;
+            this.wdl = wdl;
+            this.dtm = dtm;
+            bits = dtm == null ? 0 : dtm.get(0);
+        }
+
+        private static Table open(Path directory, String name) {
+            Path wdlPath = directory.resolve(name + ".wdl"), dtmPath = directory.resolve(name + ".dtm");
+            if (!Files.exists(wdlPath) || !Files.exists(dtmPath)) {
+                return new Table(null, null, null);
+            }
+            try (FileChannel wdl = FileChannel.open(wdlPath, StandardOpenOption.READ);
+                 FileChannel dtm = FileChannel.open(dtmPath, StandardOpenOption.READ)) {
+                return new Table(new Endgame(name),
+                        wdl.map(FileChannel.MapMode.READ_ONLY, 0, wdl.size()),
+                        dtm.map(FileChannel.MapMode.READ_ONLY, 0, dtm.size()));
+            } catch (IOException | IllegalArgumentException e) {
+                Metrics.error("tablebase-load", e);
+                return new Table(null, null, null);
+            }
+        }
+
+        private int wdl(long index) {
+            return wdl.get((int) (index >>> 2)) >>> (int) ((index & 3) * 2) & 3;
+        }
+
+        private int dtm(long index) {
+            long bit = index * bits;
+            int offset = 1 + (int) (bit >>> 3);
+            int value = (dtm.get(offset) & 0xFF) | (dtm.get(offset + 1) & 0xFF) << 8;
+            return value >>> (int) (bit & 7) & (1 << bits) - 1;
+        }
+    }
+}
@@ -0,0 +1,471 @@
+package engine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Class {@code TablebaseGenerator}
+ * Writes the files of {@code Tablebase} by retrograde analysis.
+ * <p>
+ * First every position is set up on its own: mated, stalemated,
+ * or won or lost by a capture into a smaller endgame, which is generated before.
+ * Then the positions are resolved by plies to mate: from every position mated or lost in n plies,
+ * the positions a move before are won in n + 1 plies, and from every position won in n plies,
+ * the positions a move before lose one more of their moves, they are lost in n + 1 plies
+ * when no move is left. The positions never resolved are draws.
+ * Every step goes over all the positions in parallel with fork-join,
+ * the counters of the moves left are atomic.
+ * <p>
+ * usage: {@code TablebaseGenerator [-threads n] directory [endgames like KQvKR...]},
+ * without endgames all of them are generated
+ *
+ * @see Tablebase
+ * @see Endgame
+ */
+
+public class TablebaseGenerator {
+
+    private static final int ILLEGAL = -1;
+
+    /**
+     * positions handled by one task
+     */
+    private static final int CHUNK = 1 << 14;
+
+    /**
+     * squares strictly between two squares on a line, 0 if they are not on a line
+     */
+    private static final long[][] BETWEEN = new long[64][64];
+    private static final boolean[][] STRAIGHT = new boolean[64][64], DIAGONAL = new boolean[64][64];
+
+    static {
+        for (int from = 0; from < 64; from++) {
+            for (int direction = 0; direction < 8; direction++) {
+                long between = 0;
+                for (int to : SearchBoard.RAYS[from][direction]) {
+                    BETWEEN[from][to] = between;
+                    (direction < 4 ? STRAIGHT : DIAGONAL)[from][to] = true;
+                    between |= 1L << to;
+                }
+            }
+        }
+    }
+
+    private final Path directory;
+    private final Tablebase tablebase;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param directory directory of the files
+     * @param threads   threads generating a table
+     */
+    public TablebaseGenerator(Path directory, int threads) {
+        this.directory = directory;
+        tablebase = new Tablebase(directory);
+        pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * Generate an endgame and the smaller endgames it needs, unless their files exist
+     *
+     * @param name like {@code KQvKR}
+     * @throws IOException if the files cannot be written
+     */
+    public void generate(String name) throws IOException {
+        if (tablebase.contains(name)) {
+            return;
+        }
+        Endgame endgame = new Endgame(name);
+        for (int i = 0; i < endgame.pieces.length; i++) {
+            if (SearchBoard.type(endgame.pieces[i]) == SearchBoard.KING || endgame.pieces.length == 3) {
+                continue;
+            }
+            int[] rest = new int[endgame.pieces.length - 1];
+            for (int j = 0, k = 0; j < endgame.pieces.length; j++) {
+                if (j != i) {
+                    rest[k++] = endgame.pieces[j];
+                }
+            }
+            generate(Endgame.name(rest, rest.length).replace("!", ""));
+        }
+
+        long start = System.nanoTime();
+        Generation generation = new Generation(endgame);
+        generation.run();
+        generation.write();
+        tablebase.forget(name);
+        System.out.printf("%-8s %,12d positions  mate in %3d plies  %6d ms%n",
+                name, endgame.size, generation.longest(), (System.nanoTime() - start) / 1000000);
+    }
+
+    private class Generation {
+        private final Endgame endgame;
+        private final int n;
+        private final int size;
+
+        /**
+         * plies to mate plus 1, 0 for not resolved, or {@code ILLEGAL}
+         */
+        private final AtomicIntegerArray values;
+
+        /**
+         * moves not known to lose
+         */
+        private final AtomicIntegerArray remaining;
+
+        /**
+         * plies to be mated after the longest capture that loses
+         */
+        private final byte[] captureLoss;
+
+        private final AtomicInteger highest = new AtomicInteger();
+
+        private Generation(Endgame endgame) {
+            this.endgame = endgame;
+            n = endgame.pieces.length;
+            size = (int) endgame.size;
+            values = new AtomicIntegerArray(size);
+            remaining = new AtomicIntegerArray(size);
+            captureLoss = new byte[size];
+        }
+
+        private void run() {
+            pool.invoke(new Task(0, size, -1));
+            for (int ply = 0; ply < highest.get(); ply++) {
+                pool.invoke(new Task(0, size, ply));
+            }
+        }
+
+        private int longest() {
+            return Math.max(0, highest.get() - 1);
+        }
+
+        /**
+         * A range of positions, set up when ply is -1, otherwise the positions resolved at ply
+         */
+        private class Task extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final int from, to, ply;
+
+            private Task(int from, int to, int ply) {
+                this.from = from;
+                this.to = to;
+                this.ply = ply;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from > CHUNK) {
+                    int middle = (from + to) >>> 1;
+                    invokeAll(new Task(from, middle, ply), new Task(middle, to, ply));
+                    return;
+                }
+                int[] squares = new int[n];
+                long[] found = new long[256];
+                for (int index = from; index < to; index++) {
+                    if (ply < 0) {
+                        setUp(index, squares, found);
+                    } else if (values.get(index) == ply + 1) {
+                        resolved(index, ply, squares, found);
+                    }
+                }
+            }
+        }
+
+        private void setUp(int index, int[] squares, long[] found) {
+            int side = endgame.decode(index, squares);
+            long occupied = 0;
+            for (int square : squares) {
+                occupied |= 1L << square;
+            }
+            if (Long.bitCount(occupied) != n || endgame.canonical(side, squares.clone()) != index
+                    || attacked(king(side ^ 1, squares), side, squares, occupied, -1)) {
+                values.set(index, ILLEGAL);
+                return;
+            }
+
+            int legal = 0, children = 0, win = Integer.MAX_VALUE, loss = 0;
+            boolean draw = false;
+            for (int i = 0; i < n; i++) {
+                if (SearchBoard.color(endgame.pieces[i]) != side) {
+                    continue;
+                }
+                int origin = squares[i];
+                for (int target : targets(i, squares, occupied)) {
+                    int captured = -1;
+                    for (int j = 0; j < n; j++) {
+                        if (squares[j] == target) {
+                            captured = j;
+                        }
+                    }
+                    if (captured >= 0 && SearchBoard.color(endgame.pieces[captured]) == side) {
+                        continue;
+                    }
+                    squares[i] = target;
+                    long after = occupied & ~(1L << origin) | 1L << target;
+                    if (!attacked(king(side, squares), side ^ 1, squares, after, captured)) {
+                        legal++;
+                        if (captured >= 0) {
+                            int child = capture(squares, captured, side ^ 1);
+                            if (child == 0) {
+                                draw = true;
+                            } else if (child < 0) {
+                                win = Math.min(win, child + Search.MATE + 1);
+                            } else {
+                                loss = Math.max(loss, Search.MATE - child + 1);
+                            }
+                        } else {
+                            children = add(found, children, endgame.canonical(side ^ 1, squares.clone()));
+                        }
+                    }
+                    squares[i] = origin;
+                }
+            }
+
+            int value = 0;
+            if (legal == 0) {
+                //将死或逼和
+                value = attacked(king(side, squares), side ^ 1, squares, occupied, -1) ? 1 : 0;
+            } else if (win != Integer.MAX_VALUE) {
+                value = win + 1;
+            } else if (children == 0 && !draw) {
+                value = loss + 1;
+            }
+            captureLoss[index] = (byte) loss;
+            remaining.set(index, legal == 0 ? 1 : children + (draw ? 1 : 0));
+            if (value > 0) {
+                values.set(index, value);
+                raise(value);
+            }
+        }
+
+        /**
+         * From a position resolved at ply, resolve the positions a move before
+         */
+        private void resolved(int index, int ply, int[] squares, long[] found) {
+            int side = endgame.decode(index, squares);
+            int mover = side ^ 1;
+            long occupied = 0;
+            for (int square : squares) {
+                occupied |= 1L << square;
+            }
+            int count = 0;
+            for (int i = 0; i < n; i++) {
+                if (SearchBoard.color(endgame.pieces[i]) != mover) {
+                    continue;
+                }
+                int origin = squares[i];
+                for (int target : targets(i, squares, occupied)) {
+                    if ((occupied & 1L << target) != 0) {
+                        continue;
+                    }
+                    squares[i] = target;
+                    long before = occupied & ~(1L << origin) | 1L << target;
+                    if (!attacked(king(side, squares), mover, squares, before, -1)) {
+                        count = add(found, count, endgame.canonical(mover, squares.clone()));
+                    }
+                    squares[i] = origin;
+                }
+            }
+
+            for (int i = 0; i < count; i++) {
+                int previous = (int) found[i];
+                if (ply % 2 == 0) {
+                    //被将死的一方之前一步为胜
+                    int value = ply + 2;
+                    while (true) {
+                        int current = values.get(previous);
+                        if (current == ILLEGAL || current != 0 && current <= value) {
+                            break;
+                        }
+                        if (values.compareAndSet(previous, current, value)) {
+                            raise(value);
+                            break;
+                        }
+                    }
+                } else if (remaining.decrementAndGet(previous) == 0) {
+                    int value = Math.max(ply + 1, captureLoss[previous] & 0xFF) + 1;
+                    if (values.compareAndSet(previous, 0, value)) {
+                        raise(value);
+                    }
+                }
+            }
+        }
+
+        private void raise(int value) {
+            if (value > 255) {
+                throw new IllegalStateException(endgame.name + ": mate too long for the file format");
+            }
+            highest.accumulateAndGet(value, Math::max);
+        }
+
+        /**
+         * @return result of the smaller endgame after a capture, as {@code Tablebase.probeDtm}
+         */
+        private int capture(int[] squares, int captured, int side) {
+            int[] pieces = new int[n - 1], rest = new int[n - 1];
+            for (int j = 0, k = 0; j < n; j++) {
+                if (j != captured) {
+                    pieces[k] = endgame.pieces[j];
+                    rest[k++] = squares[j];
+                }
+            }
+            int result = tablebase.probeDtm(pieces, rest, n - 1, side, new Tablebase.Scratch());
+            if (result == Tablebase.UNKNOWN) {
+                throw new IllegalStateException("missing endgame of " + Endgame.name(pieces, n - 1));
+            }
+            return result;
+        }
+
+        private int king(int color, int[] squares) {
+            for (int i = 0; i < n; i++) {
+                if (endgame.pieces[i] == (SearchBoard.KING | color << 3)) {
+                    return squares[i];
+                }
+            }
+            throw new IllegalStateException("no king");
+        }
+
+        /**
+         * @param skip index of a piece that has been captured, {@code -1} if none
+         */
+        private boolean attacked(int square, int by, int[] squares, long occupied, int skip) {
+            for (int i = 0; i < n; i++) {
+                if (i != skip && SearchBoard.color(endgame.pieces[i]) == by
+                        && attacks(SearchBoard.type(endgame.pieces[i]), squares[i], square, occupied)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return the squares a piece moves to, own pieces included
+         */
+        private List<Integer> targets(int piece, int[] squares, long occupied) {
+            int type = SearchBoard.type(endgame.pieces[piece]), from = squares[piece];
+            List<Integer> result = new ArrayList<>();
+            if (type == SearchBoard.KING || type == SearchBoard.KNIGHT) {
+                for (int to : (type == SearchBoard.KING ? SearchBoard.KING_TARGETS : SearchBoard.KNIGHT_TARGETS)[from]) {
+                    result.add(to);
+                }
+                return result;
+            }
+            for (int direction = type == SearchBoard.BISHOP ? 4 : 0; direction < (type == SearchBoard.ROOK ? 4 : 8); direction++) {
+                for (int to : SearchBoard.RAYS[from][direction]) {
+                    result.add(to);
+                    if ((occupied & 1L << to) != 0) {
+                        break;
+                    }
+                }
+            }
+            return result;
+        }
+
+        private void write() throws IOException {
+            int bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(highest.get()));
+            byte[] wdl = new byte[(size + 3) / 4];
+            byte[] dtm = new byte[2 + (int) (((long) size * bits + 7) / 8)];
+            dtm[0] = (byte) bits;
+            for (int index = 0; index < size; index++) {
+                int value = values.get(index);
+                int result;
+                if (value == ILLEGAL) {
+                    result = Tablebase.WDL_NONE;
+                    value = 0;
+                } else if (value == 0) {
+                    result = Tablebase.WDL_DRAW;
+                } else {
+                    result = (value - 1) % 2 == 1 ? Tablebase.WDL_WIN : Tablebase.WDL_LOSS;
+                }
+                wdl[index >>> 2] |= result << (index & 3) * 2;
+                long bit = (long) index * bits;
+                int offset = 1 + (int) (bit >>> 3);
+                int shifted = value << (int) (bit & 7);
+                dtm[offset] |= shifted;
+                dtm[offset + 1] |= shifted >>> 8;
+            }
+            Files.createDirectories(directory);
+            Files.write(directory.resolve(endgame.name + ".wdl"), wdl);
+            Files.write(directory.resolve(endgame.name + ".dtm"), dtm);
+        }
+    }
+
+    private static int add(long[] found, int count, long index) {
+        for (int i = 0; i < count; i++) {
+            if (found[i] == index) {
+                return count;
+            }
+        }
+        found[count] = index;
+        return count + 1;
+    }
+
+    private static boolean attacks(int type, int from, int to, long occupied) {
+        int files = Math.abs((from & 7) - (to & 7)), ranks = Math.abs((from >> 3) - (to >> 3));
+        switch (type) {
+            case SearchBoard.KING:
+                return Math.max(files, ranks) == 1;
+            case SearchBoard.KNIGHT:
+                return files * ranks == 2;
+            case SearchBoard.BISHOP:
+                return DIAGONAL[from][to] && (BETWEEN[from][to] & occupied) == 0;
+            case SearchBoard.ROOK:
+                return STRAIGHT[from][to] && (BETWEEN[from][to] & occupied) == 0;
+            case SearchBoard.QUEEN:
+                return (DIAGONAL[from][to] || STRAIGHT[from][to]) && (BETWEEN[from][to] & occupied) == 0;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return the names of all the endgames of up to {@code Tablebase.MAX_PIECES} pieces
+     */
+    public static List<String> all() {
+        int[] kinds = {SearchBoard.QUEEN, SearchBoard.ROOK, SearchBoard.BISHOP, SearchBoard.KNIGHT};
+        Set<String> names = new LinkedHashSet<>();
+        for (int first = 0; first < kinds.length * 2; first++) {
+            int a = kinds[first % 4] | (first / 4) << 3;
+            names.add(Endgame.name(new int[]{SearchBoard.KING, SearchBoard.KING | SearchBoard.BLACK_PIECE, a}, 3).replace("!", ""));
+        }
+        for (int first = 0; first < kinds.length * 2; first++) {
+            for (int second = first; second < kinds.length * 2; second++) {
+                int a = kinds[first % 4] | (first / 4) << 3, b = kinds[second % 4] | (second / 4) << 3;
+                names.add(Endgame.name(new int[]{SearchBoard.KING, SearchBoard.KING | SearchBoard.BLACK_PIECE, a, b}, 4).replace("!", ""));
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors(), i = 0;
+        if (args.length > 1 && args[0].equals("-threads")) {
+            threads = Integer.parseInt(args[1]);
+            i = 2;
+        }
+        if (args.length <= i) {
+            System.out.println("usage: TablebaseGenerator [-threads n] directory [endgames like KQvKR...]");
+            return;
+        }
+        TablebaseGenerator generator = new TablebaseGenerator(Paths.get(args[i]), threads);
+        List<String> names = new ArrayList<>();
+        for (int j = i + 1; j < args.length; j++) {
+            names.add(args[j]);
+        }
+        for (String name : names.isEmpty() ? all() : names) {
+            generator.generate(name);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package engine;
+
+import java.util.Arrays;
+
+/**
+ * Class {@code TranspositionTable}
+ * Results of searched positions, shared by all the search threads without locks.
+ * <p>
+ * The table is one {@code long[]} of buckets, a bucket is 4 entries of 2 longs,
+ * 64 bytes like a cache line. An entry is stored as {@code key ^ data, data}.
+ * Two threads writing the same entry at the same time can leave the halves of different entries,
+ * such an entry does not validate on probe and is treated as a miss.
+ * The data of an entry:
+ * <pre>
+ * bits 0-19    best move, see {@code Move}
+ * bits 20-35   score
+ * bits 36-43   depth
+ * bits 44-45   bound, never 0 for a stored entry
+ * bits 46-51   age, the search that stored it
+ * </pre>
+ * When a bucket is full the entry replaced is the one of the lowest depth,
+ * entries of older searches count as shallower.
+ *
+ * @see Search
+ */
+
+public class TranspositionTable {
+
+    /**
+     * the score is a lower bound, an upper bound or exact
+     */
+    public static final int LOWER = 1, UPPER = 2, EXACT = 3;
+
+    public static final int ENTRY_SIZE = 16;
+
+    private static final int BUCKET_ENTRIES = 4;
+    private static final int BUCKET_LONGS = BUCKET_ENTRIES * 2;
+    private static final int AGE_MASK = 63;
+
+    private final long[] table;
+    private final int mask;
+    private volatile int age;
+
+    /**
+     * @param megabytes memory of the table, rounded down to a power of two
+     */
+    public TranspositionTable(int megabytes) {
+        long bytes = Math.max(1, megabytes) * 1024L * 1024L;
+        int buckets = Integer.highestOneBit((int) Math.min(bytes / (BUCKET_LONGS * 8), 1 << 26));
+        table = new long[buckets * BUCKET_LONGS];
+        mask = buckets - 1;
+    }
+
+    /**
+     * Start a new search, entries of the previous searches are replaced first
+     */
+    public void newSearch() {
+        age = (age + 1) & AGE_MASK;
+    }
+
+    public void clear() {
+        Arrays.fill(table, 0);
+        age = 0;
+    }
+
+    /**
+     * @param key Zobrist key of the position
+     * @return data of the entry, {@code 0} if the position is not in the table
+     */
+    public long probe(long key) {
+        int bucket = ((int) key & mask) * BUCKET_LONGS;
+        for (int i = bucket; i < bucket + BUCKET_LONGS; i += 2) {
+            long data = table[i + 1];
+            if ((table[i] ^ data) == key && data != 0) {
+                return data;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param key   Zobrist key of the position
+     * @param move  best move, {@code Move.NONE} keeps the move already stored for the position
+     * @param score score, mate scores relative to the position
+     * @param depth depth searched
+     * @param bound {@code LOWER}, {@code UPPER} or {@code EXACT}
+     */
+    public void store(long key, int move, int score, int depth, int bound) {
+        int bucket = ((int) key & mask) * BUCKET_LONGS;
+        int age = this.age;
+        int replace = bucket;
+        int lowest = Integer.MAX_VALUE;
+        for (int i = bucket; i < bucket + BUCKET_LONGS; i += 2) {
+            long data = table[i + 1];
+            if ((table[i] ^ data) == key || data == 0) {
+                if (move == Move.NONE && data != 0) {
+                    move = move(data);
+                }
+                replace = i;
+                break;
+            }
+            //旧的搜索留下的条目每差一次算作浅 4 层
+            int value = depth(data) - 4 * ((age - age(data)) & AGE_MASK);
+            if (value < lowest) {
+                lowest = value;
+                replace = i;
+            }
+        }
+        long data = (move & 0xFFFFFL)
+                | (score & 0xFFFFL) << 20
+                | (long) Math.min(Math.max(depth, 0), 255) << 36
+                | (long) bound << 44
+                | (long) age << 46;
+        table[replace] = key ^ data;
+        table[replace + 1] = data;
+    }
+
+    public static int move(long data) {
+        return (int) (data & 0xFFFFF);
+    }
+
+    public static int score(long data) {
+        return (short) (data >>> 20);
+    }
+
+    public static int depth(long data) {
+        return (int) (data >>> 36 & 255);
+    }
+
+    public static int bound(long data) {
+        return (int) (data >>> 44 & 3);
+    }
+
+    private static int age(long data) {
+        return (int) (data >>> 46 & AGE_MASK);
+    }
+
+    /**
+     * @return bytes of the table
+     */
+    public long getSize() {
+        return table.length * 8L;
+    }
+
+    /**
+     * @return permille of the first 1000 entries used by the current search
+     */
+    public int getUsage() {
+        int used = 0, count = Math.min(1000, table.length / 2);
+        for (int i = 0; i < count; i++) {
+            long data = table[i * 2 + 1];
+            if (data != 0 && age(data) == age) {
+                used++;
+            }
+        }
+        return used * 1000 / count;
+    }
+}
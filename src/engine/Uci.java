@@ -0,0 +1,374 @@
+package engine;
+
+import game.Fen;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Class {@code Uci}
+ * The engine with the Universal Chess Interface on standard input and output,
+ * for tournament managers and bots.
+ * The commands are read on their own thread while the search runs on another one,
+ * so {@code stop}, {@code isready} and {@code ponderhit} are answered during a deep search,
+ * the search stops within about a thousand nodes.
+ * A session can be scripted by piping the commands into standard input,
+ * the output is flushed after every line.
+ * <p>
+ * Supported: {@code uci}, {@code isready}, {@code ucinewgame}, {@code position [startpos | fen ...] [moves ...]},
+ * {@code go [wtime btime winc binc movestogo movetime depth infinite ponder]}, {@code stop}, {@code ponderhit},
+ * {@code setoption name [Hash | Threads | MultiPV | Ponder | BookFile | TablebasePath] value ...} and {@code quit}.
+ * <p>
+ * usage: {@code Uci}
+ *
+ * @see Engine
+ */
+
+public class Uci {
+
+    public static final String NAME = "chess";
+
+    /**
+     * milliseconds kept on the clock for the communication
+     */
+    private static final long OVERHEAD = 30;
+
+    /**
+     * moves to go assumed when the clock has no moves to go
+     */
+    private static final int MOVES_TO_GO = 30;
+
+    private final BufferedReader in;
+    private final PrintStream out;
+    private final Engine engine = new Engine();
+    private SearchBoard position = new SearchBoard();
+
+    /**
+     * reused for every {@code position fen}
+     */
+    private final Fen fen = new Fen();
+
+    /**
+     * the position before the last move of {@code position}, and that move, for {@code go ponder}
+     */
+    private SearchBoard previous;
+    private int lastMove = Move.NONE;
+
+    private boolean pondering;
+    private volatile SearchInfo ponderInfo;
+    private Thread searching;
+
+    /**
+     * set by {@code stop}, a {@code go infinite} search gives its move only then
+     */
+    private boolean stopped;
+    private OpeningBook book;
+
+    public Uci(BufferedReader in, PrintStream out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    /**
+     * Read the commands until {@code quit} or the end of the input
+     *
+     * @throws IOException if the input cannot be read
+     */
+    public void run() throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] words = line.trim().split("\\s+");
+            if (words[0].equals("quit")) {
+                break;
+            }
+            try {
+                command(line, words);
+            } catch (RuntimeException e) {
+                send("info string error " + e.getMessage());
+            }
+        }
+        stop();
+        waitSearch();
+        if (book != null) {
+            book.close();
+        }
+    }
+
+    private void command(String line, String[] words) throws IOException {
+        switch (words[0]) {
+            case "uci":
+                send("id name " + NAME);
+                send("id author FishingKingczj");
+                send("option name Hash type spin default " + Engine.DEFAULT_HASH + " min 0 max 4096");
+                send("option name Threads type spin default 1 min 1 max 64");
+                send("option name MultiPV type spin default 1 min 1 max " + SearchBoard.MAX_MOVES);
+                send("option name Ponder type check default false");
+                send("option name BookFile type string default <empty>");
+                send("option name TablebasePath type string default <empty>");
+                send("uciok");
+                break;
+            case "isready":
+                send("readyok");
+                break;
+            case "ucinewgame":
+                waitSearch();
+                engine.clearHash();
+                position = new SearchBoard();
+                break;
+            case "setoption":
+                waitSearch();
+                setOption(words);
+                break;
+            case "position":
+                waitSearch();
+                position(line, words);
+                break;
+            case "go":
+                waitSearch();
+                go(words);
+                break;
+            case "ponderhit":
+                ponderHit();
+                break;
+            case "stop":
+                stop();
+                break;
+            default:
+                if (!words[0].isEmpty()) {
+                    send("info string unknown command " + words[0]);
+                }
+        }
+    }
+
+    private void setOption(String[] words) throws IOException {
+        //setoption name <id> value <x>，名称和值都可能包含空格
+        StringBuilder name = new StringBuilder(), value = new StringBuilder();
+        StringBuilder current = null;
+        for (int i = 1; i < words.length; i++) {
+            if (words[i].equals("name")) {
+                current = name;
+            } else if (words[i].equals("value")) {
+                current = value;
+            } else if (current != null) {
+                current.append(current.length() > 0 ? " " : "").append(words[i]);
+            }
+        }
+        String text = value.toString();
+        switch (name.toString().toLowerCase()) {
+            case "hash":
+                engine.setHashSize(Integer.parseInt(text));
+                break;
+            case "threads":
+                engine.setThreads(Integer.parseInt(text));
+                break;
+            case "multipv":
+                engine.setLines(Integer.parseInt(text));
+                break;
+            case "ponder":
+                break;
+            case "bookfile":
+                if (book != null) {
+                    book.close();
+                    book = null;
+                }
+                if (!text.isEmpty() && !text.equals("<empty>")) {
+                    book = new OpeningBook(new File(text).toPath());
+                }
+                engine.setBook(book);
+                break;
+            case "tablebasepath":
+                engine.setTablebase(text.isEmpty() || text.equals("<empty>") ? null : new Tablebase(new File(text).toPath()));
+                break;
+            default:
+                send("info string unknown option " + name);
+        }
+    }
+
+    private void position(String line, String[] words) {
+        int i = 1;
+        SearchBoard board;
+        if (words.length > 1 && words[1].equals("fen")) {
+            //直接读命令行的一段，不拼接字符串
+            int start = line.indexOf("fen") + 3, end = line.indexOf(" moves", start);
+            fen.parse(line, start, end < 0 ? line.length() : end);
+            board = new SearchBoard();
+            board.set(fen);
+            i = 2;
+            while (i < words.length && !words[i].equals("moves")) {
+                i++;
+            }
+        } else {
+            board = new SearchBoard();
+            i = 2;
+        }
+        SearchBoard before = null;
+        int last = Move.NONE;
+        if (i < words.length && words[i].equals("moves")) {
+            for (i++; i < words.length; i++) {
+                int move = board.parseMove(words[i]);
+                if (move == Move.NONE) {
+                    throw new IllegalArgumentException("illegal move " + words[i]);
+                }
+                if (i == words.length - 1) {
+                    before = new SearchBoard(board);
+                    last = move;
+                }
+                board.make(move);
+            }
+        }
+        position = board;
+        previous = before;
+        lastMove = last;
+    }
+
+    private void go(String[] words) {
+        long time = -1, increment = 0, moveTime = 0;
+        int movesToGo = 0, depth = Search.MAX_PLY;
+        boolean ponder = false, infinite = false;
+        boolean white = position.getSide() == SearchBoard.WHITE;
+        for (int i = 1; i < words.length; i++) {
+            String value = i + 1 < words.length ? words[i + 1] : "0";
+            switch (words[i]) {
+                case "wtime":
+                    time = white ? Long.parseLong(value) : time;
+                    break;
+                case "btime":
+                    time = white ? time : Long.parseLong(value);
+                    break;
+                case "winc":
+                    increment = white ? Long.parseLong(value) : increment;
+                    break;
+                case "binc":
+                    increment = white ? increment : Long.parseLong(value);
+                    break;
+                case "movestogo":
+                    movesToGo = Integer.parseInt(value);
+                    break;
+                case "movetime":
+                    moveTime = Long.parseLong(value);
+                    break;
+                case "depth":
+                    depth = Integer.parseInt(value);
+                    break;
+                case "infinite":
+                    infinite = true;
+                    break;
+                case "ponder":
+                    ponder = true;
+                    break;
+            }
+        }
+        long budget;
+        if (moveTime > 0) {
+            budget = Math.max(moveTime - OVERHEAD, 1);
+        } else if (time >= 0) {
+            budget = time / (movesToGo > 0 ? movesToGo : MOVES_TO_GO) + increment * 3 / 4;
+            budget = Math.max(Math.min(budget, time / 2 - OVERHEAD), 1);
+        } else {
+            budget = infinite || depth < Search.MAX_PLY ? 0 : Engine.DEFAULT_TIME;
+        }
+        engine.setTimeBudget(budget);
+        engine.setMaxDepth(depth);
+
+        if (ponder && previous != null) {
+            //对方的预测着法已经在局面中
+            pondering = true;
+            ponderInfo = null;
+            engine.ponder(previous, lastMove, info -> {
+                ponderInfo = info;
+                send("info " + info);
+            });
+            return;
+        }
+        search(infinite);
+    }
+
+    /**
+     * Search the position on the search thread and send the best move
+     *
+     * @param untilStop whether or not to wait for {@code stop} before sending the move
+     */
+    private void search(boolean untilStop) {
+        SearchBoard board = new SearchBoard(position);
+        synchronized (this) {
+            stopped = false;
+        }
+        searching = new Thread(() -> {
+            SearchInfo info = engine.think(board, result -> send("info " + result));
+            if (untilStop) {
+                synchronized (this) {
+                    while (!stopped) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            break;
+                        }
+                    }
+                }
+            }
+            bestMove(info);
+        }, "uci-search");
+        searching.start();
+    }
+
+    /**
+     * The opponent played the move pondered on, the search goes on with the time left
+     */
+    private void ponderHit() {
+        if (pondering) {
+            pondering = false;
+            search(false);
+        }
+    }
+
+    private void stop() {
+        synchronized (this) {
+            stopped = true;
+            notifyAll();
+        }
+        if (pondering) {
+            //停止预测时也必须给出着法
+            pondering = false;
+            engine.stopPondering();
+            SearchInfo info = ponderInfo;
+            bestMove(info != null ? info : new SearchInfo(0, 0, 0, 0, new int[0]));
+            return;
+        }
+        engine.stop();
+    }
+
+    private void bestMove(SearchInfo info) {
+        int[] pv = info.getPv();
+        send("bestmove " + Move.toString(info.getBestMove()) + (pv.length > 1 ? " ponder " + Move.toString(pv[1]) : ""));
+    }
+
+    private void waitSearch() {
+        if (searching == null) {
+            return;
+        }
+        try {
+            searching.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        searching = null;
+    }
+
+    private void send(String line) {
+        synchronized (out) {
+            out.println(line);
+            out.flush();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        PrintStream out = new PrintStream(System.out, false, "UTF-8");
+        new Uci(in, out).run();
+        System.exit(0);
+    }
+}
@@ -1,7 +1,11 @@
 package game;
 
 import GUI.BoardGUI;
+import metrics.GenerationEvent;
+import metrics.Metrics;
+import metrics.MoveEvent;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
 /**
@@ -18,6 +22,82 @@ import java.util.ArrayList;
 
 public class Board {
 
+    /**
+     * bytes of a board packed by {@code pack}
+     */
+    public static final int PACKED_SIZE = 40;
+
+    /**
+     * squares of the kings and rooks that may still castle, in the order of the bits of the packed board
+     */
+    private static final int[][] CASTLING_SQUARES = {{0, 0}, {4, 0}, {7, 0}, {0, 7}, {4, 7}, {7, 7}};
+
+    private static final int NO_SQUARE = 0xFF;
+
+    /**
+     * moves of both sides without a capture or a move of a pawn that end the game in a draw
+     */
+    public static final int FIFTY_MOVES = 100;
+
+    /**
+     * positions kept for the repetitions, more than the positions since the last capture or move of a pawn
+     */
+    private static final int HISTORY = 128;
+
+    /**
+     * random numbers of the hash of a position: a piece on a square, black to move,
+     * kings and rooks not moved, and the file of a pawn that can be taken en passant
+     */
+    private static final long[] ZOBRIST = new long[12 * 64 + 1 + 6 + 8];
+
+    private static final int BLACK_TO_MOVE = 12 * 64, CASTLING = BLACK_TO_MOVE + 1, EN_PASSANT = CASTLING + 6;
+
+    /**
+     * types of the codes of {@code Fen}, and the codes of the types in the order of {@code Piece.Type}
+     */
+    private static final Piece.Type[] FEN_TYPES = {null, Piece.Type.pawn, Piece.Type.knight, Piece.Type.bishop,
+            Piece.Type.rook, Piece.Type.queen, Piece.Type.king};
+    private static final int[] FEN_CODES = {6, 5, 4, 3, 2, 1};
+
+    static {
+        //固定的种子，同一局面的哈希值每次运行都相同
+        long seed = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < ZOBRIST.length; i++) {
+            long z = seed += 0x9E3779B97F4A7C15L;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            ZOBRIST[i] = z ^ (z >>> 31);
+        }
+    }
+
+    /**
+     * Enum {@code Draw}
+     * why a game ended in a draw
+     */
+    public enum Draw {
+        repetition, fiftyMoves, insufficientMaterial, tablebase
+    }
+
+    /**
+     * Interface {@code Adjudicator}
+     * exact result of a position with few pieces, a game reaching such a position ends at once
+     */
+    public interface Adjudicator {
+
+        int WIN = 1, DRAW = 0, LOSS = -1;
+
+        /**
+         * result of a position not known
+         */
+        int UNKNOWN = Integer.MIN_VALUE;
+
+        /**
+         * @param board the position, the game not over
+         * @return {@code WIN}, {@code DRAW} or {@code LOSS} for the side to move, {@code UNKNOWN} if not known
+         */
+        int adjudicate(Board board);
+    }
+
     /**
      * A chessman array that records the chessboard
      */
@@ -35,8 +115,40 @@ public class Board {
 
     private Piece.Color winner;
 
+    private Draw draw;
+
+    /**
+     * the adjudicator looked at after a capture or a move of a pawn, {@code null} for none
+     */
+    private Adjudicator adjudicator;
+
+    /**
+     * whether or not the game was ended by the adjudicator
+     */
+    private boolean adjudicated;
+
+    /**
+     * hashes of the positions, a ring of {@code HISTORY}, the last one is the current position
+     */
+    private final long[] positions = new long[HISTORY];
+
+    /**
+     * positions put in the ring
+     */
+    private int plies;
+
+    /**
+     * moves since the last capture or move of a pawn
+     */
+    private int halfmoves;
+
     private BoardGUI boardGUI;
 
+    /**
+     * the piece a pawn is promoted to when there is no interface to ask
+     */
+    private Piece.Type promotion = Piece.Type.queen;
+
     /**
      * The variable is only for the purpose of en Passant.
      */
@@ -44,11 +156,19 @@ public class Board {
 
     private int step;
 
+    /**
+     * moves and calls of the move generation not yet added to {@code Metrics}
+     */
+    private int moves, generationCalls, generatedMoves, attackFields;
+
     /**
      * convert the board into string type chess and connection them
      */
     public String record;
 
+    /**
+     * @param boardGUI the interface, {@code null} for a board without one, for example on a server
+     */
     public Board(BoardGUI boardGUI) {
         setSide(0);
         setSide(7);
@@ -58,6 +178,7 @@ public class Board {
         step = 1;
         record = "";
         this.boardGUI = boardGUI;
+        positions[plies++] = hash();
     }
 
     private void setSide(int y) {
@@ -122,21 +243,37 @@ public class Board {
      * @return array of the positions
      */
     public ArrayList<Position> getAllMoves(Piece piece) {
+        GenerationEvent event = new GenerationEvent();
+        event.begin();
+        ArrayList<Position> result;
         switch (piece.getType()) {
             case king:
-                return moveKing(piece);
+                result = moveKing(piece);
+                break;
             case queen:
-                return moveQueen(piece);
+                result = moveQueen(piece);
+                break;
             case rook:
-                return moveRook(piece);
+                result = moveRook(piece);
+                break;
             case bishop:
-                return moveBishop(piece);
+                result = moveBishop(piece);
+                break;
             case knight:
-                return moveKnight(piece);
-            case pawn:
-                return movePawn(piece);
+                result = moveKnight(piece);
+                break;
+            default:
+                result = movePawn(piece);
         }
-        return new ArrayList<>();
+        generationCalls++;
+        generatedMoves += result.size();
+        if (event.shouldCommit()) {
+            event.piece = piece.getType().name();
+            event.color = piece.getColor().name();
+            event.moves = result.size();
+            event.commit();
+        }
+        return result;
     }
 
     /**
@@ -148,6 +285,7 @@ public class Board {
      * @return array of the positions
      */
     public ArrayList<Position> getAttackFieldOfType(Piece.Color color) {
+        attackFields++;
         ArrayList<Piece> pieces = getAllPiecesOfType(color);
         ArrayList<Position> result = new ArrayList<>();
         for (Piece p : pieces) {
@@ -172,12 +310,65 @@ public class Board {
      * Check the check, record the movement
      * and change the rounds, if move correctly,
      * the return will be {@code true} or it will return {@code false}
+     * A {@code MoveEvent} is recorded when Flight Recorder has it on.
      *
      * @param start start position
      * @param end   end position
      * @return if moving is correct
      */
     public boolean move(Position start, Position end) {
+        MoveEvent event = new MoveEvent();
+        if (!event.isEnabled()) {
+            return measure(start, end);
+        }
+        //走子后棋子的位置已经改变，先记下
+        Piece piece = getPiece(start);
+        int step = this.step;
+        event.begin();
+        boolean legal = measure(start, end);
+        event.end();
+        if (event.shouldCommit()) {
+            event.from = start.format();
+            event.to = end.format();
+            if (piece != null) {
+                event.piece = piece.getType().name();
+                event.color = piece.getColor().name();
+            }
+            event.step = step;
+            event.legal = legal;
+            event.commit();
+        }
+        return legal;
+    }
+
+    /**
+     * {@code move} with the metrics
+     */
+    private boolean measure(Position start, Position end) {
+        //每 SAMPLE 步计时一次，其余的次数在本地累加，计时时一起加到共享计数
+        if (!Metrics.isEnabled() || ++moves < Metrics.SAMPLE) {
+            return play(start, end);
+        }
+        long begin = System.nanoTime();
+        try {
+            return play(start, end);
+        } finally {
+            Metrics.MOVE_VALIDATION.record(System.nanoTime() - begin);
+            Metrics.MOVES_VALIDATED.add(moves);
+            Metrics.GENERATION_CALLS.add(generationCalls);
+            Metrics.MOVES_GENERATED.add(generatedMoves);
+            Metrics.ATTACK_FIELDS.add(attackFields);
+            moves = generationCalls = generatedMoves = attackFields = 0;
+        }
+    }
+
+    /**
+     * The rules of {@code move}, without the metrics and the events
+     */
+    private boolean play(Position start, Position end) {
+        if (draw != null) {
+            return false;
+        }
         Piece piece = getPiece(start);
         ArrayList<Position> moves = getAllMoves(piece);
 
@@ -198,6 +389,10 @@ public class Board {
             return false;
         }
 
+        //吃子和兵的移动不可逆，之前的局面不会再出现
+        boolean capture = getPiece(end) != null || piece.getType() == Piece.Type.pawn && start.x != end.x;
+        boolean irreversible = capture || piece.getType() == Piece.Type.pawn;
+
         //移动逻辑
         Piece.Type promotion = null;
         switch (piece.getType()) {
@@ -212,7 +407,7 @@ public class Board {
                 }
                 //晋升
                 if (end.y == 0 || end.y == 7) {
-                    promotion = boardGUI.promotion();
+                    promotion = boardGUI != null ? boardGUI.promotion() : this.promotion;
                     piece.setType(promotion);
                 }
                 break;
@@ -243,9 +438,130 @@ public class Board {
         check();
         record(start, end, promotion);
         changeTurn();
+        halfmoves = irreversible ? 0 : halfmoves + 1;
+        positions[plies++ & HISTORY - 1] = hash();
+        draw = drawn(capture);
+        //只有吃子和兵的移动会进入更少子力的残局
+        if (irreversible && adjudicator != null && !isOver()) {
+            adjudicate();
+        }
         return true;
     }
 
+    /**
+     * End the game if the adjudicator knows the result of the position
+     */
+    private void adjudicate() {
+        switch (adjudicator.adjudicate(this)) {
+            case Adjudicator.WIN:
+                winner = turn;
+                break;
+            case Adjudicator.LOSS:
+                winner = Piece.changeColor(turn);
+                break;
+            case Adjudicator.DRAW:
+                draw = Draw.tablebase;
+                break;
+            default:
+                return;
+        }
+        adjudicated = true;
+    }
+
+    /**
+     * Whether or not the position after a move is a draw.
+     * The repetitions are looked for in the positions since the last capture or move of a pawn,
+     * with the same side to move, at most {@code FIFTY_MOVES / 2} of them.
+     * As the computer plays on, the draws are not claimed but applied at once.
+     *
+     * @param capture whether or not the move captured, only then the material can become insufficient
+     * @return the draw, {@code null} if the game goes on
+     */
+    private Draw drawn(boolean capture) {
+        if (halfmoves >= FIFTY_MOVES) {
+            return Draw.fiftyMoves;
+        }
+        long current = positions[plies - 1 & HISTORY - 1];
+        int seen = 1;
+        for (int back = 2; back <= Math.min(halfmoves, plies - 1); back += 2) {
+            if (positions[plies - 1 - back & HISTORY - 1] == current && ++seen == 3) {
+                return Draw.repetition;
+            }
+        }
+        if (capture && insufficientMaterial()) {
+            return Draw.insufficientMaterial;
+        }
+        return null;
+    }
+
+    /**
+     * @return whether or not no side can mate: only kings, a king and a minor piece against a king,
+     * or bishops all on squares of the same color
+     */
+    private boolean insufficientMaterial() {
+        int knights = 0, bishops = 0, bishopSquares = 0;
+        for (int x = 0; x < 8; x++) {
+            for (int y = 0; y < 8; y++) {
+                Piece piece = board[x][y];
+                if (piece == null) {
+                    continue;
+                }
+                switch (piece.getType()) {
+                    case king:
+                        break;
+                    case knight:
+                        knights++;
+                        break;
+                    case bishop:
+                        bishops++;
+                        bishopSquares |= 1 << (x + y) % 2;
+                        break;
+                    default:
+                        return false;
+                }
+            }
+        }
+        return knights + bishops <= 1 || knights == 0 && bishopSquares != 3;
+    }
+
+    /**
+     * Zobrist hash of the position, the pieces, the side to move,
+     * the kings and rooks that may castle and the pawn that may be taken en passant
+     */
+    private long hash() {
+        long hash = turn == Piece.Color.black ? ZOBRIST[BLACK_TO_MOVE] : 0;
+        for (int x = 0; x < 8; x++) {
+            for (int y = 0; y < 8; y++) {
+                Piece piece = board[x][y];
+                if (piece != null) {
+                    int index = piece.getType().ordinal() + (piece.getColor() == Piece.Color.black ? 6 : 0);
+                    hash ^= ZOBRIST[index * 64 + x * 8 + y];
+                }
+            }
+        }
+        for (int i = 0; i < CASTLING_SQUARES.length; i++) {
+            Piece piece = board[CASTLING_SQUARES[i][0]][CASTLING_SQUARES[i][1]];
+            if (piece != null && !piece.isMoved()) {
+                hash ^= ZOBRIST[CASTLING + i];
+            }
+        }
+        //只有对方的兵就在旁边时才算
+        if (lastMove != null) {
+            int from = square(lastMove, 0), to = square(lastMove, 5);
+            Piece pawn = board[to >> 3][to & 7];
+            if (pawn != null && pawn.getType() == Piece.Type.pawn && Math.abs((from & 7) - (to & 7)) == 2) {
+                for (int x = (to >> 3) - 1; x <= (to >> 3) + 1; x += 2) {
+                    Piece side = getPiece(x, to & 7);
+                    if (side != null && side.getType() == Piece.Type.pawn && side.getColor() != pawn.getColor()) {
+                        hash ^= ZOBRIST[EN_PASSANT + (to >> 3)];
+                        break;
+                    }
+                }
+            }
+        }
+        return hash;
+    }
+
     /**
      * The next few functions are the moving logic
      * of a single piece and have a similar structure.
@@ -320,14 +636,14 @@ public class Board {
         Piece rrook = getPiece(7, y);
         Piece lrook = getPiece(0, y);
         //短易位
-        if (rrook.getType() == Piece.Type.rook && !rrook.isMoved()) {
+        if (rrook != null && rrook.getType() == Piece.Type.rook && !rrook.isMoved()) {
             if (getPiece(position.changeX(1)) == null && !attacked.contains(position.changeX(1)) &&
                     getPiece(position.changeX(2)) == null && !attacked.contains(position.changeX(2))) {
                 result.add(position.changeX(2));
             }
         }
         //长易位
-        if (lrook.getType() == Piece.Type.rook && !lrook.isMoved()) {
+        if (lrook != null && lrook.getType() == Piece.Type.rook && !lrook.isMoved()) {
             if (getPiece(position.changeX(-1)) == null && !attacked.contains(position.changeX(-1)) &&
                     getPiece(position.changeX(-2)) == null && !attacked.contains(position.changeX(-2))) {
                 result.add(position.changeX(-2));
@@ -544,7 +860,8 @@ public class Board {
     }
 
     /**
-     * moving logic
+     * moving logic,
+     * only a pawn of the other side that has just moved two squares beside it can be taken
      *
      * @param piece moving piece
      * @return position can move to
@@ -555,14 +872,15 @@ public class Board {
         int row = piece.getColor() == Piece.Color.white ? 3 : 4;
         int one = piece.getColor() == Piece.Color.white ? -1 : 1;
 
-        if (position.y == row) {
-            Piece left = getPiece(position.changeX(-1));
-            Piece right = getPiece(position.changeX(1));
-            if (left != null && lastMove.substring(5, 7).equals(left.getPosition().format())) {
-                result.add(left.getPosition().changeY(one));
-            }
-            if (right != null && lastMove.substring(5, 7).equals(right.getPosition().format())) {
-                result.add(right.getPosition().changeY(one));
+        //上一步的格式为 "E2 - E4"，必须是同一列走两格
+        if (position.y != row || lastMove == null || lastMove.charAt(0) != lastMove.charAt(5)
+                || Math.abs(lastMove.charAt(1) - lastMove.charAt(6)) != 2) {
+            return result;
+        }
+        for (Piece side : new Piece[]{getPiece(position.changeX(-1)), getPiece(position.changeX(1))}) {
+            if (side != null && side.getType() == Piece.Type.pawn && side.getColor() != piece.getColor()
+                    && lastMove.substring(5, 7).equals(side.getPosition().format())) {
+                result.add(side.getPosition().changeY(one));
             }
         }
         return result;
@@ -607,6 +925,54 @@ public class Board {
         board[position.x][position.y] = null;
     }
 
+    /**
+     * Only used without an interface
+     *
+     * @param promotion the piece the next promoted pawns become
+     */
+    public void setPromotion(Piece.Type promotion) {
+        this.promotion = promotion;
+    }
+
+    /**
+     * Move by a message of the network, only used without an interface
+     *
+     * @param message the move, like {@code "64+44"}, with the promotion like {@code "61+60q"}
+     * @return whether or not the move was legal, the move capturing a king ends the game
+     */
+    public boolean move(String message) {
+        if (isOver() || message.length() < 5 || message.charAt(2) != '+') {
+            return false;
+        }
+        int[] digits = new int[4];
+        for (int i = 0; i < 4; i++) {
+            digits[i] = message.charAt(i < 2 ? i : i + 1) - '0';
+            if (digits[i] < 0 || digits[i] > 7) {
+                return false;
+            }
+        }
+        Position start = new Position(digits[0], digits[1]), end = new Position(digits[2], digits[3]);
+        Piece piece = getPiece(start);
+        if (piece == null || piece.getColor() != turn) {
+            return false;
+        }
+        switch (message.length() > 5 ? message.charAt(5) : 'q') {
+            case 'n':
+                promotion = Piece.Type.knight;
+                break;
+            case 'b':
+                promotion = Piece.Type.bishop;
+                break;
+            case 'r':
+                promotion = Piece.Type.rook;
+                break;
+            default:
+                promotion = Piece.Type.queen;
+        }
+        //吃王的一步返回 false 但游戏结束
+        return move(start, end) || winner != null;
+    }
+
     public Piece.Color getTurn() {
         return turn;
     }
@@ -615,6 +981,20 @@ public class Board {
         turn = Piece.changeColor(turn);
     }
 
+    /**
+     * @return the last move like {@code "E2 - E4"}, {@code null} before the first move
+     */
+    public String getLastMove() {
+        return lastMove;
+    }
+
+    /**
+     * @return number of the next step, it starts from 1
+     */
+    public int getStep() {
+        return step;
+    }
+
     /**
      * Record single step
      *
@@ -629,29 +1009,71 @@ public class Board {
         if (type != null) {
             result = result + "\npro:" + type;
         }
-        boardGUI.record(result, turn);
+        if (boardGUI != null) {
+            boardGUI.record(result, turn);
+        }
         record += this.toString();
     }
 
+    /**
+     * @return the winner, {@code null} if the game goes on or is a draw
+     */
     public Piece.Color gameEnd() {
         return winner;
     }
 
+    /**
+     * @return why the game is a draw, {@code null} if it is not
+     */
+    public Draw getDraw() {
+        return draw;
+    }
+
+    /**
+     * @return whether or not the game was ended by the adjudicator rather than by the moves
+     */
+    public boolean isAdjudicated() {
+        return adjudicated;
+    }
+
+    /**
+     * Look at the result of the positions with few pieces after the next moves, must be called before moving
+     *
+     * @param adjudicator the adjudicator, {@code null} for none
+     */
+    public void setAdjudicator(Adjudicator adjudicator) {
+        this.adjudicator = adjudicator;
+    }
+
+    /**
+     * @return whether or not the game has a winner or is a draw
+     */
+    public boolean isOver() {
+        return winner != null || draw != null;
+    }
+
+    /**
+     * @return moves since the last capture or move of a pawn, for the fifty-move rule
+     */
+    public int getHalfmoves() {
+        return halfmoves;
+    }
+
     @Override
     public String toString() {
-        String result = "";
+        StringBuilder result = new StringBuilder(8 * 17 + 1);
         for (int i = 0; i < 8; i++) {
             for (int j = 0; j < 8; j++) {
                 if (board[i][j] != null) {
-                    result += board[i][j].getLetter();
+                    result.append(board[i][j].getLetter());
                 } else {
-                    result += "**";
+                    result.append("**");
                 }
             }
-            result += "\n";
+            result.append('\n');
         }
-        result += "#";
-        return result;
+        result.append('#');
+        return result.toString();
     }
 
     /**
@@ -695,10 +1117,226 @@ public class Board {
         this.board = board;
         this.step = step + 1;
         this.turn = step % 2 == 0 ? Piece.Color.black : Piece.Color.white;
+        //棋谱里没有之前的局面，重新开始计算和棋
+        draw = null;
+        adjudicated = false;
+        halfmoves = 0;
+        positions[plies++ & HISTORY - 1] = hash();
     }
 
     public void continueBoard(String record, int step, String records) {
         this.record = records;
         setBoard(record, step);
     }
+
+    /**
+     * Set the whole state of the game from a FEN, with an empty record.
+     * The kings and rooks of the castling rights are marked not moved, the others moved,
+     * a right without its king and rook on their squares is dropped.
+     * The square of en passant becomes the last move of the pawn.
+     *
+     * @param fen the position, see {@code Fen}
+     */
+    public void setFen(Fen fen) {
+        Piece[][] board = new Piece[8][8];
+        for (int square = 0; square < 64; square++) {
+            int code = fen.getPiece(square);
+            if (code == 0) {
+                continue;
+            }
+            int x = square & 7, y = 7 - (square >> 3);
+            Piece.Color color = (code & Fen.BLACK) == 0 ? Piece.Color.white : Piece.Color.black;
+            Piece.Type type = FEN_TYPES[code & 7];
+            Piece piece = new Piece(new Position(x, y), color, type);
+            //兵在起始行即未走过，王和车看易位权
+            piece.setMoved(type != Piece.Type.pawn || y != (color == Piece.Color.white ? 6 : 1));
+            board[x][y] = piece;
+        }
+        for (int i = 0; i < 4; i++) {
+            int y = i < 2 ? 7 : 0;
+            Piece king = board[4][y], rook = board[i % 2 == 0 ? 7 : 0][y];
+            Piece.Color color = i < 2 ? Piece.Color.white : Piece.Color.black;
+            if ((fen.getCastling() & 1 << i) != 0 && king != null && rook != null
+                    && king.getType() == Piece.Type.king && king.getColor() == color
+                    && rook.getType() == Piece.Type.rook && rook.getColor() == color) {
+                king.setMoved(false);
+                rook.setMoved(false);
+            }
+        }
+        this.board = board;
+        turn = fen.isBlackToMove() ? Piece.Color.black : Piece.Color.white;
+        lastMove = null;
+        if (fen.getEnPassant() >= 0) {
+            char file = (char) ('A' + (fen.getEnPassant() & 7));
+            lastMove = fen.isBlackToMove() ? file + "2 - " + file + "4" : file + "7 - " + file + "5";
+        }
+        step = (fen.getFullmoves() - 1) * 2 + (fen.isBlackToMove() ? 2 : 1);
+        halfmoves = fen.getHalfmoves();
+        winner = null;
+        draw = null;
+        adjudicated = false;
+        record = "";
+        //check 只在将军时设置一方，先清掉上一局面留下的标记
+        blackChecked = whiteChecked = false;
+        //check 判断走子一方是否将对方的军，这里判断轮到走的一方是否被将军
+        changeTurn();
+        check();
+        changeTurn();
+        plies = 0;
+        positions[plies++] = hash();
+    }
+
+    /**
+     * Write the whole state of the game into a FEN,
+     * the square of en passant is given after every move of a pawn by two squares
+     *
+     * @param fen where to write
+     * @return the same {@code fen}
+     */
+    public Fen toFen(Fen fen) {
+        fen.clear();
+        for (int x = 0; x < 8; x++) {
+            for (int y = 0; y < 8; y++) {
+                Piece piece = board[x][y];
+                if (piece != null) {
+                    fen.setPiece((7 - y) * 8 + x, FEN_CODES[piece.getType().ordinal()]
+                            | (piece.getColor() == Piece.Color.black ? Fen.BLACK : 0));
+                }
+            }
+        }
+        fen.setBlackToMove(turn == Piece.Color.black);
+        int castling = 0;
+        for (int i = 0; i < 4; i++) {
+            int y = i < 2 ? 7 : 0;
+            Piece king = board[4][y], rook = board[i % 2 == 0 ? 7 : 0][y];
+            Piece.Color color = i < 2 ? Piece.Color.white : Piece.Color.black;
+            if (king != null && !king.isMoved() && king.getType() == Piece.Type.king && king.getColor() == color
+                    && rook != null && !rook.isMoved() && rook.getType() == Piece.Type.rook && rook.getColor() == color) {
+                castling |= 1 << i;
+            }
+        }
+        fen.setCastling(castling);
+        if (lastMove != null) {
+            int from = square(lastMove, 0), to = square(lastMove, 5);
+            Piece pawn = board[to >> 3][to & 7];
+            if (pawn != null && pawn.getType() == Piece.Type.pawn && Math.abs((from & 7) - (to & 7)) == 2) {
+                fen.setEnPassant((7 - ((from & 7) + (to & 7)) / 2) * 8 + (to >> 3));
+            }
+        }
+        fen.setHalfmoves(halfmoves);
+        fen.setFullmoves((step - 1) / 2 + 1);
+        return fen;
+    }
+
+    /**
+     * Write the state of the game in {@code PACKED_SIZE} bytes:
+     * <pre>
+     * bytes 0-31   a piece per half byte, square x * 8 + y, 0 for empty, type + 1 and 8 for black
+     * byte 32      bit 0 black to move, bits 1-2 white and black checked, bits 3-4 winner, 0 for none,
+     *              bits 5-7 the draw, ordinal + 1, 0 for none
+     * byte 33      kings and rooks not moved, see {@code CASTLING_SQUARES}
+     * bytes 34-35  start and end of the last move, x * 8 + y, 0xFF if none
+     * bytes 36-37  step
+     * byte 38      moves since the last capture or move of a pawn, unsigned, at most 255
+     * byte 39      not used
+     * </pre>
+     * The record is not kept, whether or not the other pieces moved
+     * is known from their squares as far as the rules need it.
+     * The positions before are not kept either, a repetition counts from the unpacked position.
+     *
+     * @param buffer the buffer, its position is not changed
+     * @param offset where to write
+     */
+    public void pack(ByteBuffer buffer, int offset) {
+        for (int x = 0; x < 8; x++) {
+            for (int y = 0; y < 8; y += 2) {
+                buffer.put(offset + x * 4 + y / 2, (byte) (code(board[x][y]) | code(board[x][y + 1]) << 4));
+            }
+        }
+        int flags = (turn == Piece.Color.black ? 1 : 0) | (whiteChecked ? 2 : 0) | (blackChecked ? 4 : 0)
+                | (winner == null ? 0 : winner == Piece.Color.white ? 8 : 16)
+                | (draw == null ? 0 : draw.ordinal() + 1) << 5;
+        buffer.put(offset + 32, (byte) flags);
+        int unmoved = 0;
+        for (int i = 0; i < CASTLING_SQUARES.length; i++) {
+            Piece piece = board[CASTLING_SQUARES[i][0]][CASTLING_SQUARES[i][1]];
+            if (piece != null && !piece.isMoved()) {
+                unmoved |= 1 << i;
+            }
+        }
+        buffer.put(offset + 33, (byte) unmoved);
+        //上一步的格式为 "E2 - E4"
+        buffer.put(offset + 34, (byte) (lastMove == null ? NO_SQUARE : square(lastMove, 0)));
+        buffer.put(offset + 35, (byte) (lastMove == null ? NO_SQUARE : square(lastMove, 5)));
+        buffer.putShort(offset + 36, (short) step);
+        buffer.put(offset + 38, (byte) Math.min(halfmoves, 0xFF));
+        buffer.put(offset + 39, (byte) 0);
+    }
+
+    /**
+     * Read a game written by {@code pack}
+     *
+     * @param buffer   the buffer, its position is not changed
+     * @param offset   where to read
+     * @param boardGUI the interface, {@code null} for none
+     * @return the board, with an empty record
+     */
+    public static Board unpack(ByteBuffer buffer, int offset, BoardGUI boardGUI) {
+        Board result = new Board(boardGUI);
+        int unmoved = buffer.get(offset + 33);
+        for (int x = 0; x < 8; x++) {
+            for (int y = 0; y < 8; y++) {
+                int code = buffer.get(offset + x * 4 + y / 2) >> (y % 2 * 4) & 15;
+                if (code == 0) {
+                    result.board[x][y] = null;
+                    continue;
+                }
+                Piece.Color color = (code & 8) == 0 ? Piece.Color.white : Piece.Color.black;
+                Piece.Type type = Piece.Type.values()[(code & 7) - 1];
+                Piece piece = new Piece(new Position(x, y), color, type);
+                //兵在起始行即未走过
+                boolean moved = type != Piece.Type.pawn || y != (color == Piece.Color.white ? 6 : 1);
+                for (int i = 0; i < CASTLING_SQUARES.length; i++) {
+                    if (CASTLING_SQUARES[i][0] == x && CASTLING_SQUARES[i][1] == y && (unmoved & 1 << i) != 0) {
+                        moved = false;
+                    }
+                }
+                piece.setMoved(moved);
+                result.board[x][y] = piece;
+            }
+        }
+        int flags = buffer.get(offset + 32);
+        result.turn = (flags & 1) != 0 ? Piece.Color.black : Piece.Color.white;
+        result.whiteChecked = (flags & 2) != 0;
+        result.blackChecked = (flags & 4) != 0;
+        result.winner = (flags & 8) != 0 ? Piece.Color.white : (flags & 16) != 0 ? Piece.Color.black : null;
+        int start = buffer.get(offset + 34) & 0xFF, end = buffer.get(offset + 35) & 0xFF;
+        if (start != NO_SQUARE) {
+            result.lastMove = new Position(start >> 3, start & 7).format() + " - " + new Position(end >> 3, end & 7).format();
+        }
+        int draw = flags >> 5 & 7;
+        result.draw = draw == 0 ? null : Draw.values()[draw - 1];
+        result.step = buffer.getShort(offset + 36) & 0xFFFF;
+        result.halfmoves = buffer.get(offset + 38) & 0xFF;
+        //新棋盘的初始局面不算
+        result.positions[0] = result.hash();
+        result.plies = 1;
+        return result;
+    }
+
+    private static int code(Piece piece) {
+        if (piece == null) {
+            return 0;
+        }
+        return piece.getType().ordinal() + 1 | (piece.getColor() == Piece.Color.black ? 8 : 0);
+    }
+
+    /**
+     * @param move  like {@code "E2 - E4"}
+     * @param index index of the letter of the square
+     * @return x * 8 + y
+     */
+    private static int square(String move, int index) {
+        return (move.charAt(index) - 'A') * 8 + 8 - (move.charAt(index + 1) - '0');
+    }
 }
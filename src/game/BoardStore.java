@@ -0,0 +1,138 @@
+package game;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class {@code BoardStore}
+ * Many games kept in little memory.
+ * A game not played for a while is packed into {@code Board.PACKED_SIZE} bytes
+ * of direct buffers outside the heap, and unpacked into a {@code Board} when it is needed again.
+ * The boards used last stay unpacked, the least recently used one is packed
+ * when there are more than the limit.
+ * The buffers are allocated in chunks as the games are added,
+ * the slot of a removed game is reused.
+ * <p>
+ * A store is not thread-safe, it is meant to be used by a single thread,
+ * for example one per shard of {@code SessionManager}.
+ *
+ * @see Board
+ */
+
+public class BoardStore {
+
+    /**
+     * games per chunk of memory
+     */
+    public static final int CHUNK = 4096;
+
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private final LinkedHashMap<Integer, Board> hot;
+
+    /**
+     * slots free to reuse
+     */
+    private int[] free = new int[16];
+    private int freeCount;
+    private int slots;
+    private int size;
+
+    /**
+     * @param maxHot boards kept unpacked at most
+     */
+    public BoardStore(int maxHot) {
+        hot = new LinkedHashMap<Integer, Board>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Board> eldest) {
+                if (size() <= maxHot) {
+                    return false;
+                }
+                write(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Add a game, it stays unpacked until it is the least recently used
+     *
+     * @return the handle of the game
+     */
+    public int add(Board board) {
+        int slot;
+        if (freeCount > 0) {
+            slot = free[--freeCount];
+        } else {
+            slot = slots++;
+            if (slot / CHUNK == chunks.size()) {
+                chunks.add(ByteBuffer.allocateDirect(CHUNK * Board.PACKED_SIZE));
+            }
+        }
+        size++;
+        hot.put(slot, board);
+        return slot;
+    }
+
+    /**
+     * @param handle handle of the game
+     * @return the board, unpacked if needed, changes to it are kept
+     */
+    public Board get(int handle) {
+        Board board = hot.get(handle);
+        if (board == null) {
+            board = Board.unpack(chunks.get(handle / CHUNK), handle % CHUNK * Board.PACKED_SIZE, null);
+            hot.put(handle, board);
+        }
+        return board;
+    }
+
+    /**
+     * Forget a game, its handle may be given to a new one
+     */
+    public void remove(int handle) {
+        hot.remove(handle);
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, free.length * 2);
+        }
+        free[freeCount++] = handle;
+        size--;
+    }
+
+    /**
+     * Pack all the boards, for example before the store is idle for long
+     */
+    public void packAll() {
+        for (Map.Entry<Integer, Board> entry : hot.entrySet()) {
+            write(entry.getKey(), entry.getValue());
+        }
+        hot.clear();
+    }
+
+    private void write(int slot, Board board) {
+        board.pack(chunks.get(slot / CHUNK), slot % CHUNK * Board.PACKED_SIZE);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of boards not packed
+     */
+    public int getHot() {
+        return hot.size();
+    }
+
+    /**
+     * @return bytes of the direct buffers
+     */
+    public long getOffHeapBytes() {
+        return (long) chunks.size() * CHUNK * Board.PACKED_SIZE;
+    }
+}
@@ -0,0 +1,430 @@
+package game;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Class {@code Fen}
+ * A position in Forsyth-Edwards Notation, read and written without creating any object,
+ * so one {@code Fen} can be reused for millions of positions, for example of a test suite.
+ * The text is read from a {@code CharSequence} or the bytes of a {@code ByteBuffer}, one char at a time,
+ * and the position is kept in the fields, then given to a {@code Board} by {@code setFen}
+ * or to the search board of the engine.
+ * <p>
+ * The squares are numbered from a1 = 0 to h8 = 63 and the pieces are the codes of the engine,
+ * 1 to 6 for pawn, knight, bishop, rook, queen and king, plus {@code BLACK} for black, 0 for empty.
+ * The move counters may be left out, then they are 0 and 1.
+ *
+ * @see Board#setFen(Fen)
+ * @see engine.SearchBoard
+ */
+
+public class Fen {
+
+    public static final String START = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    public static final int BLACK = 8;
+
+    public static final int WHITE_KING_SIDE = 1, WHITE_QUEEN_SIDE = 2, BLACK_KING_SIDE = 4, BLACK_QUEEN_SIDE = 8;
+
+    /**
+     * letters of the pieces by code, white in upper case
+     */
+    private static final String LETTERS = " PNBRQK  pnbrqk";
+
+    private static final String CASTLING = "KQkq";
+
+    private final byte[] squares = new byte[64];
+    private boolean blackToMove;
+    private int castling, enPassant = -1, halfmoves, fullmoves = 1;
+
+    /**
+     * where {@code parse} is reading, only used while parsing
+     */
+    private CharSequence text;
+    private ByteBuffer buffer;
+    private int index, end;
+
+    public Fen() {
+        parse(START);
+    }
+
+    /**
+     * @param fen like {@code rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1}
+     * @throws IllegalArgumentException if it is not a valid position
+     */
+    public Fen(CharSequence fen) {
+        parse(fen);
+    }
+
+    /**
+     * Read a position
+     *
+     * @param fen the position, spaces around it are ignored
+     * @throws IllegalArgumentException if it is not a valid position, the fields are then undefined
+     */
+    public void parse(CharSequence fen) {
+        parse(fen, 0, fen.length());
+    }
+
+    /**
+     * Read a position from a part of a text, for example a line of a file or a command
+     *
+     * @param fen   the text
+     * @param start index of the first char
+     * @param end   index after the last char
+     * @throws IllegalArgumentException if it is not a valid position, the fields are then undefined
+     */
+    public void parse(CharSequence fen, int start, int end) {
+        text = fen;
+        buffer = null;
+        read(start, end);
+    }
+
+    /**
+     * Read a position of ASCII bytes, up to the end of the line or of the buffer.
+     * The position of the buffer is moved after the line.
+     *
+     * @param fen the bytes, from its position
+     * @throws IllegalArgumentException if it is not a valid position, the fields are then undefined
+     */
+    public void parse(ByteBuffer fen) {
+        int start = fen.position(), end = start;
+        while (end < fen.limit() && fen.get(end) != '\n') {
+            end++;
+        }
+        fen.position(end < fen.limit() ? end + 1 : end);
+        text = null;
+        buffer = fen;
+        read(start, end > start && fen.get(end - 1) == '\r' ? end - 1 : end);
+    }
+
+    private char at(int i) {
+        return text != null ? text.charAt(i) : (char) (buffer.get(i) & 0xFF);
+    }
+
+    private void read(int start, int end) {
+        index = start;
+        this.end = end;
+        try {
+            spaces(false);
+            readBoard();
+            spaces(true);
+            char side = next();
+            if (side != 'w' && side != 'b') {
+                throw error("side to move");
+            }
+            blackToMove = side == 'b';
+            spaces(true);
+            readCastling();
+            spaces(true);
+            readEnPassant();
+            halfmoves = 0;
+            fullmoves = 1;
+            if (spaces(false)) {
+                halfmoves = number();
+                if (spaces(false)) {
+                    fullmoves = Math.max(number(), 1);
+                }
+            }
+            spaces(false);
+            if (index != end) {
+                throw error("end");
+            }
+        } finally {
+            text = null;
+            buffer = null;
+        }
+    }
+
+    private char next() {
+        if (index >= end) {
+            throw error("end");
+        }
+        return at(index++);
+    }
+
+    /**
+     * @param needed whether or not there must be a space
+     * @return whether or not there was a space, and more after it
+     */
+    private boolean spaces(boolean needed) {
+        int start = index;
+        while (index < end && (at(index) == ' ' || at(index) == '\t')) {
+            index++;
+        }
+        if (needed && index == start) {
+            throw error("space");
+        }
+        return index > start && index < end;
+    }
+
+    private void readBoard() {
+        int kings = 0;
+        for (int rank = 7; rank >= 0; rank--) {
+            int file = 0;
+            while (file < 8) {
+                char c = next();
+                if (c >= '1' && c <= '8') {
+                    if (file + c - '0' > 8) {
+                        throw error("board");
+                    }
+                    for (int n = c - '0'; n > 0; n--) {
+                        squares[rank * 8 + file++] = 0;
+                    }
+                    continue;
+                }
+                int piece = c == ' ' ? -1 : LETTERS.indexOf(c);
+                if (piece <= 0) {
+                    throw error("board");
+                }
+                if ((piece & 7) == 6) {
+                    kings += (piece & BLACK) == 0 ? 1 : 16;
+                }
+                squares[rank * 8 + file++] = (byte) piece;
+            }
+            if (rank > 0 && next() != '/') {
+                throw error("board");
+            }
+        }
+        if (kings != 17) {
+            throw error("kings");
+        }
+    }
+
+    private void readCastling() {
+        castling = 0;
+        if (index < end && at(index) == '-') {
+            index++;
+            return;
+        }
+        while (index < end && at(index) != ' ') {
+            int right = CASTLING.indexOf(at(index++));
+            if (right < 0) {
+                throw error("castling");
+            }
+            castling |= 1 << right;
+        }
+        if (castling == 0) {
+            throw error("castling");
+        }
+    }
+
+    private void readEnPassant() {
+        char file = next();
+        if (file == '-') {
+            enPassant = -1;
+            return;
+        }
+        char rank = next();
+        if (file < 'a' || file > 'h' || rank != (blackToMove ? '3' : '6')) {
+            throw error("en passant");
+        }
+        enPassant = (rank - '1') * 8 + file - 'a';
+    }
+
+    private int number() {
+        int result = 0, start = index;
+        while (index < end && at(index) >= '0' && at(index) <= '9') {
+            result = result * 10 + at(index++) - '0';
+            if (result > 1 << 24) {
+                throw error("counter");
+            }
+        }
+        if (index == start) {
+            throw error("counter");
+        }
+        return result;
+    }
+
+    private IllegalArgumentException error(String field) {
+        String fen = text != null ? text.subSequence(Math.min(index, end), end).toString() : "";
+        return new IllegalArgumentException("bad FEN " + field + " at " + index + (fen.isEmpty() ? "" : ": " + fen));
+    }
+
+    /**
+     * Write the position
+     *
+     * @param output where to append
+     * @return the output
+     */
+    public StringBuilder write(StringBuilder output) {
+        for (int rank = 7; rank >= 0; rank--) {
+            int empty = 0;
+            for (int file = 0; file < 8; file++) {
+                int piece = squares[rank * 8 + file];
+                if (piece == 0) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) {
+                    output.append((char) ('0' + empty));
+                    empty = 0;
+                }
+                output.append(LETTERS.charAt(piece));
+            }
+            if (empty > 0) {
+                output.append((char) ('0' + empty));
+            }
+            if (rank > 0) {
+                output.append('/');
+            }
+        }
+        output.append(blackToMove ? " b " : " w ");
+        if (castling == 0) {
+            output.append('-');
+        }
+        for (int i = 0; i < 4; i++) {
+            if ((castling & 1 << i) != 0) {
+                output.append(CASTLING.charAt(i));
+            }
+        }
+        output.append(' ');
+        if (enPassant < 0) {
+            output.append('-');
+        } else {
+            output.append((char) ('a' + (enPassant & 7))).append((char) ('1' + (enPassant >> 3)));
+        }
+        return output.append(' ').append(halfmoves).append(' ').append(fullmoves);
+    }
+
+    /**
+     * Write the position as ASCII bytes, without the end of the line
+     *
+     * @param output where to put it, from its position
+     */
+    public void write(ByteBuffer output) {
+        for (int rank = 7; rank >= 0; rank--) {
+            int empty = 0;
+            for (int file = 0; file < 8; file++) {
+                int piece = squares[rank * 8 + file];
+                if (piece == 0) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) {
+                    output.put((byte) ('0' + empty));
+                    empty = 0;
+                }
+                output.put((byte) LETTERS.charAt(piece));
+            }
+            if (empty > 0) {
+                output.put((byte) ('0' + empty));
+            }
+            if (rank > 0) {
+                output.put((byte) '/');
+            }
+        }
+        output.put((byte) ' ').put((byte) (blackToMove ? 'b' : 'w')).put((byte) ' ');
+        if (castling == 0) {
+            output.put((byte) '-');
+        }
+        for (int i = 0; i < 4; i++) {
+            if ((castling & 1 << i) != 0) {
+                output.put((byte) CASTLING.charAt(i));
+            }
+        }
+        output.put((byte) ' ');
+        if (enPassant < 0) {
+            output.put((byte) '-');
+        } else {
+            output.put((byte) ('a' + (enPassant & 7))).put((byte) ('1' + (enPassant >> 3)));
+        }
+        output.put((byte) ' ');
+        put(output, halfmoves);
+        output.put((byte) ' ');
+        put(output, fullmoves);
+    }
+
+    private static void put(ByteBuffer output, int number) {
+        int digits = 1;
+        for (int n = number; n >= 10; n /= 10) {
+            digits *= 10;
+        }
+        for (; digits > 0; digits /= 10) {
+            output.put((byte) ('0' + number / digits % 10));
+        }
+    }
+
+    /**
+     * Clear the board, for setting a position piece by piece
+     */
+    public void clear() {
+        for (int i = 0; i < 64; i++) {
+            squares[i] = 0;
+        }
+        blackToMove = false;
+        castling = 0;
+        enPassant = -1;
+        halfmoves = 0;
+        fullmoves = 1;
+    }
+
+    /**
+     * @param square a1 = 0 to h8 = 63
+     * @return the code of the piece, 0 for empty
+     */
+    public int getPiece(int square) {
+        return squares[square];
+    }
+
+    public void setPiece(int square, int piece) {
+        squares[square] = (byte) piece;
+    }
+
+    public boolean isBlackToMove() {
+        return blackToMove;
+    }
+
+    public void setBlackToMove(boolean blackToMove) {
+        this.blackToMove = blackToMove;
+    }
+
+    /**
+     * @return bits of {@code WHITE_KING_SIDE} and the others
+     */
+    public int getCastling() {
+        return castling;
+    }
+
+    public void setCastling(int castling) {
+        this.castling = castling;
+    }
+
+    /**
+     * @return square the pawn can be taken on, {@code -1} if none
+     */
+    public int getEnPassant() {
+        return enPassant;
+    }
+
+    public void setEnPassant(int enPassant) {
+        this.enPassant = enPassant;
+    }
+
+    /**
+     * @return moves since the last capture or move of a pawn
+     */
+    public int getHalfmoves() {
+        return halfmoves;
+    }
+
+    public void setHalfmoves(int halfmoves) {
+        this.halfmoves = halfmoves;
+    }
+
+    /**
+     * @return number of the move, it starts from 1 and grows after the move of black
+     */
+    public int getFullmoves() {
+        return fullmoves;
+    }
+
+    public void setFullmoves(int fullmoves) {
+        this.fullmoves = fullmoves;
+    }
+
+    @Override
+    public String toString() {
+        return write(new StringBuilder(90)).toString();
+    }
+}
@@ -44,7 +44,7 @@ public class Piece {
 
     public void setType(Type type) {
         this.type = type;
-        this.image = new Image("file:assets/" + color + type + ".png");
+        this.image = null;
     }
 
     private Type type;
@@ -61,11 +61,15 @@ public class Piece {
     }
 
     /**
-     * picture of a chessman
+     * picture of a chessman, loaded when first drawn,
+     * so a board without an interface does not need JavaFX
      */
     private Image image;
 
     public Image getImage() {
+        if (image == null) {
+            image = new Image("file:assets/" + color + type + ".png");
+        }
         return image;
     }
 
@@ -124,7 +128,6 @@ public class Piece {
         this.type = type;
         this.position = position;
         this.color = color;
-        this.image = new Image("file:assets/" + color + type + ".png");
         moved = false;
     }
 
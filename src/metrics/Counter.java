@@ -0,0 +1,28 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class {@code Counter}
+ * A count that only goes up, kept in a {@code LongAdder}
+ * so the threads counting at the same time do not fight over one cache line.
+ *
+ * @see Registry
+ */
+
+public class Counter {
+
+    private final LongAdder value = new LongAdder();
+
+    public void increment() {
+        value.increment();
+    }
+
+    public void add(long amount) {
+        value.add(amount);
+    }
+
+    public long get() {
+        return value.sum();
+    }
+}
@@ -0,0 +1,34 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Class {@code FrameEvent}
+ * Flight Recorder event of a redraw of the board by {@code BoardGUI}.
+ * It is off by default.
+ *
+ * @see GUI.BoardGUI
+ */
+
+@Name("chess.BoardDraw")
+@Label("Board Draw")
+@Category({"Chess", "Render"})
+@Description("A redraw of the canvas of the board")
+@Enabled(false)
+@StackTrace(false)
+public class FrameEvent extends jdk.jfr.Event {
+
+    @Label("Pieces")
+    public int pieces;
+
+    @Label("Dragging")
+    public boolean dragging;
+
+    @Label("Step")
+    public int step;
+}
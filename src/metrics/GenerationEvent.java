@@ -0,0 +1,38 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Class {@code GenerationEvent}
+ * Flight Recorder event of a call of {@code Board.getAllMoves}, the moves of a piece.
+ * There are hundreds of them in a move, so besides being off by default
+ * only calls longer than the threshold are written unless it is changed.
+ *
+ * @see MoveEvent
+ */
+
+@Name("chess.MoveGeneration")
+@Label("Move Generation")
+@Category({"Chess", "Game"})
+@Description("The moves of a piece generated by Board.getAllMoves")
+@Enabled(false)
+@Threshold("20 us")
+@StackTrace(false)
+public class GenerationEvent extends jdk.jfr.Event {
+
+    @Label("Piece")
+    public String piece;
+
+    @Label("Color")
+    public String color;
+
+    @Label("Moves")
+    @Description("Squares the piece can go to")
+    public int moves;
+}
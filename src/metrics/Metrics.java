@@ -0,0 +1,134 @@
+package metrics;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Class {@code Metrics}
+ * The registry of the program and the metrics of the hot paths,
+ * kept in static fields so recording one is a single call.
+ * Recording can be turned off by {@code -Dchess.metrics=false} or {@code setEnabled},
+ * the hot paths check {@code isEnabled} before reading the clock,
+ * and only one move in {@code SAMPLE} of a board is timed, so the cost stays below 1%.
+ * The metrics are served over HTTP on the port given by {@code -Dchess.metrics.port}, see {@code serve}.
+ *
+ * @see Registry
+ * @see MetricsServer
+ */
+
+public final class Metrics {
+
+    private static final Registry REGISTRY = new Registry();
+
+    private static volatile boolean enabled = !"false".equals(System.getProperty("chess.metrics"));
+
+    /**
+     * a move of a board in this number is timed, the counts of the others are added at the same time
+     */
+    public static final int SAMPLE = 8;
+
+    public static final Histogram MOVE_VALIDATION = REGISTRY.histogram("chess_move_validation_seconds",
+            "Time of Board.move, checking and playing a move, one move in " + SAMPLE + " of a board is timed");
+
+    public static final Counter MOVES_VALIDATED = REGISTRY.counter("chess_moves_validated_total",
+            "Calls of Board.move, added every " + SAMPLE + " moves of a board");
+
+    public static final Counter GENERATION_CALLS = REGISTRY.counter("chess_move_generation_calls_total",
+            "Calls of Board.getAllMoves");
+
+    public static final Counter MOVES_GENERATED = REGISTRY.counter("chess_moves_generated_total",
+            "Squares returned by Board.getAllMoves, divided by the calls it is the moves per call");
+
+    public static final Counter ATTACK_FIELDS = REGISTRY.counter("chess_attack_field_calls_total",
+            "Calls of Board.getAttackFieldOfType");
+
+    public static final Histogram SOCKET_SEND = REGISTRY.histogram("chess_socket_send_seconds",
+            "Time to write a frame to the room server");
+
+    public static final Histogram SOCKET_RTT = REGISTRY.histogram("chess_socket_rtt_seconds",
+            "Round-trip time of the pings to the room server");
+
+    public static final Counter FRAMES_RECEIVED = REGISTRY.counter("chess_socket_frames_received_total",
+            "Frames read from the room server");
+
+    public static final Histogram ROOM_RELAY = REGISTRY.histogram("chess_room_relay_seconds",
+            "Time of the room server to relay a move to the other seat and the spectators");
+
+    public static final Histogram ENGINE_SEARCH = REGISTRY.histogram("chess_engine_search_seconds",
+            "Time of a search of the computer player");
+
+    public static final Counter ENGINE_NODES = REGISTRY.counter("chess_engine_nodes_total",
+            "Nodes searched by the computer player");
+
+    static {
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            REGISTRY.gauge("chess_jvm_gc_collections_total", "Collections of a garbage collector",
+                    collector::getCollectionCount, "gc", collector.getName());
+            REGISTRY.gauge("chess_jvm_gc_seconds_total", "Time spent by a garbage collector",
+                    () -> collector.getCollectionTime() / 1000.0, "gc", collector.getName());
+        }
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        REGISTRY.gauge("chess_jvm_heap_used_bytes", "Heap in use",
+                () -> memory.getHeapMemoryUsage().getUsed());
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+            //只统计仍在运行的线程
+            REGISTRY.gauge("chess_jvm_allocated_bytes", "Bytes allocated by the live threads",
+                    () -> {
+                        long total = 0;
+                        for (long bytes : allocation.getThreadAllocatedBytes(allocation.getAllThreadIds())) {
+                            total += Math.max(bytes, 0);
+                        }
+                        return total;
+                    });
+        }
+    }
+
+    private Metrics() {
+    }
+
+    public static Registry registry() {
+        return REGISTRY;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+
+    /**
+     * Count an error instead of printing it
+     *
+     * @param where the operation that failed, like {@code "send"}
+     * @param e     the error, its class is a label
+     */
+    public static void error(String where, Throwable e) {
+        REGISTRY.counter("chess_errors_total", "Errors by operation and exception",
+                "where", where, "exception", e.getClass().getSimpleName()).increment();
+    }
+
+    /**
+     * Serve the metrics if {@code -Dchess.metrics.port} is given
+     *
+     * @return the server, {@code null} if no port is given or it can not be bound
+     */
+    public static MetricsServer serve() {
+        Integer port = Integer.getInteger("chess.metrics.port");
+        if (port == null) {
+            return null;
+        }
+        try {
+            return new MetricsServer(port, REGISTRY);
+        } catch (IOException e) {
+            error("metrics", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Class {@code MetricsServer}
+ * Serve a registry at {@code http://127.0.0.1:port/metrics} for Prometheus,
+ * only on the loopback address, with a single thread.
+ *
+ * @see Registry
+ */
+
+public class MetricsServer implements Closeable {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * @param port     the port, {@code 0} for any free one
+     * @param registry the metrics to serve
+     * @throws IOException if the port can not be bound
+     */
+    public MetricsServer(int port, Registry registry) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-" + port);
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/metrics", exchange -> {
+            try {
+                StringBuilder text = new StringBuilder(4096);
+                registry.write(text);
+                respond(exchange, 200, text.toString());
+            } catch (RuntimeException e) {
+                respond(exchange, 500, e.toString());
+            }
+        });
+        server.start();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    /**
+     * @return the port bound
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdown();
+    }
+}
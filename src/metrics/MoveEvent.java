@@ -0,0 +1,46 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Class {@code MoveEvent}
+ * Flight Recorder event of a call of {@code Board.move}, with its duration.
+ * It is off by default, turn it on in the settings of a recording, for example
+ * {@code -XX:StartFlightRecording=settings=chess.jfc} with {@code chess.Move#enabled=true},
+ * when it is off creating one is optimized away.
+ *
+ * @see GenerationEvent
+ */
+
+@Name("chess.Move")
+@Label("Move")
+@Category({"Chess", "Game"})
+@Description("A move checked and played by Board.move")
+@Enabled(false)
+@StackTrace(false)
+public class MoveEvent extends jdk.jfr.Event {
+
+    @Label("From")
+    public String from;
+
+    @Label("To")
+    public String to;
+
+    @Label("Piece")
+    public String piece;
+
+    @Label("Color")
+    public String color;
+
+    @Label("Step")
+    @Description("Number of the step, it starts from 1")
+    public int step;
+
+    @Label("Legal")
+    public boolean legal;
+}
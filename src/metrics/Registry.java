@@ -0,0 +1,175 @@
+package metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Class {@code Registry}
+ * Named counters, histograms and gauges, written in the text exposition format of Prometheus.
+ * A metric is found by its name and labels, registering it again returns the same one,
+ * so it is registered once in a static field and used without any lookup.
+ * The histograms record nanoseconds and are written in seconds,
+ * with the buckets of {@code BOUNDS}.
+ *
+ * @see Metrics
+ * @see MetricsServer
+ */
+
+public class Registry {
+
+    /**
+     * upper bounds of the buckets written for the histograms, in nanoseconds
+     */
+    public static final long[] BOUNDS = {
+            1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000,
+            1000000, 2500000, 5000000, 10000000, 25000000, 50000000, 100000000, 250000000, 500000000,
+            1000000000, 2500000000L, 5000000000L, 10000000000L};
+
+    /**
+     * Class {@code Family}
+     * the metrics of a name, one for every set of labels
+     */
+    private static class Family {
+        private final String type, help;
+        private final Map<String, Object> metrics = new LinkedHashMap<>();
+
+        private Family(String type, String help) {
+            this.type = type;
+            this.help = help;
+        }
+    }
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    /**
+     * @param name   name like {@code chess_moves_total}
+     * @param help   one line of description
+     * @param labels names and values of the labels, one after the other
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) register(name, "counter", help, labels, new Counter());
+    }
+
+    /**
+     * @param name   name like {@code chess_move_seconds}, the values are recorded in nanoseconds
+     * @param help   one line of description
+     * @param labels names and values of the labels, one after the other
+     */
+    public Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) register(name, "histogram", help, labels, new Histogram());
+    }
+
+    /**
+     * A value read when the metrics are written, replacing the gauge of the same name and labels
+     *
+     * @param name   name like {@code chess_rooms_active}
+     * @param help   one line of description
+     * @param value  read on the thread writing the metrics
+     * @param labels names and values of the labels, one after the other
+     */
+    public synchronized void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, "gauge", help).metrics.put(labels(labels), value);
+    }
+
+    /**
+     * Forget a metric, for example the gauge of a stopped server
+     */
+    public synchronized void remove(String name, String... labels) {
+        Family family = families.get(name);
+        if (family != null) {
+            family.metrics.remove(labels(labels));
+        }
+    }
+
+    private synchronized Object register(String name, String type, String help, String[] labels, Object metric) {
+        Object old = family(name, type, help).metrics.putIfAbsent(labels(labels), metric);
+        return old != null ? old : metric;
+    }
+
+    private Family family(String name, String type, String help) {
+        Family family = families.computeIfAbsent(name, key -> new Family(type, help));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(name + " is a " + family.type);
+        }
+        return family;
+    }
+
+    /**
+     * @return the labels like {@code op="send",peer="host"}, empty for none
+     */
+    private static String labels(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("labels must be names and values");
+        }
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                result.append(',');
+            }
+            result.append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return result.toString();
+    }
+
+    /**
+     * Write all the metrics in the text format of Prometheus
+     *
+     * @param output where to write
+     * @throws IOException if the output fails
+     */
+    public void write(Appendable output) throws IOException {
+        List<Map.Entry<String, Family>> snapshot;
+        List<List<Map.Entry<String, Object>>> metrics = new ArrayList<>();
+        synchronized (this) {
+            snapshot = new ArrayList<>(families.entrySet());
+            for (Map.Entry<String, Family> entry : snapshot) {
+                metrics.add(new ArrayList<>(entry.getValue().metrics.entrySet()));
+            }
+        }
+        for (int i = 0; i < snapshot.size(); i++) {
+            String name = snapshot.get(i).getKey();
+            Family family = snapshot.get(i).getValue();
+            if (metrics.get(i).isEmpty()) {
+                continue;
+            }
+            output.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            output.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> entry : metrics.get(i)) {
+                String labels = entry.getKey();
+                Object metric = entry.getValue();
+                if (metric instanceof Counter) {
+                    sample(output, name, labels, Long.toString(((Counter) metric).get()));
+                } else if (metric instanceof DoubleSupplier) {
+                    sample(output, name, labels, Double.toString(((DoubleSupplier) metric).getAsDouble()));
+                } else {
+                    Histogram histogram = (Histogram) metric;
+                    //先读总数，桶的计数不会超过它
+                    long count = histogram.getCount(), sum = histogram.getSum();
+                    long[] cumulative = histogram.getCumulativeCounts(BOUNDS);
+                    String prefix = labels.isEmpty() ? "" : labels + ",";
+                    for (int j = 0; j < BOUNDS.length; j++) {
+                        sample(output, name + "_bucket", prefix + "le=\"" + BOUNDS[j] / 1e9 + "\"",
+                                Long.toString(Math.min(cumulative[j], count)));
+                    }
+                    sample(output, name + "_bucket", prefix + "le=\"+Inf\"", Long.toString(count));
+                    sample(output, name + "_sum", labels, Double.toString(sum / 1e9));
+                    sample(output, name + "_count", labels, Long.toString(count));
+                }
+            }
+        }
+    }
+
+    private static void sample(Appendable output, String name, String labels, String value) throws IOException {
+        output.append(name);
+        if (!labels.isEmpty()) {
+            output.append('{').append(labels).append('}');
+        }
+        output.append(' ').append(value).append('\n');
+    }
+}
@@ -0,0 +1,47 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Class {@code SocketEvent}
+ * Flight Recorder event of a frame written or read by {@code MSocket}.
+ * The duration of a read is the time the frame took to arrive after the previous one,
+ * so it is not a cost of the program.
+ * It is off by default.
+ *
+ * @see socket.MSocket
+ */
+
+@Name("chess.SocketFrame")
+@Label("Socket Frame")
+@Category({"Chess", "Network"})
+@Description("A frame sent to or received from the room server")
+@Enabled(false)
+@StackTrace(false)
+public class SocketEvent extends jdk.jfr.Event {
+
+    @Label("Direction")
+    @Description("send or receive")
+    public String direction;
+
+    @Label("Kind")
+    @Description("First word of the frame, like M for a move or P for a ping")
+    public String kind;
+
+    @Label("Bytes")
+    @DataAmount
+    public int bytes;
+
+    @Label("Host")
+    public String host;
+
+    @Label("Room")
+    @Description("Room number if watching as a spectator")
+    public String room;
+}
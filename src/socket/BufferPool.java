@@ -0,0 +1,65 @@
+package socket;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class {@code BufferPool}
+ * A pool of direct buffers of the same size.
+ * Direct buffers are expensive to allocate and are freed only by the garbage collector,
+ * so the buffers of the connections are taken from the pool and given back when closed.
+ * At most {@code max} free buffers are kept.
+ *
+ * @see TlsChannel
+ */
+
+public class BufferPool {
+
+    private final int size;
+    private final int max;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger count = new AtomicInteger();
+
+    public BufferPool(int size, int max) {
+        this.size = size;
+        this.max = max;
+    }
+
+    /**
+     * @return a cleared buffer of {@code getSize()} bytes
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(size);
+        }
+        count.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Give back a buffer, it must not be used any more
+     *
+     * @param buffer buffer from {@code acquire()}
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != size || !buffer.isDirect()) {
+            return;
+        }
+        if (count.incrementAndGet() > max) {
+            count.decrementAndGet();
+            return;
+        }
+        free.add(buffer);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getFree() {
+        return count.get();
+    }
+}
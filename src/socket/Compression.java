@@ -0,0 +1,95 @@
+package socket;
+
+import game.Fen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Class {@code Compression}
+ * Per-message compression of the board snapshots.
+ * A snapshot is deflated with the FEN of the starting position as preset dictionary,
+ * so the ranks not changed yet cost almost nothing,
+ * and the result is sent as Base64 to stay a {@code writeUTF} string.
+ * Moves are a few bytes and are never compressed.
+ * <p>
+ * It is negotiated when connecting: the client sends {@code Options deflate}
+ * and the room server answers with the options it accepts.
+ * It can be turned off by {@code -Dchess.compress=false}.
+ *
+ * @see MSocket
+ * @see RoomServer
+ */
+
+public class Compression {
+
+    public static final String NAME = "deflate";
+
+    private static final byte[] DICTIONARY = dictionary();
+
+    private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    public static boolean isEnabled() {
+        return !"false".equals(System.getProperty("chess.compress"));
+    }
+
+    /**
+     * The FEN of the starting position
+     */
+    private static byte[] dictionary() {
+        return Fen.START.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param text the text, usually a snapshot of the board
+     * @return the deflated text in Base64
+     */
+    public static String compress(String text) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(text.getBytes(StandardCharsets.UTF_8));
+        deflater.finish();
+        ByteArrayOutputStream output = new ByteArrayOutputStream(text.length() / 2 + 16);
+        byte[] buffer = new byte[256];
+        while (!deflater.finished()) {
+            output.write(buffer, 0, deflater.deflate(buffer));
+        }
+        return Base64.getEncoder().encodeToString(output.toByteArray());
+    }
+
+    /**
+     * @param data the result of {@code compress}
+     * @return the text
+     * @throws IOException if the data is broken
+     */
+    public static String decompress(String data) throws IOException {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setDictionary(DICTIONARY);
+        try {
+            inflater.setInput(Base64.getDecoder().decode(data));
+            ByteArrayOutputStream output = new ByteArrayOutputStream(data.length() * 4);
+            byte[] buffer = new byte[256];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated compressed message");
+                }
+                output.write(buffer, 0, count);
+                if (output.size() > 65535) {
+                    throw new IOException("Compressed message too large");
+                }
+            }
+            return new String(output.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException | DataFormatException e) {
+            throw new IOException("Broken compressed message", e);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package socket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Class {@code FlakyProxy}
+ * A local TCP proxy that drops connections at random,
+ * used to test resuming of {@code MSocket} sessions.
+ * <p>
+ * For example, start the host normally (room server on 8888),
+ * start {@code java socket.FlakyProxy 9999 127.0.0.1 8888 3000}
+ * and start the guest with {@code -Dchess.port=9999},
+ * every connection through the proxy will be cut within 3 seconds on average.
+ * The guest enters the room number shown by the host, which ends with its address.
+ *
+ * @see MSocket
+ * @see RoomServer
+ */
+
+public class FlakyProxy {
+
+    private final int port;
+    private final String targetHost;
+    private final int targetPort;
+
+    /**
+     * average lifetime of a connection in milliseconds
+     */
+    private final long dropInterval;
+
+    private final CopyOnWriteArrayList<Socket> sockets = new CopyOnWriteArrayList<>();
+    private final Random random = new Random();
+
+    public FlakyProxy(int port, String targetHost, int targetPort, long dropInterval) {
+        this.port = port;
+        this.targetHost = targetHost;
+        this.targetPort = targetPort;
+        this.dropInterval = dropInterval;
+    }
+
+    public void run() throws IOException {
+        ServerSocket server = new ServerSocket(port);
+        Thread dropper = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep((long) (dropInterval * 2 * random.nextDouble()));
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (Socket socket : sockets) {
+                    close(socket);
+                }
+                sockets.clear();
+                System.out.println("connections dropped");
+            }
+        });
+        dropper.setDaemon(true);
+        dropper.start();
+
+        while (true) {
+            Socket from = server.accept();
+            Socket to;
+            try {
+                to = new Socket(targetHost, targetPort);
+            } catch (IOException e) {
+                e.printStackTrace();
+                close(from);
+                continue;
+            }
+            sockets.add(from);
+            sockets.add(to);
+            pipe(from, to);
+            pipe(to, from);
+        }
+    }
+
+    private void pipe(Socket from, Socket to) {
+        Thread thread = new Thread(() -> {
+            byte[] buffer = new byte[4096];
+            try {
+                InputStream input = from.getInputStream();
+                OutputStream output = to.getOutputStream();
+                int length;
+                while ((length = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, length);
+                }
+            } catch (IOException e) {
+                //连接被丢弃
+            }
+            close(from);
+            close(to);
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            System.out.println("usage: FlakyProxy <port> <target host> <target port> <drop interval ms>");
+            return;
+        }
+        new FlakyProxy(Integer.parseInt(args[0]), args[1], Integer.parseInt(args[2]), Long.parseLong(args[3])).run();
+    }
+}
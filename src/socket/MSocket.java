@@ -1,40 +1,180 @@
 package socket;
 
+import metrics.Histogram;
+import metrics.Metrics;
+import metrics.SocketEvent;
+
 import java.io.*;
 import java.net.InetAddress;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Class {@code MSocket}
- * Socket and ServerSocket are encapsulated
- * to connect and transmit information to players play online-game
+ * Socket is encapsulated
+ * to connect and transmit information to players play online-game.
+ * Both players connect to a {@code RoomServer}, given by {@code -Dchess.server},
+ * or started by the host of the game if no server is given,
+ * if the connection is broken the session is resumed
+ * and only the missed messages are transmitted again.
+ * <p>
+ * A reader thread keeps reading the connection, pings are sent every
+ * {@code HEARTBEAT_INTERVAL} and answered by the room server,
+ * so the round-trip time is measured all the time, and a connection
+ * without any frame for {@code DEAD_PEER_DEADLINE} is taken as broken.
+ * <p>
+ * The connection is encrypted if {@code Tls} is enabled,
+ * and the snapshots are compressed if the room server accepts {@code Compression}.
+ *
+ * @see RoomServer
+ * @see Tls
  */
 
 public class MSocket {
-    private ServerSocket server;
+
+    /**
+     * How long to keep trying to resume a broken connection
+     */
+    public static final long RESUME_TIMEOUT = 30 * 1000;
+
+    public static final long HEARTBEAT_INTERVAL = 2 * 1000;
+
+    public static final long DEAD_PEER_DEADLINE = 8 * 1000;
+
+    /**
+     * returned by {@code receive()} after {@code disconnect()}
+     */
+    public static final String CLOSED = "Closed";
+
+    /**
+     * one thread sends the pings of all the connections
+     */
+    private static final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private RoomServer server;
     private Socket client;
+    private TlsChannel tls;
     private DataInputStream input;
     private DataOutputStream output;
 
+    /**
+     * address of the room server, {@code null} to start one on this machine
+     */
+    private String serverHost;
+
+    /**
+     * port of the room server
+     */
+    private int port;
+
+    /**
+     * address of the current connection
+     */
+    private String host;
+
+    /**
+     * session token given by the room server
+     */
+    private String token;
+
+    /**
+     * the last sequence number received,
+     * for a spectator it is the number of frames of the room received
+     */
+    private long received;
+
+    /**
+     * room number if watching as a spectator
+     */
+    private String watching;
+
+    /**
+     * sent messages, resent after resuming
+     */
+    private MoveJournal sent;
+
+    /**
+     * whether or not the room server accepted to compress the snapshots
+     */
+    private boolean compress;
+
+    /**
+     * messages read by the reader thread
+     */
+    private final LinkedBlockingQueue<String> inbox = new LinkedBlockingQueue<>();
+    private ScheduledFuture<?> heartbeat;
+    private long heartbeatInterval, deadline;
+    private volatile boolean closed;
+
+    /**
+     * round-trip time of the pings in nanoseconds
+     */
+    private final Histogram rtt = new Histogram();
+    private volatile long smoothedRtt;
+
     /**
      * Whether or not connect has been successfully built
      */
-    public boolean connect;
+    public volatile boolean connect;
 
+    /**
+     * The server is given by {@code -Dchess.server},
+     * the port can be changed by {@code -Dchess.port},
+     * for example to connect through a local proxy
+     */
     public MSocket() {
+        this(System.getProperty("chess.server"), Integer.getInteger("chess.port", RoomServer.DEFAULT_PORT));
+    }
+
+    public MSocket(int port) {
+        this(null, port);
+    }
+
+    public MSocket(String serverHost, int port) {
+        this.serverHost = serverHost;
         server = null;
         client = null;
         input = null;
         output = null;
         connect = false;
+        this.port = port;
+        received = 0;
+        sent = new MoveJournal();
+        heartbeatInterval = HEARTBEAT_INTERVAL;
+        deadline = DEAD_PEER_DEADLINE;
+        closed = false;
+        smoothedRtt = -1;
+    }
+
+    /**
+     * Change the heartbeat, must be called before connecting
+     *
+     * @param interval milliseconds between two pings
+     * @param deadline milliseconds without any frame after which the connection is broken
+     */
+    public void setHeartbeat(long interval, long deadline) {
+        heartbeatInterval = interval;
+        this.deadline = deadline;
     }
 
     /**
      * create a game room and return room number
-     * room number is a 8-byte string,
-     * the HEX representation of server's IP address
+     * room number is a 8-byte random code given by the room server,
+     * if the room server is started on this machine,
+     * it is followed by {@code @} and the IP address of this machine
      *
      * @return room number
      */
@@ -43,24 +183,32 @@ public class MSocket {
             return "Error";
         }
         try {
-            server = new ServerSocket(8888);
-            //server需要在外网或和client同一局域网网段
-            String roomNumber;
-            String ip = InetAddress.getLocalHost().getHostAddress();
-            String num[] = ip.split("\\.");
-            for (int i = 0; i < 4; i++) {
-                num[i] = Integer.toHexString(Integer.parseInt(num[i])).toUpperCase();
-                if (num[i].length() == 1) {
-                    num[i] = "0" + num[i];
-                }
+            String address = serverHost;
+            if (address == null) {
+                //未配置服务器时在本机创建，需要在外网或和client同一局域网网段
+                server = new RoomServer(port);
+                server.start();
+                address = "127.0.0.1";
+            }
+            open(address);
+            output.writeUTF("Create");
+            String[] result = input.readUTF().split(" ");
+            if (!"Room".equals(result[0])) {
+                disconnect();
+                return "Error";
             }
-            roomNumber = num[0] + num[1] + num[2] + num[3];
-            return roomNumber;
+            token = result[2];
+            start();
+            if (server != null) {
+                return result[1] + "@" + InetAddress.getLocalHost().getHostAddress();
+            }
+            return result[1];
         } catch (UnknownHostException e) {
-            e.printStackTrace();
+            Metrics.error("socket-create", e);
             return "Error";
         } catch (IOException e) {
-            e.printStackTrace();
+            Metrics.error("socket-create", e);
+            disconnect();
             return "Error";
         }
     }
@@ -68,8 +216,6 @@ public class MSocket {
     /**
      * enter a room
      * It may take a lot of time and should be executed in a sub thread
-     * If the connection is not successfully built in 100 seconds,
-     * it will stop and return {@code false}
      * If successfully receive message, it will return {@code true}
      *
      * @param roomNumber room number
@@ -80,33 +226,90 @@ public class MSocket {
             return false;
         }
         try {
-            String ip = "";
-            for (int i = 0; i < 4; i++) {
-                ip += Integer.valueOf(roomNumber.substring(i * 2, i * 2 + 2), 16) + ".";
-            }
-            ip = ip.substring(0, ip.length() - 1);
-            client = new Socket(ip, 8888);
-
-            input = new DataInputStream(client.getInputStream());
-            output = new DataOutputStream(client.getOutputStream());
-            output.writeUTF("OK");
+            open(address(roomNumber));
+            output.writeUTF("Join " + code(roomNumber));
 
-            String result = input.readUTF();
-            if ("OK".equals(result)) {
+            String[] result = input.readUTF().split(" ");
+            if ("Joined".equals(result[0]) && "OK".equals(input.readUTF())) {
+                token = result[1];
                 connect = true;
+                start();
                 return true;
             } else {
                 return false;
             }
         } catch (UnknownHostException e) {
-            e.printStackTrace();
+            Metrics.error("socket-join", e);
             return false;
-        } catch (IOException e) {
-            e.printStackTrace();
+        } catch (IOException | RuntimeException e) {
+            Metrics.error("socket-join", e);
             return false;
         }
     }
 
+    /**
+     * watch a room as a spectator,
+     * the received messages start with the snapshot of the board
+     *
+     * @param roomNumber room number
+     * @return Whether or not it has been successfully connected
+     * @see SpectatorChannel
+     */
+    public boolean watchRoom(String roomNumber) {
+        if (connect) {
+            return false;
+        }
+        try {
+            open(address(roomNumber));
+            output.writeUTF("Watch " + code(roomNumber));
+            if ("Watching".equals(input.readUTF())) {
+                watching = code(roomNumber);
+                connect = true;
+                start();
+                return true;
+            }
+            return false;
+        } catch (IOException | RuntimeException e) {
+            Metrics.error("socket-watch", e);
+            return false;
+        }
+    }
+
+    public boolean isWatching() {
+        return watching != null;
+    }
+
+    /**
+     * wait in the matchmaking queue of the room server
+     * until an opponent of similar rating and the same time control is found
+     * It may take a lot of time and should be executed in a sub thread
+     *
+     * @param rating      rating of the player
+     * @param timeControl time control
+     * @return {@code "white"} or {@code "black"}, or {@code "Error"}
+     * @see Matchmaker
+     */
+    public String match(int rating, String timeControl) {
+        if (connect) {
+            return "Error";
+        }
+        try {
+            open(serverHost != null ? serverHost : "127.0.0.1");
+            output.writeUTF("Match " + rating + " " + timeControl);
+            String[] result = input.readUTF().split(" ");
+            if ("Matched".equals(result[0]) && "OK".equals(input.readUTF())) {
+                token = result[3];
+                connect = true;
+                start();
+                return result[2];
+            }
+            return "Error";
+        } catch (IOException | RuntimeException e) {
+            Metrics.error("socket-match", e);
+            return "Error";
+        }
+    }
+
     /**
      * After server building a game room,
      * it should start listening to whether there is a player to connect
@@ -118,81 +321,342 @@ public class MSocket {
      * @return Whether or not it has been successfully connected
      */
     public boolean connect() {
-        int count = 0;
-        while (count < 100) {
-            try {
-                client = server.accept();
+        try {
+            String result = inbox.poll(100, TimeUnit.SECONDS);
+            if ("OK".equals(result)) {
+                connect = true;
+                return true;
+            }
+            return false;
+        } catch (InterruptedException e) {
+            Metrics.error("socket-connect", e);
+            return false;
+        }
+    }
 
-                input = new DataInputStream(client.getInputStream());
-                output = new DataOutputStream(client.getOutputStream());
-                String clientInputStr = input.readUTF();
+    /**
+     * Send a message, it is kept until the room server receives it,
+     * if the connection is broken it will be sent again after resuming
+     *
+     * @param str message
+     */
+    public void send(String str) {
+        long sequence = sent.append(str);
+        write("M " + sequence + " " + str);
+    }
 
-                if (clientInputStr.equals("OK")) {
-                    DataOutputStream out = new DataOutputStream(client.getOutputStream());
-                    String replyStr = "OK";
-                    out.writeUTF(replyStr);
-                    connect = true;
-                    return true;
-                }
-                Thread.sleep(1000);
-                System.out.println(count++);
-            } catch (IOException e) {
-                e.printStackTrace();
-                return false;
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-                return false;
+    /**
+     * Send the snapshot of the board to the room server,
+     * new or slow spectators start from the last snapshot.
+     * A lost snapshot is not sent again.
+     *
+     * @param fen the board, as a FEN
+     */
+    public void sendSnapshot(String fen) {
+        if (compress) {
+            write("Z " + Compression.compress(fen));
+        } else {
+            write("S " + fen);
+        }
+    }
+
+    private synchronized void write(String frame) {
+        try {
+            SocketEvent event = new SocketEvent();
+            event.begin();
+            long start = Metrics.isEnabled() ? System.nanoTime() : 0;
+            int size = output.size();
+            output.writeUTF(frame);
+            if (start != 0) {
+                Metrics.SOCKET_SEND.record(System.nanoTime() - start);
+            }
+            if (event.shouldCommit()) {
+                commit(event, "send", frame, output.size() - size);
             }
+        } catch (IOException e) {
+            Metrics.error("socket-send", e);
         }
-        return false;
     }
 
-    public void send(String str) {
+    /**
+     * Send a ping, a failed ping is not a problem,
+     * the reader thread will find the connection broken
+     */
+    private synchronized void ping() {
         try {
-            output.writeUTF(str);
+            output.writeUTF("P " + System.nanoTime());
         } catch (IOException e) {
-            e.printStackTrace();
+            //连接中断，由读线程处理
         }
     }
 
+    /**
+     * @return histogram of the round-trip time in nanoseconds
+     */
+    public Histogram getRttHistogram() {
+        return rtt;
+    }
+
+    /**
+     * @return smoothed round-trip time in nanoseconds, {@code -1} if not measured yet
+     */
+    public long getRtt() {
+        return smoothedRtt;
+    }
+
+    /**
+     * Estimated one-way delay of the connection,
+     * the time a move spent on the network, used for lag compensation of clocks
+     *
+     * @return nanoseconds, {@code 0} if not measured yet
+     */
+    public long getLag() {
+        long rtt = smoothedRtt;
+        return rtt < 0 ? 0 : rtt / 2;
+    }
+
     /**
      * Listen if there is any message sent
      * It may take a lot of time and should be executed in a sub thread
-     * If the connection is not successfully built in 100 seconds, it will stop and return {@code "Error"}
+     * If the connection is broken, it will try to resume the session,
+     * if it can not be resumed in {@code RESUME_TIMEOUT}, it will stop and return {@code "Error"}
      * If successfully receive message, it will return the message.
+     * A spectator also receives snapshots like {@code "S [seq] [fen]"}.
+     * After {@code disconnect()} it returns {@code CLOSED}.
      *
      * @return the message
      */
     public String receive() {
-        int count = 0;
-        while (count < 100) {
+        try {
+            return inbox.take();
+        } catch (InterruptedException e) {
+            Metrics.error("socket-receive", e);
+            return "Error";
+        }
+    }
+
+    /**
+     * Start the reader thread and the heartbeat
+     */
+    private void start() throws IOException {
+        setReadTimeout(readTimeout());
+        Thread reader = new Thread(this::read, "socket-reader");
+        reader.setDaemon(true);
+        reader.start();
+        //观众不发送心跳，房间可能长时间没有消息
+        if (watching == null) {
+            heartbeat = heartbeats.scheduleAtFixedRate(this::ping, 0, heartbeatInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private int readTimeout() {
+        return watching == null ? (int) deadline : 0;
+    }
+
+    private void setReadTimeout(int timeout) throws SocketException {
+        if (tls != null) {
+            tls.setReadTimeout(timeout);
+        } else {
+            client.setSoTimeout(timeout);
+        }
+    }
+
+    /**
+     * Body of the reader thread
+     */
+    private void read() {
+        while (!closed) {
             try {
-                String clientInputStr = input.readUTF();
-                if (clientInputStr != null) {
-                    return clientInputStr;
+                SocketEvent event = new SocketEvent();
+                event.begin();
+                String frame = input.readUTF();
+                Metrics.FRAMES_RECEIVED.increment();
+                if (event.shouldCommit()) {
+                    commit(event, "receive", frame, 2 + utfLength(frame));
+                }
+                if (frame.startsWith("Q ")) {
+                    long time = System.nanoTime() - Long.parseLong(frame.substring(2));
+                    rtt.record(time);
+                    Metrics.SOCKET_RTT.record(time);
+                    long old = smoothedRtt;
+                    smoothedRtt = old < 0 ? time : old + (time - old) / 8;
+                } else if (frame.startsWith("P ")) {
+                    //计时的房间里服务器测量延迟
+                    write("Q " + frame.substring(2));
+                } else if (frame.startsWith("M ")) {
+                    String[] parts = frame.split(" ", 3);
+                    long sequence = Long.parseLong(parts[1]);
+                    //重连后重复的消息
+                    if (sequence > received) {
+                        received = sequence;
+                        inbox.add(parts[2]);
+                    }
+                } else if (watching != null && (frame.startsWith("S ") || frame.startsWith("Z "))) {
+                    int space = frame.indexOf(' ', 2);
+                    long sequence = Long.parseLong(frame.substring(2, space));
+                    if (sequence >= received) {
+                        received = sequence;
+                        if (frame.charAt(0) == 'Z') {
+                            frame = "S " + sequence + " " + Compression.decompress(frame.substring(space + 1));
+                        }
+                        inbox.add(frame);
+                    }
+                } else {
+                    inbox.add(frame);
                 }
-                Thread.sleep(1000);
-                count++;
             } catch (IOException e) {
-                e.printStackTrace();
-                return "Error";
+                if (closed) {
+                    return;
+                }
+                if (!resume()) {
+                    Metrics.error("socket-read", e);
+                    inbox.add("Error");
+                    return;
+                }
+            }
+        }
+    }
+
+    private void commit(SocketEvent event, String direction, String frame, int bytes) {
+        int space = frame.indexOf(' ');
+        event.direction = direction;
+        event.kind = space < 0 ? frame : frame.substring(0, space);
+        event.bytes = bytes;
+        event.host = host;
+        event.room = watching;
+        event.commit();
+    }
+
+    /**
+     * @return bytes of the string written by {@code writeUTF}, without the length
+     */
+    private static int utfLength(String str) {
+        int length = 0;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            length += c >= 0x0001 && c <= 0x007F ? 1 : c > 0x07FF ? 3 : 2;
+        }
+        return length;
+    }
+
+    /**
+     * Reconnect to the room server with the session token,
+     * and send again the messages the server has not received
+     *
+     * @return Whether or not the session has been resumed
+     */
+    private boolean resume() {
+        long giveUp = System.currentTimeMillis() + RESUME_TIMEOUT;
+        long wait = 200;
+        while (!closed && System.currentTimeMillis() < giveUp) {
+            try {
+                Thread.sleep(wait);
+                wait = Math.min(wait * 2, 5000);
+                synchronized (this) {
+                    close();
+                    open(host);
+                    setReadTimeout(5000);
+                    output.writeUTF(watching != null ? "Watch " + watching : "Resume " + token + " " + received);
+                    String[] result = input.readUTF().split(" ");
+                    setReadTimeout(readTimeout());
+                    if ("Watching".equals(result[0])) {
+                        return true;
+                    }
+                    if (!"Resumed".equals(result[0])) {
+                        //服务器已丢弃该会话
+                        return false;
+                    }
+                    ArrayList<String> missed = sent.since(Long.parseLong(result[1]));
+                    if (missed == null) {
+                        return false;
+                    }
+                    long sequence = Long.parseLong(result[1]);
+                    for (String message : missed) {
+                        output.writeUTF("M " + ++sequence + " " + message);
+                    }
+                    return true;
+                }
+            } catch (IOException e) {
+                //继续重试
             } catch (InterruptedException e) {
-                e.printStackTrace();
-                return "Error";
+                Metrics.error("socket-resume", e);
+                return false;
             }
         }
-        return "Error";
+        return false;
     }
 
-    public void disconnect() {
+    /**
+     * Get the address of the room server from the room number
+     *
+     * @param roomNumber room number, may be followed by {@code @} and the address
+     * @return address
+     */
+    private String address(String roomNumber) {
+        int at = roomNumber.indexOf('@');
+        if (at >= 0) {
+            return roomNumber.substring(at + 1);
+        }
+        return serverHost != null ? serverHost : "127.0.0.1";
+    }
+
+    private static String code(String roomNumber) {
+        int at = roomNumber.indexOf('@');
+        return at >= 0 ? roomNumber.substring(0, at) : roomNumber;
+    }
+
+    /**
+     * Connect to the room server, start TLS and negotiate the options
+     */
+    private void open(String host) throws IOException {
+        this.host = host;
+        tls = null;
+        if (Tls.isEnabled()) {
+            SocketChannel channel = SocketChannel.open();
+            client = channel.socket();
+            client.connect(new InetSocketAddress(host, port), 5000);
+            client.setTcpNoDelay(true);
+            tls = Tls.client(channel, host, port, 5000);
+            input = new DataInputStream(tls.getInputStream());
+            output = new DataOutputStream(tls.getOutputStream());
+        } else {
+            client = new Socket();
+            client.connect(new InetSocketAddress(host, port), 5000);
+            client.setTcpNoDelay(true);
+            input = new DataInputStream(client.getInputStream());
+            output = new DataOutputStream(client.getOutputStream());
+        }
+        compress = false;
+        if (Compression.isEnabled()) {
+            setReadTimeout(5000);
+            output.writeUTF("Options " + Compression.NAME);
+            compress = ("Options " + Compression.NAME).equals(input.readUTF());
+            setReadTimeout(0);
+        }
+    }
+
+    private void close() {
         try {
-            input.close();
-            output.close();
-            if (server != null)
-                server.close();
-            client.close();
+            if (tls != null)
+                tls.close();
+            else if (client != null)
+                client.close();
         } catch (IOException e) {
-            e.printStackTrace();
+            Metrics.error("socket-close", e);
+        }
+    }
+
+    public void disconnect() {
+        closed = true;
+        connect = false;
+        if (heartbeat != null) {
+            heartbeat.cancel(false);
+        }
+        close();
+        inbox.add(CLOSED);
+        if (server != null) {
+            server.stop();
+            server = null;
         }
     }
 }
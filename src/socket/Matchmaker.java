@@ -0,0 +1,239 @@
+package socket;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Class {@code Matchmaker}
+ * Pair waiting players by time control and rating band.
+ * Every time control has one slot per rating band of {@code BAND_WIDTH} points,
+ * a player takes the waiting player of its own or a neighbouring band
+ * with a single compare-and-set, or waits in its own slot.
+ * No lock is held, so enqueues of different players never block each other.
+ * <p>
+ * A sweeper thread offers the waiting players again from time to time,
+ * for the case that two players of neighbouring bands arrived at the same moment
+ * and both started waiting.
+ *
+ * @param <T> the player, for example its connection
+ * @see RoomServer
+ */
+
+public class Matchmaker<T> {
+
+    public static final int BAND_WIDTH = 100;
+
+    /**
+     * ratings above {@code BANDS * BAND_WIDTH} share the last band
+     */
+    public static final int BANDS = 40;
+
+    public static final long SWEEP_INTERVAL = 50;
+
+    /**
+     * Interface {@code Listener}
+     * called in the thread of the player that completed the pair
+     */
+    public interface Listener<T> {
+        /**
+         * @param white the player that waited longer
+         * @param black the other one
+         */
+        void matched(Ticket<T> white, Ticket<T> black);
+    }
+
+    /**
+     * Class {@code Ticket}
+     * a player in the queue
+     */
+    public static class Ticket<T> {
+        private static final int WAITING = 0, CLAIMING = 1, MATCHED = 2, CANCELLED = 3;
+
+        private final T player;
+        private final int rating;
+        private final String timeControl;
+        private final long enqueued;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        Ticket(T player, int rating, String timeControl) {
+            this.player = player;
+            this.rating = rating;
+            this.timeControl = timeControl;
+            enqueued = System.nanoTime();
+        }
+
+        public T getPlayer() {
+            return player;
+        }
+
+        public int getRating() {
+            return rating;
+        }
+
+        public String getTimeControl() {
+            return timeControl;
+        }
+
+        /**
+         * @return {@code System.nanoTime()} of the enqueue
+         */
+        public long getEnqueued() {
+            return enqueued;
+        }
+
+        public boolean isMatched() {
+            return state.get() == MATCHED;
+        }
+    }
+
+    private final Listener<T> listener;
+    private final ConcurrentHashMap<String, AtomicReferenceArray<Ticket<T>>> pools = new ConcurrentHashMap<>();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private volatile boolean running;
+
+    public Matchmaker(Listener<T> listener) {
+        this.listener = listener;
+        running = true;
+        Thread sweeper = new Thread(() -> {
+            while (running) {
+                try {
+                    Thread.sleep(SWEEP_INTERVAL);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                sweep();
+            }
+        }, "matchmaker-sweeper");
+        sweeper.setDaemon(true);
+        sweeper.start();
+    }
+
+    /**
+     * Put a player into the queue, if an opponent is waiting
+     * the listener is called before returning
+     *
+     * @param player      the player
+     * @param rating      rating of the player
+     * @param timeControl time control, only equal time controls are paired
+     * @return ticket of the player
+     */
+    public Ticket<T> enqueue(T player, int rating, String timeControl) {
+        Ticket<T> ticket = new Ticket<>(player, rating, timeControl);
+        AtomicReferenceArray<Ticket<T>> slots = pools.computeIfAbsent(timeControl, key -> new AtomicReferenceArray<>(BANDS));
+        waiting.incrementAndGet();
+        offer(slots, ticket);
+        return ticket;
+    }
+
+    /**
+     * Leave the queue
+     *
+     * @param ticket ticket of the player
+     * @return {@code false} if the player has already been matched
+     */
+    public boolean cancel(Ticket<T> ticket) {
+        while (true) {
+            int state = ticket.state.get();
+            if (state == Ticket.WAITING) {
+                if (ticket.state.compareAndSet(Ticket.WAITING, Ticket.CANCELLED)) {
+                    //留在槽里的票会在被取出时丢弃
+                    waiting.decrementAndGet();
+                    return true;
+                }
+            } else if (state == Ticket.CLAIMING) {
+                Thread.yield();
+            } else {
+                return state == Ticket.CANCELLED;
+            }
+        }
+    }
+
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    private static int band(int rating) {
+        return Math.max(0, Math.min(BANDS - 1, rating / BAND_WIDTH));
+    }
+
+    /**
+     * Pair the ticket with a player of the same or a neighbouring band,
+     * or wait in its own band
+     */
+    private void offer(AtomicReferenceArray<Ticket<T>> slots, Ticket<T> ticket) {
+        int band = band(ticket.rating);
+        while (ticket.state.get() == Ticket.WAITING) {
+            if (take(slots, band, ticket) || take(slots, band - 1, ticket) || take(slots, band + 1, ticket)) {
+                return;
+            }
+            if (slots.compareAndSet(band, null, ticket)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Try to take the waiting player of a band as the opponent
+     *
+     * @return whether the ticket does not need to be offered any more
+     */
+    private boolean take(AtomicReferenceArray<Ticket<T>> slots, int band, Ticket<T> ticket) {
+        if (band < 0 || band >= BANDS) {
+            return false;
+        }
+        while (true) {
+            Ticket<T> other = slots.get(band);
+            if (other == null || other == ticket) {
+                return false;
+            }
+            if (!slots.compareAndSet(band, other, null)) {
+                continue;
+            }
+            if (!ticket.state.compareAndSet(Ticket.WAITING, Ticket.CLAIMING)) {
+                //自己已取消，把对方放回去
+                offer(slots, other);
+                return true;
+            }
+            if (!other.state.compareAndSet(Ticket.WAITING, Ticket.MATCHED)) {
+                //对方已取消，丢弃
+                ticket.state.set(Ticket.WAITING);
+                continue;
+            }
+            ticket.state.set(Ticket.MATCHED);
+            waiting.addAndGet(-2);
+            listener.matched(other, ticket);
+            return true;
+        }
+    }
+
+    /**
+     * Offer every waiting player again
+     */
+    private void sweep() {
+        for (Map.Entry<String, AtomicReferenceArray<Ticket<T>>> entry : pools.entrySet()) {
+            AtomicReferenceArray<Ticket<T>> slots = entry.getValue();
+            for (int band = 0; band < BANDS; band++) {
+                Ticket<T> ticket = slots.get(band);
+                if (ticket == null) {
+                    continue;
+                }
+                if (ticket.state.get() != Ticket.WAITING) {
+                    slots.compareAndSet(band, ticket, null);
+                    continue;
+                }
+                if (slots.get(band - 1 < 0 ? band : band - 1) == null && slots.get(band + 1 >= BANDS ? band : band + 1) == null) {
+                    continue;
+                }
+                if (slots.compareAndSet(band, ticket, null)) {
+                    offer(slots, ticket);
+                }
+            }
+        }
+    }
+}
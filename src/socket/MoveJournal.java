@@ -0,0 +1,79 @@
+package socket;
+
+import java.util.ArrayList;
+
+/**
+ * Class {@code MoveJournal}
+ * A bounded journal of messages, every message gets
+ * an increasing sequence number starting from 1.
+ * Only the last {@code capacity} messages are kept,
+ * so a peer that missed too many messages can not be resumed.
+ *
+ * @see RoomServer
+ * @see MSocket
+ */
+
+public class MoveJournal {
+
+    /**
+     * default number of messages kept
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final String[] messages;
+
+    /**
+     * sequence number of the last appended message,
+     * {@code 0} if nothing has been appended
+     */
+    private long last;
+
+    public MoveJournal() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public MoveJournal(int capacity) {
+        messages = new String[capacity];
+        last = 0;
+    }
+
+    /**
+     * Append a message to the journal
+     *
+     * @param message message to append
+     * @return sequence number of the message
+     */
+    public synchronized long append(String message) {
+        last++;
+        messages[(int) (last % messages.length)] = message;
+        return last;
+    }
+
+    /**
+     * Get all the messages after a sequence number
+     *
+     * @param sequence the last sequence number the peer has seen
+     * @return messages in order, or {@code null} if some of them have been dropped
+     */
+    public synchronized ArrayList<String> since(long sequence) {
+        if (sequence > last || sequence < first() - 1) {
+            return null;
+        }
+        ArrayList<String> result = new ArrayList<>();
+        for (long i = sequence + 1; i <= last; i++) {
+            result.add(messages[(int) (i % messages.length)]);
+        }
+        return result;
+    }
+
+    /**
+     * @return sequence number of the oldest message still kept
+     */
+    public synchronized long first() {
+        return Math.max(1, last - messages.length + 1);
+    }
+
+    public synchronized long getLast() {
+        return last;
+    }
+}
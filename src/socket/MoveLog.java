@@ -0,0 +1,507 @@
+package socket;
+
+import game.Board;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Class {@code MoveLog}
+ * A write-ahead log of the moves of all the games of a server,
+ * so the games going on are not lost when the server crashes.
+ * The moves are appended to segment files in a directory, named like {@code moves-00000001.log}.
+ * The records appended by all the threads are written by one thread,
+ * which forces them to the disk at most once every few milliseconds when many games are played,
+ * so one {@code force} makes all the moves appended meanwhile durable together.
+ * A move of a single game is forced at once.
+ * A new segment is started when the current one is full,
+ * and the old segments are deleted when all the games with moves in them are finished.
+ * <p>
+ * Layout of a record:
+ * <pre>
+ * int     length of the body
+ * int     CRC32 of the body
+ * byte    MOVE or END
+ * short   length of the id of the game, then its bytes in UTF-8
+ * short   length of the move, then its bytes, only for MOVE
+ * </pre>
+ * When the log is opened, the segments left are read and the games not finished
+ * can be replayed into boards, a record cut by a crash ends the reading of its segment.
+ * The new moves always go to a new segment.
+ *
+ * @see SessionManager
+ * @see Board
+ */
+
+public class MoveLog implements Closeable {
+
+    /**
+     * bytes of a segment before a new one is started
+     */
+    public static final long DEFAULT_SEGMENT = 64L << 20;
+
+    /**
+     * milliseconds between two forces at least
+     */
+    public static final int DEFAULT_INTERVAL = 2;
+
+    private static final byte MOVE = 1, END = 2;
+    private static final String PREFIX = "moves-", SUFFIX = ".log";
+
+    /**
+     * a body longer than this is a broken record
+     */
+    private static final int MAX_BODY = 1 << 16;
+
+    /**
+     * Class {@code Batch}
+     * records waiting to be written
+     */
+    private static class Batch extends ByteArrayOutputStream {
+        private ByteBuffer wrap() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    private final File directory;
+    private final long segmentSize;
+    private final long interval;
+    private final Thread writer;
+
+    /**
+     * moves of the games not finished found when the log was opened
+     */
+    private final Map<String, List<String>> recovered = new LinkedHashMap<>();
+
+    /**
+     * where the records of the recovered moves are, the segment and the offset in it
+     */
+    private final Map<String, List<long[]>> offsets = new HashMap<>();
+
+    /**
+     * the following fields are guarded by {@code lock}
+     */
+    private final Object lock = new Object();
+    private Batch pending = new Batch(), spare = new Batch();
+
+    /**
+     * the oldest segment with moves of every game not finished
+     */
+    private final Map<String, Long> first = new HashMap<>();
+    private long segment;
+    private long appended, durable;
+    private long forces;
+    private boolean closed;
+    private IOException failure;
+
+    /**
+     * only used by the writer thread
+     */
+    private FileChannel channel;
+
+    /**
+     * @param directory the directory of the segments, created if it does not exist
+     * @throws IOException if the segments left can not be read or the new one can not be created
+     */
+    public MoveLog(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * @param directory   the directory of the segments, created if it does not exist
+     * @param segmentSize bytes of a segment before a new one is started
+     * @param interval    milliseconds between two forces at least, {@code 0} to force as soon as the last one is done
+     * @throws IOException if the segments left can not be read or the new one can not be created
+     */
+    public MoveLog(File directory, long segmentSize, int interval) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("can not create " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.interval = interval * 1000000L;
+        TreeMap<Long, File> segments = segments();
+        for (Map.Entry<Long, File> entry : segments.entrySet()) {
+            read(entry.getKey(), entry.getValue());
+        }
+        segment = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        channel = open(segment);
+        delete();
+        writer = new Thread(this::write, "move-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @return the segments in the directory by their numbers
+     */
+    private TreeMap<Long, File> segments() {
+        TreeMap<Long, File> result = new TreeMap<>();
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return result;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)) {
+                try {
+                    result.put(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    //不是日志段
+                }
+            }
+        }
+        return result;
+    }
+
+    private FileChannel open(long number) throws IOException {
+        File file = new File(directory, String.format("%s%08d%s", PREFIX, number, SUFFIX));
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Read the records of a segment left, up to the end or the first broken record
+     */
+    private void read(long number, File file) throws IOException {
+        CRC32 crc = new CRC32();
+        long offset = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int length = input.readInt();
+                int checksum = input.readInt();
+                if (length < 3 || length > MAX_BODY) {
+                    return;
+                }
+                byte[] body = new byte[length];
+                input.readFully(body);
+                crc.reset();
+                crc.update(body, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    return;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(body);
+                byte type = buffer.get();
+                String game = string(buffer);
+                if (type == MOVE) {
+                    recovered.computeIfAbsent(game, key -> new ArrayList<>()).add(string(buffer));
+                    offsets.computeIfAbsent(game, key -> new ArrayList<>()).add(new long[]{number, offset});
+                    first.putIfAbsent(game, number);
+                } else {
+                    recovered.remove(game);
+                    offsets.remove(game);
+                    first.remove(game);
+                }
+                offset += 8 + length;
+            }
+        } catch (EOFException e) {
+            //崩溃时写了一半的记录
+        } catch (RuntimeException e) {
+            //长度与内容不符的记录
+        }
+    }
+
+    private static String string(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] record(byte type, String game, String move) {
+        byte[] id = game.getBytes(StandardCharsets.UTF_8);
+        byte[] text = move == null ? new byte[0] : move.getBytes(StandardCharsets.UTF_8);
+        int length = 1 + 2 + id.length + (move == null ? 0 : 2 + text.length);
+        if (length > MAX_BODY) {
+            throw new IllegalArgumentException("record too long");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(8 + length);
+        buffer.putInt(length).putInt(0).put(type).putShort((short) id.length).put(id);
+        if (move != null) {
+            buffer.putShort((short) text.length).put(text);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 8, length);
+        buffer.putInt(4, (int) crc.getValue());
+        return buffer.array();
+    }
+
+    /**
+     * The records are given back as they were appended, for a log of other records than moves,
+     * like the one of {@code RoomServer}, that rebuilds its rooms from them rather than replay them
+     *
+     * @return the games not finished when the log was opened, with their moves in order
+     */
+    public Map<String, List<String>> getRecovered() {
+        return Collections.unmodifiableMap(recovered);
+    }
+
+    /**
+     * Replay the games not finished when the log was opened.
+     * Only legal moves are logged, a move refused by the board means the log does not match the rules,
+     * the replay stops there rather than give back a game in another position than the one played
+     *
+     * @return the boards of the games, without an interface
+     * @throws IOException if a move is refused, with the segment and the offset of its record
+     */
+    public Map<String, Board> replay() throws IOException {
+        Map<String, Board> result = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> entry : recovered.entrySet()) {
+            Board board = new Board(null);
+            List<String> moves = entry.getValue();
+            for (int i = 0; i < moves.size(); i++) {
+                if (!board.move(moves.get(i))) {
+                    long[] at = offsets.get(entry.getKey()).get(i);
+                    throw new IOException(String.format("move %s of game %s refused, record at offset %d of %s%08d%s",
+                            moves.get(i), entry.getKey(), at[1], PREFIX, at[0], SUFFIX));
+                }
+            }
+            result.put(entry.getKey(), board);
+        }
+        return result;
+    }
+
+    /**
+     * Append a move, it returns at once and the move is written a few milliseconds later
+     *
+     * @param game id of the game
+     * @param move the move, like {@code "64+44"}
+     * @return sequence number of the record, to wait for it with {@code sync}
+     * @throws UncheckedIOException  if the log could not be written
+     * @throws IllegalStateException if the log is closed
+     */
+    public long append(String game, String move) {
+        return append(record(MOVE, game, move), game, false);
+    }
+
+    /**
+     * Append the end of a game, its moves are not replayed any more
+     *
+     * @param game id of the game
+     * @return sequence number of the record, to wait for it with {@code sync}
+     */
+    public long end(String game) {
+        return append(record(END, game, null), game, true);
+    }
+
+    private long append(byte[] record, String game, boolean end) {
+        synchronized (lock) {
+            if (failure != null) {
+                throw new UncheckedIOException(failure);
+            }
+            if (closed) {
+                throw new IllegalStateException("move log closed");
+            }
+            pending.write(record, 0, record.length);
+            if (end) {
+                first.remove(game);
+            } else {
+                //写入线程换段前追加的记录可能落在新段，记下旧段更稳妥
+                first.putIfAbsent(game, segment);
+            }
+            if (pending.size() == record.length) {
+                lock.notifyAll();
+            }
+            return ++appended;
+        }
+    }
+
+    /**
+     * Wait until a record is on the disk
+     *
+     * @param sequence sequence number returned by {@code append} or {@code end}
+     * @throws IOException if the log could not be written
+     */
+    public void sync(long sequence) throws IOException {
+        synchronized (lock) {
+            while (durable < sequence) {
+                if (failure != null) {
+                    throw failure;
+                }
+                if (closed && !writer.isAlive()) {
+                    throw new IOException("move log closed");
+                }
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+    /**
+     * Append a move and wait until it is on the disk
+     */
+    public void commit(String game, String move) throws IOException {
+        sync(append(game, move));
+    }
+
+    private void write() {
+        long last = System.nanoTime() - interval;
+        long group = 0;
+        try {
+            while (true) {
+                Batch batch;
+                long sequence;
+                synchronized (lock) {
+                    while (pending.size() == 0 && !closed) {
+                        lock.wait();
+                    }
+                    if (pending.size() == 0) {
+                        break;
+                    }
+                }
+                //上一组不止一条记录时，两次刷盘之间至少间隔 interval，其间追加的记录一起刷盘
+                //只有一局在走时不必等待
+                long wait = last + interval - System.nanoTime();
+                if (group > 1 && wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                synchronized (lock) {
+                    batch = pending;
+                    pending = spare;
+                    spare = batch;
+                    sequence = appended;
+                }
+                ByteBuffer buffer = batch.wrap();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+                last = System.nanoTime();
+                batch.reset();
+                synchronized (lock) {
+                    group = sequence - durable;
+                    durable = sequence;
+                    forces++;
+                    lock.notifyAll();
+                }
+                if (channel.size() >= segmentSize) {
+                    rotate();
+                }
+            }
+        } catch (IOException e) {
+            synchronized (lock) {
+                failure = e;
+                lock.notifyAll();
+            }
+        } catch (InterruptedException e) {
+            //关闭
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                //已写入的记录已刷盘
+            }
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Start a new segment and delete the old ones not needed, only called by the writer thread
+     */
+    private void rotate() throws IOException {
+        channel.close();
+        long number;
+        synchronized (lock) {
+            number = ++segment;
+        }
+        channel = open(number);
+        delete();
+    }
+
+    /**
+     * Delete the segments older than the oldest one with moves of a game not finished
+     */
+    private void delete() {
+        long oldest;
+        synchronized (lock) {
+            oldest = segment;
+            for (long number : first.values()) {
+                oldest = Math.min(oldest, number);
+            }
+        }
+        for (Map.Entry<Long, File> entry : segments().headMap(oldest).entrySet()) {
+            if (!entry.getValue().delete()) {
+                //下次换段时再删
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return number of records appended
+     */
+    public long getAppended() {
+        synchronized (lock) {
+            return appended;
+        }
+    }
+
+    /**
+     * @return number of forces, the records appended divided by it is the size of a group
+     */
+    public long getForces() {
+        synchronized (lock) {
+            return forces;
+        }
+    }
+
+    /**
+     * @return number of the segment being written
+     */
+    public long getSegment() {
+        synchronized (lock) {
+            return segment;
+        }
+    }
+
+    /**
+     * Write the records appended and stop, the segments are kept for the next start
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        synchronized (lock) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+}
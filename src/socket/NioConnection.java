@@ -0,0 +1,216 @@
+package socket;
+
+import metrics.Metrics;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Class {@code NioConnection}
+ * Streams over a non-blocking {@code SocketChannel}.
+ * The streams of {@code SocketChannel.socket()} share one lock,
+ * so a thread waiting to read with a timeout blocks every thread writing to the same connection.
+ * Here reading waits on its own selector and writing only takes its own lock,
+ * so one thread can wait for the next frame while others write,
+ * and reading can have a timeout like {@code Socket.setSoTimeout}.
+ *
+ * @see TlsChannel
+ */
+
+public class NioConnection implements Closeable {
+
+    protected final SocketChannel channel;
+    protected final Object readLock = new Object(), writeLock = new Object();
+    private final Selector readSelector;
+
+    /**
+     * opened the first time the socket buffer is full
+     */
+    private Selector writeSelector;
+
+    protected int readTimeout;
+    protected volatile boolean closed;
+
+    private final InputStream input = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return NioConnection.this.read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return NioConnection.this.read(b, off, len);
+        }
+    };
+
+    private final OutputStream output = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            NioConnection.this.write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            NioConnection.this.write(b, off, len);
+        }
+    };
+
+    /**
+     * @param channel connected channel, it is made non-blocking
+     * @throws IOException if the selector can not be opened
+     */
+    public NioConnection(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        readTimeout = 0;
+        closed = false;
+        channel.configureBlocking(false);
+        readSelector = Selector.open();
+        try {
+            channel.register(readSelector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            readSelector.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read from the channel, wait at most {@code readTimeout}
+     *
+     * @param buffer buffer in write mode
+     * @return bytes read
+     * @throws EOFException if the connection is closed by the other side
+     */
+    protected int fill(ByteBuffer buffer) throws IOException {
+        while (true) {
+            int count = channel.read(buffer);
+            if (count < 0) {
+                throw new EOFException();
+            }
+            if (count > 0) {
+                return count;
+            }
+            if (readSelector.select(readTimeout) == 0) {
+                if (closed || !channel.isOpen()) {
+                    throw new ClosedChannelException();
+                }
+                if (readTimeout > 0) {
+                    throw new SocketTimeoutException("Read timed out");
+                }
+            }
+            readSelector.selectedKeys().clear();
+        }
+    }
+
+    /**
+     * Write all the buffer to the channel, the caller holds {@code writeLock}
+     *
+     * @param buffer buffer in read mode
+     */
+    protected void drain(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.write(buffer) > 0) {
+                continue;
+            }
+            if (writeSelector == null) {
+                writeSelector = Selector.open();
+                channel.register(writeSelector, SelectionKey.OP_WRITE);
+            }
+            writeSelector.select(1000);
+            writeSelector.selectedKeys().clear();
+            if (closed || !channel.isOpen()) {
+                throw new ClosedChannelException();
+            }
+        }
+    }
+
+    protected int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        synchronized (readLock) {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            try {
+                return fill(ByteBuffer.wrap(b, off, len));
+            } catch (EOFException e) {
+                return -1;
+            }
+        }
+    }
+
+    protected void write(byte[] b, int off, int len) throws IOException {
+        synchronized (writeLock) {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            drain(ByteBuffer.wrap(b, off, len));
+        }
+    }
+
+    public InputStream getInputStream() {
+        return input;
+    }
+
+    public OutputStream getOutputStream() {
+        return output;
+    }
+
+    /**
+     * @param timeout milliseconds, {@code 0} to wait forever
+     */
+    public void setReadTimeout(int timeout) {
+        readTimeout = timeout;
+    }
+
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Metrics.error("connection-close", e);
+        }
+        readSelector.wakeup();
+        synchronized (readLock) {
+            closeQuietly(readSelector);
+            released();
+        }
+        synchronized (writeLock) {
+            if (writeSelector != null) {
+                closeQuietly(writeSelector);
+            }
+        }
+    }
+
+    /**
+     * Called by {@code close()} holding {@code readLock} once nothing reads any more
+     */
+    protected void released() {
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Metrics.error("connection-close", e);
+        }
+    }
+}
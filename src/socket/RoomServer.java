@@ -0,0 +1,821 @@
+package socket;
+
+import clock.Clock;
+import clock.TimeControl;
+import clock.TimerWheel;
+import engine.Tablebase;
+import game.Board;
+import game.Piece;
+import metrics.Metrics;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Class {@code RoomServer}
+ * Relay server of the game rooms.
+ * Every room has a host seat and a guest seat,
+ * messages of one seat are relayed to the other one
+ * and kept in the bounded {@code MoveJournal} of the receiver,
+ * so that a player whose connection broke can come back
+ * with its session token and the last sequence number it has seen
+ * and receive only the messages it missed.
+ * Moves are also broadcast to the spectators of the room by the {@code SpectatorChannel}.
+ * Room numbers are random codes given by the server,
+ * players can also be paired by the {@code Matchmaker} into a new room.
+ * <p>
+ * A room paired with a time control like {@code 5+3} has a {@code Clock},
+ * pressed by the server when it relays a move, so the players can not cheat on it.
+ * The server pings the players of such a room to measure their lag,
+ * which is not charged to them. A move arriving after the fall of the flag is dropped,
+ * both players and the spectators receive {@code Flag [white|black]} instead.
+ * <p>
+ * Protocol, every frame is a {@code writeUTF} string,
+ * over TLS if {@code Tls} is enabled:
+ * <pre>
+ * Options [option...]     optional first frame -&gt; Options [accepted option...]
+ * Create                  -&gt; Room [room] [token], later OK when the guest joins
+ * Join [room]             -&gt; Joined [token], OK
+ * Match [rating] [time]   -&gt; Matched [room] [white|black] [token], OK
+ * Resume [token] [seq]    -&gt; Resumed [last seq received from the client], missed frames
+ * Watch [room]            -&gt; Watching, then the frames of {@code SpectatorChannel}
+ * M [seq] [message]       both directions, one relayed message
+ * S [fen]                 from a player, snapshot of the board for the spectators
+ * Z [data]                the same, compressed by {@code Compression} if negotiated
+ * P [time]                from a player, heartbeat, answered by Q [time]
+ *                         in a timed room, the server pings back, answered by Q [time]
+ * </pre>
+ * A player that sends nothing, not even a heartbeat, for the deadline
+ * is disconnected, its seat waits to be resumed.
+ * <p>
+ * With a {@code MoveLog} the seats and every frame put into a journal are logged
+ * with the room number as the game, and forced to the disk before the frame is sent,
+ * the end of a room ends its game. When the server starts again after a crash,
+ * the rooms not finished are rebuilt from the log with their tokens and journals,
+ * so the players resume as after a broken connection. The time used is not logged,
+ * a rebuilt room has no clock. Records of the log:
+ * <pre>
+ * Host [token]            the host seat, Guest [token] the guest seat
+ * H [seq] [message]       a message of the host, with its sequence number, journaled for the guest
+ * G [seq] [message]       the same from the guest
+ * * [message]             a message of the server, like {@code Flag white}, journaled for both
+ * </pre>
+ * The moves are played on a board of the room. With an adjudicator, a game reaching a position
+ * it knows the result of ends at once, both players and the spectators are told
+ * {@code Adjudicated [white | black | draw]} with the winner, the clock stops and the moves after it are dropped.
+ *
+ * @see MSocket
+ * @see MoveJournal
+ * @see MoveLog
+ * @see SpectatorChannel
+ * @see Matchmaker
+ */
+
+public class RoomServer {
+
+    public static final int DEFAULT_PORT = 8888;
+
+    /**
+     * A room is removed if both seats have been
+     * disconnected for longer than this time
+     */
+    public static final long ABANDON_TIMEOUT = 10 * 60 * 1000;
+
+    /**
+     * Abandoned rooms are looked for at this interval,
+     * whether or not new players connect
+     */
+    public static final long REAP_INTERVAL = 60 * 1000;
+
+    /**
+     * A player waiting in the matchmaking queue
+     * for longer than this time is refused
+     */
+    public static final long MATCH_TIMEOUT = 100 * 1000;
+
+    private final int port;
+
+    /**
+     * milliseconds without any frame after which a player is disconnected
+     */
+    private long deadline;
+    private ServerSocketChannel server;
+    private SpectatorChannel spectators;
+    private Matchmaker<Pending> matchmaker;
+    private ScheduledExecutorService reaper;
+    private MoveLog log;
+    private Board.Adjudicator adjudicator;
+    private volatile boolean running;
+
+    private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+
+    /**
+     * seats indexed by session token
+     */
+    private final ConcurrentHashMap<String, Seat> seats = new ConcurrentHashMap<>();
+
+    private final SecureRandom random = new SecureRandom();
+
+    public RoomServer() {
+        this(DEFAULT_PORT);
+    }
+
+    public RoomServer(int port) {
+        this.port = port;
+        deadline = MSocket.DEAD_PEER_DEADLINE;
+        running = false;
+    }
+
+    /**
+     * Change the deadline of dead players, must be called before starting
+     *
+     * @param deadline milliseconds without any frame
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Log the rooms to rebuild them after a crash, must be called before starting,
+     * the rooms not finished in the log are rebuilt when the server starts
+     *
+     * @param log log of the rooms, may be {@code null}, it is not closed with the server
+     */
+    public void setMoveLog(MoveLog log) {
+        this.log = log;
+    }
+
+    /**
+     * End the games reaching a position the adjudicator knows the result of, must be called before starting
+     *
+     * @param adjudicator the adjudicator, for example a {@code Tablebase}, {@code null} for none
+     */
+    public void setAdjudicator(Board.Adjudicator adjudicator) {
+        this.adjudicator = adjudicator;
+    }
+
+    /**
+     * Bind the port and start accepting players in a sub thread
+     *
+     * @throws IOException if the port can not be bound
+     */
+    public void start() throws IOException {
+        server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress(port));
+        spectators = new SpectatorChannel();
+        matchmaker = new Matchmaker<>(this::matched);
+        if (log != null) {
+            recover();
+        }
+        running = true;
+        Metrics.registry().gauge("chess_rooms_active", "Rooms of the room server", this::getActiveRooms,
+                "port", Integer.toString(port));
+        Metrics.registry().gauge("chess_seats_active", "Players of the room server with a session", seats::size,
+                "port", Integer.toString(port));
+        Thread acceptor = new Thread(() -> {
+            while (running) {
+                try {
+                    SocketChannel client = server.accept();
+                    Thread handler = new Thread(() -> serve(client), "room-" + client.socket().getRemoteSocketAddress());
+                    handler.setDaemon(true);
+                    handler.start();
+                } catch (IOException e) {
+                    if (running) {
+                        Metrics.error("room-accept", e);
+                    }
+                }
+            }
+        }, "room-server-" + port);
+        acceptor.setDaemon(true);
+        acceptor.start();
+        reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "room-reaper-" + port);
+            thread.setDaemon(true);
+            return thread;
+        });
+        reaper.scheduleWithFixedDelay(this::removeAbandoned, REAP_INTERVAL, REAP_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        running = false;
+        Metrics.registry().remove("chess_rooms_active", "port", Integer.toString(port));
+        Metrics.registry().remove("chess_seats_active", "port", Integer.toString(port));
+        try {
+            if (server != null)
+                server.close();
+        } catch (IOException e) {
+            Metrics.error("room-close", e);
+        }
+        if (spectators != null)
+            spectators.stop();
+        if (matchmaker != null)
+            matchmaker.stop();
+        if (reaper != null)
+            reaper.shutdownNow();
+        for (Seat seat : seats.values()) {
+            seat.detach(seat.connection);
+        }
+        rooms.clear();
+        seats.clear();
+    }
+
+    public int getActiveRooms() {
+        return rooms.size();
+    }
+
+    public int getSpectators() {
+        return spectators.getSpectators();
+    }
+
+    public int getWaitingPlayers() {
+        return matchmaker.getWaiting();
+    }
+
+    /**
+     * Handle a connection until it is broken,
+     * a spectator is handed to the {@code SpectatorChannel} after the handshake
+     *
+     * @param channel connection of a player or a spectator
+     */
+    private void serve(SocketChannel channel) {
+        Closeable connection = channel;
+        Seat seat = null;
+        try {
+            channel.socket().setTcpNoDelay(true);
+            NioConnection nio = Tls.isEnabled() ? Tls.server(channel, (int) deadline) : new NioConnection(channel);
+            connection = nio;
+            DataInputStream input = new DataInputStream(nio.getInputStream());
+            DataOutputStream output = new DataOutputStream(nio.getOutputStream());
+            String hello = input.readUTF();
+            boolean compress = false;
+            if (hello.startsWith("Options")) {
+                compress = Compression.isEnabled() && Arrays.asList(hello.split(" ")).contains(Compression.NAME);
+                output.writeUTF(compress ? "Options " + Compression.NAME : "Options");
+                hello = input.readUTF();
+            }
+            if (hello.startsWith("Watch ")) {
+                String number = hello.substring(6);
+                if (rooms.containsKey(number)) {
+                    output.writeUTF("Watching");
+                    spectators.subscribe(number, nio, compress);
+                    return;
+                }
+            } else {
+                seat = handshake(hello, connection, output);
+            }
+            if (seat == null) {
+                output.writeUTF("Error");
+                connection.close();
+                return;
+            }
+            nio.setReadTimeout((int) deadline);
+            while (running) {
+                String frame = input.readUTF();
+                if (frame.startsWith("M ")) {
+                    long start = Metrics.isEnabled() ? System.nanoTime() : 0;
+                    String[] parts = frame.split(" ", 3);
+                    //格式错误的消息丢弃，不影响连接
+                    if (parts.length < 3) {
+                        continue;
+                    }
+                    relay(seat, Long.parseLong(parts[1]), parts[2]);
+                    if (start != 0) {
+                        Metrics.ROOM_RELAY.record(System.nanoTime() - start);
+                    }
+                } else if (frame.startsWith("S ")) {
+                    spectators.snapshot(seat.room.number, frame.substring(2), null);
+                } else if (frame.startsWith("Z ")) {
+                    String compressed = frame.substring(2);
+                    spectators.snapshot(seat.room.number, Compression.decompress(compressed), compressed);
+                } else if (frame.startsWith("P ")) {
+                    synchronized (seat.room) {
+                        if (seat.connection == connection) {
+                            seat.write("Q " + frame.substring(2));
+                            if (seat.room.clock != null) {
+                                seat.write("P " + System.nanoTime());
+                            }
+                        }
+                    }
+                } else if (frame.startsWith("Q ")) {
+                    measured(seat, System.nanoTime() - Long.parseLong(frame.substring(2)));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            //连接中断，等待重连
+            if (seat != null) {
+                seat.detach(connection);
+            } else {
+                close(connection);
+            }
+        }
+    }
+
+    /**
+     * Deal with the first frame of a connection
+     *
+     * @return the seat the connection takes, {@code null} if refused
+     */
+    private Seat handshake(String hello, Closeable connection, DataOutputStream output) throws IOException {
+        String[] command = hello.split(" ");
+        switch (command[0]) {
+            case "Create": {
+                Room room = newRoom();
+                synchronized (room) {
+                    room.host = newSeat(room);
+                    log(room, "Host " + room.host.token);
+                    room.host.attach(connection, output);
+                    room.host.write("Room " + room.number + " " + room.host.token);
+                }
+                return room.host;
+            }
+            case "Join": {
+                Room room = command.length < 2 ? null : rooms.get(command[1]);
+                if (room == null) {
+                    return null;
+                }
+                synchronized (room) {
+                    if (room.guest != null) {
+                        return null;
+                    }
+                    room.guest = newSeat(room);
+                    log(room, "Guest " + room.guest.token);
+                    room.guest.attach(connection, output);
+                    room.guest.write("Joined " + room.guest.token);
+                    room.guest.write("OK");
+                    room.host.write("OK");
+                }
+                return room.guest;
+            }
+            case "Match": {
+                if (command.length < 3) {
+                    return null;
+                }
+                Pending pending = new Pending(connection, output);
+                Matchmaker.Ticket<Pending> ticket = matchmaker.enqueue(pending, Integer.parseInt(command[1]), command[2]);
+                try {
+                    return pending.seat.get(MATCH_TIMEOUT, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    if (matchmaker.cancel(ticket)) {
+                        return null;
+                    }
+                    return pending.seat.join();
+                } catch (InterruptedException | ExecutionException e) {
+                    Metrics.error("room-match", e);
+                    matchmaker.cancel(ticket);
+                    return null;
+                }
+            }
+            case "Resume": {
+                Seat seat = command.length < 3 ? null : seats.get(command[1]);
+                if (seat == null) {
+                    return null;
+                }
+                synchronized (seat.room) {
+                    ArrayList<String> missed = seat.journal.since(Long.parseLong(command[2]));
+                    if (missed == null) {
+                        return null;
+                    }
+                    seat.attach(connection, output);
+                    seat.write("Resumed " + seat.received);
+                    long sequence = Long.parseLong(command[2]);
+                    for (String message : missed) {
+                        seat.write("M " + ++sequence + " " + message);
+                    }
+                }
+                return seat;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Open a new room numbered by a random code,
+     * so that the room number tells nothing about the players
+     */
+    private Room newRoom() {
+        while (true) {
+            Room room = new Room(randomCode(4).toUpperCase(), adjudicator);
+            if (rooms.putIfAbsent(room.number, room) == null) {
+                spectators.open(room.number);
+                return room;
+            }
+        }
+    }
+
+    /**
+     * Put two paired players into a new room,
+     * the player waited longer is the host and plays white
+     */
+    private void matched(Matchmaker.Ticket<Pending> white, Matchmaker.Ticket<Pending> black) {
+        Room room = newRoom();
+        Pending host = white.getPlayer(), guest = black.getPlayer();
+        TimeControl control = TimeControl.parse(white.getTimeControl());
+        synchronized (room) {
+            room.host = newSeat(room);
+            room.host.attach(host.connection, host.output);
+            room.guest = newSeat(room);
+            room.guest.attach(guest.connection, guest.output);
+            log(room, "Host " + room.host.token);
+            log(room, "Guest " + room.guest.token);
+            if (control != null) {
+                room.clock = new Clock(control, TimerWheel.shared(), (clock, color) -> flagged(room, color));
+                room.clock.start();
+            }
+            room.host.write("Matched " + room.number + " white " + room.host.token);
+            room.guest.write("Matched " + room.number + " black " + room.guest.token);
+            room.host.write("OK");
+            room.guest.write("OK");
+        }
+        host.seat.complete(room.host);
+        guest.seat.complete(room.guest);
+    }
+
+    private String randomCode(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        String code = "";
+        for (byte b : bytes) {
+            code += String.format("%02x", b);
+        }
+        return code;
+    }
+
+    private Seat newSeat(Room room) {
+        String token = randomCode(16);
+        Seat seat = new Seat(token, room);
+        seats.put(token, seat);
+        return seat;
+    }
+
+    /**
+     * Relay a message to the other seat of the room,
+     * a message already received before resuming is ignored
+     *
+     * @param from     sender seat
+     * @param sequence sequence number given by the sender
+     * @param message  the message
+     */
+    private void relay(Seat from, long sequence, String message) {
+        Room room = from.room;
+        synchronized (room) {
+            if (sequence <= from.received) {
+                return;
+            }
+            from.received = sequence;
+            //判定后的走子作废，判定的消息已经发出
+            if (room.board.isAdjudicated() && isMove(message)) {
+                return;
+            }
+            //超时后的走子作废，超时的消息已经发出
+            if (room.clock != null && isMove(message)
+                    && !room.clock.press(from == room.host ? Piece.Color.white : Piece.Color.black)
+                    && room.clock.getFlagged() != null) {
+                return;
+            }
+            Seat to = from == room.host ? room.guest : room.host;
+            log(room, (from == room.host ? "H " : "G ") + sequence + " " + message);
+            if (to != null) {
+                long number = to.journal.append(message);
+                to.write("M " + number + " " + message);
+            }
+            spectators.publish(room.number, message);
+            if (isMove(message) && !room.board.isOver() && room.board.move(message) && room.board.isAdjudicated()) {
+                if (room.clock != null) {
+                    room.clock.stop();
+                }
+                Piece.Color winner = room.board.gameEnd();
+                announce(room, "Adjudicated " + (winner == null ? "draw" : winner.name()));
+            }
+        }
+        if ("Quit".equals(message)) {
+            remove(room);
+        }
+    }
+
+    /**
+     * @return whether or not the message is a move like {@code "64+44"} or {@code "61+60q"}
+     */
+    private static boolean isMove(String message) {
+        return (message.length() == 5 || message.length() == 6) && message.charAt(2) == '+'
+                && Character.isDigit(message.charAt(0)) && Character.isDigit(message.charAt(1))
+                && Character.isDigit(message.charAt(3)) && Character.isDigit(message.charAt(4));
+    }
+
+    /**
+     * Tell both players and the spectators that a flag fell
+     */
+    private void flagged(Room room, Piece.Color color) {
+        synchronized (room) {
+            announce(room, "Flag " + color);
+        }
+    }
+
+    /**
+     * Send a message of the server to both players and the spectators, called with the lock of the room
+     */
+    private void announce(Room room, String message) {
+        log(room, "* " + message);
+        for (Seat seat : new Seat[]{room.host, room.guest}) {
+            if (seat != null) {
+                long number = seat.journal.append(message);
+                seat.write("M " + number + " " + message);
+            }
+        }
+        spectators.publish(room.number, message);
+    }
+
+    /**
+     * A ping of the server came back, the lag of the player is half of the smoothed round trip
+     */
+    private void measured(Seat seat, long rtt) {
+        Room room = seat.room;
+        synchronized (room) {
+            seat.rtt = seat.rtt < 0 ? rtt : seat.rtt + (rtt - seat.rtt) / 8;
+            if (room.clock != null) {
+                room.clock.setLag(seat == room.host ? Piece.Color.white : Piece.Color.black, seat.rtt / 2);
+            }
+        }
+    }
+
+    private void remove(Room room) {
+        if (room.clock != null) {
+            room.clock.stop();
+        }
+        if (rooms.remove(room.number) != null && log != null) {
+            try {
+                log.end(room.number);
+            } catch (UncheckedIOException | IllegalStateException e) {
+                Metrics.error("room-log", e);
+            }
+        }
+        spectators.close(room.number);
+        if (room.host != null)
+            seats.remove(room.host.token);
+        if (room.guest != null)
+            seats.remove(room.guest.token);
+    }
+
+    /**
+     * Log a record of a room and wait until it is on the disk, called with the lock of the room
+     * before the frame is sent, a failed log is counted and the room goes on without it
+     */
+    private void log(Room room, String record) {
+        if (log == null) {
+            return;
+        }
+        try {
+            log.sync(log.append(room.number, record));
+        } catch (IOException | UncheckedIOException | IllegalArgumentException | IllegalStateException e) {
+            Metrics.error("room-log", e);
+        }
+    }
+
+    /**
+     * Rebuild the rooms not finished from the log, before any player connects
+     */
+    private void recover() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, List<String>> entry : log.getRecovered().entrySet()) {
+            Room room = new Room(entry.getKey(), adjudicator);
+            spectators.open(room.number);
+            for (String record : entry.getValue()) {
+                restore(room, record, now);
+            }
+            if (room.host != null) {
+                rooms.put(room.number, room);
+            } else {
+                spectators.close(room.number);
+            }
+        }
+    }
+
+    /**
+     * Play a record of the log on a rebuilt room, the same way as when it was logged
+     */
+    private void restore(Room room, String record, long now) {
+        String[] parts = record.split(" ", 3);
+        switch (parts[0]) {
+            case "Host":
+            case "Guest": {
+                Seat seat = new Seat(parts[1], room);
+                //等待玩家恢复会话，从现在开始计算放弃时间
+                seat.detached = now;
+                seats.put(seat.token, seat);
+                if (parts[0].equals("Host")) {
+                    room.host = seat;
+                } else {
+                    room.guest = seat;
+                }
+                break;
+            }
+            case "*": {
+                String message = record.substring(2);
+                for (Seat seat : new Seat[]{room.host, room.guest}) {
+                    if (seat != null) {
+                        seat.journal.append(message);
+                    }
+                }
+                spectators.publish(room.number, message);
+                break;
+            }
+            case "H":
+            case "G": {
+                if (parts.length < 3) {
+                    break;
+                }
+                Seat from = parts[0].equals("H") ? room.host : room.guest;
+                Seat to = from == room.host ? room.guest : room.host;
+                if (from != null) {
+                    from.received = Long.parseLong(parts[1]);
+                }
+                if (to != null) {
+                    to.journal.append(parts[2]);
+                }
+                spectators.publish(room.number, parts[2]);
+                if (isMove(parts[2]) && !room.board.isOver()) {
+                    room.board.move(parts[2]);
+                }
+                break;
+            }
+        }
+    }
+
+    private void removeAbandoned() {
+        long now = System.currentTimeMillis();
+        for (Room room : rooms.values()) {
+            if (room.abandonedSince(now) > ABANDON_TIMEOUT) {
+                remove(room);
+            }
+        }
+    }
+
+    private static void close(Closeable connection) {
+        try {
+            if (connection != null)
+                connection.close();
+        } catch (IOException e) {
+            Metrics.error("room-close", e);
+        }
+    }
+
+    /**
+     * Class {@code Pending}
+     * a connection waiting in the matchmaking queue
+     */
+    private static class Pending {
+        final Closeable connection;
+        final DataOutputStream output;
+        final CompletableFuture<Seat> seat = new CompletableFuture<>();
+
+        Pending(Closeable connection, DataOutputStream output) {
+            this.connection = connection;
+            this.output = output;
+        }
+    }
+
+    /**
+     * Class {@code Room}
+     * a game room with two seats
+     */
+    private static class Room {
+        final String number;
+        Seat host, guest;
+
+        /**
+         * clock of a room paired with a time control, {@code null} if untimed
+         */
+        Clock clock;
+
+        /**
+         * the game played in the room, without an interface
+         */
+        final Board board = new Board(null);
+
+        Room(String number, Board.Adjudicator adjudicator) {
+            this.number = number;
+            board.setAdjudicator(adjudicator);
+        }
+
+        /**
+         * @return how long both of the seats have been disconnected
+         */
+        synchronized long abandonedSince(long now) {
+            long host = this.host == null ? 0 : this.host.detachedSince(now);
+            long guest = this.guest == null ? host : this.guest.detachedSince(now);
+            return Math.min(host, guest);
+        }
+    }
+
+    /**
+     * Class {@code Seat}
+     * a player of a room and the journal of messages sent to it
+     */
+    private static class Seat {
+        final String token;
+        final Room room;
+        final MoveJournal journal = new MoveJournal();
+
+        /**
+         * the last sequence number received from this player
+         */
+        long received;
+
+        /**
+         * smoothed round-trip time of the pings of the server in nanoseconds, {@code -1} if not measured
+         */
+        long rtt = -1;
+
+        Closeable connection;
+        DataOutputStream output;
+        long detached;
+
+        Seat(String token, Room room) {
+            this.token = token;
+            this.room = room;
+            received = 0;
+        }
+
+        void attach(Closeable connection, DataOutputStream output) {
+            Closeable old = this.connection;
+            this.connection = connection;
+            this.output = output;
+            close(old);
+        }
+
+        void detach(Closeable connection) {
+            synchronized (room) {
+                if (this.connection == connection) {
+                    this.connection = null;
+                    output = null;
+                    detached = System.currentTimeMillis();
+                }
+            }
+            close(connection);
+        }
+
+        long detachedSince(long now) {
+            return connection != null ? 0 : now - detached;
+        }
+
+        /**
+         * Write a frame if the player is connected,
+         * a failed frame is still in the journal and will be sent after resuming
+         */
+        void write(String frame) {
+            if (output == null) {
+                return;
+            }
+            try {
+                output.writeUTF(frame);
+            } catch (IOException e) {
+                detach(connection);
+            }
+        }
+    }
+
+    /**
+     * usage: {@code RoomServer [port]}, the rooms are logged in the directory given by {@code -Dchess.server.log},
+     * the games are adjudicated by the tablebase in the directory given by {@code -Dchess.server.tablebase}
+     */
+    public static void main(String[] args) throws IOException {
+        RoomServer server = new RoomServer(args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT);
+        String logPath = System.getProperty("chess.server.log");
+        if (logPath != null) {
+            server.setMoveLog(new MoveLog(new File(logPath)));
+        }
+        String tablebasePath = System.getProperty("chess.server.tablebase");
+        if (tablebasePath != null) {
+            server.setAdjudicator(new Tablebase(new File(tablebasePath).toPath()));
+        }
+        server.start();
+        System.out.println("Room server started on port " + server.port);
+        Metrics.serve();
+        while (true) {
+            try {
+                Thread.sleep(Long.MAX_VALUE);
+            } catch (InterruptedException e) {
+                server.stop();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package socket;
+
+import game.Board;
+import game.BoardStore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class {@code SessionManager}
+ * The games of a server, each with its own {@code Board} without an interface.
+ * The games are spread over a fixed number of shards, each a single thread,
+ * and every game has a mailbox of the moves sent to it.
+ * The moves of a game are applied one by one on the thread of its shard,
+ * so a {@code Board} is only touched by one thread and needs no lock,
+ * while the games of different shards go on at the same time.
+ * A shard drains a few moves of a game and goes on with the next game,
+ * so a busy game does not keep the others of its shard waiting.
+ * <p>
+ * Every shard keeps its boards in its own {@code BoardStore},
+ * the games not played for a while are packed outside the heap,
+ * so many idle games take little memory.
+ * <p>
+ * With a {@code MoveLog} the legal moves and the end of every game are logged.
+ * The moves drained together are forced to the disk once, then the listener is told about them,
+ * so a move is never announced before it is durable.
+ * The games not finished when the server stopped are given back by {@code restore}.
+ *
+ * @see Board
+ * @see BoardStore
+ * @see MoveLog
+ * @see RoomServer
+ */
+
+public class SessionManager implements Closeable {
+
+    /**
+     * moves of a game applied before the shard goes on with the next game
+     */
+    public static final int BATCH = 16;
+
+    /**
+     * boards of a shard kept unpacked
+     */
+    public static final int DEFAULT_HOT = 1024;
+
+    private static final int CLOSED = -2;
+
+    /**
+     * Interface {@code Listener}
+     * called on the thread of the shard of the game
+     */
+    public interface Listener {
+        /**
+         * @param session the game, its board can be read here, it is already after all the moves drained with this one
+         * @param message the move, like {@code "64+44"}
+         * @param legal   whether or not the move was applied, the move capturing a king ends the game
+         */
+        void moved(Session session, String message, boolean legal);
+    }
+
+    /**
+     * Class {@code Session}
+     * a game and its mailbox
+     */
+    public static class Session {
+        private final String id;
+        private final Shard shard;
+
+        /**
+         * handle of the board in the store of the shard, {@code -1} before the first move, {@code CLOSED} after close
+         */
+        private int handle = -1;
+        private final ConcurrentLinkedQueue<String> mailbox = new ConcurrentLinkedQueue<>();
+
+        /**
+         * whether or not the mailbox is being drained or waits for its shard
+         */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile int moves;
+
+        private Session(String id, Shard shard) {
+            this.id = id;
+            this.shard = shard;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return the board, only to be used on the thread of the shard, in the listener,
+         * {@code null} after the game is closed
+         */
+        public Board getBoard() {
+            if (handle == CLOSED) {
+                return null;
+            }
+            if (handle == -1) {
+                handle = shard.store.add(new Board(null));
+            }
+            return shard.store.get(handle);
+        }
+
+        /**
+         * @return number of legal moves applied, it can be read from any thread
+         */
+        public int getMoves() {
+            return moves;
+        }
+    }
+
+    /**
+     * Class {@code Shard}
+     * a thread and the boards of its games
+     */
+    private static class Shard {
+        private final ExecutorService executor;
+        private final BoardStore store;
+
+        /**
+         * the batch being drained, only touched by the thread of the shard
+         */
+        private final String[] messages = new String[BATCH];
+        private final boolean[] legal = new boolean[BATCH];
+
+        private Shard(ExecutorService executor, BoardStore store) {
+            this.executor = executor;
+            this.store = store;
+        }
+    }
+
+    private final Shard[] shards;
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final Listener listener;
+    private final MoveLog log;
+
+    /**
+     * @param shards   number of threads, the number of cores to use them all
+     * @param listener told about every move, may be {@code null}
+     */
+    public SessionManager(int shards, Listener listener) {
+        this(shards, DEFAULT_HOT, listener);
+    }
+
+    /**
+     * @param shards   number of threads, the number of cores to use them all
+     * @param hot      boards of a shard kept unpacked
+     * @param listener told about every move, may be {@code null}
+     */
+    public SessionManager(int shards, int hot, Listener listener) {
+        this(shards, hot, listener, null);
+    }
+
+    /**
+     * @param shards   number of threads, the number of cores to use them all
+     * @param hot      boards of a shard kept unpacked
+     * @param listener told about every move, may be {@code null}
+     * @param log      log of the moves, may be {@code null}, it is not closed with the manager
+     */
+    public SessionManager(int shards, int hot, Listener listener, MoveLog log) {
+        this.shards = new Shard[Math.max(shards, 1)];
+        for (int i = 0; i < this.shards.length; i++) {
+            String name = "session-" + i;
+            this.shards[i] = new Shard(Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }), new BoardStore(hot));
+        }
+        this.listener = listener;
+        this.log = log;
+    }
+
+    /**
+     * Start a game, or find it if it is already started.
+     * The games are given to the shards in turn
+     *
+     * @param id id of the game, for example the room number
+     */
+    public Session open(String id) {
+        return sessions.computeIfAbsent(id, key ->
+                new Session(key, shards[Math.floorMod(next.getAndIncrement(), shards.length)]));
+    }
+
+    /**
+     * Start a game from a board, for example one replayed by {@code MoveLog},
+     * before any move is sent to it
+     *
+     * @param id    id of the game
+     * @param board the board without an interface
+     */
+    public Session restore(String id, Board board) {
+        Session session = open(id);
+        session.shard.executor.execute(() -> {
+            if (session.handle == -1) {
+                session.handle = session.shard.store.add(board);
+            }
+        });
+        return session;
+    }
+
+    /**
+     * @return the game, {@code null} if it is not started
+     */
+    public Session get(String id) {
+        return sessions.get(id);
+    }
+
+    /**
+     * Forget a game, the moves still in its mailbox are applied
+     */
+    public void close(String id) {
+        Session session = sessions.remove(id);
+        if (session != null) {
+            session.shard.executor.execute(() -> {
+                if (session.handle >= 0) {
+                    session.shard.store.remove(session.handle);
+                    if (log != null) {
+                        log.end(id);
+                    }
+                }
+                session.handle = CLOSED;
+            });
+        }
+    }
+
+    public int getSessions() {
+        return sessions.size();
+    }
+
+    /**
+     * Send a move to a game, it returns at once and the move is applied on the shard of the game
+     *
+     * @param id      id of the game
+     * @param message the move, like {@code "64+44"}, with the promotion like {@code "61+60q"}
+     * @return {@code false} if the game is not started
+     */
+    public boolean move(String id, String message) {
+        Session session = sessions.get(id);
+        if (session == null) {
+            return false;
+        }
+        session.mailbox.add(message);
+        schedule(session);
+        return true;
+    }
+
+    private void schedule(Session session) {
+        if (session.scheduled.compareAndSet(false, true)) {
+            session.shard.executor.execute(() -> drain(session));
+        }
+    }
+
+    private void drain(Session session) {
+        Shard shard = session.shard;
+        try {
+            int count = 0;
+            long last = 0;
+            String message;
+            while (count < BATCH && (message = session.mailbox.poll()) != null) {
+                boolean legal;
+                try {
+                    legal = apply(session, message);
+                } catch (RuntimeException e) {
+                    //走子规则出错时这一步无效，游戏继续
+                    legal = false;
+                }
+                if (legal && log != null) {
+                    last = log.append(session.id, message);
+                }
+                shard.messages[count] = message;
+                shard.legal[count] = legal;
+                count++;
+            }
+            //整批只刷一次盘，落盘之后才通知
+            if (last > 0) {
+                try {
+                    log.sync(last);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                if (listener != null) {
+                    listener.moved(session, shard.messages[i], shard.legal[i]);
+                }
+                shard.messages[i] = null;
+            }
+        } finally {
+            session.scheduled.set(false);
+            //检查期间到达的走子
+            if (!session.mailbox.isEmpty()) {
+                schedule(session);
+            }
+        }
+    }
+
+    /**
+     * @return whether or not the move was legal
+     */
+    private static boolean apply(Session session, String message) {
+        if (session.handle == CLOSED) {
+            return false;
+        }
+        if (session.getBoard().move(message)) {
+            session.moves++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Stop the shards after the moves already sent are applied
+     *
+     * @param timeout milliseconds to wait
+     * @return whether or not all the moves were applied
+     */
+    public boolean shutdown(long timeout) throws InterruptedException {
+        for (Shard shard : shards) {
+            shard.executor.shutdown();
+        }
+        long deadline = System.nanoTime() + timeout * 1000000;
+        for (Shard shard : shards) {
+            if (!shard.executor.awaitTermination(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        for (Shard shard : shards) {
+            shard.executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,434 @@
+package socket;
+
+import game.Board;
+import game.Fen;
+import metrics.Metrics;
+
+import javax.net.ssl.SSLEngineResult;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Class {@code SpectatorChannel}
+ * Broadcast the moves of the rooms to their spectators.
+ * Every message is serialized only once into a shared direct buffer
+ * and all the spectators of the room write a view of the same buffer.
+ * One selector thread serves the spectators of all the rooms
+ * with non-blocking writes, so spectators never load the players' connections.
+ * <p>
+ * A spectator that can not keep up, more than {@code QUEUE_LIMIT} frames behind,
+ * has its pending frames dropped and receives the snapshot and the tail again.
+ * New spectators join from the last snapshot plus the frames after it.
+ * The snapshot is a FEN, sent by the players or taken from the board the channel keeps of every room,
+ * the channel takes a new one whenever the tail is full, so the snapshot and the tail always join up.
+ * <p>
+ * Over TLS the plain frames are still shared and every spectator encrypts them
+ * into its own pooled direct buffer. Spectators that negotiated {@code Compression}
+ * receive the snapshots compressed, compressed once per snapshot.
+ * <p>
+ * Frames, the same {@code writeUTF} strings as {@code MSocket}:
+ * <pre>
+ * S [seq] [fen]       snapshot of the board after the frame seq
+ * Z [seq] [data]      the same, compressed
+ * M [seq] [message]   one move, or another message of the room like {@code Flag white}
+ * </pre>
+ *
+ * @see RoomServer
+ */
+
+public class SpectatorChannel {
+
+    /**
+     * frames a spectator may be behind before being resynchronized
+     */
+    public static final int QUEUE_LIMIT = 64;
+
+    /**
+     * frames kept after the last snapshot
+     */
+    public static final int TAIL_LIMIT = MoveJournal.DEFAULT_CAPACITY;
+
+    private final Selector selector;
+    private volatile boolean running;
+
+    /**
+     * tasks to run on the selector thread,
+     * all the state below is only touched by that thread
+     */
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final HashMap<String, Feed> feeds = new HashMap<>();
+
+    private volatile int spectators;
+    private volatile long resyncs;
+
+    public SpectatorChannel() throws IOException {
+        selector = Selector.open();
+        running = true;
+        Thread thread = new Thread(this::loop, "spectator-channel");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Open the feed of a new room, the frames of a room not open or already closed are ignored
+     *
+     * @param room room number
+     */
+    public void open(String room) {
+        execute(() -> feeds.putIfAbsent(room, new Feed()));
+    }
+
+    /**
+     * Add a spectator to a room, it will first receive the snapshot and the tail,
+     * the spectator of a room already closed is disconnected
+     *
+     * @param room       room number
+     * @param connection connection of the spectator, already greeted, plain or TLS
+     * @param compress   whether or not to compress the snapshots
+     */
+    public void subscribe(String room, NioConnection connection, boolean compress) {
+        execute(() -> {
+            Feed feed = feeds.get(room);
+            if (feed == null) {
+                connection.close();
+                return;
+            }
+            Subscriber subscriber = new Subscriber(connection, compress, feed);
+            try {
+                subscriber.key = subscriber.channel.register(selector, SelectionKey.OP_READ, subscriber);
+            } catch (IOException e) {
+                Metrics.error("spectator-register", e);
+                subscriber.close();
+                return;
+            }
+            subscriber.feed.subscribers.add(subscriber);
+            spectators++;
+            subscriber.resync();
+            subscriber.flush();
+        });
+    }
+
+    /**
+     * Broadcast a message of a room, a move is also played on the board of the room
+     *
+     * @param room    room number
+     * @param message the move or another message
+     */
+    public void publish(String room, String message) {
+        execute(() -> {
+            Feed feed = feeds.get(room);
+            if (feed == null) {
+                return;
+            }
+            feed.sequence++;
+            ByteBuffer frame = encode("M " + feed.sequence + " " + message);
+            //其他消息不是着法，棋盘不接受
+            feed.board.move(message);
+            if (feed.tail.size() >= TAIL_LIMIT) {
+                //尾部满了，从棋盘重新生成快照，这一帧已包含在快照里
+                feed.take(feed.board.toFen(feed.fen).toString(), null);
+            } else {
+                feed.tail.add(frame);
+            }
+            for (Subscriber subscriber : new ArrayList<>(feed.subscribers)) {
+                subscriber.offer(frame);
+                subscriber.flush();
+            }
+        });
+    }
+
+    /**
+     * Replace the snapshot of a room and its board,
+     * the position is taken as the one after all the published frames.
+     * A position that is not a valid FEN is ignored.
+     *
+     * @param room       room number
+     * @param fen        the board, as a FEN
+     * @param compressed the FEN compressed by the player, {@code null} if not compressed
+     */
+    public void snapshot(String room, String fen, String compressed) {
+        execute(() -> {
+            Feed feed = feeds.get(room);
+            if (feed == null) {
+                return;
+            }
+            try {
+                feed.fen.parse(fen);
+            } catch (IllegalArgumentException e) {
+                return;
+            }
+            feed.board.setFen(feed.fen);
+            feed.take(fen, compressed);
+        });
+    }
+
+    /**
+     * The room is closed, spectators are disconnected after their pending frames
+     *
+     * @param room room number
+     */
+    public void close(String room) {
+        execute(() -> {
+            Feed feed = feeds.remove(room);
+            if (feed == null) {
+                return;
+            }
+            feed.closed = true;
+            for (Subscriber subscriber : new ArrayList<>(feed.subscribers)) {
+                subscriber.flush();
+            }
+        });
+    }
+
+    public void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    public int getSpectators() {
+        return spectators;
+    }
+
+    public long getResyncs() {
+        return resyncs;
+    }
+
+    private void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    private void loop() {
+        ByteBuffer discard = ByteBuffer.allocate(256);
+        while (running) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                Metrics.error("spectator-select", e);
+                return;
+            }
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Subscriber subscriber = (Subscriber) key.attachment();
+                if (!key.isValid()) {
+                    subscriber.close();
+                    continue;
+                }
+                if (key.isReadable()) {
+                    //观众不发送消息，只检测断开
+                    try {
+                        discard.clear();
+                        if (subscriber.channel.read(discard) < 0) {
+                            subscriber.close();
+                            continue;
+                        }
+                    } catch (IOException e) {
+                        subscriber.close();
+                        continue;
+                    }
+                }
+                if (key.isValid() && key.isWritable()) {
+                    subscriber.flush();
+                }
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            ((Subscriber) key.attachment()).close();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            Metrics.error("spectator-close", e);
+        }
+    }
+
+    /**
+     * Serialize a frame the same way as {@code DataOutputStream.writeUTF}
+     *
+     * @param frame the frame
+     * @return read-only direct buffer shared by all the spectators
+     */
+    static ByteBuffer encode(String frame) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(frame.length() + 2);
+        try {
+            new DataOutputStream(bytes).writeUTF(frame);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.size());
+        buffer.put(bytes.toByteArray());
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Class {@code Feed}
+     * the broadcast state of one room
+     */
+    private static class Feed {
+        int sequence = 0;
+        int snapshotSequence = 0;
+
+        /**
+         * the position after all the published moves, a FEN is read and written by {@code fen}
+         */
+        final Board board = new Board(null);
+        final Fen fen = new Fen();
+
+        /**
+         * FEN of the snapshot, {@code null} before the first one
+         */
+        String text;
+        ByteBuffer snapshot, compressed;
+        final ArrayList<ByteBuffer> tail = new ArrayList<>();
+        final ArrayList<Subscriber> subscribers = new ArrayList<>();
+        boolean closed = false;
+
+        /**
+         * Take a snapshot after the last published frame, the tail is emptied
+         *
+         * @param text       the FEN
+         * @param compressed the FEN already compressed, {@code null} to compress it when needed
+         */
+        void take(String text, String compressed) {
+            this.text = text;
+            snapshotSequence = sequence;
+            snapshot = encode("S " + sequence + " " + text);
+            this.compressed = compressed == null ? null : encode("Z " + sequence + " " + compressed);
+            tail.clear();
+        }
+    }
+
+    /**
+     * Class {@code Subscriber}
+     * a spectator and the frames not yet written to it
+     */
+    private class Subscriber {
+        final NioConnection connection;
+        final SocketChannel channel;
+        final TlsChannel tls;
+        final boolean compress;
+        final Feed feed;
+        final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+        SelectionKey key;
+
+        /**
+         * encrypted bytes not yet written, in read mode
+         */
+        ByteBuffer netOut;
+
+        Subscriber(NioConnection connection, boolean compress, Feed feed) {
+            this.connection = connection;
+            channel = connection.getChannel();
+            tls = connection instanceof TlsChannel ? (TlsChannel) connection : null;
+            this.compress = compress;
+            this.feed = feed;
+            if (tls != null) {
+                netOut = TlsChannel.POOL.acquire();
+                netOut.flip();
+            }
+        }
+
+        void offer(ByteBuffer frame) {
+            if (queue.size() >= QUEUE_LIMIT) {
+                //太慢了，丢弃积压的消息，重新发送快照
+                ByteBuffer head = queue.peekFirst();
+                queue.clear();
+                if (head.position() > 0) {
+                    queue.add(head);
+                }
+                resyncs++;
+                resync();
+                return;
+            }
+            queue.add(frame.duplicate());
+        }
+
+        void resync() {
+            if (compress && feed.compressed == null && feed.text != null) {
+                feed.compressed = encode("Z " + feed.snapshotSequence + " " + Compression.compress(feed.text));
+            }
+            ByteBuffer snapshot = compress ? feed.compressed : feed.snapshot;
+            if (snapshot != null) {
+                queue.add(snapshot.duplicate());
+            }
+            for (ByteBuffer frame : feed.tail) {
+                queue.add(frame.duplicate());
+            }
+        }
+
+        void flush() {
+            try {
+                while (true) {
+                    if (tls != null && netOut.hasRemaining()) {
+                        channel.write(netOut);
+                        if (netOut.hasRemaining()) {
+                            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                            return;
+                        }
+                    }
+                    if (queue.isEmpty()) {
+                        break;
+                    }
+                    ByteBuffer head = queue.peekFirst();
+                    if (tls != null) {
+                        netOut.clear();
+                        SSLEngineResult result = tls.getEngine().wrap(head, netOut);
+                        netOut.flip();
+                        //引擎已关闭或缓冲区不够，再试也不会前进
+                        if (result.getStatus() != SSLEngineResult.Status.OK) {
+                            close();
+                            return;
+                        }
+                    } else {
+                        channel.write(head);
+                        if (head.hasRemaining()) {
+                            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                            return;
+                        }
+                    }
+                    if (!head.hasRemaining()) {
+                        queue.pollFirst();
+                    }
+                }
+                if (feed.closed) {
+                    close();
+                    return;
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void close() {
+            if (feed.subscribers.remove(this)) {
+                spectators--;
+            }
+            if (key != null) {
+                key.cancel();
+            }
+            connection.close();
+            if (tls != null) {
+                TlsChannel.POOL.release(netOut);
+                netOut = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package socket;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.SocketChannel;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+/**
+ * Class {@code Tls}
+ * Configuration of the TLS connections between {@code MSocket} and {@code RoomServer}.
+ * TLS is turned on by {@code -Dchess.tls=true} on both sides:
+ * <pre>
+ * -Dchess.tls.keystore     key store with the key and certificate of the room server
+ * -Dchess.tls.truststore   trusted certificates of a client, the key store by default
+ * -Dchess.tls.password     password of both stores
+ * </pre>
+ * A self-signed certificate is enough for a private server, for example
+ * {@code keytool -genkeypair -keyalg EC -alias chess -keystore chess.jks -dname CN=chess -ext SAN=dns:chess.example.org},
+ * the same file is given to the server and to the players.
+ * The client checks that the certificate is issued for the host it connects to,
+ * like HTTPS does, so the certificate must name the host or the address of the server.
+ *
+ * @see TlsChannel
+ */
+
+public class Tls {
+
+    private static SSLContext context;
+
+    public static boolean isEnabled() {
+        return Boolean.getBoolean("chess.tls");
+    }
+
+    /**
+     * @return the context built from the stores, the default trust if no store is given
+     * @throws IOException if a store can not be loaded
+     */
+    public static synchronized SSLContext getContext() throws IOException {
+        if (context != null) {
+            return context;
+        }
+        char[] password = System.getProperty("chess.tls.password", "changeit").toCharArray();
+        String keyStore = System.getProperty("chess.tls.keystore");
+        String trustStore = System.getProperty("chess.tls.truststore", keyStore);
+        try {
+            KeyManagerFactory keys = null;
+            if (keyStore != null) {
+                keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+                keys.init(load(keyStore, password), password);
+            }
+            TrustManagerFactory trust = null;
+            if (trustStore != null) {
+                trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+                trust.init(load(trustStore, password));
+            }
+            SSLContext result = SSLContext.getInstance("TLS");
+            result.init(keys == null ? null : keys.getKeyManagers(), trust == null ? null : trust.getTrustManagers(), null);
+            context = result;
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Can not load the TLS stores", e);
+        }
+    }
+
+    private static KeyStore load(String path, char[] password) throws IOException, GeneralSecurityException {
+        KeyStore store = KeyStore.getInstance(KeyStore.getDefaultType());
+        try (InputStream input = new FileInputStream(path)) {
+            store.load(input, password);
+        }
+        return store;
+    }
+
+    /**
+     * Start TLS as a client on a connected channel,
+     * the certificate of the server must be trusted and issued for the host
+     *
+     * @param host    name or address of the server, as it was connected to
+     * @param port    port of the server
+     * @param timeout milliseconds to wait for the handshake
+     */
+    public static TlsChannel client(SocketChannel channel, String host, int port, int timeout) throws IOException {
+        SSLEngine engine = getContext().createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        engine.setSSLParameters(parameters);
+        return new TlsChannel(channel, engine, timeout);
+    }
+
+    /**
+     * Start TLS as the server on an accepted channel
+     *
+     * @param timeout milliseconds to wait for the handshake
+     */
+    public static TlsChannel server(SocketChannel channel, int timeout) throws IOException {
+        SSLEngine engine = getContext().createSSLEngine();
+        engine.setUseClientMode(false);
+        return new TlsChannel(channel, engine, timeout);
+    }
+}
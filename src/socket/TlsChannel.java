@@ -0,0 +1,211 @@
+package socket;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Class {@code TlsChannel}
+ * TLS over a {@code SocketChannel} with an {@code SSLEngine}.
+ * The encrypted data is read and written directly between the socket
+ * and pooled direct buffers, only the plain data is copied once
+ * to the streams used by {@code DataInputStream} and {@code DataOutputStream}.
+ * Reading and writing can still be done at the same time by two threads.
+ *
+ * @see Tls
+ * @see BufferPool
+ */
+
+public class TlsChannel extends NioConnection {
+
+    /**
+     * buffers shared by all the TLS connections,
+     * large enough for a TLS record and its plain data
+     */
+    static final BufferPool POOL = new BufferPool(32 * 1024, 256);
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SSLEngine engine;
+
+    /**
+     * netIn and appIn are in write mode, netOut is in read mode
+     */
+    private ByteBuffer netIn, appIn, netOut;
+
+    /**
+     * Wrap a connected channel and do the handshake
+     *
+     * @param channel connected channel
+     * @param engine  engine in client or server mode
+     * @param timeout milliseconds to wait for the handshake, {@code 0} to wait forever
+     * @throws IOException if the handshake fails
+     */
+    public TlsChannel(SocketChannel channel, SSLEngine engine, int timeout) throws IOException {
+        super(channel);
+        this.engine = engine;
+        netIn = POOL.acquire();
+        appIn = POOL.acquire();
+        netOut = POOL.acquire();
+        netOut.flip();
+        try {
+            readTimeout = timeout;
+            handshake();
+            readTimeout = 0;
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void handshake() throws IOException {
+        engine.beginHandshake();
+        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        while (status != SSLEngineResult.HandshakeStatus.FINISHED
+                && status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+            switch (status) {
+                case NEED_TASK:
+                    runTasks();
+                    status = engine.getHandshakeStatus();
+                    break;
+                case NEED_WRAP:
+                    synchronized (writeLock) {
+                        status = wrap(EMPTY).getHandshakeStatus();
+                    }
+                    break;
+                case NEED_UNWRAP:
+                    netIn.flip();
+                    SSLEngineResult result = engine.unwrap(netIn, appIn);
+                    netIn.compact();
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                        fill(netIn);
+                    } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new EOFException("TLS closed during handshake");
+                    }
+                    status = result.getHandshakeStatus();
+                    break;
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * Encrypt plain data and write it to the network, the caller holds {@code writeLock}
+     */
+    private SSLEngineResult wrap(ByteBuffer source) throws IOException {
+        SSLEngineResult result;
+        do {
+            netOut.clear();
+            result = engine.wrap(source, netOut);
+            netOut.flip();
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new ClosedChannelException();
+            }
+            drain(netOut);
+        } while (source.hasRemaining());
+        return result;
+    }
+
+    @Override
+    protected int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        synchronized (readLock) {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            while (appIn.position() == 0) {
+                netIn.flip();
+                SSLEngineResult result = engine.unwrap(netIn, appIn);
+                netIn.compact();
+                switch (result.getStatus()) {
+                    case BUFFER_UNDERFLOW:
+                        try {
+                            fill(netIn);
+                        } catch (EOFException e) {
+                            return -1;
+                        }
+                        break;
+                    case CLOSED:
+                        return -1;
+                    case BUFFER_OVERFLOW:
+                        throw new SSLException("TLS record larger than the buffer");
+                    default:
+                        break;
+                }
+                if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    runTasks();
+                }
+                if (engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    synchronized (writeLock) {
+                        wrap(EMPTY);
+                    }
+                }
+            }
+            appIn.flip();
+            int count = Math.min(len, appIn.remaining());
+            appIn.get(b, off, count);
+            appIn.compact();
+            return count;
+        }
+    }
+
+    @Override
+    protected void write(byte[] b, int off, int len) throws IOException {
+        synchronized (writeLock) {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            wrap(ByteBuffer.wrap(b, off, len));
+        }
+    }
+
+    public SSLEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Send close_notify if it can be sent at once, and close the connection
+     */
+    @Override
+    public void close() {
+        synchronized (writeLock) {
+            if (closed || netOut == null) {
+                return;
+            }
+            engine.closeOutbound();
+            try {
+                netOut.clear();
+                engine.wrap(EMPTY, netOut);
+                netOut.flip();
+                channel.write(netOut);
+            } catch (IOException e) {
+                //对方已断开
+            }
+        }
+        super.close();
+        synchronized (writeLock) {
+            POOL.release(netOut);
+            netOut = null;
+        }
+    }
+
+    @Override
+    protected void released() {
+        POOL.release(netIn);
+        POOL.release(appIn);
+        netIn = appIn = null;
+    }
+}